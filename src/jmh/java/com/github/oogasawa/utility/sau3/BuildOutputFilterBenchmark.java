@@ -0,0 +1,97 @@
+package com.github.oogasawa.utility.sau3;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks the per-line filter applied to {@code yarn run build} output.
+ *
+ * <p>The input mimics a Docusaurus build log: mostly progress lines, a few warnings and URLs,
+ * and one "Update available" notice framed by rules of dashes.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BuildOutputFilterBenchmark {
+
+    List<String> lines = new ArrayList<>();
+
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < 1000; i++) {
+            switch (i % 50) {
+            case 10 -> this.lines.add("[WARNING] Docs markdown link couldn't be resolved: (../page-" + i + ".md)");
+            case 20 -> this.lines.add("[SUCCESS] Generated static files in \"build\".");
+            case 30 -> this.lines.add("-".repeat(72));
+            case 31 -> this.lines.add("                 Update available 3.1.0 → 3.5.2");
+            case 32 -> this.lines.add("-".repeat(72));
+            case 40 -> this.lines.add("[INFO] Use `npm run serve` to test your build locally: http://localhost:3000/");
+            default -> this.lines.add("● Server ██████████████████████ building (" + (i % 100) + "%) 1/2 entries "
+                                      + i + "/1500 dependencies node_modules/@docusaurus/core/lib/client");
+            }
+        }
+    }
+
+
+    /** The complete decision made for each line by the build output filters. */
+    @Benchmark
+    public int filter() {
+        int shown = 0;
+        boolean insideImportantBlock = false;
+        for (String line : this.lines) {
+            if (DocusaurusProcessor.isDashRule(line) || DocusaurusProcessor.isUpdateNotice(line)) {
+                insideImportantBlock = true;
+                shown++;
+            } else if (insideImportantBlock) {
+                shown++;
+                if (DocusaurusProcessor.isDashRule(line)) {
+                    insideImportantBlock = false;
+                }
+            } else if (DocusaurusProcessor.shouldDisplayLine(line)) {
+                shown++;
+            }
+        }
+        return shown;
+    }
+
+
+    @Benchmark
+    public int shouldDisplayLine() {
+        int shown = 0;
+        for (String line : this.lines) {
+            if (DocusaurusProcessor.shouldDisplayLine(line)) {
+                shown++;
+            }
+        }
+        return shown;
+    }
+
+
+    @Benchmark
+    public int isDashRule() {
+        int rules = 0;
+        for (String line : this.lines) {
+            if (DocusaurusProcessor.isDashRule(line)) {
+                rules++;
+            }
+        }
+        return rules;
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.github.oogasawa.utility.sau3.ex;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks {@link CodeExtractor#parseMarkdownRefactored(Path)} on a long tutorial page
+ * with many named code blocks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CodeExtractorBenchmark {
+
+    Path markdown;
+
+
+    @Setup
+    public void setup() throws IOException {
+        StringBuilder md = new StringBuilder("# Tutorial\n\n");
+        for (int i = 0; i < 200; i++) {
+            md.append("## Step ").append(i).append("\n\n");
+            md.append("Run the following script and check the result.\n\n");
+            md.append("<!-- ex:name step").append(i).append(".sh, step").append(i).append(".out -->\n");
+            md.append("```bash\n");
+            for (int j = 0; j < 10; j++) {
+                md.append("echo \"line ").append(j).append(" of step ").append(i).append("\"\n");
+            }
+            md.append("```\n\n");
+            md.append("```\nunnamed output block\n```\n\n");
+        }
+        this.markdown = Files.createTempFile("code-extractor-bench", ".md");
+        Files.writeString(this.markdown, md);
+    }
+
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.markdown);
+    }
+
+
+    @Benchmark
+    public CodeExtractor parseMarkdownRefactored() throws IOException {
+        CodeExtractor extractor = new CodeExtractor();
+        extractor.parseMarkdownRefactored(this.markdown);
+        return extractor;
+    }
+
+}
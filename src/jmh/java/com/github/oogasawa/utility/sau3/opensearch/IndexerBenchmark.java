@@ -0,0 +1,166 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.HttpHost;
+import org.jsoup.Jsoup;
+import org.opensearch.action.index.IndexRequest;
+import org.opensearch.common.xcontent.XContentType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Benchmarks of the indexing hot paths: sitemap parsing, page text extraction, document
+ * serialization and document ids.
+ *
+ * <p>Pages and sitemaps come from {@link SyntheticSite}, so results are reproducible.</p>
+ *
+ * <p>
+ * {@code serializeLegacy} keeps the per-document path used before {@link BulkWriter}
+ * (map, new ObjectMapper, JSON string, IndexRequest source, String.format ids) as the baseline;
+ * compare its {@code gc.alloc.rate.norm} with that of {@code serializeBulk}.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class IndexerBenchmark {
+
+    @Param({"10000"})
+    int sitemapEntries;
+
+    byte[] sitemap;
+    String page;
+    List<String> urls = new ArrayList<>();
+
+    Indexer.Page extracted;
+    Indexer bulkIndexer;
+    BulkWriter bulk;
+
+    static final String URL = "http://localhost/~user/doc_Bench001/docs/section-1/page-1";
+    static final String SITE = "http://localhost/~user/doc_Bench001/";
+    static final String LASTMOD = "2024-06-01T00:00:00+09:00";
+
+
+    @Setup
+    public void setup() {
+        SyntheticSite site = new SyntheticSite(this.sitemapEntries, 0, 42L);
+        this.sitemap = site.sitemap("http://localhost/~user/doc_Bench001").getBytes(StandardCharsets.UTF_8);
+        this.page = SyntheticSite.page(1, 40, new Random(42L));
+        for (String path : site.getPages().keySet()) {
+            this.urls.add("http://localhost/~user/doc_Bench001" + path);
+        }
+
+        this.extracted = Indexer.extractPage(Jsoup.parse(this.page), URL);
+        // Nothing is sent: the buffer is emptied after each document.
+        this.bulk = new BulkWriter(new HttpHost("localhost", 9), new IndexMetrics());
+        this.bulk.setMaxDocs(Integer.MAX_VALUE);
+        this.bulk.setMaxBytes(Integer.MAX_VALUE);
+        this.bulkIndexer = new Indexer();
+        this.bulkIndexer.setBulkWriter(this.bulk);
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        this.bulk.current.reset();
+        this.bulk.close();
+    }
+
+
+    @Benchmark
+    public Sitemap sitemapParse() {
+        Sitemap sitemap = new Sitemap();
+        sitemap.parse(new ByteArrayInputStream(this.sitemap));
+        return sitemap;
+    }
+
+
+    @Benchmark
+    public Indexer extractText() {
+        Indexer indexer = new Indexer();
+        indexer.extract(Jsoup.parse(this.page), "http://localhost/~user/doc_Bench001/docs/section-1/page-1");
+        return indexer;
+    }
+
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void calculateMD5(Blackhole bh) {
+        for (int i = 0; i < 100; i++) {
+            bh.consume(Indexer.calculateMD5(this.urls.get(i)));
+        }
+    }
+
+
+
+    @Benchmark
+    public IndexRequest serializeLegacy() throws IOException {
+        Indexer.Page page = this.extracted;
+        Map<String, Object> jsonMap = new HashMap<>();
+        jsonMap.put("title", page.title);
+        jsonMap.put("text", page.text);
+        jsonMap.put("url", page.url);
+        jsonMap.put("lastmod", LASTMOD);
+        jsonMap.put("site", SITE);
+        Map<String, Object> suggest = new HashMap<>();
+        suggest.put("input", Indexer.suggestInputs(page.title, page.headings));
+        suggest.put("weight", Indexer.suggestWeight(page.url));
+        jsonMap.put("suggest", suggest);
+        jsonMap.put("summary", page.summary);
+
+        ObjectMapper mapper = new ObjectMapper();
+        String jsonString = mapper.writeValueAsString(jsonMap);
+        return new IndexRequest("bench").source(jsonString, XContentType.JSON).id(legacyMD5(page.url));
+    }
+
+
+    @Benchmark
+    public int serializeBulk() throws IOException {
+        this.bulkIndexer.index(this.extracted, LASTMOD, SITE, "bench");
+        int bytes = this.bulk.current.count;
+        this.bulk.current.reset();
+        return bytes;
+    }
+
+
+    /** The document id as computed before the lookup table. */
+    static String legacyMD5(String input) throws IOException {
+        try {
+            byte[] hashBytes = MessageDigest.getInstance("MD5").digest(input.getBytes());
+            StringBuilder sb = new StringBuilder();
+            for (byte b : hashBytes) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+}
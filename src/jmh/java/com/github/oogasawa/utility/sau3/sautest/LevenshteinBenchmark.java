@@ -0,0 +1,59 @@
+package com.github.oogasawa.utility.sau3.sautest;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks the comparison of script output with its expected output.
+ *
+ * <p>The expected output differs from the actual one in about 2% of the characters,
+ * like a log with timestamps and host names.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class LevenshteinBenchmark {
+
+    @Param({"200", "2000"})
+    int length;
+
+    String actual;
+    String expected;
+
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42L);
+        StringBuilder a = new StringBuilder();
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < this.length; i++) {
+            char c = (char) ('a' + random.nextInt(26));
+            a.append(c);
+            b.append(random.nextInt(50) == 0 ? '#' : c);
+        }
+        this.actual = a.toString();
+        this.expected = b.toString();
+    }
+
+
+    @Benchmark
+    public int levenshteinDistance() {
+        return DocuScriptProcessor.levenshteinDistance(this.actual, this.expected);
+    }
+
+}
@@ -12,12 +12,26 @@ import java.util.Enumeration;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import com.github.oogasawa.utility.sau3.deploy.BaseUrlRelocator;
+import com.github.oogasawa.utility.sau3.deploy.BuildAdmission;
+import com.github.oogasawa.utility.sau3.deploy.BuildFingerprint;
+import com.github.oogasawa.utility.sau3.deploy.DeployManifest;
+import com.github.oogasawa.utility.sau3.deploy.DeployState;
+import com.github.oogasawa.utility.sau3.deploy.InstallMarker;
+import com.github.oogasawa.utility.sau3.deploy.PackageStore;
+import com.github.oogasawa.utility.sau3.deploy.ProjectConsole;
+import com.github.oogasawa.utility.sau3.deploy.Releases;
+import com.github.oogasawa.utility.sau3.deploy.RemoteReleases;
+import com.github.oogasawa.utility.sau3.deploy.RemoteSync;
+import com.github.oogasawa.utility.sau3.deploy.SshSessions;
+import com.github.oogasawa.utility.sau3.deploy.SshShell;
+import com.github.oogasawa.utility.sau3.deploy.StagePipeline;
+import com.github.oogasawa.utility.sau3.staticsearch.StaticSearchIndexBuilder;
 
 /**
  * A utility class for building and deploying Docusaurus documentation projects
@@ -145,8 +159,10 @@ public class DocusaurusProcessor {
      * <li>Executes {@code npx browserslist@latest --update-db} to update browser data.</li>
      * <li>Runs the Docusaurus build process using {@code yarn run build}, with filtered
      * output.</li>
-     * <li>Removes any existing deployment directory at the destination.</li>
-     * <li>Copies the contents of the {@code build} directory to the target deployment path.</li>
+     * <li>Copies the contents of the {@code build} directory into a new release directory
+     * {@code .releases/{projectName}/{timestamp}} next to the deployment path.</li>
+     * <li>Switches the deployment path, a symbolic link, to the new release atomically
+     * (see {@link Releases}).</li>
      * </ul>
      *
      * @param dest the parent directory where the built site should be deployed; if {@code null},
@@ -166,76 +182,173 @@ public class DocusaurusProcessor {
     }
 
     public static void deploy(String dest, String destServer, String destDir, String sourceDir, String baseUrl, String url) {
-        try {
-            // Use sourceDir if specified, otherwise use current directory
-            Path projectDir = sourceDir != null ? Paths.get(sourceDir).toAbsolutePath() : Paths.get("").toAbsolutePath();
-            String projectName = projectDir.getFileName().toString();
+        deploy(dest, destServer, destDir, sourceDir, baseUrl, url, false);
+    }
 
-            // Determine destination directory
-            Path localDestDir = null;
-            if (dest == null) {
-                localDestDir = Paths.get(System.getProperty("user.home"), "public_html", projectName);
-            } else {
-                localDestDir = Paths.get(dest, projectName);
-            }
+    /**
+     * Builds and deploys a Docusaurus project.
+     *
+     * @param staticSearch if {@code true}, a client-side search index is generated into
+     *        {@code build/search-index/} after the build (see {@link StaticSearchIndexBuilder}),
+     *        so that the site can be searched in the browser without OpenSearch.
+     */
+    public static void deploy(String dest, String destServer, String destDir, String sourceDir, String baseUrl, String url,
+                              boolean staticSearch) {
+        deploy(dest, destServer, destDir, sourceDir, baseUrl, url, staticSearch, Releases.DEFAULT_KEEP);
+    }
+
+    /**
+     * Builds and deploys a Docusaurus project.
+     *
+     * @param keepReleases the number of release directories kept at the destination, including
+     *        the new one; older releases are deleted after the switch.
+     */
+    public static void deploy(String dest, String destServer, String destDir, String sourceDir, String baseUrl, String url,
+                              boolean staticSearch, int keepReleases) {
+        try (SshSessions sessions = new SshSessions()) {
+            deploy(dest, destServer, destDir, sourceDir, baseUrl, url, staticSearch, keepReleases, sessions);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to close the SSH connection to " + destServer, e);
+        }
+    }
+
+    /**
+     * Builds and deploys a Docusaurus project.
+     *
+     * @param sessions the SSH connections to reuse; all remote commands of the deploy run over
+     *        one connection to {@code destServer}, which stays open for the next deploy.
+     */
+    public static boolean deploy(String dest, String destServer, String destDir, String sourceDir, String baseUrl, String url,
+                                 boolean staticSearch, int keepReleases, SshSessions sessions) {
+        // Use sourceDir if specified, otherwise use current directory
+        Path projectDir = sourceDir != null ? Paths.get(sourceDir).toAbsolutePath() : Paths.get("").toAbsolutePath();
+        Path buildDir = buildProject(projectDir, dest, destServer, destDir, baseUrl, url, staticSearch, 0);
+        return buildDir != null
+            && shipProject(buildDir, projectDir.getFileName().toString(), dest, destServer, destDir, keepReleases, sessions) != null;
+    }
 
+    /**
+     * Updates the Docusaurus config for the deployment target and builds a project.
+     *
+     * @param nodeHeapMb the V8 heap limit of the build in MB ({@code --max-old-space-size}),
+     *        or 0 to leave it to Node
+     * @return the build directory, or {@code null} if the build failed
+     * @see #deploy(String, String, String, String, String, String, boolean, int, SshSessions)
+     */
+    static Path buildProject(Path projectDir, String dest, String destServer, String destDir, String baseUrl, String url,
+                             boolean staticSearch, int nodeHeapMb) {
+        String projectName = projectDir.getFileName().toString();
+        try {
             System.out.println("Building project: " + projectName + " (source: " + projectDir + ")");
+            configureProject(projectDir, dest, destServer, destDir, baseUrl, url);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to build " + projectName, e);
+            return null;
+        }
+        return compileProject(projectDir, destServer, staticSearch, nodeHeapMb);
+    }
 
-            // Update docusaurus config BEFORE building if destServer or url is specified
-            if (destServer != null || url != null) {
-                String serverUrl;
+    /**
+     * Rewrites the url and baseUrl of the Docusaurus config for the deployment target, if
+     * {@code destServer} or {@code url} is given.
+     *
+     * @return the url, baseUrl and search server written, empty if the config was left as it is
+     */
+    static java.util.Map<String, String> configureProject(Path projectDir, String dest, String destServer, String destDir,
+                                                         String baseUrl, String url) throws IOException {
+        java.util.Map<String, String> target = targetOf(projectDir.getFileName().toString(), dest, destServer, destDir, baseUrl, url);
+        if (!target.isEmpty()) {
+            updateConfig(projectDir, target.get("url"), target.get("baseUrl"), target.get("searchServer"));
+        }
+        return target;
+    }
 
-                // Use provided url if specified, otherwise generate from destServer
-                if (url != null) {
-                    serverUrl = url.endsWith("/") ? url : url + "/";
-                } else if (destServer != null) {
-                    serverUrl = destServer.startsWith("http") ? destServer : "http://" + destServer + "/";
-                } else {
-                    serverUrl = null;
-                }
+    /**
+     * Returns the url, baseUrl and search server of a deployment target, or an empty map if
+     * neither {@code destServer} nor {@code url} is given and the config is used as it is.
+     */
+    static java.util.Map<String, String> targetOf(String projectName, String dest, String destServer, String destDir,
+                                                 String baseUrl, String url) {
+        java.util.Map<String, String> target = new java.util.TreeMap<>();
+        if (destServer != null || url != null) {
+            String serverUrl;
+
+            // Use provided url if specified, otherwise generate from destServer
+            if (url != null) {
+                serverUrl = url.endsWith("/") ? url : url + "/";
+            } else if (destServer != null) {
+                String host = withoutUser(destServer);
+                serverUrl = host.startsWith("http") ? host : "http://" + host + "/";
+            } else {
+                serverUrl = null;
+            }
 
-                String finalBaseUrl;
+            String finalBaseUrl;
 
-                // Use provided baseUrl if specified
-                if (baseUrl != null) {
-                    finalBaseUrl = baseUrl;
+            // Use provided baseUrl if specified
+            if (baseUrl != null) {
+                finalBaseUrl = baseUrl;
+            } else {
+                // Auto-generate baseUrl based on deployment location
+                if ((destDir != null && destDir.contains("public_html")) ||
+                    (dest != null && dest.contains("public_html")) ||
+                    (destDir == null)) {  // If destDir is not specified, assume public_html
+                    finalBaseUrl = "/~" + System.getProperty("user.name") + "/" + projectName + "/";
                 } else {
-                    // Auto-generate baseUrl based on deployment location
-                    if ((destDir != null && destDir.contains("public_html")) ||
-                        (dest != null && dest.contains("public_html")) ||
-                        (destDir == null)) {  // If destDir is not specified, assume public_html
-                        finalBaseUrl = "/~" + System.getProperty("user.name") + "/" + projectName + "/";
-                    } else {
-                        finalBaseUrl = "/";
-                    }
+                    finalBaseUrl = "/";
                 }
+            }
 
-                System.out.println("Updating Docusaurus config BEFORE build: url=" + serverUrl + ", baseUrl=" + finalBaseUrl);
+            // Use destServer as search server (without http:// prefix), or extract from url if destServer is null
+            String searchServer;
+            if (destServer != null) {
+                String host = withoutUser(destServer);
+                searchServer = host.startsWith("http") ?
+                    host.replaceAll("^https?://", "").replaceAll("/$", "") : host;
+            } else if (url != null) {
+                searchServer = url.replaceAll("^https?://", "").replaceAll("/$", "");
+            } else {
+                searchServer = null;
+            }
 
-                // Use destServer as search server (without http:// prefix), or extract from url if destServer is null
-                String searchServer;
-                if (destServer != null) {
-                    searchServer = destServer.startsWith("http") ?
-                        destServer.replaceAll("^https?://", "").replaceAll("/$", "") : destServer;
-                } else if (url != null) {
-                    searchServer = url.replaceAll("^https?://", "").replaceAll("/$", "");
-                } else {
-                    searchServer = null;
-                }
+            target.put("url", serverUrl);
+            target.put("baseUrl", finalBaseUrl);
+            target.put("searchServer", searchServer);
+        }
+        return target;
+    }
 
-                com.github.oogasawa.utility.sau3.configjs.DocusaurusConfigUpdator.update(
-                    serverUrl, finalBaseUrl, projectDir.toFile(), projectName, searchServer);
+    /**
+     * Returns a destination server without its SSH user, e.g. {@code 192.168.12.1} for
+     * {@code web-admin@192.168.12.1}: the user logs in, it is not part of the site address.
+     */
+    static String withoutUser(String destServer) {
+        return destServer.replaceFirst("^((?:https?://)?)[^@/]*@", "$1");
+    }
 
-                // Wait for file system to ensure config file is fully written
-                try {
-                    Thread.sleep(1000); // Wait 1 second for file system sync
-                    System.out.println("DEBUG: Waited for config file sync");
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                }
-            }
+    /** Writes url, baseUrl and search server into the Docusaurus config of a project. */
+    static void updateConfig(Path projectDir, String serverUrl, String baseUrl, String searchServer) throws IOException {
+        System.out.println("Updating Docusaurus config BEFORE build: url=" + serverUrl + ", baseUrl=" + baseUrl);
+        com.github.oogasawa.utility.sau3.configjs.DocusaurusConfigUpdator.update(
+            serverUrl, baseUrl, projectDir.toFile(), projectDir.getFileName().toString(), searchServer);
+
+        // Wait for file system to ensure config file is fully written
+        try {
+            Thread.sleep(1000); // Wait 1 second for file system sync
+            System.out.println("DEBUG: Waited for config file sync");
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-            // Change to the project directory for building
+    /**
+     * Builds a project whose config is prepared, and adds the static search index if requested.
+     *
+     * @return the build directory, or {@code null} if the build failed
+     */
+    static Path compileProject(Path projectDir, String destServer, boolean staticSearch, int nodeHeapMb) {
+        String projectName = projectDir.getFileName().toString();
+        try {
             // Skip build if SKIP_DOCUSAURUS_BUILD environment variable is set (for testing)
             boolean skipBuild = "true".equals(System.getenv("SKIP_DOCUSAURUS_BUILD"));
             Path buildDir = projectDir.resolve("build");
@@ -243,57 +356,80 @@ public class DocusaurusProcessor {
             if (skipBuild && Files.exists(buildDir)) {
                 System.out.println("Skipping Docusaurus build (using existing build directory)");
             } else {
-                try {
-                    // Debug: Verify config file before build
-                    if (destServer != null) {
-                        System.out.println("DEBUG: Verifying config before build...");
-                        Path configFile = projectDir.resolve("docusaurus.config.js");
-                        if (Files.exists(configFile)) {
-                            try {
-                                java.util.List<String> lines = Files.readAllLines(configFile);
-                                for (int i = 0; i < lines.size(); i++) {
-                                    String line = lines.get(i);
-                                    if (line.contains("url:") || line.contains("baseUrl:")) {
-                                        System.out.println("DEBUG: Config line " + (i+1) + ": " + line.trim());
-                                    }
+                // Debug: Verify config file before build
+                if (destServer != null) {
+                    System.out.println("DEBUG: Verifying config before build...");
+                    Path configFile = projectDir.resolve("docusaurus.config.js");
+                    if (Files.exists(configFile)) {
+                        try {
+                            java.util.List<String> lines = Files.readAllLines(configFile);
+                            for (int i = 0; i < lines.size(); i++) {
+                                String line = lines.get(i);
+                                if (line.contains("url:") || line.contains("baseUrl:")) {
+                                    System.out.println("DEBUG: Config line " + (i+1) + ": " + line.trim());
                                 }
-                            } catch (Exception e) {
-                                System.err.println("DEBUG: Failed to read config file: " + e.getMessage());
                             }
+                        } catch (Exception e) {
+                            System.err.println("DEBUG: Failed to read config file: " + e.getMessage());
                         }
                     }
+                }
 
-                    ProcessBuilder browserListBuilder = new ProcessBuilder("npx", "browserslist@latest", "--update-db");
-                    browserListBuilder.directory(projectDir.toFile());
-                    browserListBuilder.inheritIO();
-                    Process browserListProcess = browserListBuilder.start();
-                    browserListProcess.waitFor();
-
-                    // Run yarn build in the project directory
-                    boolean buildSuccess = runCommandInDirectoryWithFilterAndResult(new String[]{"yarn", "run", "build"}, projectDir.toFile());
-                    if (!buildSuccess) {
-                        logger.log(Level.WARNING, "Build failed for project: " + projectName + " - continuing with next project");
-                        return; // Skip deployment for this project
-                    }
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                runCommandInDirectoryWithFilterAndResult(new String[]{"npx", "browserslist@latest", "--update-db"},
+                                                         projectDir.toFile(), java.util.Map.of());
+
+                // Run yarn build in the project directory
+                java.util.Map<String, String> env = new java.util.HashMap<>();
+                if (nodeHeapMb > 0) {
+                    // Hold the build to the heap its admission was based on (see BuildAdmission)
+                    String nodeOptions = System.getenv("NODE_OPTIONS");
+                    env.put("NODE_OPTIONS", (nodeOptions == null ? "" : nodeOptions + " ")
+                            + "--max-old-space-size=" + nodeHeapMb);
+                }
+                boolean buildSuccess = runCommandInDirectoryWithFilterAndResult(new String[]{"yarn", "run", "build"},
+                                                                                projectDir.toFile(), env);
+                if (!buildSuccess) {
+                    logger.log(Level.WARNING, "Build failed for project: " + projectName + " - continuing with next project");
+                    return null; // Skip deployment for this project
                 }
             }
 
+            if (staticSearch && Files.exists(buildDir)) {
+                System.out.println("Generating static search index...");
+                int pages = new StaticSearchIndexBuilder(buildDir).build();
+                System.out.println("Indexed " + pages + " pages into " + buildDir.resolve(StaticSearchIndexBuilder.INDEX_DIR));
+            }
+
+            return Files.exists(buildDir) ? buildDir : null;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to build " + projectName, e);
+            return null;
+        }
+    }
+
+    /**
+     * Deploys a build directory as a new release, locally or on {@code destServer}.
+     *
+     * @return the name of the new release, which is live, or {@code null} if the deploy failed
+     */
+    static String shipProject(Path buildDir, String projectName, String dest, String destServer, String destDir,
+                              int keepReleases, SshSessions sessions) {
+        try {
+            // Determine destination directory
+            Path localDestDir = localSite(dest, projectName);
+
             // Check if deployment should be local or remote
             boolean shouldDeployLocally = (destServer == null) || isLocalAddress(destServer);
 
             if (shouldDeployLocally) {
                 logger.info("DEBUG: Deploying locally (destServer=" + destServer + ")");
-                // Local deployment
-                if (Files.exists(localDestDir)) {
-                    System.out.println("Removing existing: " + localDestDir);
-                    deleteDirectoryRecursively(localDestDir.toFile());
-                }
-
+                // Local deployment: a new release directory, then an atomic switch of the link
                 if (Files.exists(buildDir)) {
-                    System.out.println("Copying to: " + localDestDir);
-                    copyDirectory(buildDir, localDestDir);
+                    Releases releases = new Releases(localDestDir);
+                    System.out.println("Copying to: " + releases.getReleasesDir());
+                    String release = releases.deploy(buildDir, keepReleases);
+                    System.out.println("Release " + release + " is live: " + localDestDir);
+                    return release;
                 } else {
                     System.err.println("Build directory not found: " + buildDir);
                 }
@@ -301,79 +437,117 @@ public class DocusaurusProcessor {
                 logger.info("DEBUG: Deploying remotely to " + destServer);
                 // Deploy to remote server
                 if (Files.exists(buildDir)) {
-                    // Use destDir if specified, otherwise use default $HOME/public_html
-                    String effectiveDestDir = destDir != null ? destDir : "$HOME/public_html";
-                    String remotePath = effectiveDestDir.replace("$HOME", "~") + "/" + projectName;
+                    String remotePath = remoteSite(destDir, projectName);
                     System.out.println("Deploying to remote server: " + destServer + ":" + remotePath);
 
-                    // Test SSH connection first
-                    if (!testSSHConnection(destServer)) {
+                    // Connect once; the following commands run over this connection
+                    System.out.println("Testing SSH connection to " + destServer + "...");
+                    SshShell shell = sessions.get(destServer);
+                    if (!shell.open()) {
                         System.err.println("Failed to connect to remote server: " + destServer);
-                        return;
+                        return null;
                     }
 
-                    // Remove existing remote directory completely, then recreate
-                    if (!removeAndCreateRemoteDirectory(destServer, remotePath)) {
-                        logger.log(Level.SEVERE, "Failed to prepare remote directory: " + destServer + ":" + remotePath);
-                        return;
+                    // Transfer only what changed since the live release (see DeployManifest)
+                    // into a new release, then switch the link (see RemoteReleases)
+                    System.out.println("Synchronizing with the remote server...");
+                    RemoteSync.Result result;
+                    try {
+                        result = new RemoteReleases(shell).deploy(buildDir, remotePath, keepReleases);
+                        System.out.println("Synchronized: " + result);
+                    } catch (IOException e) {
+                        logger.log(Level.SEVERE, "Failed to deploy to " + destServer + ":" + remotePath, e);
+                        System.err.println("Failed to deploy to remote server: " + e.getMessage());
+                        return null;
                     }
 
-                    // Use tar+scp+extract for faster deployment
-                    System.out.println("Creating tar archive...");
-                    String tarFileName = projectName + "_build.tar.gz";
-                    Path tarFilePath = projectDir.resolve(tarFileName);
+                    System.out.println("Remote deployment completed successfully!");
+                    return result.getRelease();
+                } else {
+                    System.err.println("Build directory not found: " + buildDir);
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to deploy " + projectName, e);
+            return null;
+        }
+    }
 
-                    // Create tar archive of build directory
-                    if (!runCommandWithResult(new String[]{"tar", "-czf", tarFilePath.toString(),
-                                                          "-C", buildDir.toString(), "."})) {
-                        System.err.println("Failed to create tar archive");
-                        return;
-                    }
 
-                    System.out.println("Transferring archive to remote server...");
-                    // Transfer tar file via scp
-                    if (!runCommandWithResult(new String[]{"scp", "-o", "StrictHostKeyChecking=no",
-                                                          tarFilePath.toString(),
-                                                          destServer + ":~/" + tarFileName})) {
-                        System.err.println("Failed to transfer archive to remote server");
-                        // Clean up local tar file
-                        try { Files.deleteIfExists(tarFilePath); } catch (Exception e) {}
-                        return;
-                    }
+    /** Returns the local site of a project: {@code <dest>/<project>}, by default under {@code ~/public_html}. */
+    static Path localSite(String dest, String projectName) {
+        return dest == null
+            ? Paths.get(System.getProperty("user.home"), "public_html", projectName)
+            : Paths.get(dest, projectName);
+    }
 
-                    System.out.println("Extracting archive on remote server...");
-                    // Extract tar on remote server, set permissions, and clean up
-                    String extractCommands = "mkdir -p " + remotePath + " && " +
-                                           "tar -xzf ~/" + tarFileName + " -C " + remotePath + " && " +
-                                           "find " + remotePath + " -type f -exec chmod 644 {} \\; && " +
-                                           "find " + remotePath + " -type d -exec chmod 755 {} \\; && " +
-                                           "rm ~/" + tarFileName;
-                    if (!runCommandWithResult(new String[]{"ssh", "-o", "StrictHostKeyChecking=no",
-                                                          destServer, extractCommands})) {
-                        System.err.println("Failed to extract archive on remote server");
-                        // Clean up local tar file
-                        try { Files.deleteIfExists(tarFilePath); } catch (Exception e) {}
-                        return;
-                    }
 
-                    System.out.println("Set proper web permissions (files: 644, directories: 755)");
+    /** Returns the remote site of a project: {@code <destDir>/<project>}, by default under {@code ~/public_html}. */
+    static String remoteSite(String destDir, String projectName) {
+        // Use destDir if specified, otherwise use default $HOME/public_html
+        String effectiveDestDir = destDir != null ? destDir : "$HOME/public_html";
+        return effectiveDestDir.replace("$HOME", "~") + "/" + projectName;
+    }
 
-                    // Clean up local tar file
-                    try {
-                        Files.deleteIfExists(tarFilePath);
-                        System.out.println("Cleaned up temporary archive");
-                    } catch (Exception e) {
-                        System.err.println("Warning: Failed to clean up local tar file: " + tarFilePath);
-                    }
 
-                    System.out.println("Remote deployment completed successfully!");
-                } else {
-                    System.err.println("Build directory not found: " + buildDir);
+    /**
+     * Returns the name of a deploy target as recorded in the {@link DeployState}, e.g.
+     * {@code web-admin@192.168.12.1:~/public_html/doc_X} or {@code /home/web/public_html/doc_X}.
+     */
+    static String siteName(String projectName, String dest, String destServer, String destDir) {
+        return destServer == null || isLocalAddress(destServer)
+            ? localSite(dest, projectName).toAbsolutePath().toString()
+            : destServer + ":" + remoteSite(destDir, projectName);
+    }
+
+
+    /** Returns the live release of a deployed project, or {@code null} if there is none. */
+    static String liveRelease(String projectName, String dest, String destServer, String destDir, SshSessions sessions)
+        throws IOException {
+        if (destServer == null || isLocalAddress(destServer)) {
+            return new Releases(localSite(dest, projectName)).current();
+        }
+        SshShell shell = sessions.get(destServer);
+        if (!shell.open()) {
+            throw new IOException("Can not connect to " + destServer);
+        }
+        return new RemoteReleases(shell).state(remoteSite(destDir, projectName)).getCurrent();
+    }
+
+
+    /**
+     * Switches a deployed project back to an older release, without building or transferring anything.
+     *
+     * @param dest the local parent directory of the project (default: {@code ~/public_html});
+     *        ignored when {@code destServer} is a remote server.
+     * @param destServer the server of a remote deployment, or {@code null} for a local one
+     * @param destDir the remote parent directory of the project (default: {@code $HOME/public_html})
+     * @param projectName the name of the deployed project, e.g. {@code doc_Infra001}
+     * @param to the release to switch to, or {@code null} for the release before the live one
+     * @return {@code true} if the release was switched
+     */
+    public static boolean rollback(String dest, String destServer, String destDir, String projectName, String to) {
+        try (SshSessions sessions = new SshSessions()) {
+            String release;
+            if (destServer == null || isLocalAddress(destServer)) {
+                Path localDestDir = localSite(dest, projectName);
+                release = new Releases(localDestDir).rollback(to);
+                System.out.println("Release " + release + " is live: " + localDestDir);
+            } else {
+                String remotePath = remoteSite(destDir, projectName);
+                SshShell shell = sessions.get(destServer);
+                if (!shell.open()) {
+                    throw new IOException("Can not connect to " + destServer);
                 }
+                release = new RemoteReleases(shell).rollback(remotePath, to);
+                System.out.println("Release " + release + " is live: " + destServer + ":" + remotePath);
             }
-
+            return true;
         } catch (IOException e) {
-            e.printStackTrace();
+            logger.log(Level.SEVERE, "Failed to roll back " + projectName, e);
+            System.err.println("Failed to roll back " + projectName + ": " + e.getMessage());
+            return false;
         }
     }
 
@@ -387,13 +561,103 @@ public class DocusaurusProcessor {
      * @param skipGitPull Whether to skip git pull for all projects
      */
     public static void batchDeploy(String configFile, String destServer, String baseDir, boolean skipGitPull) {
+        batchDeploy(configFile, destServer, baseDir, skipGitPull, false);
+    }
+
+    /**
+     * Batch deploy multiple Docusaurus projects based on configuration file.
+     *
+     * @param staticSearch Whether to generate a client-side search index for each project
+     * @see #deploy(String, String, String, String, String, String, boolean)
+     */
+    public static void batchDeploy(String configFile, String destServer, String baseDir, boolean skipGitPull,
+                                   boolean staticSearch) {
+        batchDeploy(configFile, destServer, baseDir, skipGitPull, staticSearch, 1, 0);
+    }
+
+    /**
+     * Batch deploy multiple Docusaurus projects based on configuration file, building several
+     * projects at a time. The other stages run one project at a time, as before the pipeline.
+     *
+     * @param parallel the maximum number of projects built at the same time
+     * @param buildHeapMb the Node heap limit of each build in MB, also the basis of its memory
+     *        estimate; 0 leaves the heap to Node and admits builds by the CPU cap only
+     * @see #batchDeploy(String, String, String, boolean, boolean, int, int, java.util.Map, boolean, Path, boolean)
+     */
+    public static void batchDeploy(String configFile, String destServer, String baseDir, boolean skipGitPull,
+                                   boolean staticSearch, int parallel, int buildHeapMb) {
+        batchDeploy(configFile, destServer, baseDir, skipGitPull, staticSearch, parallel, buildHeapMb, SEQUENTIAL_STAGE_WORKERS,
+                    false, null, false);
+    }
+
+    /** Stages of a batch deploy, in order. */
+    public static final java.util.List<String> STAGES = java.util.List.of("fetch", "install", "build", "ship");
+
+    /** Default number of workers of the network-bound stages; the build stage has {@code parallel}. */
+    static final java.util.Map<String, Integer> DEFAULT_STAGE_WORKERS = java.util.Map.of("fetch", 4, "install", 2, "ship", 2);
+
+    /** One worker for each network-bound stage, the behaviour of the overloads without stage workers. */
+    static final java.util.Map<String, Integer> SEQUENTIAL_STAGE_WORKERS = java.util.Map.of("fetch", 1, "install", 1, "ship", 1);
+
+    /**
+     * Batch deploy multiple Docusaurus projects based on configuration file, as a pipeline.
+     *
+     * <p>
+     * Every project passes through four stages, each with its own queue and workers:
+     * {@code fetch} (clone or git pull), {@code install} ({@code yarn install --frozen-lockfile}
+     * of a new clone or of changed package files, see {@link InstallMarker}),
+     * {@code build} (config update and {@code yarn run build}) and {@code ship} (release upload
+     * and switch). The stages overlap, so a project can upload while the next one builds and the
+     * one after that pulls. Builds are also admitted by a {@link BuildAdmission} from the memory
+     * they are expected to use, so that concurrent builds do not push the machine into swap.
+     * </p>
+     *
+     * <p>
+     * A project is only built when its sources changed: the {@link BuildFingerprint} of the
+     * sources, taken after the config update, is compared with the one recorded in the
+     * {@link DeployState} of the project at its last deploy to the same target. If they match and
+     * the target still serves the release made then, the project is neither built nor
+     * transferred; if they match and the build directory still holds the build made then, it is
+     * transferred without building.
+     * </p>
+     *
+     * <p>
+     * The output lines of each project are prefixed with its name. At the end a summary in
+     * configuration order and the queue counters of each stage ({@link StagePipeline#report()})
+     * are printed.
+     * </p>
+     *
+     * @param stageWorkers the number of workers of the {@code fetch}, {@code install} and
+     *        {@code ship} stages (and {@code build}, overriding {@code parallel}); missing stages
+     *        use the defaults
+     * @param rebuild build and deploy every project, even one whose sources did not change
+     * @param packageStore the directory of a {@link PackageStore} shared by the projects, or
+     *        {@code null} to give each project its own {@code node_modules}
+     * @param relocate build each project once for placeholder addresses and relocate the build
+     *        to the target before it is shipped ({@link BaseUrlRelocator}), so that the same build
+     *        can be reused for another {@code destServer}
+     */
+    public static void batchDeploy(String configFile, String destServer, String baseDir, boolean skipGitPull,
+                                   boolean staticSearch, int parallel, int buildHeapMb,
+                                   java.util.Map<String, Integer> stageWorkers, boolean rebuild, Path packageStore,
+                                   boolean relocate) {
+        java.util.Map<String, Integer> workers = new java.util.HashMap<>(DEFAULT_STAGE_WORKERS);
+        workers.put("build", parallel);
+        workers.putAll(stageWorkers);
+
         logger.info("Starting batch deployment...");
         logger.info("Config file: " + configFile);
         logger.info("Base directory: " + baseDir);
         logger.info("Destination server: " + (destServer != null ? destServer : "local"));
         logger.info("Skip git pull: " + skipGitPull);
+        logger.info("Stage workers: " + workers + (buildHeapMb > 0 ? ", Node heap: " + buildHeapMb + " MB" : ""));
+        PackageStore store = packageStore == null ? null : new PackageStore(packageStore);
+        if (store != null) {
+            logger.info("Package store: " + store.getRoot());
+        }
 
-        try {
+        // One SSH connection to destServer for all projects, closed at the end of the batch
+        try (SshSessions sessions = new SshSessions()) {
             // Read project list from configuration file
             java.util.List<String> projectNames = readProjectListFromConfig(configFile);
 
@@ -404,73 +668,372 @@ public class DocusaurusProcessor {
 
             logger.info("Found " + projectNames.size() + " projects to deploy");
 
+            java.util.List<BatchProject> projects = new java.util.ArrayList<>();
+            for (String projectName : projectNames) {
+                projects.add(new BatchProject(projectName, Paths.get(baseDir, projectName)));
+            }
+
+            boolean concurrent = workers.values().stream().anyMatch(n -> n > 1);
+            if (concurrent) {
+                ProjectConsole.install();
+            }
+
+            BuildAdmission admission = new BuildAdmission(workers.get("build"));
+            StagePipeline<BatchProject> pipeline = new StagePipeline<BatchProject>()
+                .stage("fetch", workers.get("fetch"), p -> fetchProject(p, baseDir, skipGitPull))
+                .stage("install", workers.get("install"), p -> installProject(p, store))
+                .stage("build", workers.get("build"), p -> buildProject(p, destServer, staticSearch, buildHeapMb, rebuild,
+                                                                        relocate, admission, sessions))
+                .stage("ship", workers.get("ship"), p -> shipProject(p, destServer, sessions))
+                .around(p -> {
+                        p.started();
+                        ProjectConsole.setProject(concurrent ? p.name : null);
+                    },
+                    p -> {
+                        ProjectConsole.setProject(null);
+                        p.stepped();
+                    });
+
+            long batchStart = System.nanoTime();
+            pipeline.run(projects);
+
             int successCount = 0;
-            int failureCount = 0;
+            long totalMillis = 0;
+            logger.info("=== Batch deployment completed ===");
+            for (int i = 0; i < projects.size(); i++) {
+                BatchProject p = projects.get(i);
+                logger.info(String.format("%3d. %-30s %-24s %s", i + 1, p.name, p.result, formatMillis(p.getMillis())));
+                if (DEPLOYED.equals(p.result) || UNCHANGED.equals(p.result)) {
+                    successCount++;
+                }
+                totalMillis += p.getMillis();
+            }
+            logger.info("Successful deployments: " + successCount);
+            logger.info("Failed deployments: " + (projects.size() - successCount));
+            logger.info("Elapsed: " + formatMillis(java.util.concurrent.TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batchStart))
+                        + " (sum of project times: " + formatMillis(totalMillis)
+                        + ", waited for build admission: " + formatMillis(admission.getWaitMillis()) + ")");
+            logger.info("Stages:\n" + pipeline.report());
 
-            for (String projectName : projectNames) {
-                Path projectDir = Paths.get(baseDir, projectName);
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Batch deployment failed: " + e.getMessage(), e);
+        } finally {
+            ProjectConsole.uninstall();
+        }
+    }
 
-                logger.info("=== Processing project: " + projectName + " ===");
+    /**
+     * Parses stage workers such as {@code fetch=4,install=2,ship=2}.
+     *
+     * @throws IllegalArgumentException for an unknown stage or a count below 1
+     */
+    public static java.util.Map<String, Integer> parseStageWorkers(String spec) {
+        java.util.Map<String, Integer> workers = new java.util.HashMap<>();
+        if (spec == null || spec.isBlank()) {
+            return workers;
+        }
+        for (String pair : spec.split(",")) {
+            String[] kv = pair.trim().split("=", 2);
+            if (kv.length != 2 || !STAGES.contains(kv[0].trim())) {
+                throw new IllegalArgumentException("Expected <stage>=<workers> with a stage of " + STAGES + ": " + pair);
+            }
+            int n = Integer.parseInt(kv[1].trim());
+            if (n < 1) {
+                throw new IllegalArgumentException("A stage needs at least one worker: " + pair);
+            }
+            workers.put(kv[0].trim(), n);
+        }
+        return workers;
+    }
 
-                if (!Files.exists(projectDir)) {
-                    logger.log(Level.WARNING, "Project directory not found: " + projectDir);
-                    logger.info("Attempting to clone project from GitHub: " + projectName);
+    /** Directory in a project of the build relocated to the target (see {@link BaseUrlRelocator}), removed after the deploy. */
+    static final String RELOCATED_DIR = "build-relocated";
+
+    /** Result of a project of a batch deploy whose new release is live. */
+    static final String DEPLOYED = "deployed";
+
+    /** Result of a project of a batch deploy whose target already serves its current sources. */
+    static final String UNCHANGED = "unchanged";
+
+    /** A project of a batch deploy on its way through the stages. */
+    static class BatchProject {
+        final String name;
+        final Path dir;
+        boolean cloned = false;
+        String site;
+        BuildFingerprint fingerprint;
+        boolean unchanged = false;
+        java.util.Map<String, String> relocation;
+        Path buildDir;
+        String result = "not processed";
+        long startNanos = 0;
+        long endNanos = 0;
+
+        BatchProject(String name, Path dir) {
+            this.name = name;
+            this.dir = dir;
+        }
 
-                    if (cloneProjectFromGitHub(baseDir, projectName)) {
-                        logger.info("Successfully cloned " + projectName + ", proceeding with yarn install");
-                        logger.info("Running yarn install in directory: " + projectDir.toString());
+        void started() {
+            if (this.startNanos == 0) {
+                this.startNanos = System.nanoTime();
+            }
+        }
 
-                        boolean yarnSuccess = runYarnInstall(projectDir.toString());
-                        if (yarnSuccess) {
-                            logger.info("✅ Yarn install COMPLETED successfully for " + projectName + ", proceeding with deployment");
-                        } else {
-                            logger.log(Level.WARNING, "❌ Yarn install FAILED for " + projectName + ", but continuing with deployment...");
-                            logger.log(Level.WARNING, "Project " + projectName + " may not build properly due to missing dependencies");
-                        }
-                    } else {
-                        logger.log(Level.WARNING, "Failed to clone " + projectName + ", skipping deployment");
-                        failureCount++;
-                        continue;
-                    }
-                }
+        void stepped() {
+            this.endNanos = System.nanoTime();
+        }
 
-                try {
-                    // Git pull if not skipped
-                    if (!skipGitPull) {
-                        logger.info("Executing git pull for " + projectName);
-                        if (!runGitPull(projectDir.toString())) {
-                            logger.log(Level.WARNING, "Git pull failed for " + projectName + ", continuing with deployment...");
-                        }
-                    }
+        /** Time from the start of the first stage to the end of the last one, including queueing. */
+        long getMillis() {
+            return java.util.concurrent.TimeUnit.NANOSECONDS.toMillis(this.endNanos - this.startNanos);
+        }
 
-                    // Deploy project
-                    logger.info("Deploying " + projectName);
-                    if (destServer != null) {
-                        // Remote deployment
-                        deploy(null, destServer, null, projectDir.toString(), null, null);
-                    } else {
-                        // Local deployment
-                        deploy(null, null, null, projectDir.toString(), null, null);
-                    }
+        @Override
+        public String toString() {
+            return this.name;
+        }
+    }
 
-                    logger.info("Successfully deployed: " + projectName);
-                    successCount++;
+    /** The fetch stage: clones a missing project or pulls an existing one. */
+    private static boolean fetchProject(BatchProject p, String baseDir, boolean skipGitPull) {
+        logger.info("=== Processing project: " + p.name + " ===");
+
+        if (!Files.exists(p.dir)) {
+            logger.log(Level.WARNING, "Project directory not found: " + p.dir);
+            logger.info("Attempting to clone project from GitHub: " + p.name);
+
+            if (!cloneProjectFromGitHub(baseDir, p.name)) {
+                logger.log(Level.WARNING, "Failed to clone " + p.name + ", skipping deployment");
+                p.result = "clone failed";
+                return false;
+            }
+            logger.info("Successfully cloned " + p.name + ", proceeding with yarn install");
+            p.cloned = true;
+        } else if (!skipGitPull) {
+            // Git pull if not skipped
+            logger.info("Executing git pull for " + p.name);
+            if (!runGitPull(p.dir.toString())) {
+                logger.log(Level.WARNING, "Git pull failed for " + p.name + ", continuing with deployment...");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The install stage: installs the dependencies of a new clone, or of a project whose
+     * package.json or lockfile changed since its last install (see {@link InstallMarker}).
+     *
+     * <p>
+     * With a package store, a tree installed before from the same package files is linked from
+     * the store instead, and a new install is added to the store.
+     * </p>
+     */
+    private static boolean installProject(BatchProject p, PackageStore store) {
+        Path modules = p.dir.resolve("node_modules");
+        String hash;
+        try {
+            if (!p.cloned && InstallMarker.isSatisfied(p.dir)) {
+                logger.info("Dependencies of " + p.name + " are up to date, skipping yarn install");
+                return true;
+            }
+            hash = InstallMarker.hash(p.dir);
+            if (store != null && (store.has(hash) || PackageStore.isLinked(modules))) {
+                // Yarn must not write into files shared with other projects
+                PackageStore.delete(modules);
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Can not prepare the dependencies of " + p.name, e);
+            p.result = "install failed";
+            return false;
+        }
 
-                } catch (Exception e) {
-                    logger.log(Level.SEVERE, "Failed to deploy " + projectName + ": " + e.getMessage(), e);
-                    failureCount++;
+        if (store != null && store.has(hash)) {
+            try {
+                PackageStore.Stats stats = store.materialize(hash, modules);
+                InstallMarker.write(p.dir);
+                logger.info("Linked node_modules of " + p.name + " from the package store: " + stats);
+                return true;
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to link node_modules of " + p.name + " from the package store, installing", e);
+                try {
+                    PackageStore.delete(modules);
+                } catch (IOException cleanup) {
+                    logger.log(Level.SEVERE, "Can not remove " + modules, cleanup);
+                    p.result = "install failed";
+                    return false;
                 }
+            }
+        }
 
-                logger.info(""); // Empty line for readability
+        logger.info("Running yarn install in directory: " + p.dir
+                    + (p.cloned ? " (new clone)" : " (package.json or yarn.lock changed)"));
+        if (!runYarnInstall(p.dir.toString())) {
+            // A build without its dependencies would only fail minutes later
+            logger.log(Level.WARNING, "❌ Yarn install FAILED for " + p.name + ", skipping deployment");
+            p.result = "install failed";
+            return false;
+        }
+        logger.info("✅ Yarn install COMPLETED successfully for " + p.name + ", proceeding with deployment");
+        try {
+            if (store != null) {
+                PackageStore.Stats stats = store.importModules(InstallMarker.hash(p.dir), modules);
+                logger.info("Added node_modules of " + p.name + " to the package store: " + stats);
             }
+            InstallMarker.write(p.dir);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to record the install of " + p.name, e);
+        }
+        return true;
+    }
 
-            logger.info("=== Batch deployment completed ===");
-            logger.info("Successful deployments: " + successCount);
-            logger.info("Failed deployments: " + failureCount);
+    /** The build stage: builds once the build is admitted, unless the sources did not change. */
+    private static boolean buildProject(BatchProject p, String destServer, boolean staticSearch, int buildHeapMb,
+                                        boolean rebuild, boolean relocate, BuildAdmission admission, SshSessions sessions)
+        throws InterruptedException {
+        try {
+            java.util.Map<String, String> target;
+            if (relocate && !targetOf(p.name, null, destServer, null, null, null).isEmpty()) {
+                // The same build for every target; the addresses are written in the ship stage
+                p.relocation = targetOf(p.name, null, destServer, null, null, null);
+                updateConfig(p.dir, BaseUrlRelocator.URL, BaseUrlRelocator.BASE_URL, BaseUrlRelocator.SEARCH_SERVER);
+                target = new java.util.TreeMap<>(java.util.Map.of("relocatable", "true"));
+            } else {
+                target = configureProject(p.dir, null, destServer, null, null, null);
+            }
+            target.put("staticSearch", String.valueOf(staticSearch));
+            p.site = siteName(p.name, null, destServer, null);
+            p.fingerprint = BuildFingerprint.of(p.dir, target);
+            if (!rebuild && p.fingerprint != null && reuseBuild(p, destServer, sessions)) {
+                return true;
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to prepare the build of " + p.name, e);
+            p.result = "build failed";
+            return false;
+        }
 
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "Batch deployment failed: " + e.getMessage(), e);
+        long estimate = buildHeapMb > 0 ? BuildAdmission.estimate(buildHeapMb) : 0;
+        admission.acquire(estimate);
+        try {
+            logger.info("Building " + p.name);
+            p.buildDir = compileProject(p.dir, destServer, staticSearch, buildHeapMb);
+        } finally {
+            admission.release(estimate);
+        }
+        if (p.buildDir == null) {
+            p.result = "build failed";
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Looks up the last deploy of a project to its target in the {@link DeployState}.
+     *
+     * @return {@code true} if the project need not be built: either the target serves the
+     *         release of the same sources ({@code p.unchanged}), or the build directory still
+     *         holds their build ({@code p.buildDir})
+     */
+    private static boolean reuseBuild(BatchProject p, String destServer, SshSessions sessions) throws IOException {
+        DeployState state = DeployState.read(p.dir);
+        DeployState.Target last = state.get(p.site);
+        if (last == null || !p.fingerprint.getHash().equals(last.getFingerprint())) {
+            // A relocatable build deployed to another target has the same fingerprint
+            return reuseBuildDir(p, state);
+        }
+
+        String live;
+        try {
+            live = liveRelease(p.name, null, destServer, null, sessions);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Can not read the live release of " + p.site, e);
+            live = null;
+        }
+        if (last.getRelease() != null && last.getRelease().equals(live)) {
+            logger.info("Sources of " + p.name + " unchanged since release " + live + ", skipping build and deploy");
+            p.unchanged = true;
+            return true;
         }
+
+        return reuseBuildDir(p, state);
+    }
+
+    /** Returns true if the build directory holds a build of the current sources recorded for any target. */
+    private static boolean reuseBuildDir(BatchProject p, DeployState state) throws IOException {
+        Path buildDir = p.dir.resolve("build");
+        if (!Files.isDirectory(buildDir)) {
+            return false;
+        }
+        DeployManifest manifest = null;
+        for (java.util.Map.Entry<String, DeployState.Target> e : state.getTargets().entrySet()) {
+            if (p.fingerprint.getHash().equals(e.getValue().getFingerprint())) {
+                if (manifest == null) {
+                    manifest = DeployManifest.of(buildDir);
+                }
+                if (manifest.getFiles().equals(e.getValue().getManifest())) {
+                    logger.info("Sources of " + p.name + " unchanged since the build deployed to " + e.getKey() + ", skipping build");
+                    p.buildDir = buildDir;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** The ship stage: deploys the build as a new release and records it in the deploy state. */
+    private static boolean shipProject(BatchProject p, String destServer, SshSessions sessions) {
+        if (p.unchanged) {
+            p.result = UNCHANGED;
+            return true;
+        }
+        logger.info("Deploying " + p.name);
+        String release;
+        if (p.relocation == null) {
+            release = shipProject(p.buildDir, p.name, null, destServer, null, Releases.DEFAULT_KEEP, sessions);
+        } else {
+            Path relocated = p.dir.resolve(RELOCATED_DIR);
+            try {
+                PackageStore.delete(relocated);
+                BaseUrlRelocator.Stats stats = new BaseUrlRelocator(p.relocation.get("url"), p.relocation.get("baseUrl"),
+                                                                    p.relocation.get("searchServer"))
+                    .relocate(p.buildDir, relocated);
+                logger.info("Relocated " + p.name + " to " + p.relocation.get("url") + " " + p.relocation.get("baseUrl") + ": " + stats);
+                release = shipProject(relocated, p.name, null, destServer, null, Releases.DEFAULT_KEEP, sessions);
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Failed to relocate " + p.name, e);
+                release = null;
+            } finally {
+                try {
+                    PackageStore.delete(relocated);
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Failed to remove " + relocated, e);
+                }
+            }
+        }
+        if (release == null) {
+            p.result = "deploy failed";
+            return false;
+        }
+        logger.info("Successfully deployed: " + p.name);
+        p.result = DEPLOYED;
+
+        if (p.fingerprint != null) {
+            try {
+                DeployState state = DeployState.read(p.dir);
+                state.put(p.site, p.fingerprint.getHash(), release, DeployManifest.of(p.buildDir));
+                state.write(p.dir);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to record the deploy state of " + p.name, e);
+            }
+        }
+        return true;
+    }
+
+    /** Formats a duration as {@code 1m05s}. */
+    static String formatMillis(long millis) {
+        long seconds = Math.round(millis / 1000.0);
+        return seconds < 60 ? seconds + "s" : String.format("%dm%02ds", seconds / 60, seconds % 60);
     }
 
     /**
@@ -638,7 +1201,10 @@ public class DocusaurusProcessor {
                 return false;
             }
 
-            ProcessBuilder yarnBuilder = new ProcessBuilder("yarn", "install");
+            // Install exactly what the lockfile says; a lockfile out of sync with package.json is an error
+            ProcessBuilder yarnBuilder = new File(projectDir, "yarn.lock").exists()
+                ? new ProcessBuilder("yarn", "install", "--frozen-lockfile")
+                : new ProcessBuilder("yarn", "install");
             yarnBuilder.directory(new File(projectDir));
             yarnBuilder.redirectErrorStream(true);
             Process yarnProcess = yarnBuilder.start();
@@ -795,7 +1361,7 @@ public class DocusaurusProcessor {
     /**
      * Determine whether a given line should be printed, based on keyword matching.
      */
-    private static boolean shouldDisplayLine(String line) {
+    static boolean shouldDisplayLine(String line) {
         for (String keyword : IMPORTANT_KEYWORDS) {
             if (line.contains(keyword)) {
                 return true;
@@ -804,6 +1370,20 @@ public class DocusaurusProcessor {
         return false;
     }
 
+    /**
+     * Returns true for the rule of dashes that opens and closes a notice block (e.g. "Update available").
+     */
+    static boolean isDashRule(String line) {
+        return line.matches("-{60,}");
+    }
+
+    /**
+     * Returns true for the first line of an "Update available" notice.
+     */
+    static boolean isUpdateNotice(String line) {
+        return line.trim().matches(".*Update available.*");
+    }
+
     /**
      * Run a shell command and stream output directly to the console.
      */
@@ -818,21 +1398,6 @@ public class DocusaurusProcessor {
         }
     }
 
-    /**
-     * Run a shell command and return true if it succeeds (exit code 0).
-     */
-    private static boolean runCommandWithResult(String[] command) {
-        try {
-            ProcessBuilder builder = new ProcessBuilder(command);
-            Process process = builder.start();
-            int exitCode = process.waitFor();
-            return exitCode == 0;
-        } catch (IOException | InterruptedException e) {
-            logger.log(java.util.logging.Level.SEVERE, "Command execution failed: " + String.join(" ", command), e);
-            return false;
-        }
-    }
-
     /**
      * Run a shell command with detailed error logging.
      */
@@ -913,63 +1478,22 @@ public class DocusaurusProcessor {
     }
 
     /**
-     * Test SSH connection to the remote server.
-     */
-    private static boolean testSSHConnection(String server) {
-        System.out.println("Testing SSH connection to " + server + "...");
-        return runCommandWithResult(new String[]{"ssh", "-o", "ConnectTimeout=10",
-                                                "-o", "BatchMode=yes",
-                                                "-o", "StrictHostKeyChecking=no",
-                                                server, "echo", "SSH connection successful"});
-    }
-
-    /**
-     * Remove existing remote directory completely, then recreate it.
-     */
-    private static boolean removeAndCreateRemoteDirectory(String server, String remotePath) {
-        logger.info("Removing existing remote directory: " + remotePath);
-        // First, remove the directory completely (ignore errors if it doesn't exist)
-        runCommandWithDetailedResult(new String[]{"ssh", "-o", "BatchMode=yes",
-                                                 "-o", "StrictHostKeyChecking=no",
-                                                 server, "rm", "-rf", remotePath},
-                                     "remove directory");
-
-        logger.info("Creating remote directory: " + remotePath);
-        // Then create it fresh
-        return runCommandWithDetailedResult(new String[]{"ssh", "-o", "BatchMode=yes",
-                                                        "-o", "StrictHostKeyChecking=no",
-                                                        server, "mkdir", "-p", remotePath},
-                                           "create directory");
-    }
-
-    /**
-     * Create remote directory using SSH.
-     */
-    private static boolean createRemoteDirectory(String server, String remotePath) {
-        logger.info("Creating remote directory: " + remotePath);
-        return runCommandWithResult(new String[]{"ssh", "-o", "BatchMode=yes",
-                                                "-o", "StrictHostKeyChecking=no",
-                                                server, "mkdir", "-p", remotePath});
-    }
-
-    /**
-     * Clean remote directory contents using SSH.
+     * Run a shell command in a specific directory with output filtering and return success status.
      */
-    private static boolean cleanRemoteDirectory(String server, String remotePath) {
-        System.out.println("Cleaning remote directory: " + remotePath);
-        // Remove contents but keep the directory itself
-        return runCommandWithResult(new String[]{"ssh", "-o", "BatchMode=yes",
-                                                "-o", "StrictHostKeyChecking=no",
-                                                server, "rm", "-rf", remotePath + "/*"});
+    private static boolean runCommandInDirectoryWithFilterAndResult(String[] command, File directory) {
+        return runCommandInDirectoryWithFilterAndResult(command, directory, java.util.Map.of());
     }
 
     /**
-     * Run a shell command in a specific directory with output filtering and return success status.
+     * Run a shell command in a specific directory, with additional environment variables, with
+     * output filtering and return success status.
      */
-    private static boolean runCommandInDirectoryWithFilterAndResult(String[] command, File directory) {
+    private static boolean runCommandInDirectoryWithFilterAndResult(String[] command, File directory,
+                                                                    java.util.Map<String, String> env) {
         try {
             ProcessBuilder builder = new ProcessBuilder(command);
             builder.directory(directory);
+            builder.environment().putAll(env);
             builder.redirectErrorStream(true);
             Process process = builder.start();
 
@@ -979,7 +1503,7 @@ public class DocusaurusProcessor {
 
             while ((line = reader.readLine()) != null) {
                 // Detect start or end of a block with many dashes or centered title
-                if (line.matches("-{60,}") || line.trim().matches(".*Update available.*")) {
+                if (isDashRule(line) || isUpdateNotice(line)) {
                     insideImportantBlock = true;
                     System.out.println(line);
                     continue;
@@ -988,7 +1512,7 @@ public class DocusaurusProcessor {
                 else if (insideImportantBlock) {
                     System.out.println(line);
                     // End condition: when consecutive empty lines appear or the output transitions to a different section
-                    if (line.matches("-{60,}")) {
+                    if (isDashRule(line)) {
                         insideImportantBlock = false;
                     }
                     continue;
@@ -1023,7 +1547,7 @@ public class DocusaurusProcessor {
 
         while ((line = reader.readLine()) != null) {
             // Detect start or end of a block with many dashes or centered title
-            if (line.matches("-{60,}") || line.trim().matches(".*Update available.*")) {
+            if (isDashRule(line) || isUpdateNotice(line)) {
                 insideImportantBlock = true;
                 System.out.println(line);
                 continue;
@@ -1032,7 +1556,7 @@ public class DocusaurusProcessor {
             else if (insideImportantBlock) {
                 System.out.println(line);
                 // End condition: when consecutive empty lines appear or the output transitions to a different section
-                if (line.matches("-{60,}")) {
+                if (isDashRule(line)) {
                     insideImportantBlock = false;
                 }
                 continue;
@@ -1061,7 +1585,7 @@ public class DocusaurusProcessor {
 
         while ((line = reader.readLine()) != null) {
             // Detect start or end of a block with many dashes or centered title
-            if (line.matches("-{60,}") || line.trim().matches(".*Update available.*")) {
+            if (isDashRule(line) || isUpdateNotice(line)) {
                 insideImportantBlock = true;
                 System.out.println(line);
                 continue;
@@ -1070,7 +1594,7 @@ public class DocusaurusProcessor {
             else if (insideImportantBlock) {
                 System.out.println(line);
                 // End condition: when consecutive empty lines appear or the output transitions to a different section
-                if (line.matches("-{60,}")) {
+                if (isDashRule(line)) {
                     insideImportantBlock = false;
                 }
                 continue;
@@ -1091,39 +1615,6 @@ public class DocusaurusProcessor {
 
     
 
-    /**
-     * Recursively delete a directory and all of its contents.
-     */
-    private static void deleteDirectoryRecursively(File dir) throws IOException {
-        if (!dir.exists()) return;
-        for (File file : dir.listFiles()) {
-            if (file.isDirectory()) {
-                deleteDirectoryRecursively(file);
-            } else {
-                if (!file.delete()) throw new IOException("Failed to delete file: " + file);
-            }
-        }
-        if (!dir.delete()) throw new IOException("Failed to delete directory: " + dir);
-    }
-
-    /**
-     * Recursively copy a directory and its contents.
-     */
-    private static void copyDirectory(Path source, Path target) throws IOException {
-        Files.walk(source).forEach(src -> {
-            try {
-                Path dest = target.resolve(source.relativize(src));
-                if (Files.isDirectory(src)) {
-                    Files.createDirectories(dest);
-                } else {
-                    Files.copy(src, dest, StandardCopyOption.REPLACE_EXISTING);
-                }
-            } catch (IOException e) {
-                throw new RuntimeException("Failed to copy: " + src, e);
-            }
-        });
-    }    
-
     // // ========================================================================
     // // High level APIs
     // // ========================================================================
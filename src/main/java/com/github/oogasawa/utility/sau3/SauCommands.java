@@ -7,14 +7,28 @@ import java.util.logging.Logger;
 import com.github.oogasawa.utility.cli.CommandRepository;
 import com.github.oogasawa.utility.cli.UtilityCliHelpFormatterBuilder;
 import com.github.oogasawa.utility.sau3.configjs.DocusaurusConfigUpdator;
+import com.github.oogasawa.utility.sau3.opensearch.BulkWriter;
+import com.github.oogasawa.utility.sau3.opensearch.CrawlEngine;
 import com.github.oogasawa.utility.sau3.opensearch.DateChecker;
 import com.github.oogasawa.utility.sau3.opensearch.IndexConf;
+import com.github.oogasawa.utility.sau3.opensearch.IndexMetrics;
+import com.github.oogasawa.utility.sau3.opensearch.IndexStats;
 import com.github.oogasawa.utility.sau3.opensearch.Indexer;
+import com.github.oogasawa.utility.sau3.opensearch.NearDuplicateDetector;
+import com.github.oogasawa.utility.sau3.opensearch.QueryLog;
+import com.github.oogasawa.utility.sau3.opensearch.QueryWarmer;
+import com.github.oogasawa.utility.sau3.opensearch.SearchBenchmark;
+import com.github.oogasawa.utility.sau3.opensearch.SearchCache;
+import com.github.oogasawa.utility.sau3.opensearch.SearchQuery;
+import com.github.oogasawa.utility.sau3.opensearch.SearchServer;
+import com.github.oogasawa.utility.sau3.opensearch.SearchService;
 import com.github.oogasawa.utility.sau3.opensearch.Sitemap;
 import com.github.oogasawa.utility.sau3.opensearch.SitemapEntry;
+import com.github.oogasawa.utility.sau3.opensearch.SitemapState;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
+import org.apache.http.HttpHost;
 
 
 
@@ -38,11 +52,18 @@ public class SauCommands {
         sauBuildCommand();
         sauDeployCommand();
         sauBatchDeployCommand();
+        sauRollbackCommand();
         sauIndexCommand();
         sauStartCommand();
         sauIndexUpdateCommand();
         sauIndexCleanCommand();
         sauIndexWithMappingCommand();
+        sauSearchServeCommand();
+        sauSearchCommand();
+        sauSuggestCommand();
+        sauWarmupCommand();
+        sauBenchSearchCommand();
+        sauIndexStatsCommand();
     }
 
 
@@ -124,6 +145,22 @@ sau3.java sau:build
                        .required(false)
                        .build());
 
+        opts.addOption(Option.builder("staticSearch")
+                       .longOpt("staticSearch")
+                       .hasArg(false)
+                       .desc("Generate a client-side search index into build/search-index/ before deploying")
+                       .required(false)
+                       .build());
+
+        opts.addOption(Option.builder("keepReleases")
+                       .longOpt("keepReleases")
+                       .hasArg(true)
+                       .argName("n")
+                       .desc("Number of release directories kept for sau:rollback, including the new one (default: "
+                             + com.github.oogasawa.utility.sau3.deploy.Releases.DEFAULT_KEEP + ")")
+                       .required(false)
+                       .build());
+
 
         this.cmdRepos.addCommand("Docusaurus commands", "sau:deploy", opts,
                 "Build the Docusaurus project with filtered output and deploy it to the public_html directory.",
@@ -135,7 +172,10 @@ sau3.java sau:build
                     String sourceDir = cl.getOptionValue("sourceDir", System.getProperty("user.dir"));
                     String baseUrl = cl.getOptionValue("baseUrl");
                     String url = cl.getOptionValue("url");
-                    DocusaurusProcessor.deploy(dest, destServer, destDir, sourceDir, baseUrl, url);
+                    boolean staticSearch = cl.hasOption("staticSearch");
+                    int keepReleases = Integer.parseInt(cl.getOptionValue("keepReleases",
+                            String.valueOf(com.github.oogasawa.utility.sau3.deploy.Releases.DEFAULT_KEEP)));
+                    DocusaurusProcessor.deploy(dest, destServer, destDir, sourceDir, baseUrl, url, staticSearch, keepReleases);
                 });
 
         registerHelp("sau:deploy",
@@ -143,11 +183,14 @@ sau3.java sau:build
 Build the Docusaurus project on the local workstation and optionally deploy the build output to the web publication directory on either the build server or a remote server.
 
 Docusaurus outputs a large amount of build progress logs, which can slow down execution in environments like Emacs shell-mode. To prevent this, the command filters output to show only errors and warnings.
+
+Each deploy writes a new release directory <dest>/.releases/<project>/<timestamp>/ and then switches <dest>/<project>, a symbolic link, to it with an atomic rename, so the site is never missing or half-written. The last --keepReleases releases are kept; sau:rollback switches back to one of them. The web server must follow symbolic links (e.g. Apache Options FollowSymLinks or SymLinksIfOwnerMatch).
 """),
                 java.util.List.of("""
 # Example 1: Local deployment to /var/www/html
 # Build the Docusaurus project and deploy to the system web directory.
-# If a project already exists in the web publication directory, it will be deleted and replaced.
+# The build is copied into /var/www/html/.releases/doc_Infra001/<timestamp>/ and
+# /var/www/html/doc_Infra001 is switched to it; a directory from an older deploy is replaced.
 
 java -jar Utility-sau3-<VERSION>.jar sau:deploy \\
     --sourceDir ~/works/doc_Infra001 \\
@@ -176,7 +219,10 @@ java -jar Utility-sau3-<VERSION>.jar sau:deploy \\
                         """
 # Example 3: Remote deployment via SSH
 # Build on one machine and deploy to a remote server's web directory.
-# If a project already exists on the remote server, it will be deleted and replaced.
+# The new release starts as a hard-linked copy of the live one, which keeps a manifest
+# (.sau-manifest.json: path, size, SHA-256); only added and changed files are sent, in one tar
+# stream, and removed files are deleted. The link is switched once the transfer is complete.
+# A site without a manifest receives the whole build.
 
 java -jar Utility-sau3-<VERSION>.jar sau:deploy \\
     --destServer web-admin@192.168.12.1 \\
@@ -205,6 +251,17 @@ java -jar Utility-sau3-<VERSION>.jar sau:deploy \\
     --sourceDir ~/works/doc_Infra001 \\
     --url https://example.com \\
     --baseUrl /docs/
+""",
+                        """
+# Example 5: Ship a client-side search index with the site
+# The built HTML is tokenized (bigrams for Japanese) and a sharded, gzipped inverted index
+# is written to build/search-index/. Pages search it in the browser by loading
+# <baseUrl>search-index/search.js, without any request to OpenSearch.
+
+java -jar Utility-sau3-<VERSION>.jar sau:deploy \\
+    --sourceDir ~/works/doc_Infra001 \\
+    --baseUrl "/~$USER/doc_Infra001/" \\
+    --staticSearch
 """));
 
     }
@@ -247,6 +304,61 @@ java -jar Utility-sau3-<VERSION>.jar sau:deploy \\
                        .required(false)
                        .build());
 
+        opts.addOption(Option.builder("staticSearch")
+                       .longOpt("staticSearch")
+                       .hasArg(false)
+                       .desc("Generate a client-side search index for each project")
+                       .required(false)
+                       .build());
+
+        opts.addOption(Option.builder("parallel")
+                       .longOpt("parallel")
+                       .hasArg(true)
+                       .argName("n")
+                       .desc("Maximum number of projects built at the same time (default: half of the processors, "
+                             + com.github.oogasawa.utility.sau3.deploy.BuildAdmission.defaultMaxBuilds() + ")")
+                       .required(false)
+                       .build());
+
+        opts.addOption(Option.builder("buildHeap")
+                       .longOpt("buildHeap")
+                       .hasArg(true)
+                       .argName("MB")
+                       .desc("Node heap limit of each build in MB, used to admit builds by available memory (default: "
+                             + com.github.oogasawa.utility.sau3.deploy.BuildAdmission.DEFAULT_HEAP_MB + ")")
+                       .required(false)
+                       .build());
+
+        opts.addOption(Option.builder("stages")
+                       .longOpt("stages")
+                       .hasArg(true)
+                       .argName("stage=n,...")
+                       .desc("Workers of the pipeline stages fetch, install and ship (default: fetch=4,install=2,ship=2)")
+                       .required(false)
+                       .build());
+
+        opts.addOption(Option.builder("rebuild")
+                       .longOpt("rebuild")
+                       .hasArg(false)
+                       .desc("Build and deploy every project, even those whose sources did not change since their last deploy")
+                       .required(false)
+                       .build());
+
+        opts.addOption(Option.builder("store")
+                       .longOpt("store")
+                       .hasArg(true)
+                       .argName("dir")
+                       .desc("Package store shared by the projects' node_modules through hard links; on the same file system as --baseDir")
+                       .required(false)
+                       .build());
+
+        opts.addOption(Option.builder("relocate")
+                       .longOpt("relocate")
+                       .hasArg(false)
+                       .desc("Build for placeholder addresses and rewrite them for the target after the build, so that the build can be reused for other targets")
+                       .required(false)
+                       .build());
+
         this.cmdRepos.addCommand("Docusaurus commands", "sau:batchDeploy", opts,
                 "Batch deploy multiple Docusaurus projects from configuration file.",
 
@@ -255,8 +367,21 @@ java -jar Utility-sau3-<VERSION>.jar sau:deploy \\
                     String destServer = cl.getOptionValue("destServer");
                     String baseDir = cl.getOptionValue("baseDir", System.getProperty("user.dir"));
                     boolean skipGitPull = cl.hasOption("skipGitPull");
+                    boolean staticSearch = cl.hasOption("staticSearch");
+                    int parallel = Integer.parseInt(cl.getOptionValue("parallel",
+                            String.valueOf(com.github.oogasawa.utility.sau3.deploy.BuildAdmission.defaultMaxBuilds())));
+                    int buildHeap = Integer.parseInt(cl.getOptionValue("buildHeap",
+                            String.valueOf(com.github.oogasawa.utility.sau3.deploy.BuildAdmission.DEFAULT_HEAP_MB)));
+
+                    java.util.Map<String, Integer> stages = DocusaurusProcessor.parseStageWorkers(cl.getOptionValue("stages"));
+
+                    java.nio.file.Path store = cl.hasOption("store")
+                        ? java.nio.file.Paths.get(cl.getOptionValue("store").replaceFirst("^~", System.getProperty("user.home")))
+                        : null;
 
-                    DocusaurusProcessor.batchDeploy(configFile, destServer, baseDir, skipGitPull);
+                    DocusaurusProcessor.batchDeploy(configFile, destServer, baseDir, skipGitPull, staticSearch,
+                                                    parallel, buildHeap, stages, cl.hasOption("rebuild"), store,
+                                                    cl.hasOption("relocate"));
                 });
 
         registerHelp("sau:batchDeploy",
@@ -284,10 +409,28 @@ Project names are extracted from these URLs, and each project is built and deplo
 Deployment Process:
 For each project, the command:
   1. Optionally runs git pull (unless --skipGitPull is specified)
-  2. Builds the Docusaurus project
-  3. Deploys to the specified destination (local or remote)
+  2. Runs yarn install if package.json or yarn.lock changed
+  3. Builds the Docusaurus project
+  4. Deploys to the specified destination (local or remote)
 
 If a project directory doesn't exist locally, it will attempt to clone it from GitHub.
+
+Unchanged Projects:
+A project whose sources did not change since its last deploy to the same target is skipped. The sources are compared by a fingerprint of the git commit, the uncommitted changes, the Docusaurus config after the url/baseUrl update, package.json and the lockfile, the Node and Docusaurus versions and the target settings. The fingerprint, the release and the file list of each deploy are recorded in .sau-deploy-state.json in the project directory; the fingerprint ignores this file, so adding it to .gitignore is optional. If the target still serves that release, the project is reported as "unchanged" without building or transferring; if the target was rolled back but the build directory still holds that build, it is deployed again without building. --rebuild builds and deploys every project.
+
+Relocatable Builds:
+Normally the url and baseUrl of the target are written into docusaurus.config.js before the build, so deploying to another server means building again. With --relocate, each project is built once with placeholder addresses (url https://sau-relocate.invalid/, baseUrl /__sau_base__/). Just before the upload, a copy of the build is made in which the placeholders are replaced by the addresses of the target: HTML attributes, CSS url(), the JS public path, the sitemap, RSS/Atom feeds and the search index are rewritten in parallel, other files are hard-linked. A later --relocate deploy of the same sources to another --destServer reuses the build and only relocates it.
+
+Pipeline:
+The steps run as a pipeline of four stages, each with its own queue and workers: fetch (clone or git pull), install, build, and ship (upload and release switch). While one project uploads, the next can build and the one after that pull. The worker counts of fetch, install and ship are set with --stages (default fetch=4,install=2,ship=2); the install workers cap the number of concurrent downloads from the package registry.
+
+The install stage runs "yarn install --frozen-lockfile" for a new clone and for a project whose package.json or yarn.lock changed since its last install, which is recorded as a hash in node_modules/.sau-install-hash. Other projects skip it. A project whose install fails is not built.
+
+Package Store:
+With --store, the files of every installed node_modules are kept once in a content-addressed store and linked into the projects with hard links, so that projects on the same Docusaurus version share disk space and page cache. A project whose package.json and yarn.lock match an install already in the store gets its node_modules as links, without running yarn. The store must be on the same file system as the projects. Its files are read-only; a linked node_modules is deleted and installed again when the package files change.
+
+Parallel Builds:
+Up to --parallel projects are built at the same time. Each build runs with a Node heap limit of --buildHeap MB and is started only when the heap plus 512 MB fits in the memory that was available (MemAvailable in /proc/meminfo) when the batch started, less 1 GB for the system. Output lines are prefixed with the project name. At the end a summary in configuration order is printed, followed by the items, queue wait and busy time of each stage; the stage whose queue waits longest is the one to give more workers.
 """),
                 java.util.List.of("""
 # Example 1: Basic batch deployment
@@ -313,9 +456,66 @@ java -jar Utility-sau3-<VERSION>.jar sau:batchDeploy \\
     --destServer web-admin@192.168.12.1
 
 # Each project will be deployed to the remote server's ~/public_html/ directory.
+# All projects share one SSH connection (OpenSSH ControlMaster), closed when the batch ends.
+""",
+                        """
+# Example 3: Build four projects at a time with a 4 GB Node heap each
+# Builds wait for memory when four of them would not fit.
+
+java -jar Utility-sau3-<VERSION>.jar sau:batchDeploy \\
+    --conf ~/config/docusaurus_ja.conf \\
+    --baseDir ~/works/docs \\
+    --parallel 4 \\
+    --buildHeap 4096
+
+# [doc_CPP001] [SUCCESS] Generated static files in "build".
+# ...
+#   1. doc_Analyst001                 deployed                 2m41s
+#   2. doc_CPP001                     deployed                 3m05s
+#   3. doc_DBMS001                    build failed             58s
+#   4. doc_Infra001                   unchanged                1s
+""",
+                        """
+# Example 4: Pull with eight workers and upload with four
+# Useful when many projects are fetched over a slow network or shipped to a distant server.
+
+java -jar Utility-sau3-<VERSION>.jar sau:batchDeploy \\
+    --conf ~/config/docusaurus_ja.conf \\
+    --baseDir ~/works/docs \\
+    --destServer web-admin@192.168.12.1 \\
+    --stages fetch=8,ship=4
+
+# stage      workers  items failed max queue queue wait       busy   util
+# fetch            8     30      0        22       4.1s      48.2s     2%
+# install          2      2      0         1       0.0s      61.0s     6%
+# build            4     30      1        26    2104.5s    1920.3s    85%
+# ship             4     29      0         2       1.2s     130.4s     6%
 """,
                         """
-# Example 3: Batch deploy without git pull
+# Example 5: One build for two servers
+# The second run finds the build of the first one and only rewrites its addresses.
+
+java -jar Utility-sau3-<VERSION>.jar sau:batchDeploy \\
+    --conf ~/config/docusaurus_ja.conf \\
+    --baseDir ~/works/docs \\
+    --destServer web-admin@192.168.12.1 \\
+    --relocate
+
+java -jar Utility-sau3-<VERSION>.jar sau:batchDeploy \\
+    --conf ~/config/docusaurus_ja.conf \\
+    --baseDir ~/works/docs \\
+    --destServer web-admin@192.168.12.2 \\
+    --relocate
+
+# [doc_CPP001] Oct 19, 2026 10:02:11 AM com.github.oogasawa.utility.sau3.DocusaurusProcessor reuseBuildDir
+# [doc_CPP001] INFO: Sources of doc_CPP001 unchanged since the build deployed to web-admin@192.168.12.1:~/public_html/doc_CPP001, skipping build
+# [doc_CPP001] Oct 19, 2026 10:02:12 AM com.github.oogasawa.utility.sau3.DocusaurusProcessor shipProject
+# [doc_CPP001] INFO: Relocated doc_CPP001 to http://192.168.12.2/ /~deploy/doc_CPP001/: 1843 files, 912 rewritten (20418 addresses, 61 MB scanned) in 420 ms
+#
+# The baseUrl /~<user>/<project>/ takes the name of the local user running sau3 (here "deploy").
+""",
+                        """
+# Example 6: Batch deploy without git pull
 # Skip the git pull step for all projects (useful when testing local changes).
 
 java -jar Utility-sau3-<VERSION>.jar sau:batchDeploy \\
@@ -324,7 +524,7 @@ java -jar Utility-sau3-<VERSION>.jar sau:batchDeploy \\
     --skipGitPull
 """,
                         """
-# Example 4: Using different path formats
+# Example 7: Using different path formats
 # Configuration files can be specified using absolute, relative, or home directory paths.
 
 # Absolute path
@@ -347,6 +547,89 @@ java -jar Utility-sau3-<VERSION>.jar sau:batchDeploy \\
 
 
 
+    public void sauRollbackCommand() {
+        Options opts = new Options();
+
+        opts.addOption(Option.builder("project")
+                       .option("p")
+                       .longOpt("project")
+                       .hasArg(true)
+                       .argName("project")
+                       .desc("Name of the deployed project (e.g. doc_Infra001)")
+                       .required(true)
+                       .build());
+
+        opts.addOption(Option.builder("dest")
+                       .option("d")
+                       .longOpt("dest")
+                       .hasArg(true)
+                       .argName("dest")
+                       .desc("Local destination directory of sau:deploy (default: $HOME/public_html)")
+                       .required(false)
+                       .build());
+
+        opts.addOption(Option.builder("destServer")
+                       .option("s")
+                       .longOpt("destServer")
+                       .hasArg(true)
+                       .argName("destServer")
+                       .desc("Destination server name/IP address of a remote deployment")
+                       .required(false)
+                       .build());
+
+        opts.addOption(Option.builder("destDir")
+                       .longOpt("destDir")
+                       .hasArg(true)
+                       .argName("destDir")
+                       .desc("Remote destination directory path (default: $HOME/public_html)")
+                       .required(false)
+                       .build());
+
+        opts.addOption(Option.builder("to")
+                       .longOpt("to")
+                       .hasArg(true)
+                       .argName("release")
+                       .desc("Release to switch to (e.g. 20241001-221540-007; default: the release before the live one)")
+                       .required(false)
+                       .build());
+
+        this.cmdRepos.addCommand("Docusaurus commands", "sau:rollback", opts,
+                "Switch a deployed Docusaurus project back to an older release.",
+
+                (CommandLine cl) -> {
+                    DocusaurusProcessor.rollback(cl.getOptionValue("dest"), cl.getOptionValue("destServer"),
+                                                 cl.getOptionValue("destDir"), cl.getOptionValue("project"),
+                                                 cl.getOptionValue("to"));
+                });
+
+        registerHelp("sau:rollback",
+                java.util.List.of("""
+Switch a project deployed by sau:deploy or sau:batchDeploy back to an older release.
+
+Deploys keep their releases in <dest>/.releases/<project>/<timestamp>/. Rolling back only renames a new symbolic link over <dest>/<project>, so it takes effect immediately, without a build or a transfer. The next deploy starts from the live release.
+"""),
+                java.util.List.of("""
+# Example 1: Undo the last local deploy
+java -jar Utility-sau3-<VERSION>.jar sau:rollback \\
+    --project doc_Infra001
+
+# Release 20241001-221540-007 is live: /home/oogasawa/public_html/doc_Infra001
+""",
+                        """
+# Example 2: Switch a remote site to a given release
+# The releases are listed with: ssh web-admin@192.168.12.1 ls /var/www/html/.releases/doc_Infra001
+
+java -jar Utility-sau3-<VERSION>.jar sau:rollback \\
+    --project doc_Infra001 \\
+    --destServer web-admin@192.168.12.1 \\
+    --destDir /var/www/html \\
+    --to 20240928-101502-330
+"""));
+
+    }
+
+
+
     /**  docusaurus:index  */
     public void sauIndexCommand() {
         Options opts = new Options();
@@ -360,6 +643,9 @@ java -jar Utility-sau3-<VERSION>.jar sau:batchDeploy \\
                         .required(true)
                         .build());
 
+        opts.addOption(nearDuplicatesOption());
+        opts.addOption(reportOption());
+
 
         this.cmdRepos.addCommand("Docusaurus commands", "sau:index", opts,
                        "Making a full text index of multiple Docusaurus sites.",
@@ -368,27 +654,38 @@ java -jar Utility-sau3-<VERSION>.jar sau:batchDeploy \\
                             String configFile = cl.getOptionValue("conf");
 
                             IndexConf indexConf = new IndexConf();
+                            IndexMetrics metrics = new IndexMetrics("sau:index");
                             Indexer indexer = new Indexer();
+                            indexer.setMetrics(metrics);
+                            indexer.setNearDuplicateDetector(nearDuplicateDetector(cl));
                             //indexer.deleteIndexIfExists();
                             //indexer.createIndex();
-                            try {
+                            try (BulkWriter bulk = new BulkWriter(Indexer.DEFAULT_HOST, metrics)) {
+                                indexer.setBulkWriter(bulk);
                                 indexConf.readConfigFile(configFile);
                                 String indexName = indexConf.getIndexName();
                                 for (String sitemapUrl : indexConf.getSitemapUrls()) {
                                     logger.info(sitemapUrl);
                                     Sitemap sitemap = new Sitemap();
+                                    sitemap.setMetrics(metrics);
                                     sitemap.parse(sitemapUrl);
+                                    indexer.setSite(Indexer.siteOf(sitemapUrl));
+                                    int remaining = sitemap.getSitemapEntries().size();
                                     for (SitemapEntry entry : sitemap.getSitemapEntries()) {
+                                        metrics.gauge(IndexMetrics.QUEUE_DEPTH).set(--remaining);
                                         sleep(1000);
-                                        logger.info(String.format("%s, %s", entry.getUrl(), entry.getLastmod()));
-                                        indexer.index(entry.getUrl(), indexName);
+                                        logger.fine(String.format("%s, %s", entry.getUrl(), entry.getLastmod()));
+                                        indexer.index(entry.getUrl(), entry.getLastmod(), indexName);
                                     }
                                 }
+                                bulk.flush();
+                                indexer.deleteDisplacedDuplicates(indexName);
                             } catch (IOException e) {
                                 logger.log(Level.SEVERE, String.format("Can not read %s : %s",
                                                            configFile, e.getMessage()),
                                              e);
                             }
+                            writeIndexReport(metrics, cl);
                        });
 
         registerHelp("sau:index",
@@ -398,6 +695,20 @@ Create a full-text index by crawling the sitemaps listed in a configuration file
                 java.util.List.of("""
 sau3.java sau:index --conf docusaurus_ja.conf
   Reads each sitemap URL in the config and indexes the referenced pages into OpenSearch.
+""",
+                        """
+sau3.java sau:index --conf docusaurus_ja.conf --report /var/lib/node_exporter/textfile/sau_index.prom
+  Same, and writes the run counters (fetched, indexed, failed, ...), stage timers and gauges
+  in the Prometheus text format. Per-URL messages are logged at FINE level.
+""",
+                        """
+sau3.java sau:index --conf docusaurus_ja.conf --nearDuplicates 10
+  Skips pages whose text is nearly identical to a page already indexed in this run, e.g. the copies
+  of a page in versioned docs (/docs/1.0/..., /docs/next/...): SimHash signatures within 10 of 64 bits
+  and at least 80% of shared word shingles. The same copy is kept in every run, whatever the order of
+  the crawl: a URL without a version segment (/docs/intro over /docs/1.0/intro), then the shortest URL.
+  Skipped pages are counted per site in the run report. Copies indexed by earlier runs stay until the
+  index is rebuilt.
 """));
 
     }
@@ -458,6 +769,21 @@ sau3.java sau:start
                         .desc("Number of days to look back for updates (default: 3)")
                         .required(false)
                         .build());
+        updateOpts.addOption(Option.builder("state")
+                        .longOpt("state")
+                        .hasArg(true)
+                        .argName("file")
+                        .desc("Digests and HTTP validators of the sitemaps at the last successful run (default: ~/.sau3/sitemap-state.json)")
+                        .required(false)
+                        .build());
+        updateOpts.addOption(Option.builder("force")
+                        .longOpt("force")
+                        .hasArg(false)
+                        .desc("Check the pages of every sitemap, even if the sitemap is unchanged since the last run")
+                        .required(false)
+                        .build());
+        addCrawlOptions(updateOpts);
+        updateOpts.addOption(reportOption());
 
         this.cmdRepos.addCommand("Docusaurus commands", "sau:indexUpdate", updateOpts,
                        "Update a full text index of multiple Docusaurus sites.",
@@ -467,42 +793,77 @@ sau3.java sau:start
                             int daysBack = Integer.parseInt(cl.getOptionValue("days", "3")); // Default: 3 days
                             logger.info("Looking for updates within last " + daysBack + " days");
 
-                            String[] configs = configFiles.split(",");
-
-                            for (String configFile : configs) {
-                                configFile = configFile.trim();
-                                logger.info("Processing config: " + configFile);
-
-                                IndexConf indexConf = new IndexConf();
-                                Indexer indexer = new Indexer();
-                                //indexer.deleteIndexIfExists();
-                                //indexer.createIndex();
-                                try {
+                            IndexMetrics metrics = new IndexMetrics("sau:indexUpdate");
+                            java.nio.file.Path statePath = java.nio.file.Paths.get(cl.getOptionValue("state", SitemapState.DEFAULT_PATH.toString()));
+                            SitemapState state = loadSitemapState(statePath);
+                            boolean force = cl.hasOption("force");
+                            // Applied once all documents are written, so that a failed run is retried next time.
+                            List<Runnable> completed = java.util.Collections.synchronizedList(new java.util.ArrayList<>());
+
+                            try (CrawlEngine engine = crawlEngine(cl, metrics);
+                                 BulkWriter bulk = new BulkWriter(Indexer.DEFAULT_HOST, metrics)) {
+                                crawlConfigs(engine, metrics, configFiles, (configFile, jobs) -> {
+                                    IndexConf indexConf = new IndexConf();
+                                    Indexer indexer = new Indexer();
+                                    indexer.setMetrics(metrics);
+                                    indexer.setBulkWriter(bulk);
                                     indexConf.readConfigFile(configFile);
                                     String indexName = indexConf.getIndexName();
                                     for (String sitemapUrl : indexConf.getSitemapUrls()) {
                                         logger.info(sitemapUrl);
-                                        Sitemap sitemap = new Sitemap();
-                                        sitemap.parse(sitemapUrl);
+                                        String site = Indexer.siteOf(sitemapUrl);
+                                        Sitemap sitemap = engine.sitemapIfChanged(sitemapUrl,
+                                                                                  force ? null : state.get(indexName, sitemapUrl));
+                                        SitemapState.Entry current = sitemap.getState();
+                                        if (sitemap.getChange() == Sitemap.Change.FAILED) {
+                                            continue;
+                                        }
+                                        if (sitemap.getChange() != Sitemap.Change.CHANGED) {
+                                            logger.info("Sitemap unchanged since the last run (" + sitemap.getChange() + "), skipped: " + sitemapUrl);
+                                            metrics.increment(IndexMetrics.SKIPPED_SITEMAP, site);
+                                            // Keeps the validators fresh when only they changed.
+                                            completed.add(() -> state.put(indexName, sitemapUrl, current));
+                                            continue;
+                                        }
+
+                                        java.util.concurrent.atomic.AtomicInteger pending = new java.util.concurrent.atomic.AtomicInteger();
+                                        completed.add(() -> {
+                                            if (pending.get() == 0) {
+                                                state.put(indexName, sitemapUrl, current);
+                                            }
+                                        });
                                         for (SitemapEntry entry : sitemap.getSitemapEntries()) {
-                                            if (entry.getLastmod() == null) {
+                                            if (entry.getLastmod() == null
+                                                || !DateChecker.isWithinLastNDays(entry.getLastmod(), daysBack)) {
                                                 continue;
                                             }
-                                            else if(DateChecker.isWithinLastNDays(entry.getLastmod(), daysBack)) {
+                                            engine.expect(entry.getUrl());
+                                            pending.incrementAndGet();
+                                            jobs.add(() -> {
                                                 // Check if document already exists with same timestamp
-                                                if (!indexer.documentExistsWithSameTimestamp(entry.getUrl(), entry.getLastmod(), indexName)) {
-                                                    sleep(1000);
-                                                    logger.info(String.format("Indexing: %s, %s", entry.getUrl(), entry.getLastmod()));
-                                                    indexer.index(entry.getUrl(), indexName);
+                                                if (indexer.documentExistsWithSameTimestamp(entry.getUrl(), entry.getLastmod(), indexName)) {
+                                                    engine.release(entry.getUrl());
+                                                    pending.decrementAndGet();
+                                                    return null;
                                                 }
-                                            }
+                                                logger.fine(String.format("Indexing: %s, %s", entry.getUrl(), entry.getLastmod()));
+                                                if (indexPage(engine, indexer, entry, site, indexName)) {
+                                                    pending.decrementAndGet();
+                                                }
+                                                return null;
+                                            });
                                         }
                                     }
-                                } catch (IOException e) {
-                                    logger.log(Level.SEVERE, String.format("Can not process %s : %s",
-                                                               configFile, e.getMessage()), e);
+                                });
+                                bulk.flush();
+                                if (bulk.getFailed() == 0) {
+                                    completed.forEach(Runnable::run);
+                                } else {
+                                    logger.warning(bulk.getFailed() + " documents were not indexed; the sitemap state is not updated.");
                                 }
                             }
+                            saveSitemapState(state, statePath);
+                            writeIndexReport(metrics, cl);
                        });
 
         registerHelp("sau:indexUpdate",
@@ -512,6 +873,20 @@ Update a full-text index by reindexing pages that changed recently.
                 java.util.List.of("""
 sau3.java sau:indexUpdate --conf docusaurus_en.conf --days 7
   Reindexes pages modified within the last 7 days for each site in the configuration file.
+""",
+                        """
+sau3.java sau:indexUpdate --conf docusaurus_en.conf,docusaurus_ja.conf --concurrency 8 --perHost 2
+  Refreshes both indices at once on a shared crawler: at most 8 fetches in flight, 2 per host,
+  each host slot pausing --delay ms (default 1000) after a fetch. A sitemap or page listed in
+  both configurations is fetched once.
+""",
+                        """
+sau3.java sau:indexUpdate --conf docusaurus_en.conf --state /var/lib/sau3/sitemap-state.json
+  After a run without failures, the SHA-256 digest, ETag and Last-Modified of every sitemap are
+  stored in the state file (default ~/.sau3/sitemap-state.json). The next run sends the validators
+  with the sitemap request; a site whose sitemap is unchanged (304, or same digest) is skipped
+  without parsing or checking its pages, and counted as skipped_sitemap in the run report.
+  --force checks the pages of every sitemap again.
 """));
 
     }
@@ -529,22 +904,22 @@ sau3.java sau:indexUpdate --conf docusaurus_en.conf --days 7
                         .required(true)
                         .build());
 
+        addCrawlOptions(opts);
+        opts.addOption(reportOption());
+
         this.cmdRepos.addCommand("Docusaurus commands", "sau:indexClean", opts,
                        "Remove documents from the index that are no longer in the sitemap.",
                        (CommandLine cl)-> {
                             logger.info("sau:indexClean");
                             String configFiles = cl.getOptionValue("conf");
 
-                            String[] configs = configFiles.split(",");
-
-                            for (String configFile : configs) {
-                                configFile = configFile.trim();
-                                logger.info("Processing config: " + configFile);
+                            IndexMetrics metrics = new IndexMetrics("sau:indexClean");
 
-                                IndexConf indexConf = new IndexConf();
-                                Indexer indexer = new Indexer();
-
-                                try {
+                            try (CrawlEngine engine = crawlEngine(cl, metrics)) {
+                                crawlConfigs(engine, metrics, configFiles, (configFile, jobs) -> {
+                                    IndexConf indexConf = new IndexConf();
+                                    Indexer indexer = new Indexer();
+                                    indexer.setMetrics(metrics);
                                     indexConf.readConfigFile(configFile);
                                     String indexName = indexConf.getIndexName();
 
@@ -556,9 +931,7 @@ sau3.java sau:indexUpdate --conf docusaurus_en.conf --days 7
                                     java.util.Set<String> sitemapUrls = new java.util.HashSet<>();
                                     for (String sitemapUrl : indexConf.getSitemapUrls()) {
                                         logger.info("Processing sitemap: " + sitemapUrl);
-                                        Sitemap sitemap = new Sitemap();
-                                        sitemap.parse(sitemapUrl);
-                                        for (SitemapEntry entry : sitemap.getSitemapEntries()) {
+                                        for (SitemapEntry entry : engine.sitemap(sitemapUrl)) {
                                             sitemapUrls.add(entry.getUrl());
                                         }
                                     }
@@ -568,7 +941,7 @@ sau3.java sau:indexUpdate --conf docusaurus_en.conf --days 7
                                     int deletedCount = 0;
                                     for (String indexedUrl : indexedUrls) {
                                         if (!sitemapUrls.contains(indexedUrl)) {
-                                            logger.info("Deleting document no longer in sitemap: " + indexedUrl);
+                                            logger.fine("Deleting document no longer in sitemap: " + indexedUrl);
                                             if (indexer.deleteDocument(indexedUrl, indexName)) {
                                                 deletedCount++;
                                             }
@@ -576,12 +949,9 @@ sau3.java sau:indexUpdate --conf docusaurus_en.conf --days 7
                                     }
 
                                     logger.info("Deleted " + deletedCount + " documents from index: " + indexName);
-
-                                } catch (IOException e) {
-                                    logger.log(Level.SEVERE, String.format("Can not process %s : %s",
-                                                               configFile, e.getMessage()), e);
-                                }
+                                });
                             }
+                            writeIndexReport(metrics, cl);
                        });
 
         registerHelp("sau:indexClean",
@@ -626,6 +996,24 @@ sau3.java sau:indexClean --conf docusaurus_en.conf,docusaurus_ja.conf
                         .required(false)
                         .build());
 
+        opts.addOption(Option.builder("builtinMapping")
+                        .longOpt("builtinMapping")
+                        .hasArg(false)
+                        .desc("Create indices without a --mapping file using the built-in mapping (kuromoji, summary, suggest)")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("excludeTextSource")
+                        .longOpt("excludeTextSource")
+                        .hasArg(false)
+                        .desc("With --builtinMapping, keep the large text field out of _source")
+                        .required(false)
+                        .build());
+
+        opts.addOption(nearDuplicatesOption());
+        addCrawlOptions(opts);
+        opts.addOption(reportOption());
+
         this.cmdRepos.addCommand("Docusaurus commands", "sau:indexWithMapping", opts,
                        "Create ElasticSearch mapping and index from multiple configuration files.",
                        (CommandLine cl)-> {
@@ -635,45 +1023,58 @@ sau3.java sau:indexClean --conf docusaurus_en.conf,docusaurus_ja.conf
 
                             String[] configs = configFiles.split(",");
                             String[] mappings = mappingFiles != null ? mappingFiles.split(",") : null;
+                            java.util.Map<String, String> mappingOf = new java.util.HashMap<>();
+                            for (int i = 0; i < configs.length && mappings != null && i < mappings.length; i++) {
+                                mappingOf.put(configs[i].trim(), mappings[i].trim());
+                            }
+                            IndexMetrics metrics = new IndexMetrics("sau:indexWithMapping");
+                            List<Runnable> finishers = java.util.Collections.synchronizedList(new java.util.ArrayList<>());
 
-                            for (int i = 0; i < configs.length; i++) {
-                                String configFile = configs[i].trim();
-                                String mappingFile = mappings != null && i < mappings.length ?
-                                                   mappings[i].trim() : null;
-
-                                logger.info("Processing config: " + configFile +
-                                          (mappingFile != null ? " with mapping: " + mappingFile : ""));
-
-                                IndexConf indexConf = new IndexConf();
-                                Indexer indexer = new Indexer();
+                            try (CrawlEngine engine = crawlEngine(cl, metrics);
+                                 BulkWriter bulk = new BulkWriter(Indexer.DEFAULT_HOST, metrics)) {
+                                crawlConfigs(engine, metrics, configFiles, (configFile, jobs) -> {
+                                    String mappingFile = mappingOf.get(configFile);
+                                    if (mappingFile != null) {
+                                        logger.info("Config " + configFile + " with mapping: " + mappingFile);
+                                    }
 
-                                try {
+                                    IndexConf indexConf = new IndexConf();
+                                    Indexer indexer = new Indexer();
+                                    indexer.setMetrics(metrics);
+                                    indexer.setNearDuplicateDetector(nearDuplicateDetector(cl));
+                                    indexer.setBulkWriter(bulk);
                                     indexConf.readConfigFile(configFile);
 
                                     String indexName = indexConf.getIndexName();
+                                    finishers.add(() -> indexer.deleteDisplacedDuplicates(indexName));
 
                                     // Create mapping if specified
                                     if (mappingFile != null) {
                                         logger.info("Creating ElasticSearch mapping for index: " + indexName);
                                         createElasticSearchMapping(indexName, mappingFile);
+                                    } else if (cl.hasOption("builtinMapping")) {
+                                        logger.info("Creating built-in mapping for index: " + indexName);
+                                        indexer.createIndex(indexName, cl.hasOption("excludeTextSource"));
                                     }
 
                                     // Index documents
                                     for (String sitemapUrl : indexConf.getSitemapUrls()) {
                                         logger.info(sitemapUrl);
-                                        Sitemap sitemap = new Sitemap();
-                                        sitemap.parse(sitemapUrl);
-                                        for (SitemapEntry entry : sitemap.getSitemapEntries()) {
-                                            sleep(1000);
-                                            logger.info(String.format("%s, %s", entry.getUrl(), entry.getLastmod()));
-                                            indexer.index(entry.getUrl(), indexName);
+                                        String site = Indexer.siteOf(sitemapUrl);
+                                        for (SitemapEntry entry : engine.sitemap(sitemapUrl)) {
+                                            engine.expect(entry.getUrl());
+                                            jobs.add(() -> {
+                                                logger.fine(String.format("%s, %s", entry.getUrl(), entry.getLastmod()));
+                                                indexPage(engine, indexer, entry, site, indexName);
+                                                return null;
+                                            });
                                         }
                                     }
-                                } catch (IOException e) {
-                                    logger.log(Level.SEVERE, String.format("Can not process %s : %s",
-                                                               configFile, e.getMessage()), e);
-                                }
+                                });
+                                bulk.flush();
+                                finishers.forEach(Runnable::run);
                             }
+                            writeIndexReport(metrics, cl);
                        });
 
         registerHelp("sau:indexWithMapping",
@@ -683,9 +1084,942 @@ Create ElasticSearch mapping and index from multiple configuration files.
                 java.util.List.of("""
 sau3.java sau:indexWithMapping --conf configs/docs.conf,configs/blog.conf --mapping mappings/docs.json,mappings/blog.json
   Applies each mapping file before indexing the corresponding site content into ElasticSearch.
+""",
+                        """
+sau3.java sau:indexWithMapping --conf docusaurus_ja.conf --builtinMapping --excludeTextSource
+  Creates the index with the built-in mapping, keeping only title, url, summary and suggest in _source.
+""",
+                        """
+sau3.java sau:indexWithMapping --conf docusaurus_en.conf,docusaurus_ja.conf --builtinMapping --perHost 2
+  Rebuilds both indices concurrently; configurations sharing a site fetch its pages only once.
+  --concurrency, --perHost and --delay also apply to sau:indexUpdate and sau:indexClean.
+"""));
+    }
+
+    /**  sau:searchServe  */
+    public void sauSearchServeCommand() {
+        Options opts = new Options();
+
+        opts.addOption(Option.builder("conf")
+                        .option("c")
+                        .longOpt("conf")
+                        .hasArg(true)
+                        .argName("conf")
+                        .desc("Configuration files whose [index] is searched (comma-separated for multiple configs)")
+                        .required(true)
+                        .build());
+
+        opts.addOption(Option.builder("port")
+                        .option("p")
+                        .longOpt("port")
+                        .hasArg(true)
+                        .argName("port")
+                        .desc("Port to listen on (default: 8080)")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("opensearch")
+                        .longOpt("opensearch")
+                        .hasArg(true)
+                        .argName("opensearch")
+                        .desc("OpenSearch endpoint (default: http://localhost:9200)")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("boost")
+                        .longOpt("boost")
+                        .hasArg(true)
+                        .argName("boost")
+                        .desc("Per-index score boosts (e.g. docusaurus_ja=1.2,docusaurus_en=1.0)")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("highlight")
+                        .longOpt("highlight")
+                        .hasArg(false)
+                        .desc("Highlight the full text at query time instead of using the precomputed summary")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("cacheSize")
+                        .longOpt("cacheSize")
+                        .hasArg(true)
+                        .argName("cacheSize")
+                        .desc("Maximum number of cached result pages (default: 1000)")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("cacheTtl")
+                        .longOpt("cacheTtl")
+                        .hasArg(true)
+                        .argName("cacheTtl")
+                        .desc("Time-to-live of a cached result page in seconds (default: 300)")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("queryLog")
+                        .longOpt("queryLog")
+                        .hasArg(true)
+                        .argName("queryLog")
+                        .desc("File to record received queries in, for sau:warmup; 'none' disables it (default: ~/.sau3/search-queries.log)")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("invalidateInterval")
+                        .longOpt("invalidateInterval")
+                        .hasArg(true)
+                        .argName("invalidateInterval")
+                        .desc("Seconds between checks for newly indexed data (default: 10)")
+                        .required(false)
+                        .build());
+
+        this.cmdRepos.addCommand("Docusaurus commands", "sau:searchServe", opts,
+                       "Serve full-text search over the indexed Docusaurus sites via HTTP.",
+                       (CommandLine cl)-> {
+                            logger.info("sau:searchServe");
+                            String configFiles = cl.getOptionValue("conf");
+                            int port = Integer.parseInt(cl.getOptionValue("port", "8080"));
+                            HttpHost host = HttpHost.create(cl.getOptionValue("opensearch", "http://localhost:9200"));
+                            int cacheSize = Integer.parseInt(cl.getOptionValue("cacheSize", "1000"));
+                            long cacheTtlSec = Long.parseLong(cl.getOptionValue("cacheTtl", "300"));
+                            int invalidateInterval = Integer.parseInt(cl.getOptionValue("invalidateInterval", "10"));
+
+                            List<String> indexNames = readIndexNames(configFiles);
+                            if (indexNames == null) {
+                                return;
+                            }
+
+                            SearchService service = new SearchService(host, indexNames);
+                            service.setBoosts(cl.getOptionValue("boost"));
+                            service.setHighlight(cl.hasOption("highlight"));
+                            SearchServer server = new SearchServer(service, new SearchCache(cacheSize, cacheTtlSec * 1000));
+                            String queryLog = cl.getOptionValue("queryLog", QueryLog.DEFAULT_PATH.toString());
+                            if (!"none".equals(queryLog)) {
+                                server.setQueryLog(new QueryLog(java.nio.file.Paths.get(queryLog), 10L * 1024 * 1024));
+                            }
+                            try {
+                                server.start(port, invalidateInterval);
+                                Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+                            } catch (IOException e) {
+                                logger.log(Level.SEVERE, "Can not start the search server on port " + port, e);
+                                server.stop();
+                            }
+                       });
+
+        registerHelp("sau:searchServe",
+                java.util.List.of("""
+Serve full-text search over the indices named in the configuration files.
+
+The docusaurus.config.js of each site links to http://<server>:8080/search (rewritten by sau:deploy).
+This command answers that URL, so search can run next to the documents without a separate application.
+
+Endpoints:
+  GET /search?q=QUERY[&site=URL_PREFIX][&page=N]   HTML result page
+  GET /search?q=QUERY&format=json                  JSON result
+  GET /search/stats                                Cache statistics
+
+Result pages are cached (LRU with a TTL) and identical concurrent queries are executed only once.
+The cache is dropped automatically when an indexer run commits new data.
+"""),
+                java.util.List.of("""
+sau3.java sau:searchServe --conf docusaurus_ja.conf
+  Serves http://localhost:8080/search over the docusaurus_ja index.
+""",
+                        """
+sau3.java sau:searchServe --conf docusaurus_ja.conf,docusaurus_en.conf --port 8081 --cacheTtl 600
+  Searches both indices, listening on port 8081 and caching result pages for 10 minutes.
 """));
     }
 
+
+    /**  sau:search  */
+    public void sauSearchCommand() {
+        Options opts = new Options();
+
+        opts.addOption(Option.builder("conf")
+                        .option("c")
+                        .longOpt("conf")
+                        .hasArg(true)
+                        .argName("conf")
+                        .desc("Configuration files whose [index] is searched (comma-separated for multiple configs)")
+                        .required(true)
+                        .build());
+
+        opts.addOption(Option.builder("query")
+                        .option("q")
+                        .longOpt("query")
+                        .hasArg(true)
+                        .argName("query")
+                        .desc("Query string")
+                        .required(true)
+                        .build());
+
+        opts.addOption(Option.builder("site")
+                        .longOpt("site")
+                        .hasArg(true)
+                        .argName("site")
+                        .desc("Restrict hits to URLs starting with this prefix")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("page")
+                        .longOpt("page")
+                        .hasArg(true)
+                        .argName("page")
+                        .desc("Result page, starting from 1 (default: 1)")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("boost")
+                        .longOpt("boost")
+                        .hasArg(true)
+                        .argName("boost")
+                        .desc("Per-index score boosts (e.g. docusaurus_ja=1.2,docusaurus_en=1.0)")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("opensearch")
+                        .longOpt("opensearch")
+                        .hasArg(true)
+                        .argName("opensearch")
+                        .desc("OpenSearch endpoint (default: http://localhost:9200)")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("highlight")
+                        .longOpt("highlight")
+                        .hasArg(false)
+                        .desc("Highlight the full text at query time instead of using the precomputed summary")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("json")
+                        .longOpt("json")
+                        .hasArg(false)
+                        .desc("Print the result as JSON")
+                        .required(false)
+                        .build());
+
+        this.cmdRepos.addCommand("Docusaurus commands", "sau:search", opts,
+                       "Search one or more indices in a single round trip.",
+                       (CommandLine cl)-> {
+                            List<String> indexNames = readIndexNames(cl.getOptionValue("conf"));
+                            if (indexNames == null) {
+                                return;
+                            }
+                            HttpHost host = HttpHost.create(cl.getOptionValue("opensearch", "http://localhost:9200"));
+                            SearchQuery query = new SearchQuery(cl.getOptionValue("query"), cl.getOptionValue("site"),
+                                                                Integer.parseInt(cl.getOptionValue("page", "1")));
+
+                            try (SearchService service = new SearchService(host, indexNames)) {
+                                service.setBoosts(cl.getOptionValue("boost"));
+                                service.setHighlight(cl.hasOption("highlight"));
+                                if (cl.hasOption("json")) {
+                                    System.out.println(service.search(query));
+                                    return;
+                                }
+                                SearchService.Result result = service.find(query);
+                                System.out.println(result.getTotal() + " hits");
+                                int rank = query.from();
+                                for (java.util.Map<String, Object> hit : result.getHits()) {
+                                    rank++;
+                                    System.out.println(String.format("%3d. [%.3f %s] %s", rank, hit.get("score"),
+                                                                     hit.get("index"), hit.get("title")));
+                                    System.out.println("     " + hit.get("url"));
+                                }
+                            } catch (IOException e) {
+                                logger.log(Level.SEVERE, "Search failed: " + e.getMessage(), e);
+                            }
+                       });
+
+        registerHelp("sau:search",
+                java.util.List.of("""
+Search the indices named in the configuration files.
+
+When several indices are given (e.g. docusaurus_ja and docusaurus_en), the query is sent to all of them
+in a single _msearch round trip and the hits are merged by score, optionally multiplied by a per-index boost.
+"""),
+                java.util.List.of("""
+sau3.java sau:search --conf w206_ja.conf,w206_en.conf --query "slurm job" --boost docusaurus_ja=1.2
+  Searches the Japanese and English indices at once, preferring Japanese hits slightly.
+"""));
+    }
+
+
+    /**  sau:suggest  */
+    public void sauSuggestCommand() {
+        Options opts = new Options();
+
+        opts.addOption(Option.builder("conf")
+                        .option("c")
+                        .longOpt("conf")
+                        .hasArg(true)
+                        .argName("conf")
+                        .desc("Configuration files whose [index] is searched (comma-separated for multiple configs)")
+                        .required(true)
+                        .build());
+
+        opts.addOption(Option.builder("prefix")
+                        .option("p")
+                        .longOpt("prefix")
+                        .hasArg(true)
+                        .argName("prefix")
+                        .desc("Prefix typed so far")
+                        .required(true)
+                        .build());
+
+        opts.addOption(Option.builder("size")
+                        .longOpt("size")
+                        .hasArg(true)
+                        .argName("size")
+                        .desc("Maximum number of suggestions (default: 8)")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("opensearch")
+                        .longOpt("opensearch")
+                        .hasArg(true)
+                        .argName("opensearch")
+                        .desc("OpenSearch endpoint (default: http://localhost:9200)")
+                        .required(false)
+                        .build());
+
+        this.cmdRepos.addCommand("Docusaurus commands", "sau:suggest", opts,
+                       "Complete a prefix from page titles and headings.",
+                       (CommandLine cl)-> {
+                            List<String> indexNames = readIndexNames(cl.getOptionValue("conf"));
+                            if (indexNames == null) {
+                                return;
+                            }
+                            HttpHost host = HttpHost.create(cl.getOptionValue("opensearch", "http://localhost:9200"));
+                            int size = Integer.parseInt(cl.getOptionValue("size", "8"));
+
+                            try (SearchService service = new SearchService(host, indexNames)) {
+                                System.out.println(service.suggest(SearchQuery.normalize(cl.getOptionValue("prefix")), size));
+                            } catch (IOException e) {
+                                logger.log(Level.SEVERE, "Suggest failed: " + e.getMessage(), e);
+                            }
+                       });
+
+        registerHelp("sau:suggest",
+                java.util.List.of("""
+Answer a search-as-you-type prefix query with a single completion-suggester request.
+
+The indexer fills a "suggest" completion field with each page's title and h1-h3 headings,
+weighted so that pages near the site root rank first. The field must be mapped with
+"type": "completion" (see Indexer.createMapping()) before the sites are indexed.
+The same suggestions are served by sau:searchServe at /search/suggest?q=PREFIX.
+"""),
+                java.util.List.of("""
+sau3.java sau:suggest --conf docusaurus_ja.conf --prefix slu
+  Prints up to 8 completions as JSON.
+"""));
+    }
+
+
+    /**  sau:warmup  */
+    public void sauWarmupCommand() {
+        Options opts = new Options();
+
+        opts.addOption(Option.builder("index")
+                        .option("i")
+                        .longOpt("index")
+                        .hasArg(true)
+                        .argName("index")
+                        .desc("Index (generation) to warm up, e.g. the new index before the alias is switched (comma-separated)")
+                        .required(true)
+                        .build());
+
+        opts.addOption(Option.builder("queryLog")
+                        .longOpt("queryLog")
+                        .hasArg(true)
+                        .argName("queryLog")
+                        .desc("Query log recorded by sau:searchServe (default: ~/.sau3/search-queries.log)")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("top")
+                        .option("n")
+                        .longOpt("top")
+                        .hasArg(true)
+                        .argName("top")
+                        .desc("Number of most frequent queries to replay (default: 200)")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("concurrency")
+                        .longOpt("concurrency")
+                        .hasArg(true)
+                        .argName("concurrency")
+                        .desc("Number of queries in flight at once (default: 8)")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("opensearch")
+                        .longOpt("opensearch")
+                        .hasArg(true)
+                        .argName("opensearch")
+                        .desc("OpenSearch endpoint (default: http://localhost:9200)")
+                        .required(false)
+                        .build());
+
+        this.cmdRepos.addCommand("Docusaurus commands", "sau:warmup", opts,
+                       "Warm up a new index by replaying the most frequent captured queries.",
+                       (CommandLine cl)-> {
+                            List<String> indexNames = new java.util.ArrayList<>();
+                            for (String indexName : cl.getOptionValue("index").split(",")) {
+                                indexNames.add(indexName.trim());
+                            }
+                            java.nio.file.Path queryLog = java.nio.file.Paths.get(
+                                cl.getOptionValue("queryLog", QueryLog.DEFAULT_PATH.toString()));
+                            int top = Integer.parseInt(cl.getOptionValue("top", "200"));
+                            int concurrency = Integer.parseInt(cl.getOptionValue("concurrency", "8"));
+                            HttpHost host = HttpHost.create(cl.getOptionValue("opensearch", "http://localhost:9200"));
+
+                            try (SearchService service = new SearchService(host, indexNames)) {
+                                List<SearchQuery> queries = QueryLog.topQueries(queryLog, top);
+                                if (queries.isEmpty()) {
+                                    logger.warning("No queries found in " + queryLog);
+                                    return;
+                                }
+                                System.out.println("Replaying " + queries.size() + " queries against " + indexNames
+                                                   + " (concurrency " + concurrency + ")");
+
+                                QueryWarmer warmer = new QueryWarmer(service, concurrency);
+                                long[] before = warmer.replay(queries);
+                                long[] after = warmer.replay(queries);
+
+                                System.out.println(String.format("before: p50 %.1f ms, p99 %.1f ms",
+                                                                 QueryWarmer.percentile(before, 0.50) / 1e6,
+                                                                 QueryWarmer.percentile(before, 0.99) / 1e6));
+                                System.out.println(String.format("after:  p50 %.1f ms, p99 %.1f ms",
+                                                                 QueryWarmer.percentile(after, 0.50) / 1e6,
+                                                                 QueryWarmer.percentile(after, 0.99) / 1e6));
+                                if (warmer.getErrors() > 0) {
+                                    System.out.println("errors: " + warmer.getErrors());
+                                }
+                            } catch (IOException e) {
+                                logger.log(Level.SEVERE, "Can not read the query log: " + queryLog, e);
+                            }
+                       });
+
+        registerHelp("sau:warmup",
+                java.util.List.of("""
+Warm the filesystem and query caches of a freshly built index before users reach it.
+
+sau:searchServe records the queries it receives in a rolling query log. This command replays the
+most frequent of them against the given index, in parallel, twice: the first pass warms the caches
+("before"), the second shows the warm latency ("after"). Run it after a reindex or force-merge and
+before switching the alias to the new index.
+"""),
+                java.util.List.of("""
+sau3.java sau:warmup --index docusaurus_ja_v2 --top 500 --concurrency 16
+  Replays the 500 most frequent queries and prints p50/p99 latency before and after warm-up.
+"""));
+    }
+
+
+    /**  sau:benchSearch  */
+    public void sauBenchSearchCommand() {
+        Options opts = new Options();
+
+        opts.addOption(Option.builder("conf")
+                        .option("c")
+                        .longOpt("conf")
+                        .hasArg(true)
+                        .argName("conf")
+                        .desc("Configuration files whose [index] is searched (comma-separated for multiple configs)")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("index")
+                        .option("i")
+                        .longOpt("index")
+                        .hasArg(true)
+                        .argName("index")
+                        .desc("Indices to search (comma-separated); overrides --conf")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("queries")
+                        .option("q")
+                        .longOpt("queries")
+                        .hasArg(true)
+                        .argName("queries")
+                        .desc("Query file: one query per line, or a query log of sau:searchServe")
+                        .required(true)
+                        .build());
+
+        opts.addOption(Option.builder("concurrency")
+                        .longOpt("concurrency")
+                        .hasArg(true)
+                        .argName("concurrency")
+                        .desc("Number of queries in flight at once (default: 8)")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("rate")
+                        .longOpt("rate")
+                        .hasArg(true)
+                        .argName("rate")
+                        .desc("Target queries per second; 0 sends as fast as possible (default: 0)")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("requests")
+                        .option("n")
+                        .longOpt("requests")
+                        .hasArg(true)
+                        .argName("requests")
+                        .desc("Number of measured queries; queries are reused round-robin (default: one pass over the file)")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("warmup")
+                        .longOpt("warmup")
+                        .hasArg(true)
+                        .argName("warmup")
+                        .desc("Number of unmeasured queries sent first (default: 0)")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("boost")
+                        .longOpt("boost")
+                        .hasArg(true)
+                        .argName("boost")
+                        .desc("Per-index score boosts (e.g. docusaurus_ja=1.2,docusaurus_en=1.0)")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("highlight")
+                        .longOpt("highlight")
+                        .hasArg(false)
+                        .desc("Highlight the full text at query time instead of using the precomputed summary")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("opensearch")
+                        .longOpt("opensearch")
+                        .hasArg(true)
+                        .argName("opensearch")
+                        .desc("OpenSearch endpoint (default: http://localhost:9200)")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("out")
+                        .option("o")
+                        .longOpt("out")
+                        .hasArg(true)
+                        .argName("out")
+                        .desc("JSON result file (default: bench-search-<epochSeconds>.json)")
+                        .required(false)
+                        .build());
+
+        this.cmdRepos.addCommand("Docusaurus commands", "sau:benchSearch", opts,
+                       "Measure query latency and throughput by replaying a query file.",
+                       (CommandLine cl)-> {
+                            List<String> indexNames;
+                            if (cl.hasOption("index")) {
+                                indexNames = new java.util.ArrayList<>();
+                                for (String indexName : cl.getOptionValue("index").split(",")) {
+                                    indexNames.add(indexName.trim());
+                                }
+                            } else if (cl.hasOption("conf")) {
+                                indexNames = readIndexNames(cl.getOptionValue("conf"));
+                                if (indexNames == null) {
+                                    return;
+                                }
+                            } else {
+                                logger.severe("Either --index or --conf is required.");
+                                return;
+                            }
+
+                            java.nio.file.Path queryFile = java.nio.file.Paths.get(cl.getOptionValue("queries"));
+                            java.nio.file.Path out = java.nio.file.Paths.get(cl.getOptionValue("out",
+                                "bench-search-" + (System.currentTimeMillis() / 1000) + ".json"));
+                            HttpHost host = HttpHost.create(cl.getOptionValue("opensearch", "http://localhost:9200"));
+
+                            try (SearchService service = new SearchService(host, indexNames)) {
+                                service.setBoosts(cl.getOptionValue("boost"));
+                                service.setHighlight(cl.hasOption("highlight"));
+
+                                List<SearchQuery> queries = SearchBenchmark.readQueries(queryFile);
+                                if (queries.isEmpty()) {
+                                    logger.warning("No queries found in " + queryFile);
+                                    return;
+                                }
+
+                                SearchBenchmark bench = new SearchBenchmark(service);
+                                bench.setConcurrency(Integer.parseInt(cl.getOptionValue("concurrency", "8")));
+                                bench.setRate(Double.parseDouble(cl.getOptionValue("rate", "0")));
+                                bench.setRequests(Integer.parseInt(cl.getOptionValue("requests", "0")));
+                                bench.setWarmupRequests(Integer.parseInt(cl.getOptionValue("warmup", "0")));
+
+                                SearchBenchmark.Result result = bench.run(queries);
+
+                                System.out.println(String.format("requests: %d, errors: %d, elapsed: %.1f s, throughput: %.1f q/s",
+                                                                 result.getRequests(), result.getErrors(),
+                                                                 result.getElapsedNanos() / 1e9, result.getThroughput()));
+                                System.out.println(String.format("latency: p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+                                                                 result.percentileMillis(50), result.percentileMillis(90),
+                                                                 result.percentileMillis(99),
+                                                                 result.getHistogram().getMaxValue() / 1000.0));
+                                result.writeJson(out, indexNames);
+                                System.out.println("Result written to " + out);
+                            } catch (IOException e) {
+                                logger.log(Level.SEVERE, "Benchmark failed: " + e.getMessage(), e);
+                            }
+                       });
+
+        registerHelp("sau:benchSearch",
+                java.util.List.of("""
+Replay a query file against one or more indices and report latency percentiles, throughput and errors.
+
+Without --rate, --concurrency virtual threads send queries back to back (closed loop), which measures
+the maximum throughput. With --rate, queries are started at a fixed rate with at most --concurrency in
+flight (open loop); latencies are then measured from the scheduled start, so a stalling cluster shows
+up in the percentiles instead of silently lowering the load.
+
+The result, including the full HdrHistogram, is written as JSON so that runs before and after a change
+of index settings, mapping or chunking can be compared.
+"""),
+                java.util.List.of("""
+sau3.java sau:benchSearch --index docusaurus_ja --queries ~/.sau3/search-queries.log --concurrency 16 -n 5000 --warmup 500
+  Measures the maximum throughput with 16 concurrent queries.
+""",
+                        """
+sau3.java sau:benchSearch --conf w206_ja.conf,w206_en.conf --queries queries.txt --rate 50 -n 3000 --out before.json
+  Sends 50 queries per second for one minute and writes the percentiles to before.json.
+"""));
+    }
+
+
+    /**  sau:indexStats  */
+    public void sauIndexStatsCommand() {
+        Options opts = new Options();
+
+        opts.addOption(Option.builder("conf")
+                        .option("c")
+                        .longOpt("conf")
+                        .hasArg(true)
+                        .argName("conf")
+                        .desc("Configuration files (comma-separated for multiple configs)")
+                        .required(true)
+                        .build());
+
+        opts.addOption(Option.builder("opensearch")
+                        .longOpt("opensearch")
+                        .hasArg(true)
+                        .argName("opensearch")
+                        .desc("OpenSearch endpoint (default: http://localhost:9200)")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("noSitemap")
+                        .longOpt("noSitemap")
+                        .hasArg(false)
+                        .desc("Do not fetch the sitemaps, i.e. skip the count of documents no longer in the sitemap")
+                        .required(false)
+                        .build());
+
+        opts.addOption(Option.builder("json")
+                        .longOpt("json")
+                        .hasArg(false)
+                        .desc("Print the statistics as JSON")
+                        .required(false)
+                        .build());
+
+        this.cmdRepos.addCommand("Docusaurus commands", "sau:indexStats", opts,
+                       "Show document count, size, freshness and stale documents of the indices, per site.",
+                       (CommandLine cl)-> {
+                            HttpHost host = HttpHost.create(cl.getOptionValue("opensearch", "http://localhost:9200"));
+                            List<Object> results = new java.util.ArrayList<>();
+
+                            try (IndexStats indexStats = new IndexStats(host)) {
+                                for (String configFile : cl.getOptionValue("conf").split(",")) {
+                                    configFile = configFile.trim();
+                                    try {
+                                        IndexConf indexConf = new IndexConf();
+                                        indexConf.readConfigFile(configFile);
+
+                                        java.util.Map<String, List<String>> sitemaps = new java.util.LinkedHashMap<>();
+                                        if (!cl.hasOption("noSitemap")) {
+                                            for (String sitemapUrl : indexConf.getSitemapUrls()) {
+                                                Sitemap sitemap = new Sitemap();
+                                                sitemap.parse(sitemapUrl);
+                                                List<String> urls = new java.util.ArrayList<>();
+                                                for (SitemapEntry entry : sitemap.getSitemapEntries()) {
+                                                    urls.add(entry.getUrl());
+                                                }
+                                                sitemaps.put(sitemapUrl, urls);
+                                            }
+                                        }
+
+                                        IndexStats.Stats stats = indexStats.collect(indexConf.getIndexName(), sitemaps);
+                                        if (cl.hasOption("json")) {
+                                            java.util.Map<String, Object> m = new java.util.LinkedHashMap<>();
+                                            m.put("conf", configFile);
+                                            m.putAll(IndexStats.toMap(stats));
+                                            results.add(m);
+                                        } else {
+                                            printIndexStats(configFile, stats);
+                                        }
+                                    } catch (IOException e) {
+                                        logger.log(Level.SEVERE, String.format("Can not process %s : %s",
+                                                                   configFile, e.getMessage()), e);
+                                    }
+                                }
+                            }
+
+                            if (cl.hasOption("json")) {
+                                try {
+                                    System.out.println(new com.fasterxml.jackson.databind.ObjectMapper()
+                                                       .writerWithDefaultPrettyPrinter().writeValueAsString(results));
+                                } catch (IOException e) {
+                                    logger.log(Level.SEVERE, "Can not write the statistics as JSON", e);
+                                }
+                            }
+                       });
+
+        registerHelp("sau:indexStats",
+                java.util.List.of("""
+Show, for the index of each configuration file, the document count, store size and segment count,
+and per site: document count, estimated store size, oldest and newest lastmod, and the number of
+documents whose URL is no longer in the site's sitemap (i.e. what sau:indexClean would delete).
+
+The figures come from _cat/indices, _cat/segments, one aggregation query and a few _count queries,
+so the command is cheap even for large indices. Per-site sizes are estimated from the share of
+documents, because OpenSearch does not report storage per document. Documents indexed before the
+site field was introduced are counted as "without site"; reindex them to get per-site figures.
+"""),
+                java.util.List.of("""
+sau3.java sau:indexStats --conf docusaurus_en.conf,docusaurus_ja.conf
+  Prints the statistics of both indices.
+""",
+                        """
+sau3.java sau:indexStats --conf docusaurus_en.conf --noSitemap --json
+  Prints the statistics as JSON without fetching the sitemaps.
+"""));
+    }
+
+
+    /** Prints the statistics of one index as a table. */
+    private void printIndexStats(String configFile, IndexStats.Stats stats) {
+        System.out.println(String.format("%s (%s): %d docs, %s, %d segments",
+                                         stats.getIndex(), configFile, stats.getDocs(),
+                                         IndexStats.humanBytes(stats.getStoreBytes()), stats.getSegments()));
+        System.out.println(String.format("  %-50s %8s %10s %-25s %-25s %s",
+                                         "site", "docs", "size(est)", "oldest lastmod", "newest lastmod", "not in sitemap"));
+        for (IndexStats.SiteStats site : stats.getSites()) {
+            System.out.println(String.format("  %-50s %8d %10s %-25s %-25s %s",
+                                             site.getSite(), site.getDocs(),
+                                             IndexStats.humanBytes(site.getEstimatedStoreBytes()),
+                                             site.getOldestLastmod() == null ? "-" : site.getOldestLastmod(),
+                                             site.getNewestLastmod() == null ? "-" : site.getNewestLastmod(),
+                                             site.getNotInSitemap() < 0 ? "-" : String.valueOf(site.getNotInSitemap())));
+        }
+        if (stats.getDocsWithoutSite() > 0) {
+            System.out.println(String.format("  %-50s %8d", "(without site)", stats.getDocsWithoutSite()));
+        }
+    }
+
+
+    /** Adds the --concurrency, --perHost and --delay options of the crawl engine. */
+    private void addCrawlOptions(Options opts) {
+        opts.addOption(Option.builder("concurrency")
+                        .longOpt("concurrency")
+                        .hasArg(true)
+                        .argName("concurrency")
+                        .desc("Maximum number of page fetches in flight over all sites (default: "
+                              + CrawlEngine.DEFAULT_CONCURRENCY + ")")
+                        .required(false)
+                        .build());
+        opts.addOption(Option.builder("perHost")
+                        .longOpt("perHost")
+                        .hasArg(true)
+                        .argName("perHost")
+                        .desc("Maximum number of page fetches in flight per host (default: "
+                              + CrawlEngine.DEFAULT_PER_HOST + ")")
+                        .required(false)
+                        .build());
+        opts.addOption(Option.builder("delay")
+                        .longOpt("delay")
+                        .hasArg(true)
+                        .argName("msec")
+                        .desc("Pause of a host slot after each fetch, in milliseconds (default: "
+                              + CrawlEngine.DEFAULT_DELAY_MILLIS + ")")
+                        .required(false)
+                        .build());
+    }
+
+
+    /** Creates a crawl engine configured by the --concurrency, --perHost and --delay options. */
+    private CrawlEngine crawlEngine(CommandLine cl, IndexMetrics metrics) {
+        CrawlEngine engine = new CrawlEngine(metrics);
+        engine.setConcurrency(Integer.parseInt(cl.getOptionValue("concurrency", String.valueOf(CrawlEngine.DEFAULT_CONCURRENCY))));
+        engine.setPerHost(Integer.parseInt(cl.getOptionValue("perHost", String.valueOf(CrawlEngine.DEFAULT_PER_HOST))));
+        engine.setDelayMillis(Long.parseLong(cl.getOptionValue("delay", String.valueOf(CrawlEngine.DEFAULT_DELAY_MILLIS))));
+        return engine;
+    }
+
+
+    /** Plans the page jobs of one configuration file. */
+    @FunctionalInterface
+    interface ConfigPlanner {
+        void plan(String configFile, List<java.util.concurrent.Callable<Void>> jobs) throws IOException;
+    }
+
+
+    /** Processes comma-separated configuration files concurrently on a shared crawl engine.
+     *
+     * <p>
+     * All configurations are planned first (configuration files read, sitemaps parsed, pages
+     * announced with {@link CrawlEngine#expect(String)}); only then the page jobs of all
+     * configurations run together, so that a page listed by several configurations is fetched once.
+     * </p>
+     */
+    private void crawlConfigs(CrawlEngine engine, IndexMetrics metrics, String configFiles, ConfigPlanner planner) {
+        List<List<java.util.concurrent.Callable<Void>>> jobsPerConfig = new java.util.ArrayList<>();
+        List<java.util.concurrent.Callable<Void>> planTasks = new java.util.ArrayList<>();
+        for (String file : configFiles.split(",")) {
+            String configFile = file.trim();
+            List<java.util.concurrent.Callable<Void>> jobs = new java.util.ArrayList<>();
+            jobsPerConfig.add(jobs);
+            planTasks.add(() -> {
+                logger.info("Processing config: " + configFile);
+                try {
+                    planner.plan(configFile, jobs);
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, String.format("Can not process %s : %s",
+                                                           configFile, e.getMessage()), e);
+                }
+                return null;
+            });
+        }
+        engine.runAll(planTasks);
+
+        List<java.util.concurrent.Callable<Void>> all = new java.util.ArrayList<>();
+        jobsPerConfig.forEach(all::addAll);
+        IndexMetrics.Gauge queue = metrics.gauge(IndexMetrics.QUEUE_DEPTH);
+        queue.set(all.size());
+        List<java.util.concurrent.Callable<Void>> counted = new java.util.ArrayList<>();
+        for (java.util.concurrent.Callable<Void> job : all) {
+            counted.add(() -> {
+                try {
+                    return job.call();
+                } finally {
+                    queue.decrement();
+                }
+            });
+        }
+        engine.runAll(counted);
+    }
+
+
+    /** Fetches a page through the crawl engine and indexes it.
+     *
+     * @return false if the page could not be fetched.
+     */
+    private boolean indexPage(CrawlEngine engine, Indexer indexer, SitemapEntry entry, String site, String indexName)
+        throws IOException {
+        Indexer.Page page = engine.fetch(entry.getUrl());
+        if (page == null) {
+            logger.fine("Not indexed (fetch failed): " + entry.getUrl());
+            return false;
+        }
+        indexer.index(page, entry.getLastmod(), site, indexName);
+        return true;
+    }
+
+
+    /** Reads the sitemap state file; an unreadable file is logged and gives an empty state. */
+    private SitemapState loadSitemapState(java.nio.file.Path statePath) {
+        try {
+            return SitemapState.load(statePath);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Can not read the sitemap state " + statePath + ", checking all sitemaps.", e);
+            return new SitemapState();
+        }
+    }
+
+
+    private void saveSitemapState(SitemapState state, java.nio.file.Path statePath) {
+        try {
+            state.save(statePath);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Can not write the sitemap state " + statePath, e);
+        }
+    }
+
+
+    /** The --report option shared by the index commands. */
+    private Option reportOption() {
+        return Option.builder("report")
+            .longOpt("report")
+            .hasArg(true)
+            .argName("report")
+            .desc("Run report file; *.prom is written in the Prometheus text format, otherwise JSON (default: ~/.sau3/index-report.json)")
+            .required(false)
+            .build();
+    }
+
+
+    /** The --nearDuplicates option shared by the full index commands. */
+    private Option nearDuplicatesOption() {
+        return Option.builder("nearDuplicates")
+            .longOpt("nearDuplicates")
+            .hasArg(true)
+            .argName("maxDistance")
+            .desc("Skip pages within this SimHash distance (0-15 bits, e.g. 10) of a page already indexed in the run")
+            .required(false)
+            .build();
+    }
+
+
+    /** Returns a near-duplicate detector if --nearDuplicates is given, otherwise null. */
+    private NearDuplicateDetector nearDuplicateDetector(CommandLine cl) {
+        if (!cl.hasOption("nearDuplicates")) {
+            return null;
+        }
+        return new NearDuplicateDetector(Integer.parseInt(cl.getOptionValue("nearDuplicates")));
+    }
+
+
+    /** Logs the counters of an index run and writes its report. */
+    private void writeIndexReport(IndexMetrics metrics, CommandLine cl) {
+        java.nio.file.Path report = java.nio.file.Paths.get(
+            cl.getOptionValue("report", IndexMetrics.DEFAULT_REPORT.toString()));
+        logger.info(metrics.summary());
+        try {
+            metrics.writeReport(report);
+            logger.info("Run report written to " + report);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Can not write the run report: " + report, e);
+        }
+    }
+
+
+    /** Returns the distinct index names of comma-separated configuration files, or null if one can not be read. */
+    private List<String> readIndexNames(String configFiles) {
+        List<String> indexNames = new java.util.ArrayList<>();
+        for (String configFile : configFiles.split(",")) {
+            configFile = configFile.trim();
+            IndexConf indexConf = new IndexConf();
+            try {
+                indexConf.readConfigFile(configFile);
+                if (!indexNames.contains(indexConf.getIndexName())) {
+                    indexNames.add(indexConf.getIndexName());
+                }
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, String.format("Can not read %s : %s",
+                                           configFile, e.getMessage()), e);
+                return null;
+            }
+        }
+        return indexNames;
+    }
+
+
     private void createElasticSearchMapping(String indexName, String mappingFile) {
         try {
             // Use curl command to create mapping (similar to shell script)
@@ -0,0 +1,229 @@
+package com.github.oogasawa.utility.sau3.deploy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+/** Turns a build made for placeholder addresses into a build for a deploy target.
+ *
+ * <p>
+ * A site built with {@link #URL}, {@link #BASE_URL} and {@link #SEARCH_SERVER} in its
+ * Docusaurus config carries these strings wherever Docusaurus writes an absolute address: HTML
+ * attributes, CSS {@code url()}, the webpack public path of the JS chunks, the sitemap, the RSS
+ * and Atom feeds and the search index. {@link #relocate(Path, Path)} copies the build, replacing
+ * them by the addresses of a target, so one build serves any number of targets. Files of other
+ * types (images, fonts) are hard-linked unchanged.
+ * </p>
+ *
+ * <p>
+ * The placeholders are matched without their trailing slash, since Docusaurus also writes the
+ * baseUrl without it (e.g. as the router base name); the replacement is then written without it
+ * as well. Content hashes in file names still refer to the placeholder build, which is harmless
+ * since every target serves its own copy. Column offsets of source maps are not adjusted.
+ * </p>
+ */
+public class BaseUrlRelocator {
+
+    /** The url of a relocatable build. */
+    public static final String URL = "https://sau-relocate.invalid/";
+
+    /** The baseUrl of a relocatable build. */
+    public static final String BASE_URL = "/__sau_base__/";
+
+    /** The search server of a relocatable build, as in {@code http://<server>:8080/search}. */
+    public static final String SEARCH_SERVER = "sau-search.invalid";
+
+    /** Extensions of the files that may contain addresses. */
+    static final Set<String> TEXT_EXTENSIONS = Set.of(
+        "html", "htm", "css", "js", "mjs", "cjs", "json", "map", "xml", "txt", "svg", "webmanifest", "rss", "atom");
+
+
+    /** What a relocation did. */
+    public static class Stats {
+        final AtomicInteger files = new AtomicInteger();
+        final AtomicInteger rewritten = new AtomicInteger();
+        final AtomicInteger replacements = new AtomicInteger();
+        final AtomicLong bytes = new AtomicLong();
+        long millis;
+
+        public int getFiles() {
+            return files.get();
+        }
+
+        public int getRewritten() {
+            return rewritten.get();
+        }
+
+        public int getReplacements() {
+            return replacements.get();
+        }
+
+        /** Bytes read from the text files. */
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d files, %d rewritten (%d addresses, %d MB scanned) in %d ms",
+                                 getFiles(), getRewritten(), getReplacements(), getBytes() >> 20, getMillis());
+        }
+    }
+
+
+    final byte[][] from;
+    final byte[][] to;
+
+
+    /**
+     * @param url  The url of the target, e.g. {@code http://192.168.12.1/}.
+     * @param baseUrl  The baseUrl of the target, e.g. {@code /~web/doc_X/} or {@code /}.
+     * @param searchServer  The host of the search server of the target, or null to leave it.
+     */
+    public BaseUrlRelocator(String url, String baseUrl, String searchServer) {
+        List<String[]> pairs = new java.util.ArrayList<>();
+        pairs.add(new String[] {stripSlash(URL), stripSlash(url)});
+        pairs.add(new String[] {stripSlash(BASE_URL), stripSlash(baseUrl)});
+        if (searchServer != null) {
+            pairs.add(new String[] {SEARCH_SERVER, searchServer});
+        }
+        this.from = new byte[pairs.size()][];
+        this.to = new byte[pairs.size()][];
+        for (int i = 0; i < pairs.size(); i++) {
+            this.from[i] = pairs.get(i)[0].getBytes(StandardCharsets.UTF_8);
+            this.to[i] = pairs.get(i)[1].getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+
+    /** Writes the relocated copy of a build directory into a new directory; files are processed in parallel.
+     *
+     * @param target  The directory to create; it must not exist, and should be on the file system of the build.
+     */
+    public Stats relocate(Path buildDir, Path target) throws IOException {
+        long start = System.nanoTime();
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(buildDir)) {
+            paths = walk.collect(Collectors.toList());
+        }
+        Files.createDirectory(target);
+        for (Path p : paths) {
+            if (Files.isDirectory(p) && !p.equals(buildDir)) {
+                Files.createDirectories(target.resolve(buildDir.relativize(p)));
+            }
+        }
+
+        Stats stats = new Stats();
+        try {
+            // The manifest of an earlier sync describes the build, not the copy.
+            paths.parallelStream()
+                .filter(p -> Files.isRegularFile(p) && !p.equals(buildDir.resolve(DeployManifest.FILE_NAME)))
+                .forEach(p -> {
+                    try {
+                        relocateFile(p, target.resolve(buildDir.relativize(p)), stats);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        stats.millis = (System.nanoTime() - start) / 1_000_000;
+        return stats;
+    }
+
+
+    void relocateFile(Path source, Path target, Stats stats) throws IOException {
+        stats.files.incrementAndGet();
+        if (isText(source)) {
+            byte[] data = Files.readAllBytes(source);
+            stats.bytes.addAndGet(data.length);
+            int[] count = new int[1];
+            byte[] relocated = replace(data, count);
+            if (count[0] > 0) {
+                Files.write(target, relocated);
+                stats.rewritten.incrementAndGet();
+                stats.replacements.addAndGet(count[0]);
+                return;
+            }
+        }
+        try {
+            Files.createLink(target, source);
+        } catch (FileSystemException | UnsupportedOperationException e) {
+            Files.copy(source, target);
+        }
+    }
+
+
+    /** Replaces the placeholders in some bytes.
+     *
+     * @param count  Receives the number of replacements in its first element.
+     * @return The replaced bytes, or {@code data} itself if there was nothing to replace.
+     */
+    byte[] replace(byte[] data, int[] count) {
+        ByteArrayOutputStream out = null;
+        int copied = 0;
+        for (int i = 0; i < data.length; i++) {
+            for (int k = 0; k < this.from.length; k++) {
+                byte[] f = this.from[k];
+                if (data[i] == f[0] && matches(data, i, f)) {
+                    if (out == null) {
+                        out = new ByteArrayOutputStream(data.length + 256);
+                    }
+                    out.write(data, copied, i - copied);
+                    out.write(this.to[k], 0, this.to[k].length);
+                    count[0]++;
+                    i += f.length - 1;
+                    copied = i + 1;
+                    break;
+                }
+            }
+        }
+        if (out == null) {
+            return data;
+        }
+        out.write(data, copied, data.length - copied);
+        return out.toByteArray();
+    }
+
+
+    static boolean matches(byte[] data, int offset, byte[] token) {
+        if (offset + token.length > data.length) {
+            return false;
+        }
+        for (int j = 1; j < token.length; j++) {
+            if (data[offset + j] != token[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    static boolean isText(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && TEXT_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase());
+    }
+
+
+    static String stripSlash(String s) {
+        return s.endsWith("/") ? s.substring(0, s.length() - 1) : s;
+    }
+
+}
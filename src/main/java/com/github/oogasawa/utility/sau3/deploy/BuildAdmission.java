@@ -0,0 +1,171 @@
+package com.github.oogasawa.utility.sau3.deploy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+
+/** Decides when another Docusaurus build may start, from the memory it is expected to use.
+ *
+ * <p>
+ * A {@code yarn run build} is one Node process whose heap grows to a few GB on a large site, so
+ * the number of concurrent builds is bounded by memory long before the CPU. A build is admitted
+ * when
+ * </p>
+ * <ul>
+ *   <li>fewer than {@code maxBuilds} builds are running (the CPU cap),</li>
+ *   <li>the estimates of the running builds plus its own fit in the memory that was available
+ *       ({@code MemAvailable} in {@code /proc/meminfo}) when the first build started, less a
+ *       reserve for the rest of the system, and</li>
+ *   <li>{@code MemAvailable} still covers its estimate, in case other processes took memory.</li>
+ * </ul>
+ * <p>
+ * A build is always admitted when none is running, so that one large build can not wait forever.
+ * Where {@code /proc/meminfo} can not be read, only the CPU cap applies.
+ * </p>
+ *
+ * <p>The estimate of a build is its Node heap limit ({@code --max-old-space-size}) plus {@link #NATIVE_OVERHEAD_MB}.</p>
+ */
+public class BuildAdmission {
+
+    public static final Path MEMINFO = Paths.get("/proc/meminfo");
+
+    /** Default Node heap limit of one build. */
+    public static final int DEFAULT_HEAP_MB = 3072;
+
+    /** Memory of a Node process outside the V8 heap: code, buffers, worker threads. */
+    public static final int NATIVE_OVERHEAD_MB = 512;
+
+    /** Memory left to the rest of the system. */
+    static final long RESERVE_BYTES = 1024L * 1024 * 1024;
+
+    /** Memory is freed without notice when a build ends elsewhere; re-check this often. */
+    static final long POLL_MILLIS = 2000;
+
+    final int maxBuilds;
+    final LongSupplier available;
+    final ReentrantLock lock = new ReentrantLock();
+    final Condition released = this.lock.newCondition();
+
+    long budget = -1;
+    long reserved = 0;
+    int running = 0;
+    long waitNanos = 0;
+
+
+    /** @param maxBuilds The maximum number of concurrent builds. */
+    public BuildAdmission(int maxBuilds) {
+        this(maxBuilds, () -> memAvailable(MEMINFO));
+    }
+
+
+    /** @param available Returns the available memory in bytes, or -1 if unknown. */
+    BuildAdmission(int maxBuilds, LongSupplier available) {
+        this.maxBuilds = Math.max(1, maxBuilds);
+        this.available = available;
+    }
+
+
+    /** Returns a default CPU cap: half of the processors, since a build also runs worker threads. */
+    public static int defaultMaxBuilds() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+
+    /** Returns the expected memory of a build with the given Node heap limit, in bytes. */
+    public static long estimate(int heapMb) {
+        return (long) (heapMb + NATIVE_OVERHEAD_MB) * 1024 * 1024;
+    }
+
+
+    /** Blocks until a build with the given memory estimate may start; pair with {@link #release(long)}. */
+    public void acquire(long bytes) throws InterruptedException {
+        long start = System.nanoTime();
+        this.lock.lock();
+        try {
+            if (this.budget < 0) {
+                long free = this.available.getAsLong();
+                this.budget = free < 0 ? Long.MAX_VALUE : Math.max(0, free - RESERVE_BYTES);
+            }
+            while (!admissible(bytes)) {
+                this.released.await(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            this.running++;
+            this.reserved += bytes;
+            this.waitNanos += System.nanoTime() - start;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+
+    /** Ends a build admitted by {@link #acquire(long)} with the same estimate. */
+    public void release(long bytes) {
+        this.lock.lock();
+        try {
+            this.running--;
+            this.reserved -= bytes;
+            this.released.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+
+    boolean admissible(long bytes) {
+        if (this.running == 0) {
+            return true;
+        }
+        if (this.running >= this.maxBuilds || this.reserved + bytes > this.budget) {
+            return false;
+        }
+        long free = this.available.getAsLong();
+        return free < 0 || free >= bytes;
+    }
+
+
+    public int getRunning() {
+        this.lock.lock();
+        try {
+            return this.running;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+
+    /** Total time builds waited for admission, in milliseconds. */
+    public long getWaitMillis() {
+        this.lock.lock();
+        try {
+            return TimeUnit.NANOSECONDS.toMillis(this.waitNanos);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+
+    /** Reads {@code MemAvailable} from a meminfo file.
+     *
+     * @return The available memory in bytes, or -1 if it can not be read.
+     */
+    static long memAvailable(Path meminfo) {
+        try {
+            for (String line : Files.readAllLines(meminfo)) {
+                if (line.startsWith("MemAvailable:")) {
+                    String[] fields = line.substring("MemAvailable:".length()).trim().split("\\s+");
+                    return Long.parseLong(fields[0]) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux, or an unexpected format: no memory limit.
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,221 @@
+package com.github.oogasawa.utility.sau3.deploy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+
+/** A hash of everything a Docusaurus build of a project depends on.
+ *
+ * <p>
+ * The inputs are
+ * </p>
+ * <ul>
+ *   <li>the git commit ({@code HEAD}) and the uncommitted changes: the status and content of
+ *       every modified or untracked file,</li>
+ *   <li>the Docusaurus config, after it was rewritten for the deploy target,</li>
+ *   <li>{@code package.json} and the lockfile,</li>
+ *   <li>the versions of Node and of the installed {@code @docusaurus/core}, and</li>
+ *   <li>the target settings given by the caller, e.g. url, baseUrl and the search index option.</li>
+ * </ul>
+ * <p>
+ * Build output, {@code node_modules} and the {@link DeployState} file are not inputs. Two
+ * builds with the same fingerprint produce the same site, so the second one can be skipped.
+ * Outside a git work tree no fingerprint is computed and the project is always built.
+ * </p>
+ */
+public class BuildFingerprint {
+
+    /** Changes when the way sau prepares a build changes, so that old fingerprints no longer match. */
+    static final String FORMAT = "1";
+
+    public static final List<String> CONFIG_FILES = List.of(
+        "docusaurus.config.js", "docusaurus.config.ts", "docusaurus.config.mjs", "docusaurus.config.cjs");
+
+    public static final List<String> PACKAGE_FILES = List.of(
+        "package.json", "yarn.lock", "package-lock.json", "pnpm-lock.yaml");
+
+    /** Paths of the project directory that are not build inputs. */
+    static final List<String> EXCLUDED = List.of(
+        "build", "build-relocated", ".docusaurus", "node_modules", DeployState.FILE_NAME, DeployState.FILE_NAME + ".tmp");
+
+    static volatile String nodeVersion;
+
+    final Map<String, String> inputs = new TreeMap<>();
+
+
+    /** Computes the fingerprint of a project directory.
+     *
+     * @param target  Settings of the deploy target that change the output, e.g. {@code baseUrl}.
+     * @return The fingerprint, or null if the directory is not a git work tree.
+     */
+    public static BuildFingerprint of(Path projectDir, Map<String, String> target) throws IOException {
+        byte[] revParse = git(projectDir, "rev-parse", "HEAD", "--show-toplevel");
+        if (revParse == null) {
+            return null;
+        }
+        String[] lines = new String(revParse, StandardCharsets.UTF_8).strip().split("\n");
+        if (lines.length < 2) {
+            return null;
+        }
+        List<String> args = new ArrayList<>(List.of("status", "--porcelain=v1", "-z", "--untracked-files=all", "--", "."));
+        for (String excluded : EXCLUDED) {
+            args.add(":(exclude)" + excluded);
+        }
+        byte[] status = git(projectDir, args.toArray(new String[0]));
+        if (status == null) {
+            return null;
+        }
+
+        BuildFingerprint fp = new BuildFingerprint();
+        fp.inputs.put("format", FORMAT);
+        fp.inputs.put("head", lines[0].strip());
+        fp.inputs.put("dirty", dirty(Path.of(lines[1].strip()), new String(status, StandardCharsets.UTF_8)));
+        for (String name : CONFIG_FILES) {
+            if (Files.isRegularFile(projectDir.resolve(name))) {
+                fp.inputs.put("config:" + name, DeployManifest.sha256(projectDir.resolve(name)));
+            }
+        }
+        for (String name : PACKAGE_FILES) {
+            if (Files.isRegularFile(projectDir.resolve(name))) {
+                fp.inputs.put("package:" + name, DeployManifest.sha256(projectDir.resolve(name)));
+            }
+        }
+        fp.inputs.put("node", nodeVersion());
+        fp.inputs.put("docusaurus", docusaurusVersion(projectDir));
+        for (Map.Entry<String, String> e : target.entrySet()) {
+            fp.inputs.put("target:" + e.getKey(), String.valueOf(e.getValue()));
+        }
+        return fp;
+    }
+
+
+    /** The inputs by name, for logging what changed between two builds. */
+    public Map<String, String> getInputs() {
+        return this.inputs;
+    }
+
+
+    /** Returns the SHA-256 of the inputs. */
+    public String getHash() {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (Map.Entry<String, String> e : this.inputs.entrySet()) {
+                md.update((e.getKey() + "=" + e.getValue() + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 algorithm not found", e);
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        return getHash();
+    }
+
+
+    /** Returns a hash of the uncommitted changes listed by {@code git status --porcelain -z}, or "" if there are none.
+     *
+     * <p>
+     * Each entry is {@code XY path}, relative to the top of the work tree; a rename or copy is
+     * followed by its source path, which is skipped.
+     * </p>
+     */
+    static String dirty(Path workTree, String status) throws IOException {
+        if (status.isEmpty()) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        String[] entries = status.split("\0");
+        for (int i = 0; i < entries.length; i++) {
+            String entry = entries[i];
+            if (entry.length() < 4) {
+                continue;
+            }
+            String xy = entry.substring(0, 2);
+            String path = entry.substring(3);
+            Path file = workTree.resolve(path);
+            sb.append(xy).append(' ').append(path).append(' ')
+                .append(Files.isRegularFile(file) ? DeployManifest.sha256(file) : "-").append('\n');
+            if (xy.indexOf('R') >= 0 || xy.indexOf('C') >= 0) {
+                i++;
+            }
+        }
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256")
+                                            .digest(sb.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 algorithm not found", e);
+        }
+    }
+
+
+    /** Returns {@code node --version}, asked once per run; "unknown" if Node can not be run. */
+    static String nodeVersion() {
+        String version = nodeVersion;
+        if (version == null) {
+            try {
+                Process p = new ProcessBuilder("node", "--version")
+                    .redirectError(ProcessBuilder.Redirect.DISCARD).start();
+                byte[] out;
+                try (InputStream in = p.getInputStream()) {
+                    out = in.readAllBytes();
+                }
+                version = p.waitFor() == 0 ? new String(out, StandardCharsets.UTF_8).strip() : "unknown";
+            } catch (IOException e) {
+                version = "unknown";
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return "unknown";
+            }
+            nodeVersion = version;
+        }
+        return version;
+    }
+
+
+    /** Returns the version of the installed {@code @docusaurus/core}, or "none". */
+    static String docusaurusVersion(Path projectDir) {
+        Path pkg = projectDir.resolve("node_modules/@docusaurus/core/package.json");
+        try {
+            JsonNode version = new ObjectMapper().readTree(pkg.toFile()).get("version");
+            return version == null ? "none" : version.asText();
+        } catch (IOException e) {
+            return "none";
+        }
+    }
+
+
+    /** Runs a git command in a directory and returns its output, or null if it failed. */
+    static byte[] git(Path dir, String... args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        command.addAll(List.of(args));
+        Process p = new ProcessBuilder(command).directory(dir.toFile())
+            .redirectError(ProcessBuilder.Redirect.DISCARD).start();
+        byte[] out;
+        try (InputStream in = p.getInputStream()) {
+            out = in.readAllBytes();
+        }
+        try {
+            return p.waitFor() == 0 ? out : null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running git in " + dir, e);
+        }
+    }
+
+}
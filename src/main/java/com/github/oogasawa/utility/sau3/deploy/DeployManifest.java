@@ -0,0 +1,234 @@
+package com.github.oogasawa.utility.sau3.deploy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+
+/** The files of a deployed site: relative path to size and SHA-256 of the content.
+ *
+ * <p>
+ * The manifest of a build directory is compared with the manifest stored in the deployed
+ * directory ({@link #FILE_NAME}) by the previous deploy, so that only added and changed files
+ * are transferred and only removed files are deleted. Docusaurus names its bundles and images
+ * after their content, so most of a rebuilt site is unchanged.
+ * </p>
+ *
+ * <p>
+ * Serialized as JSON: {@code {"assets/js/main.1f2e.js": {"size": 1234, "hash": "9a0b..."}, ...}}.
+ * </p>
+ */
+public class DeployManifest {
+
+    /** Name of the manifest file in the deployed directory. */
+    public static final String FILE_NAME = ".sau-manifest.json";
+
+
+    /** Size and content hash of one file. */
+    public static class Entry {
+        long size;
+        String hash;
+
+        public Entry() {
+        }
+
+        public Entry(long size, String hash) {
+            this.size = size;
+            this.hash = hash;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public void setHash(String hash) {
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Entry e && e.size == this.size && Objects.equals(e.hash, this.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.size, this.hash);
+        }
+    }
+
+
+    /** The files to transfer and to delete to turn one manifest into another. */
+    public static class Diff {
+        final List<String> added = new ArrayList<>();
+        final List<String> changed = new ArrayList<>();
+        final List<String> removed = new ArrayList<>();
+        int unchanged = 0;
+
+        public List<String> getAdded() {
+            return added;
+        }
+
+        public List<String> getChanged() {
+            return changed;
+        }
+
+        public List<String> getRemoved() {
+            return removed;
+        }
+
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        /** Returns the added and changed files, in path order. */
+        public List<String> getTransfers() {
+            List<String> transfers = new ArrayList<>(this.added);
+            transfers.addAll(this.changed);
+            transfers.sort(null);
+            return transfers;
+        }
+
+        public boolean isEmpty() {
+            return this.added.isEmpty() && this.changed.isEmpty() && this.removed.isEmpty();
+        }
+    }
+
+
+    final Map<String, Entry> files = new TreeMap<>();
+
+
+    public Map<String, Entry> getFiles() {
+        return this.files;
+    }
+
+
+    /** Computes the manifest of a directory; files are hashed in parallel.
+     *
+     * <p>A manifest file in the directory itself is not listed.</p>
+     */
+    public static DeployManifest of(Path dir) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            paths = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+
+        Map<String, Entry> entries = new ConcurrentHashMap<>();
+        try {
+            paths.parallelStream().forEach(p -> {
+                String name = relativeName(dir, p);
+                if (!name.equals(FILE_NAME)) {
+                    try {
+                        entries.put(name, new Entry(Files.size(p), sha256(p)));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        DeployManifest manifest = new DeployManifest();
+        manifest.files.putAll(entries);
+        return manifest;
+    }
+
+
+    /** Reads a manifest written by {@link #toJson()}. */
+    public static DeployManifest parse(InputStream in) throws IOException {
+        DeployManifest manifest = new DeployManifest();
+        manifest.files.putAll(new ObjectMapper().readValue(in, new TypeReference<Map<String, Entry>>() {}));
+        return manifest;
+    }
+
+
+    public String toJson() throws IOException {
+        return new ObjectMapper().writeValueAsString(this.files);
+    }
+
+
+    /** Writes the manifest as {@link #FILE_NAME} into a directory. */
+    public void write(Path dir) throws IOException {
+        Files.writeString(dir.resolve(FILE_NAME), toJson());
+    }
+
+
+    /** Returns what must be transferred and deleted to turn {@code previous} into this manifest. */
+    public Diff diff(DeployManifest previous) {
+        Diff diff = new Diff();
+        for (Map.Entry<String, Entry> e : this.files.entrySet()) {
+            Entry old = previous.files.get(e.getKey());
+            if (old == null) {
+                diff.added.add(e.getKey());
+            } else if (!old.equals(e.getValue())) {
+                diff.changed.add(e.getKey());
+            } else {
+                diff.unchanged++;
+            }
+        }
+        for (String name : previous.files.keySet()) {
+            if (!this.files.containsKey(name)) {
+                diff.removed.add(name);
+            }
+        }
+        return diff;
+    }
+
+
+    /** Returns the total size of the given files. */
+    public long sizeOf(List<String> names) {
+        long total = 0;
+        for (String name : names) {
+            Entry e = this.files.get(name);
+            if (e != null) {
+                total += e.size;
+            }
+        }
+        return total;
+    }
+
+
+    /** Returns the path of a file relative to a directory, with {@code /} separators. */
+    static String relativeName(Path dir, Path file) {
+        return dir.relativize(file).toString().replace(java.io.File.separatorChar, '/');
+    }
+
+
+    static String sha256(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                md.update(buffer, 0, n);
+            }
+            return HexFormat.of().formatHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 algorithm not found", e);
+        }
+    }
+
+}
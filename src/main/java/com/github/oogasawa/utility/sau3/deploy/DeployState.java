@@ -0,0 +1,127 @@
+package com.github.oogasawa.utility.sau3.deploy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+
+/** What was last deployed from a project directory, per deploy target.
+ *
+ * <p>
+ * For each target (e.g. {@code web-admin@192.168.12.1:~/public_html/doc_X}) the state records
+ * the {@link BuildFingerprint} of the sources that were built, the release that was made live
+ * and the manifest of the build ({@link DeployManifest}). A later deploy of the same sources
+ * finds the fingerprint here; if the target still serves that release, neither the build nor
+ * the transfer is needed, and if the build directory still holds that manifest, only the
+ * transfer is.
+ * </p>
+ *
+ * <p>
+ * Stored as {@link #FILE_NAME} in the project directory, which is local to the machine that
+ * builds and is left out of the fingerprint itself.
+ * </p>
+ */
+public class DeployState {
+
+    private static final Logger logger = Logger.getLogger(DeployState.class.getName());
+
+    /** Name of the state file in the project directory. */
+    public static final String FILE_NAME = ".sau-deploy-state.json";
+
+
+    /** The last deploy to one target. */
+    public static class Target {
+        String fingerprint;
+        String release;
+        Map<String, DeployManifest.Entry> manifest = new TreeMap<>();
+
+        public Target() {
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public void setFingerprint(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        /** The name of the release that was made live. */
+        public String getRelease() {
+            return release;
+        }
+
+        public void setRelease(String release) {
+            this.release = release;
+        }
+
+        /** The files of the build that was deployed. */
+        public Map<String, DeployManifest.Entry> getManifest() {
+            return manifest;
+        }
+
+        public void setManifest(Map<String, DeployManifest.Entry> manifest) {
+            this.manifest = manifest;
+        }
+    }
+
+
+    Map<String, Target> targets = new TreeMap<>();
+
+
+    public Map<String, Target> getTargets() {
+        return targets;
+    }
+
+    public void setTargets(Map<String, Target> targets) {
+        this.targets = targets;
+    }
+
+
+    /** Reads the state of a project directory.
+     *
+     * @return The state, empty if the directory has none or an unreadable one.
+     */
+    public static DeployState read(Path projectDir) {
+        Path file = projectDir.resolve(FILE_NAME);
+        if (Files.exists(file)) {
+            try {
+                return new ObjectMapper().readValue(file.toFile(), DeployState.class);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Ignoring an unreadable deploy state: " + file, e);
+            }
+        }
+        return new DeployState();
+    }
+
+
+    /** Writes the state into a project directory, replacing the file in one rename. */
+    public void write(Path projectDir) throws IOException {
+        Path tmp = projectDir.resolve(FILE_NAME + ".tmp");
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(tmp.toFile(), this);
+        Files.move(tmp, projectDir.resolve(FILE_NAME), java.nio.file.StandardCopyOption.REPLACE_EXISTING,
+                   java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+    /** Returns the last deploy to a target, or null. */
+    public Target get(String target) {
+        return this.targets.get(target);
+    }
+
+
+    /** Records a deploy to a target. */
+    public void put(String target, String fingerprint, String release, DeployManifest manifest) {
+        Target t = new Target();
+        t.fingerprint = fingerprint;
+        t.release = release;
+        t.manifest = new TreeMap<>(manifest.getFiles());
+        this.targets.put(target, t);
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.github.oogasawa.utility.sau3.deploy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+
+/** Tells whether the {@code node_modules} of a project were installed from its current package files.
+ *
+ * <p>
+ * After a successful {@code yarn install}, the hash of {@code package.json} and the lockfile is
+ * written into {@code node_modules} as {@link #FILE_NAME}. When a {@code git pull} changes
+ * either file, the hashes differ and the project needs another install before it can be built;
+ * otherwise the install, which costs a resolution against the registry even when nothing is
+ * missing, is skipped. A {@code node_modules} without the marker, e.g. from a manual install,
+ * counts as out of date once.
+ * </p>
+ */
+public final class InstallMarker {
+
+    /** Name of the marker file in {@code node_modules}. */
+    public static final String FILE_NAME = ".sau-install-hash";
+
+
+    private InstallMarker() {
+    }
+
+
+    /** Returns the hash of the package files of a project: {@code package.json} and the lockfile. */
+    public static String hash(Path projectDir) throws IOException {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (String name : BuildFingerprint.PACKAGE_FILES) {
+                Path file = projectDir.resolve(name);
+                if (Files.isRegularFile(file)) {
+                    md.update((name + "=" + DeployManifest.sha256(file) + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            return HexFormat.of().formatHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 algorithm not found", e);
+        }
+    }
+
+
+    /** Returns true if the {@code node_modules} of a project were installed from its current package files. */
+    public static boolean isSatisfied(Path projectDir) throws IOException {
+        Path marker = projectDir.resolve("node_modules").resolve(FILE_NAME);
+        return Files.isRegularFile(marker) && Files.readString(marker).strip().equals(hash(projectDir));
+    }
+
+
+    /** Records that the {@code node_modules} of a project match its current package files. */
+    public static void write(Path projectDir) throws IOException {
+        Path modules = projectDir.resolve("node_modules");
+        if (Files.isDirectory(modules)) {
+            Files.writeString(modules.resolve(FILE_NAME), hash(projectDir) + "\n");
+        }
+    }
+
+}
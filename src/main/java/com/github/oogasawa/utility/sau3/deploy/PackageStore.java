@@ -0,0 +1,341 @@
+package com.github.oogasawa.utility.sau3.deploy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+
+/** A content-addressed store of installed {@code node_modules} trees, shared by many projects.
+ *
+ * <pre>{@code
+ * <store>/files/9a/9a0b...e1       file contents, named by SHA-256 ("-x" appended if executable)
+ * <store>/trees/<install hash>.json the files, directories and links of one installed node_modules
+ * }</pre>
+ *
+ * <p>
+ * After {@code yarn install}, {@link #importModules(String, Path)} moves every file of the
+ * project's {@code node_modules} into the store, or finds it there already, and replaces it by a
+ * hard link, so that a package used by twenty projects occupies disk and page cache once. The
+ * layout of the tree is recorded under the {@link InstallMarker} hash of the project's package
+ * files. Another project with the same {@code package.json} and lockfile then gets its
+ * {@code node_modules} from {@link #materialize(String, Path)}, which only creates directories
+ * and links, without running yarn at all.
+ * </p>
+ *
+ * <p>
+ * Store files are made read-only, since every linked project shares them. A linked
+ * {@code node_modules} ({@link #isLinked(Path)}) must therefore be deleted, not updated, before
+ * yarn installs into it again. The store must be on the same file system as the projects.
+ * Empty files are created rather than linked, and a file is copied when its link count is
+ * exhausted.
+ * </p>
+ */
+public class PackageStore {
+
+    private static final Logger logger = Logger.getLogger(PackageStore.class.getName());
+
+    /** Name of the file in {@code node_modules} that marks a tree linked from a store. */
+    public static final String MARKER = ".sau-store";
+
+    /** Top-level entries of {@code node_modules} that are not part of an install, e.g. the webpack cache of builds. */
+    static final List<String> SKIPPED = List.of(".cache", MARKER, InstallMarker.FILE_NAME);
+
+    static final String FILE = "file";
+    static final String DIR = "dir";
+    static final String LINK = "link";
+
+
+    /** One file, directory or symbolic link of a tree. */
+    public static class Entry {
+        String type;
+        String path;
+        String key;
+        long size;
+        String target;
+
+        public Entry() {
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public void setType(String type) {
+            this.type = type;
+        }
+
+        /** The path relative to {@code node_modules}, with {@code /} separators. */
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        /** The name of the content in the store, for a file. */
+        public String getKey() {
+            return key;
+        }
+
+        public void setKey(String key) {
+            this.key = key;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+
+        /** The target of a symbolic link, as it was written. */
+        public String getTarget() {
+            return target;
+        }
+
+        public void setTarget(String target) {
+            this.target = target;
+        }
+    }
+
+
+    /** What an import or materialization did. */
+    public static class Stats {
+        final AtomicInteger files = new AtomicInteger();
+        final AtomicInteger linked = new AtomicInteger();
+        final AtomicLong linkedBytes = new AtomicLong();
+
+        public int getFiles() {
+            return files.get();
+        }
+
+        /** Files that share their content with the store. */
+        public int getLinked() {
+            return linked.get();
+        }
+
+        public long getLinkedBytes() {
+            return linkedBytes.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d files, %d linked (%d MB)", getFiles(), getLinked(), getLinkedBytes() >> 20);
+        }
+    }
+
+
+    final Path root;
+
+
+    public PackageStore(Path root) {
+        this.root = root.toAbsolutePath();
+    }
+
+
+    public Path getRoot() {
+        return this.root;
+    }
+
+
+    /** Returns true if the store holds the tree installed from package files with the given hash. */
+    public boolean has(String installHash) {
+        return Files.isRegularFile(treeOf(installHash));
+    }
+
+
+    /** Returns true if a {@code node_modules} directory was imported into or materialized from a store. */
+    public static boolean isLinked(Path modules) {
+        return Files.exists(modules.resolve(MARKER));
+    }
+
+
+    /** Deletes a {@code node_modules} directory, e.g. a linked one before yarn installs again; the store keeps its files. */
+    public static void delete(Path modules) throws IOException {
+        Releases.delete(modules);
+    }
+
+
+    /** Moves the files of an installed {@code node_modules} into the store and links them back.
+     *
+     * @param installHash  The {@link InstallMarker#hash(Path)} of the package files it was installed from.
+     */
+    public Stats importModules(String installHash, Path modules) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(modules)) {
+            paths = walk.filter(p -> !p.equals(modules) && !skipped(modules, p)).collect(Collectors.toList());
+        }
+
+        Stats stats = new Stats();
+        List<Entry> entries = Collections.synchronizedList(new ArrayList<>());
+        try {
+            paths.parallelStream().forEach(p -> {
+                try {
+                    entries.add(importEntry(modules, p, stats));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        entries.sort(Comparator.comparing(Entry::getPath));
+
+        Path tree = treeOf(installHash);
+        Files.createDirectories(tree.getParent());
+        Path tmp = tree.resolveSibling(tree.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        new ObjectMapper().writeValue(tmp.toFile(), entries);
+        Files.move(tmp, tree, StandardCopyOption.ATOMIC_MOVE);
+        Files.writeString(modules.resolve(MARKER), installHash + "\n");
+        return stats;
+    }
+
+
+    Entry importEntry(Path modules, Path p, Stats stats) throws IOException {
+        Entry entry = new Entry();
+        entry.path = DeployManifest.relativeName(modules, p);
+        if (Files.isSymbolicLink(p)) {
+            entry.type = LINK;
+            entry.target = Files.readSymbolicLink(p).toString();
+        } else if (Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS)) {
+            entry.type = DIR;
+        } else {
+            entry.type = FILE;
+            entry.size = Files.size(p);
+            entry.key = DeployManifest.sha256(p) + (Files.isExecutable(p) ? "-x" : "");
+            stats.files.incrementAndGet();
+            if (entry.size > 0 && store(p, entry.key)) {
+                stats.linked.incrementAndGet();
+                stats.linkedBytes.addAndGet(entry.size);
+            }
+        }
+        return entry;
+    }
+
+
+    /** Makes a file a link of its content in the store; returns false if it stays a separate copy. */
+    boolean store(Path file, String key) throws IOException {
+        Path stored = fileOf(key);
+        try {
+            if (!Files.exists(stored)) {
+                Files.createDirectories(stored.getParent());
+                Path tmp = stored.resolveSibling(key + "." + UUID.randomUUID() + ".tmp");
+                Files.createLink(tmp, file);
+                // Another import may have stored the same content meanwhile; either copy will do.
+                Files.move(tmp, stored, StandardCopyOption.ATOMIC_MOVE);
+                readOnly(stored, key.endsWith("-x"));
+            } else if (!Files.isSameFile(stored, file)) {
+                Path tmp = file.resolveSibling(file.getFileName() + "." + UUID.randomUUID() + ".tmp");
+                Files.createLink(tmp, stored);
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            }
+            return true;
+        } catch (java.nio.file.FileSystemException e) {
+            // Typically "Too many links"; the project keeps its own copy.
+            logger.log(Level.FINE, "Not linked: " + file, e);
+            return false;
+        }
+    }
+
+
+    /** Creates a {@code node_modules} directory from a tree of the store.
+     *
+     * @param modules  The directory to create; it must not exist.
+     * @throws IOException if the tree or one of its files is missing; the directory is then incomplete.
+     */
+    public Stats materialize(String installHash, Path modules) throws IOException {
+        List<Entry> entries = new ObjectMapper().readValue(treeOf(installHash).toFile(), new TypeReference<List<Entry>>() {});
+        Files.createDirectory(modules);
+
+        // Parents sort before their contents.
+        for (Entry e : entries) {
+            if (DIR.equals(e.type)) {
+                Files.createDirectories(modules.resolve(e.path));
+            }
+        }
+
+        Stats stats = new Stats();
+        try {
+            entries.parallelStream().forEach(e -> {
+                try {
+                    if (FILE.equals(e.type)) {
+                        materializeFile(modules.resolve(e.path), e, stats);
+                    } else if (LINK.equals(e.type)) {
+                        Files.createSymbolicLink(modules.resolve(e.path), Path.of(e.target));
+                    }
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Files.writeString(modules.resolve(MARKER), installHash + "\n");
+        return stats;
+    }
+
+
+    void materializeFile(Path file, Entry e, Stats stats) throws IOException {
+        stats.files.incrementAndGet();
+        if (e.size == 0) {
+            Files.createFile(file);
+            readOnly(file, e.key.endsWith("-x"));
+            return;
+        }
+        Path stored = fileOf(e.key);
+        try {
+            Files.createLink(file, stored);
+            stats.linked.incrementAndGet();
+            stats.linkedBytes.addAndGet(e.size);
+        } catch (java.nio.file.NoSuchFileException ex) {
+            throw new IOException("The package store lacks " + e.key + " of " + e.path, ex);
+        } catch (java.nio.file.FileSystemException ex) {
+            Files.copy(stored, file);
+        }
+    }
+
+
+    boolean skipped(Path modules, Path p) {
+        Path first = modules.relativize(p).getName(0);
+        return SKIPPED.contains(first.toString());
+    }
+
+
+    Path treeOf(String installHash) {
+        return this.root.resolve("trees").resolve(installHash + ".json");
+    }
+
+
+    Path fileOf(String key) {
+        return this.root.resolve("files").resolve(key.substring(0, 2)).resolve(key);
+    }
+
+
+    static void readOnly(Path file, boolean executable) throws IOException {
+        try {
+            Files.setPosixFilePermissions(file, PosixFilePermissions.fromString(executable ? "r-xr-xr-x" : "r--r--r--"));
+        } catch (UnsupportedOperationException e) {
+            file.toFile().setWritable(false, false);
+        }
+    }
+
+}
@@ -0,0 +1,185 @@
+package com.github.oogasawa.utility.sau3.deploy;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+
+/** A gzip stream whose blocks are compressed on several threads, in the manner of {@code pigz}.
+ *
+ * <p>
+ * The data is cut into blocks of {@link #BLOCK_SIZE} bytes. Every block is deflated on its own
+ * thread with the last 32 KB of the previous block as preset dictionary, so the compression
+ * ratio is close to that of a single deflater, and ends with a sync flush so that the blocks
+ * can be concatenated. The result is one ordinary gzip member that {@code gunzip} and
+ * {@code tar -xz} read as usual. The CRC is computed on the writing thread, and at most two
+ * blocks per thread are buffered.
+ * </p>
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+    static final int BLOCK_SIZE = 128 * 1024;
+    static final int DICTIONARY_SIZE = 32 * 1024;
+
+    final OutputStream out;
+    final int level;
+    final int threads;
+    final ExecutorService executor;
+    final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+    final CRC32 crc = new CRC32();
+
+    byte[] block = new byte[BLOCK_SIZE];
+    int count = 0;
+    byte[] dictionary = null;
+    long length = 0;
+    boolean closed = false;
+
+
+    /** Compresses with the default level on one thread per available processor. */
+    public ParallelGzipOutputStream(OutputStream out) throws IOException {
+        this(out, Deflater.DEFAULT_COMPRESSION, Runtime.getRuntime().availableProcessors());
+    }
+
+
+    public ParallelGzipOutputStream(OutputStream out, int level, int threads) throws IOException {
+        this.out = out;
+        this.level = level;
+        this.threads = Math.max(1, threads);
+        this.executor = Executors.newFixedThreadPool(this.threads,
+                                                     Thread.ofPlatform().daemon().name("gzip-", 0).factory());
+        // Header: magic, deflate, no flags, no mtime, no extra flags, unknown OS.
+        out.write(new byte[] {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff});
+    }
+
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+        this.crc.update(b, off, len);
+        this.length += len;
+        while (len > 0) {
+            int n = Math.min(len, this.block.length - this.count);
+            System.arraycopy(b, off, this.block, this.count, n);
+            this.count += n;
+            off += n;
+            len -= n;
+            if (this.count == this.block.length) {
+                submit(false);
+            }
+        }
+    }
+
+
+    /** Hands the current block to a compression thread and writes the blocks that are done. */
+    void submit(boolean last) throws IOException {
+        byte[] input = this.block;
+        int size = this.count;
+        byte[] dict = this.dictionary;
+        this.pending.add(this.executor.submit(() -> deflate(input, size, dict, last)));
+
+        this.dictionary = Arrays.copyOfRange(input, Math.max(0, size - DICTIONARY_SIZE), size);
+        this.block = new byte[BLOCK_SIZE];
+        this.count = 0;
+
+        while (!this.pending.isEmpty() && (this.pending.size() > 2 * this.threads || this.pending.peek().isDone())) {
+            this.out.write(take());
+        }
+    }
+
+
+    byte[] deflate(byte[] input, int size, byte[] dict, boolean last) {
+        Deflater deflater = new Deflater(this.level, true);
+        try {
+            if (dict != null && dict.length > 0) {
+                deflater.setDictionary(dict);
+            }
+            deflater.setInput(input, 0, size);
+            byte[] buffer = new byte[size + size / 8 + 64];
+            int total = 0;
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    if (total == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    }
+                    total += deflater.deflate(buffer, total, buffer.length - total);
+                }
+            } else {
+                // A sync flush ends on a byte boundary, so the next block can follow directly.
+                int n;
+                do {
+                    if (total == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    }
+                    n = deflater.deflate(buffer, total, buffer.length - total, Deflater.SYNC_FLUSH);
+                    total += n;
+                } while (total == buffer.length);
+            }
+            return Arrays.copyOf(buffer, total);
+        } finally {
+            deflater.end();
+        }
+    }
+
+
+    byte[] take() throws IOException {
+        try {
+            return this.pending.poll().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("Compression failed", e.getCause());
+        }
+    }
+
+
+    /** Writes the compressed blocks that are done; the current block is kept until it is full. */
+    @Override
+    public void flush() throws IOException {
+        while (!this.pending.isEmpty() && this.pending.peek().isDone()) {
+            this.out.write(take());
+        }
+        this.out.flush();
+    }
+
+
+    /** Compresses the last block, writes the trailer and closes the underlying stream. */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            submit(true);
+            while (!this.pending.isEmpty()) {
+                this.out.write(take());
+            }
+            long crcValue = this.crc.getValue();
+            this.out.write(new byte[] {
+                    (byte) crcValue, (byte) (crcValue >> 8), (byte) (crcValue >> 16), (byte) (crcValue >> 24),
+                    (byte) this.length, (byte) (this.length >> 8), (byte) (this.length >> 16), (byte) (this.length >> 24)});
+        } finally {
+            this.executor.shutdownNow();
+            this.out.close();
+        }
+    }
+
+}
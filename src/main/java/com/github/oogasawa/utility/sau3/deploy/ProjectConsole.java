@@ -0,0 +1,203 @@
+package com.github.oogasawa.utility.sau3.deploy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+
+/** Prefixes the console output of concurrent project deploys with the project name.
+ *
+ * <p>
+ * {@link #install()} replaces {@code System.out} and {@code System.err} by streams that collect
+ * each thread's output line by line. A line written by a thread working for a project
+ * ({@link #setProject(String)}) is printed as {@code [doc_X] line} in one piece, so lines of
+ * different projects interleave but are never mixed. Other threads write through unchanged.
+ * The {@link ConsoleHandler}s of the root logger keep the stream they were created with, so
+ * their formatters are wrapped as well and prefix every line of a log record in the same way.
+ * {@link #uninstall()} restores the streams and formatters.
+ * </p>
+ */
+public final class ProjectConsole {
+
+    static final InheritableThreadLocal<String> PROJECT = new InheritableThreadLocal<>();
+
+    static PrintStream originalOut;
+    static PrintStream originalErr;
+    static Prefixing out;
+    static Prefixing err;
+    static final Map<Handler, Formatter> originalFormatters = new IdentityHashMap<>();
+
+
+    private ProjectConsole() {
+    }
+
+
+    /** Installs the prefixing streams and log formatters; does nothing if they are installed already. */
+    public static synchronized void install() {
+        if (originalOut == null) {
+            // Before the streams are replaced: the root handlers are created on first use and
+            // would otherwise write into a prefixing stream, prefixing every line twice.
+            for (Handler handler : Logger.getLogger("").getHandlers()) {
+                if (handler instanceof ConsoleHandler && handler.getFormatter() != null) {
+                    originalFormatters.put(handler, handler.getFormatter());
+                    handler.setFormatter(new PrefixingFormatter(handler.getFormatter()));
+                }
+            }
+            originalOut = System.out;
+            originalErr = System.err;
+            out = new Prefixing(originalOut);
+            err = new Prefixing(originalErr);
+            System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+            System.setErr(new PrintStream(err, true, StandardCharsets.UTF_8));
+        }
+    }
+
+
+    /** Restores the streams and log formatters replaced by {@link #install()}; does nothing if they are not installed. */
+    public static synchronized void uninstall() {
+        if (originalOut != null) {
+            System.out.flush();
+            System.err.flush();
+            System.setOut(originalOut);
+            System.setErr(originalErr);
+            originalFormatters.forEach(Handler::setFormatter);
+            originalFormatters.clear();
+            originalOut = null;
+            originalErr = null;
+            out = null;
+            err = null;
+        }
+    }
+
+
+    /** Sets the project of the current thread (and the threads it starts); null to stop prefixing.
+     *
+     * <p>A line the thread left unfinished for the previous project is printed with its prefix first.</p>
+     */
+    public static void setProject(String project) {
+        String previous = PROJECT.get();
+        if (previous != null) {
+            Prefixing o = out;
+            Prefixing e = err;
+            if (o != null) {
+                o.finishLine(previous);
+            }
+            if (e != null) {
+                e.finishLine(previous);
+            }
+        }
+        if (project == null) {
+            PROJECT.remove();
+        } else {
+            PROJECT.set(project);
+        }
+    }
+
+
+    /** Returns a line with the prefix of a project. */
+    static String prefix(String project, String line) {
+        return "[" + project + "] " + line;
+    }
+
+
+    /** Collects the bytes of each thread up to a line end and writes the line with its prefix. */
+    static class Prefixing extends OutputStream {
+
+        final PrintStream target;
+        final ThreadLocal<ByteArrayOutputStream> line = ThreadLocal.withInitial(ByteArrayOutputStream::new);
+
+        Prefixing(PrintStream target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            String project = PROJECT.get();
+            if (project == null) {
+                this.target.write(b, off, len);
+                return;
+            }
+            ByteArrayOutputStream buffer = this.line.get();
+            int end = off + len;
+            for (int i = off; i < end; i++) {
+                if (b[i] == '\n') {
+                    buffer.write(b, off, i - off);
+                    this.target.println(prefix(project, buffer.toString(StandardCharsets.UTF_8)));
+                    buffer.reset();
+                    off = i + 1;
+                }
+            }
+            buffer.write(b, off, end - off);
+        }
+
+        /** Prints what the current thread wrote after its last line end, as a line of a project. */
+        void finishLine(String project) {
+            ByteArrayOutputStream buffer = this.line.get();
+            if (buffer.size() > 0) {
+                this.target.println(prefix(project, buffer.toString(StandardCharsets.UTF_8)));
+                buffer.reset();
+            }
+        }
+
+        @Override
+        public void flush() {
+            this.target.flush();
+        }
+    }
+
+
+    /** Prefixes every line of a record formatted by another formatter while the thread works for a project. */
+    static class PrefixingFormatter extends Formatter {
+
+        final Formatter formatter;
+
+        PrefixingFormatter(Formatter formatter) {
+            this.formatter = formatter;
+        }
+
+        @Override
+        public String format(LogRecord record) {
+            String text = this.formatter.format(record);
+            String project = PROJECT.get();
+            if (project == null || text.isEmpty()) {
+                return text;
+            }
+            String separator = System.lineSeparator();
+            boolean ended = text.endsWith(separator);
+            String[] lines = (ended ? text.substring(0, text.length() - separator.length()) : text).split("\\R", -1);
+            StringBuilder sb = new StringBuilder(text.length() + lines.length * (project.length() + 3));
+            for (int i = 0; i < lines.length; i++) {
+                if (i > 0) {
+                    sb.append(separator);
+                }
+                sb.append(prefix(project, lines[i]));
+            }
+            return ended ? sb.append(separator).toString() : sb.toString();
+        }
+
+        @Override
+        public String getHead(Handler handler) {
+            return this.formatter.getHead(handler);
+        }
+
+        @Override
+        public String getTail(Handler handler) {
+            return this.formatter.getTail(handler);
+        }
+    }
+
+}
@@ -0,0 +1,233 @@
+package com.github.oogasawa.utility.sau3.deploy;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+/** Versioned release directories of a site deployed on the local file system.
+ *
+ * <p>
+ * Every deploy writes a new directory {@code <dest>/.releases/<project>/<timestamp>/}, and the
+ * site itself ({@code <dest>/<project>}) is a relative symbolic link to the live release. A new
+ * link is created under a temporary name and renamed over the old one, which replaces it
+ * atomically: a request sees either the old release or the new one, never a half-written site.
+ * Switching back to an older release ({@link #rollback(String)}) is the same rename.
+ * </p>
+ *
+ * <pre>{@code
+ * ~/public_html/doc_X -> .releases/doc_X/20241002-030012-481
+ * ~/public_html/.releases/doc_X/20241001-221540-007/
+ * ~/public_html/.releases/doc_X/20241002-030012-481/
+ * }</pre>
+ *
+ * <p>
+ * Release names sort in deploy order. The naming and retention rules are shared with
+ * {@link RemoteReleases}.
+ * </p>
+ */
+public class Releases {
+
+    /** Directory next to the sites that holds their releases. */
+    public static final String RELEASES_DIR = ".releases";
+
+    /** Number of releases kept by default, including the live one. */
+    public static final int DEFAULT_KEEP = 5;
+
+    static final DateTimeFormatter NAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+    final Path site;
+    final Path releasesDir;
+
+
+    /** @param site The path of the site, e.g. {@code ~/public_html/doc_X}. */
+    public Releases(Path site) {
+        this.site = site.toAbsolutePath();
+        this.releasesDir = this.site.resolveSibling(RELEASES_DIR).resolve(this.site.getFileName().toString());
+    }
+
+
+    public Path getReleasesDir() {
+        return this.releasesDir;
+    }
+
+
+    /** Returns the release names, oldest first. */
+    public List<String> list() throws IOException {
+        if (!Files.isDirectory(this.releasesDir)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> s = Files.list(this.releasesDir)) {
+            return s.filter(Files::isDirectory)
+                .map(p -> p.getFileName().toString())
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+
+
+    /** Returns the name of the live release, or null if the site is not a release link. */
+    public String current() throws IOException {
+        if (!Files.isSymbolicLink(this.site)) {
+            return null;
+        }
+        return Files.readSymbolicLink(this.site).getFileName().toString();
+    }
+
+
+    /** Copies a build directory into a new release, makes it live and removes the expired releases.
+     *
+     * @param keep  The number of releases to keep, including the new one.
+     * @return The name of the new release.
+     */
+    public String deploy(Path buildDir, int keep) throws IOException {
+        String name = newName(list());
+        Path release = this.releasesDir.resolve(name);
+        try {
+            copy(buildDir, release);
+        } catch (IOException e) {
+            delete(release);
+            throw e;
+        }
+        activate(name);
+        for (String expired : expired(list(), name, keep)) {
+            delete(this.releasesDir.resolve(expired));
+        }
+        return name;
+    }
+
+
+    /** Makes an older release live again.
+     *
+     * @param to  The release to switch to, or null for the one before the live release.
+     * @return The name of the release that is now live.
+     * @throws IOException if there is no such release.
+     */
+    public String rollback(String to) throws IOException {
+        String name = rollbackTarget(list(), current(), to);
+        activate(name);
+        return name;
+    }
+
+
+    /** Points the site at a release by renaming a new link over the old one. */
+    void activate(String name) throws IOException {
+        Path link = this.site.resolveSibling("." + this.site.getFileName() + ".link");
+        Files.deleteIfExists(link);
+        Files.createSymbolicLink(link, Paths.get(RELEASES_DIR, this.site.getFileName().toString(), name));
+
+        Path old = null;
+        if (Files.isDirectory(this.site, LinkOption.NOFOLLOW_LINKS)) {
+            // A site deployed before releases existed: a link can not replace a directory
+            // atomically, so it is moved aside for the moment between the two renames.
+            old = this.site.resolveSibling("." + this.site.getFileName() + ".old");
+            delete(old);
+            Files.move(this.site, old, StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.move(link, this.site, StandardCopyOption.ATOMIC_MOVE);
+        if (old != null) {
+            delete(old);
+        }
+    }
+
+
+    /** Returns a release name after the existing ones. */
+    static String newName(List<String> existing) {
+        String name = LocalDateTime.now().format(NAME_FORMAT);
+        String last = existing.isEmpty() ? "" : existing.get(existing.size() - 1);
+        if (name.compareTo(last) <= 0) {
+            // Two deploys within a millisecond, or the clock went back.
+            name = last + "-1";
+        }
+        return name;
+    }
+
+
+    /** Returns the releases to delete so that {@code keep} remain; the live release is always kept.
+     *
+     * @param names  Release names, oldest first.
+     */
+    static List<String> expired(List<String> names, String current, int keep) {
+        List<String> expired = new ArrayList<>();
+        int remaining = names.size();
+        for (String name : names) {
+            if (remaining <= Math.max(keep, 1)) {
+                break;
+            }
+            if (!name.equals(current)) {
+                expired.add(name);
+                remaining--;
+            }
+        }
+        return expired;
+    }
+
+
+    /** Chooses the release to roll back to.
+     *
+     * @param names  Release names, oldest first.
+     * @param to  The requested release, or null for the one before {@code current}.
+     */
+    static String rollbackTarget(List<String> names, String current, String to) throws IOException {
+        if (to != null) {
+            if (!names.contains(to)) {
+                throw new IOException("No such release: " + to + " (releases: " + names + ")");
+            }
+            return to;
+        }
+        int index = current == null ? -1 : names.indexOf(current);
+        if (index <= 0) {
+            throw new IOException("No release before " + (current == null ? "the live site" : current)
+                                  + " (releases: " + names + ")");
+        }
+        return names.get(index - 1);
+    }
+
+
+    /** Copies a directory tree; the target must not exist yet. */
+    static void copy(Path source, Path target) throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.copy(file, target.resolve(source.relativize(file).toString()), StandardCopyOption.COPY_ATTRIBUTES);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+
+    /** Deletes a directory tree without following symbolic links; a missing path is ignored. */
+    static void delete(Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(path)) {
+            paths = walk.collect(Collectors.toList());
+        }
+        Collections.reverse(paths);
+        for (Path p : paths) {
+            Files.delete(p);
+        }
+    }
+
+}
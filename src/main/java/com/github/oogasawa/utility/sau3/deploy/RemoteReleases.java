@@ -0,0 +1,189 @@
+package com.github.oogasawa.utility.sau3.deploy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+
+/** Versioned release directories of a site on a deploy target, as {@link Releases} does locally.
+ *
+ * <p>
+ * A new release starts as a hard-linked copy ({@code cp -al}) of the live one, which costs no
+ * file data, and is then brought up to date with the build by {@link RemoteSync}. Only the
+ * changed files are transferred, and because {@code tar} replaces a file by unlinking it, the
+ * files of the older releases are never modified. The site link is then switched with
+ * {@code mv -T}, a rename over the old link, so the site is never missing or half-written.
+ * </p>
+ */
+public class RemoteReleases {
+
+    private static final Logger logger = Logger.getLogger(RemoteReleases.class.getName());
+
+    final RemoteShell shell;
+    final RemoteSync sync;
+
+
+    /** The releases of a site and the live one. */
+    public static class State {
+        String current;
+        List<String> releases = new ArrayList<>();
+
+        /** The name of the live release, or null if the site is not a release link. */
+        public String getCurrent() {
+            return current;
+        }
+
+        /** The release names, oldest first. */
+        public List<String> getReleases() {
+            return releases;
+        }
+    }
+
+
+    public RemoteReleases(RemoteShell shell) {
+        this.shell = shell;
+        this.sync = new RemoteSync(shell);
+    }
+
+
+    /** Reads the releases of a remote site in one round trip.
+     *
+     * @param remotePath  The path of the site, e.g. {@code ~/public_html/doc_X}.
+     */
+    public State state(String remotePath) throws IOException {
+        Site site = new Site(remotePath);
+        String output = new String(this.sync.run(site.cd() + " 2>/dev/null || exit 0; printf '%s\\n' \"$(readlink " + site.link() + ")\""
+                                                 + " && if [ -d " + site.releases() + " ]; then ls -1 " + site.releases() + "; fi",
+                                                 null),
+                                   StandardCharsets.UTF_8);
+        List<String> lines = new ArrayList<>(Arrays.asList(output.split("\n")));
+        State state = new State();
+        String link = lines.isEmpty() ? "" : lines.remove(0).strip();
+        if (!link.isEmpty()) {
+            state.current = link.substring(link.lastIndexOf('/') + 1);
+        }
+        for (String line : lines) {
+            if (!line.isBlank()) {
+                state.releases.add(line.strip());
+            }
+        }
+        state.releases.sort(null);
+        return state;
+    }
+
+
+    /** Syncs a build directory into a new release, makes it live and removes the expired releases.
+     *
+     * @param keep  The number of releases to keep, including the new one.
+     * @return What was transferred into the new release, and its name ({@link RemoteSync.Result#getRelease()}).
+     * @throws IOException if a remote command failed; the live release is then left as it was.
+     */
+    public RemoteSync.Result deploy(Path buildDir, String remotePath, int keep) throws IOException {
+        Site site = new Site(remotePath);
+        State state = state(remotePath);
+        String name = Releases.newName(state.releases);
+        String release = site.release(name);
+
+        // Seed the release with the files of the live one, so that only the differences are sent.
+        this.sync.run("mkdir -p " + RemoteShell.quote(site.path("")) + " && " + site.cd()
+                      + " && if [ -L " + site.link() + " ]; then cp -al \"$(readlink " + site.link() + ")\" " + release
+                      + "; elif [ -d " + site.link() + " ]; then cp -al " + site.link() + " " + release + "; fi",
+                      null);
+        RemoteSync.Result result;
+        try {
+            result = this.sync.sync(buildDir, site.path(name));
+            result.release = name;
+        } catch (IOException e) {
+            try {
+                this.sync.run(site.cd() + " && rm -rf " + release, null);
+            } catch (IOException cleanup) {
+                e.addSuppressed(cleanup);
+            }
+            throw e;
+        }
+
+        List<String> names = new ArrayList<>(state.releases);
+        names.add(name);
+        StringBuilder command = new StringBuilder(activate(site, name));
+        List<String> expired = Releases.expired(names, name, keep);
+        if (!expired.isEmpty()) {
+            command.append(" && cd ").append(site.releases()).append(" && rm -rf --");
+            for (String e : expired) {
+                command.append(' ').append(RemoteShell.quote(e));
+            }
+        }
+        this.sync.run(command.toString(), null);
+        logger.info("Release " + name + " is live on " + this.shell + ":" + remotePath
+                    + (expired.isEmpty() ? "" : ", removed " + expired));
+        return result;
+    }
+
+
+    /** Makes an older release live again, in two round trips.
+     *
+     * @param to  The release to switch to, or null for the one before the live release.
+     * @return The name of the release that is now live.
+     */
+    public String rollback(String remotePath, String to) throws IOException {
+        State state = state(remotePath);
+        String name = Releases.rollbackTarget(state.releases, state.current, to);
+        this.sync.run(activate(new Site(remotePath), name), null);
+        return name;
+    }
+
+
+    /** Returns the command that points the site at a release by renaming a new link over the old one. */
+    static String activate(Site site, String name) {
+        String tmp = RemoteShell.quote("." + site.name + ".link");
+        String old = RemoteShell.quote("." + site.name + ".old");
+        // A site deployed before releases existed is a directory, which a link can not replace
+        // atomically; it is moved aside for the moment between the two renames.
+        return site.cd() + " && ln -sfn " + site.release(name) + " " + tmp
+            + " && if [ -d " + site.link() + " ] && [ ! -L " + site.link() + " ]; then rm -rf " + old
+            + " && mv " + site.link() + " " + old + "; fi"
+            + " && mv -T " + tmp + " " + site.link() + " && rm -rf " + old;
+    }
+
+
+    /** A remote site path split into its parent directory and name. */
+    static class Site {
+        final String parent;
+        final String name;
+
+        Site(String remotePath) {
+            String path = remotePath.endsWith("/") ? remotePath.substring(0, remotePath.length() - 1) : remotePath;
+            int slash = path.lastIndexOf('/');
+            this.parent = slash < 0 ? "." : path.substring(0, slash);
+            this.name = path.substring(slash + 1);
+        }
+
+        String cd() {
+            return "cd " + RemoteShell.quote(this.parent);
+        }
+
+        /** The site link, relative to the parent directory. */
+        String link() {
+            return RemoteShell.quote(this.name);
+        }
+
+        /** The releases directory, relative to the parent directory. */
+        String releases() {
+            return RemoteShell.quote(Releases.RELEASES_DIR + "/" + this.name);
+        }
+
+        /** A release directory, relative to the parent directory. */
+        String release(String release) {
+            return RemoteShell.quote(Releases.RELEASES_DIR + "/" + this.name + "/" + release);
+        }
+
+        /** The full path of a release directory. */
+        String path(String release) {
+            return this.parent + "/" + Releases.RELEASES_DIR + "/" + this.name + "/" + release;
+        }
+    }
+
+}
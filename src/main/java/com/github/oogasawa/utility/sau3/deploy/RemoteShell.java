@@ -0,0 +1,37 @@
+package com.github.oogasawa.utility.sau3.deploy;
+
+import java.io.IOException;
+
+
+/** Runs shell commands on a deploy target.
+ *
+ * <p>
+ * The returned process is the local end of the command: its standard input and output are
+ * connected to those of the remote command, so that archives and file lists can be streamed.
+ * </p>
+ */
+public interface RemoteShell {
+
+    /** Starts a command line, interpreted by the remote {@code sh}. */
+    Process start(String command) throws IOException;
+
+
+    /** Returns a string as one single-quoted shell word.
+     *
+     * <p>A leading {@code ~/} or {@code $HOME/} is left unquoted so that the remote shell expands it.</p>
+     */
+    static String quote(String s) {
+        String prefix = "";
+        if (s.startsWith("~/")) {
+            prefix = "~/";
+            s = s.substring(2);
+        } else if (s.startsWith("$HOME/")) {
+            prefix = "\"$HOME\"/";
+            s = s.substring(6);
+        } else if (s.equals("~") || s.equals("$HOME")) {
+            return "\"$HOME\"";
+        }
+        return prefix + "'" + s.replace("'", "'\\''") + "'";
+    }
+
+}
@@ -0,0 +1,262 @@
+package com.github.oogasawa.utility.sau3.deploy;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+
+/** Brings a remote directory up to date with a build directory by transferring only the differences.
+ *
+ * <p>
+ * The manifest of the previous deploy is read from the remote directory and compared with the
+ * manifest of the build ({@link DeployManifest}). Removed files are deleted with one command,
+ * added and changed files are sent as one tar stream over one connection, and the new manifest
+ * is the last file of that stream, so it is only replaced when the transfer completed.
+ * A remote directory without a manifest is cleared and receives the whole build.
+ * </p>
+ */
+public class RemoteSync {
+
+    private static final Logger logger = Logger.getLogger(RemoteSync.class.getName());
+
+    final RemoteShell shell;
+
+
+    /** What a sync did. */
+    public static class Result {
+        String release;
+        boolean full;
+        int transferred;
+        long bytes;
+        int removed;
+        int unchanged;
+
+        /** The release that was synced into, when the sync was part of a {@link RemoteReleases} deploy. */
+        public String getRelease() {
+            return release;
+        }
+
+        /** True if the remote directory had no manifest and received the whole build. */
+        public boolean isFull() {
+            return full;
+        }
+
+        public int getTransferred() {
+            return transferred;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public int getRemoved() {
+            return removed;
+        }
+
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d files transferred (%d bytes), %d removed, %d unchanged%s",
+                                 transferred, bytes, removed, unchanged, full ? " (full upload)" : "");
+        }
+    }
+
+
+    public RemoteSync(RemoteShell shell) {
+        this.shell = shell;
+    }
+
+
+    /** Synchronizes a remote directory with a build directory.
+     *
+     * @param buildDir  The local build directory; the new manifest is written into it.
+     * @param remotePath  The remote directory, e.g. {@code ~/public_html/doc_X}.
+     * @return What was transferred and removed.
+     * @throws IOException if a remote command failed; the remote manifest is then left as it was.
+     */
+    public Result sync(Path buildDir, String remotePath) throws IOException {
+        DeployManifest local = DeployManifest.of(buildDir);
+        DeployManifest previous = fetchManifest(remotePath);
+        String dir = RemoteShell.quote(remotePath);
+
+        Result result = new Result();
+        if (previous == null) {
+            // Files of an unknown deploy: start from an empty directory.
+            result.full = true;
+            run("rm -rf " + dir + " && mkdir -p " + dir, null);
+            previous = new DeployManifest();
+        }
+
+        DeployManifest.Diff diff = local.diff(previous);
+        result.unchanged = diff.getUnchanged();
+        if (diff.isEmpty() && !result.full) {
+            return result;
+        }
+
+        if (!diff.getRemoved().isEmpty()) {
+            run("cd " + dir + " && xargs -0 rm -f -- && find . -mindepth 1 -type d -empty -delete",
+                nulSeparated(diff.getRemoved()));
+            result.removed = diff.getRemoved().size();
+        }
+
+        List<String> transfers = diff.getTransfers();
+        local.write(buildDir);
+        List<String> names = new ArrayList<>(transfers);
+        names.add(DeployManifest.FILE_NAME);
+        transfer(buildDir, names, "mkdir -p " + dir + " && " + extractCommand(dir));
+        result.transferred = transfers.size();
+        result.bytes = local.sizeOf(transfers);
+        return result;
+    }
+
+
+    /** Returns the remote command that extracts a gzipped tar from its standard input into a directory.
+     *
+     * <p>
+     * The modes are taken from the entry headers ({@code -p}) rather than reduced by the umask of
+     * the remote user, and the files belong to that user rather than to the owner in the headers.
+     * </p>
+     *
+     * @param dir  The directory, already quoted for the remote shell.
+     */
+    static String extractCommand(String dir) {
+        return "tar --no-same-owner -pxzf - -C " + dir;
+    }
+
+
+    /** Reads the manifest of a remote directory.
+     *
+     * @return The manifest, or null if the directory has none (or an unreadable one).
+     */
+    DeployManifest fetchManifest(String remotePath) throws IOException {
+        String file = RemoteShell.quote(remotePath + "/" + DeployManifest.FILE_NAME);
+        byte[] json = run("if [ -f " + file + " ]; then cat " + file + "; fi", null);
+        if (json.length == 0) {
+            return null;
+        }
+        try {
+            return DeployManifest.parse(new ByteArrayInputStream(json));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Ignoring an unreadable deploy manifest in " + remotePath, e);
+            return null;
+        }
+    }
+
+
+    /** Streams the listed files of a directory as a gzipped tar into a remote command.
+     *
+     * <p>
+     * The archive is written in the JVM and compressed on several threads
+     * ({@link ParallelGzipOutputStream}) while the remote {@code tar} extracts it, so that
+     * reading, compression, transfer and extraction overlap and nothing is written to disk.
+     * </p>
+     */
+    void transfer(Path dir, List<String> names, String command) throws IOException {
+        Process remote = this.shell.start(command);
+        try (OutputStream out = remote.getOutputStream()) {
+            writeArchive(dir, names, new ParallelGzipOutputStream(new BufferedOutputStream(out, 64 * 1024)));
+        } catch (IOException e) {
+            remote.destroy();
+            throw e;
+        }
+        try {
+            finish(remote, command);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while transferring to " + this.shell, e);
+        }
+    }
+
+
+    /** Writes the listed files of a directory, and their parent directories, as a tar archive.
+     *
+     * <p>
+     * Web permissions are set in the entry headers: directories and executables 755, other files
+     * 644. The stream is closed at the end.
+     * </p>
+     */
+    static void writeArchive(Path dir, List<String> names, OutputStream out) throws IOException {
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(out, StandardCharsets.UTF_8.name())) {
+            tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+            Set<String> dirs = new HashSet<>();
+            for (String name : names) {
+                for (int slash = name.indexOf('/'); slash > 0; slash = name.indexOf('/', slash + 1)) {
+                    String parent = name.substring(0, slash + 1);
+                    if (dirs.add(parent)) {
+                        TarArchiveEntry entry = new TarArchiveEntry(parent);
+                        entry.setMode(TarArchiveEntry.DEFAULT_DIR_MODE);
+                        tar.putArchiveEntry(entry);
+                        tar.closeArchiveEntry();
+                    }
+                }
+
+                Path file = dir.resolve(name);
+                TarArchiveEntry entry = new TarArchiveEntry(name);
+                entry.setSize(Files.size(file));
+                entry.setModTime(Files.getLastModifiedTime(file));
+                entry.setMode(TarArchiveEntry.DEFAULT_FILE_MODE & ~0777 | (Files.isExecutable(file) ? 0755 : 0644));
+                tar.putArchiveEntry(entry);
+                Files.copy(file, tar);
+                tar.closeArchiveEntry();
+            }
+        }
+    }
+
+
+    /** Runs a remote command with the given standard input and returns its standard output. */
+    byte[] run(String command, byte[] stdin) throws IOException {
+        Process process = this.shell.start(command);
+        try (OutputStream out = process.getOutputStream()) {
+            if (stdin != null) {
+                out.write(stdin);
+            }
+        }
+        try {
+            return finish(process, command);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted: " + command, e);
+        }
+    }
+
+
+    /** Reads the output of a process whose input is closed and checks its exit code. */
+    byte[] finish(Process process, String command) throws IOException, InterruptedException {
+        byte[] output;
+        try (InputStream in = process.getInputStream()) {
+            output = in.readAllBytes();
+        }
+        int exitCode = process.waitFor();
+        if (exitCode != 0) {
+            throw new IOException("Remote command failed on " + this.shell + " (exit code: " + exitCode + "): " + command);
+        }
+        return output;
+    }
+
+
+    static byte[] nulSeparated(List<String> names) {
+        StringBuilder sb = new StringBuilder();
+        for (String name : names) {
+            sb.append(name).append('\0');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.github.oogasawa.utility.sau3.deploy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/** One shared SSH connection per server for the duration of a deploy or a batch of deploys.
+ *
+ * <p>
+ * The control sockets live in a private temporary directory, which is removed together with the
+ * connections by {@link #close()}:
+ * </p>
+ * <pre>{@code
+ * try (SshSessions sessions = new SshSessions()) {
+ *     SshShell shell = sessions.get("web-admin@192.168.12.1");
+ *     shell.open();
+ *     new RemoteReleases(shell).deploy(buildDir, "/var/www/html/doc_X", Releases.DEFAULT_KEEP);
+ * }
+ * }</pre>
+ */
+public class SshSessions implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(SshSessions.class.getName());
+
+    final Map<String, SshShell> shells = new LinkedHashMap<>();
+    Path socketDir;
+
+
+    /** Returns the shell of a server, creating it on first use. */
+    public synchronized SshShell get(String server) throws IOException {
+        SshShell shell = this.shells.get(server);
+        if (shell == null) {
+            if (this.socketDir == null) {
+                // Short path: a Unix socket path is limited to about 100 bytes.
+                this.socketDir = Files.createTempDirectory(Path.of("/tmp"), "sau-ssh",
+                        PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            }
+            shell = new SshShell(server, this.socketDir.resolve(this.shells.size() + ".sock"));
+            this.shells.put(server, shell);
+        }
+        return shell;
+    }
+
+
+    /** Closes the connections to all servers. */
+    @Override
+    public synchronized void close() throws IOException {
+        for (SshShell shell : this.shells.values()) {
+            try {
+                shell.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Can not close the connection to " + shell, e);
+            }
+        }
+        this.shells.clear();
+        if (this.socketDir != null) {
+            Releases.delete(this.socketDir);
+            this.socketDir = null;
+        }
+    }
+
+}
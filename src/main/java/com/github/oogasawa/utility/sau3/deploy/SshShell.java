@@ -0,0 +1,146 @@
+package com.github.oogasawa.utility.sau3.deploy;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/** Runs commands on a server with the OpenSSH client ({@code ssh user@host command}).
+ *
+ * <p>
+ * With a control path, the shell keeps one connection to the server open (OpenSSH
+ * {@code ControlMaster}): {@link #open()} starts a background master, and every command then
+ * runs as a new channel on that connection, without a TCP or key exchange of its own.
+ * {@link #close()} stops the master. Without a control path, every command connects anew.
+ * </p>
+ */
+public class SshShell implements RemoteShell, Closeable {
+
+    /** How long an idle master outlives a JVM that did not close it. */
+    static final String CONTROL_PERSIST = "30m";
+
+    final String server;
+    final Path controlPath;
+
+    /** Additional {@code ssh} options, e.g. {@code -i key}. */
+    final List<String> options = new ArrayList<>();
+
+
+    /** @param server The target, e.g. {@code web-admin@192.168.12.1}. */
+    public SshShell(String server) {
+        this(server, null);
+    }
+
+
+    /**
+     * @param server The target, e.g. {@code web-admin@192.168.12.1}.
+     * @param controlPath The socket of the shared connection, or null for a connection per command.
+     */
+    public SshShell(String server, Path controlPath) {
+        this.server = server;
+        this.controlPath = controlPath;
+    }
+
+
+    /** Connects to the server; with a control path, the connection stays open for the following commands.
+     *
+     * @return true if the server could be reached.
+     */
+    public synchronized boolean open() throws IOException {
+        List<String> command;
+        if (this.controlPath == null) {
+            command = command("true");
+        } else if (Files.exists(this.controlPath) && control("check") == 0) {
+            return true;
+        } else {
+            // -f: go to the background once authenticated, -N: run no command.
+            command = ssh();
+            command.addAll(List.of("-o", "ControlMaster=yes", "-o", "ControlPersist=" + CONTROL_PERSIST,
+                                   "-f", "-N", this.server));
+        }
+        return waitFor(command) == 0;
+    }
+
+
+    @Override
+    public Process start(String command) throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(command(command));
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        return builder.start();
+    }
+
+
+    /** Stops the shared connection, if there is one. */
+    @Override
+    public void close() throws IOException {
+        if (this.controlPath != null && Files.exists(this.controlPath)) {
+            control("exit");
+        }
+    }
+
+
+    List<String> command(String command) {
+        List<String> args = ssh();
+        if (this.controlPath != null) {
+            // auto: a command still connects on its own if the master is gone.
+            args.addAll(List.of("-o", "ControlMaster=auto"));
+        }
+        args.add(this.server);
+        args.add(command);
+        return args;
+    }
+
+
+    List<String> ssh() {
+        List<String> args = new ArrayList<>(List.of("ssh", "-o", "BatchMode=yes",
+                                                    "-o", "StrictHostKeyChecking=no",
+                                                    "-o", "ConnectTimeout=10"));
+        if (this.controlPath != null) {
+            args.addAll(List.of("-o", "ControlPath=" + this.controlPath));
+        }
+        args.addAll(this.options);
+        return args;
+    }
+
+
+    /** Sends a control command ({@code check}, {@code exit}) to the master. */
+    int control(String operation) throws IOException {
+        List<String> args = ssh();
+        args.addAll(List.of("-O", operation, this.server));
+        ProcessBuilder builder = new ProcessBuilder(args);
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        builder.redirectError(ProcessBuilder.Redirect.DISCARD);
+        return waitFor(builder);
+    }
+
+
+    int waitFor(List<String> command) throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(command);
+        // The master keeps the descriptors it was started with; it must not hold a pipe open.
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        return waitFor(builder);
+    }
+
+
+    static int waitFor(ProcessBuilder builder) throws IOException {
+        builder.redirectInput(ProcessBuilder.Redirect.from(new File("/dev/null")));
+        try {
+            return builder.start().waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted: " + builder.command(), e);
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        return this.server;
+    }
+
+}
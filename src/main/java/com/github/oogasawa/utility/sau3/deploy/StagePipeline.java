@@ -0,0 +1,223 @@
+package com.github.oogasawa.utility.sau3.deploy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/** Items pass through a sequence of stages, each with its own queue and number of workers.
+ *
+ * <p>
+ * Stages run concurrently: while one item is in the third stage, the next can be in the second
+ * and the one after in the first, so that stages bound by different resources (network, CPU,
+ * memory) overlap. Items enter the first queue in the given order. An item whose step returns
+ * false or throws (an {@link Error} included) leaves the pipeline at that stage.
+ * </p>
+ *
+ * <p>
+ * Every stage counts what passed through it, how long items waited in its queue and how long
+ * its workers were busy, so that the bottleneck shows in {@link #report()}: a stage whose
+ * items wait long while the next stages wait for work is the one to give more workers.
+ * </p>
+ *
+ * @param <T> The type of the items.
+ */
+public class StagePipeline<T> {
+
+    private static final Logger logger = Logger.getLogger(StagePipeline.class.getName());
+
+
+    /** The work of a stage on one item. */
+    @FunctionalInterface
+    public interface Step<T> {
+        /** @return false if the item can not go on to the next stage. */
+        boolean run(T item) throws Exception;
+    }
+
+
+    /** A stage and its counters. */
+    public static class Stage<T> {
+        final String name;
+        final int workers;
+        final Step<T> step;
+        final BlockingQueue<Entry<T>> queue = new LinkedBlockingQueue<>();
+
+        final AtomicInteger processed = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger maxQueued = new AtomicInteger();
+        final AtomicLong waitNanos = new AtomicLong();
+        final AtomicLong busyNanos = new AtomicLong();
+
+        Stage(String name, int workers, Step<T> step) {
+            this.name = name;
+            this.workers = Math.max(1, workers);
+            this.step = step;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getWorkers() {
+            return workers;
+        }
+
+        public int getProcessed() {
+            return processed.get();
+        }
+
+        public int getFailed() {
+            return failed.get();
+        }
+
+        /** The largest number of items that waited in the queue at once. */
+        public int getMaxQueued() {
+            return maxQueued.get();
+        }
+
+        /** Total time items waited in the queue of this stage. */
+        public long getWaitMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(waitNanos.get());
+        }
+
+        /** Total time the workers of this stage spent on items. */
+        public long getBusyMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(busyNanos.get());
+        }
+
+        void put(Entry<T> entry) {
+            entry.queued = System.nanoTime();
+            this.queue.add(entry);
+            this.maxQueued.accumulateAndGet(this.queue.size(), Math::max);
+        }
+    }
+
+
+    static class Entry<T> {
+        final T item;
+        long queued;
+
+        Entry(T item) {
+            this.item = item;
+        }
+    }
+
+
+    final List<Stage<T>> stages = new ArrayList<>();
+    Consumer<T> beforeStep = item -> {};
+    Consumer<T> afterStep = item -> {};
+    long elapsedNanos = 0;
+
+
+    /** Appends a stage with the given number of workers. */
+    public StagePipeline<T> stage(String name, int workers, Step<T> step) {
+        this.stages.add(new Stage<>(name, workers, step));
+        return this;
+    }
+
+
+    /** Sets what a worker does before and after each step, e.g. to label its output with the item. */
+    public StagePipeline<T> around(Consumer<T> beforeStep, Consumer<T> afterStep) {
+        this.beforeStep = beforeStep;
+        this.afterStep = afterStep;
+        return this;
+    }
+
+
+    public List<Stage<T>> getStages() {
+        return this.stages;
+    }
+
+
+    /** Passes all items through the stages and returns when every item has left the pipeline. */
+    public void run(List<T> items) throws InterruptedException {
+        long start = System.nanoTime();
+        CountDownLatch done = new CountDownLatch(items.size());
+        List<Thread> workers = new ArrayList<>();
+        for (int s = 0; s < this.stages.size(); s++) {
+            Stage<T> stage = this.stages.get(s);
+            Stage<T> next = s + 1 < this.stages.size() ? this.stages.get(s + 1) : null;
+            for (int w = 0; w < stage.workers; w++) {
+                workers.add(Thread.ofVirtual().name(stage.name + "-" + w).start(() -> work(stage, next, done)));
+            }
+        }
+
+        for (T item : items) {
+            this.stages.get(0).put(new Entry<>(item));
+        }
+        try {
+            done.await();
+        } finally {
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+            this.elapsedNanos = System.nanoTime() - start;
+        }
+    }
+
+
+    void work(Stage<T> stage, Stage<T> next, CountDownLatch done) {
+        while (true) {
+            Entry<T> entry;
+            try {
+                entry = stage.queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            long start = System.nanoTime();
+            stage.waitNanos.addAndGet(start - entry.queued);
+
+            boolean passed = false;
+            try {
+                this.beforeStep.accept(entry.item);
+                passed = stage.step.run(entry.item);
+            } catch (Throwable e) {
+                // Errors too: a worker that dies here would leave run() waiting for the item forever.
+                logger.log(Level.SEVERE, "Stage " + stage.name + " failed for " + entry.item, e);
+            } finally {
+                try {
+                    this.afterStep.accept(entry.item);
+                } catch (Throwable e) {
+                    logger.log(Level.SEVERE, "Stage " + stage.name + " could not finish " + entry.item, e);
+                    passed = false;
+                }
+                stage.busyNanos.addAndGet(System.nanoTime() - start);
+
+                stage.processed.incrementAndGet();
+                if (!passed) {
+                    stage.failed.incrementAndGet();
+                    done.countDown();
+                } else if (next == null) {
+                    done.countDown();
+                } else {
+                    next.put(entry);
+                }
+            }
+        }
+    }
+
+
+    /** Returns a table of the stage counters. */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-10s %7s %6s %6s %9s %10s %10s %6s%n",
+                                "stage", "workers", "items", "failed", "max queue", "queue wait", "busy", "util"));
+        double elapsed = Math.max(1, TimeUnit.NANOSECONDS.toMillis(this.elapsedNanos));
+        for (Stage<T> stage : this.stages) {
+            sb.append(String.format("%-10s %7d %6d %6d %9d %9.1fs %9.1fs %5.0f%%%n",
+                                    stage.name, stage.workers, stage.getProcessed(), stage.getFailed(),
+                                    stage.getMaxQueued(), stage.getWaitMillis() / 1000.0, stage.getBusyMillis() / 1000.0,
+                                    100.0 * stage.getBusyMillis() / (elapsed * stage.workers)));
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,266 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.HttpHost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.opensearch.client.Request;
+import org.opensearch.client.Response;
+import org.opensearch.client.RestClient;
+
+
+/** Serializes documents straight into a {@code _bulk} request body and sends it when it is full.
+ *
+ * <p>
+ * Each document is written once, by a {@link JsonGenerator} bound to a growable byte buffer,
+ * and the buffer's array is the body of the HTTP request; there is no intermediate map,
+ * JSON string or re-parse. Buffers and their generators are pooled, so after warm-up a document
+ * costs little more than its own UTF-8 bytes.
+ * </p>
+ *
+ * <p>
+ * {@link #add} is thread-safe. A full buffer is swapped for a pooled one under the lock and sent
+ * outside it, so other threads keep serializing while a bulk request is in flight.
+ * </p>
+ */
+public class BulkWriter implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(BulkWriter.class.getName());
+
+    public static final int DEFAULT_MAX_DOCS = 100;
+    public static final int DEFAULT_MAX_BYTES = 5 * 1024 * 1024;
+
+    static final ContentType NDJSON = ContentType.create("application/x-ndjson");
+
+    /** Writes the fields of one document into an open JSON object. */
+    @FunctionalInterface
+    public interface Fields {
+        void write(JsonGenerator gen) throws IOException;
+    }
+
+
+    /** A growable byte buffer with its own generator, and the URLs of the documents in it. */
+    static class Buffer extends OutputStream {
+        byte[] bytes = new byte[16 * 1024];
+        int count;
+        final List<String> urls = new ArrayList<>();
+        JsonGenerator generator;
+
+        @Override
+        public void write(int b) {
+            ensure(1);
+            this.bytes[this.count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensure(len);
+            System.arraycopy(b, off, this.bytes, this.count, len);
+            this.count += len;
+        }
+
+        void ensure(int len) {
+            if (this.count + len > this.bytes.length) {
+                this.bytes = Arrays.copyOf(this.bytes, Math.max(this.bytes.length * 2, this.count + len));
+            }
+        }
+
+        void reset() {
+            this.count = 0;
+            this.urls.clear();
+        }
+    }
+
+
+    final RestClient client;
+    final IndexMetrics metrics;
+    final JsonFactory factory = new JsonFactory();
+    final ObjectMapper mapper = new ObjectMapper();
+    final ReentrantLock lock = new ReentrantLock();
+    final ConcurrentLinkedDeque<Buffer> pool = new ConcurrentLinkedDeque<>();
+    Buffer current;
+    final AtomicLong failed = new AtomicLong();
+
+    int maxDocs = DEFAULT_MAX_DOCS;
+    int maxBytes = DEFAULT_MAX_BYTES;
+
+
+    public BulkWriter(HttpHost host, IndexMetrics metrics) {
+        this.client = RestClient.builder(host).build();
+        this.metrics = metrics;
+        // One document per line, no separator of our own between root values.
+        this.factory.setRootValueSeparator(null);
+        this.current = newBuffer();
+    }
+
+
+    /** Sets the number of documents that triggers a bulk request (1 sends every document at once). */
+    public void setMaxDocs(int maxDocs) {
+        this.maxDocs = maxDocs;
+    }
+
+
+    /** Sets the body size in bytes that triggers a bulk request. */
+    public void setMaxBytes(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+
+    /** Returns the number of documents the writer failed to index so far. */
+    public long getFailed() {
+        return this.failed.get();
+    }
+
+
+    /** Adds an {@code index} action; sends the bulk request if the buffer is full.
+     *
+     * @param indexName  The target index.
+     * @param id  The document id.
+     * @param url  The URL of the page, for log messages.
+     * @param fields  Writes the document fields.
+     */
+    public void add(String indexName, String id, String url, Fields fields) throws IOException {
+        Buffer full = null;
+        this.lock.lock();
+        try {
+            long start = System.nanoTime();
+            Buffer buffer = this.current;
+            JsonGenerator gen = buffer.generator;
+            int mark = buffer.count;
+            try {
+                gen.writeStartObject();
+                gen.writeObjectFieldStart("index");
+                gen.writeStringField("_index", indexName);
+                gen.writeStringField("_id", id);
+                gen.writeEndObject();
+                gen.writeEndObject();
+                gen.writeRaw('\n');
+                gen.writeStartObject();
+                fields.write(gen);
+                gen.writeEndObject();
+                gen.writeRaw('\n');
+                gen.flush();
+            } catch (IOException | RuntimeException e) {
+                // Drop the partial document and start over with a clean generator.
+                buffer.count = mark;
+                buffer.generator = this.factory.createGenerator(buffer);
+                throw e;
+            }
+            buffer.urls.add(url);
+            this.metrics.time(IndexMetrics.SERIALIZE, start);
+
+            if (buffer.urls.size() >= this.maxDocs || buffer.count >= this.maxBytes) {
+                full = buffer;
+                this.current = take();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        if (full != null) {
+            send(full);
+        }
+    }
+
+
+    /** Sends the buffered documents. */
+    public void flush() {
+        Buffer full = null;
+        this.lock.lock();
+        try {
+            if (!this.current.urls.isEmpty()) {
+                full = this.current;
+                this.current = take();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        if (full != null) {
+            send(full);
+        }
+    }
+
+
+    Buffer take() {
+        Buffer buffer = this.pool.poll();
+        return buffer != null ? buffer : newBuffer();
+    }
+
+
+    Buffer newBuffer() {
+        Buffer buffer = new Buffer();
+        try {
+            buffer.generator = this.factory.createGenerator(buffer);
+        } catch (IOException e) {
+            // Can not happen: the buffer never throws.
+            throw new IllegalStateException(e);
+        }
+        return buffer;
+    }
+
+
+    /** Sends a buffer as one {@code _bulk} request and counts the per-document results. */
+    void send(Buffer buffer) {
+        long start = System.nanoTime();
+        this.metrics.gauge(IndexMetrics.IN_FLIGHT).increment();
+        try {
+            Request request = new Request("POST", "/_bulk");
+            request.setEntity(new ByteArrayEntity(buffer.bytes, 0, buffer.count, NDJSON));
+            Response response = this.client.performRequest(request);
+            JsonNode result = this.mapper.readTree(EntityUtils.toByteArray(response.getEntity()));
+
+            JsonNode items = result.path("items");
+            for (int i = 0; i < buffer.urls.size(); i++) {
+                JsonNode item = items.path(i).path("index");
+                String url = buffer.urls.get(i);
+                if (item.path("status").asInt(500) < 300) {
+                    this.metrics.increment(IndexMetrics.INDEXED);
+                    logger.fine("Indexed: " + url);
+                } else {
+                    this.metrics.increment(IndexMetrics.FAILED);
+                    this.failed.incrementAndGet();
+                    logger.severe("Failed to index: " + url + " : " + item.path("error"));
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "IOError at indexing " + buffer.urls.size() + " documents, first: "
+                       + buffer.urls.get(0), e);
+            for (int i = 0; i < buffer.urls.size(); i++) {
+                this.metrics.increment(IndexMetrics.FAILED);
+            }
+            this.failed.addAndGet(buffer.urls.size());
+        } finally {
+            this.metrics.gauge(IndexMetrics.IN_FLIGHT).decrement();
+            this.metrics.time(IndexMetrics.INDEX_ROUND_TRIP, start);
+            buffer.reset();
+            this.pool.push(buffer);
+        }
+    }
+
+
+    /** Sends the buffered documents and closes the client. */
+    @Override
+    public void close() {
+        flush();
+        try {
+            this.client.close();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to close the client.", e);
+        }
+    }
+
+}
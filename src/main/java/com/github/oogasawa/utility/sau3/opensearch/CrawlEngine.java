@@ -0,0 +1,266 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/** Fetches sitemaps and pages for several index configurations at once.
+ *
+ * <p>
+ * Every fetch holds a global permit ({@link #setConcurrency(int)}) and a permit of its host
+ * ({@link #setPerHost(int)}); after a fetch the host permit is kept for {@link #setDelayMillis(long)},
+ * so that each host sees at most {@code perHost} requests per delay, as the one-second sleep
+ * between pages did when configurations were processed one after another.
+ * </p>
+ *
+ * <p>
+ * Sitemaps are parsed once per run even if several configurations list them. Pages are fetched
+ * once too: callers announce the pages they will need with {@link #expect(String)} before the
+ * crawl starts, and a page announced more than once is kept until its last consumer took it
+ * with {@link #fetch(String)} or gave it up with {@link #release(String)}.
+ * </p>
+ *
+ * <p>All methods are thread-safe. Tasks run on virtual threads.</p>
+ */
+public class CrawlEngine implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(CrawlEngine.class.getName());
+
+    public static final int DEFAULT_CONCURRENCY = 8;
+    public static final int DEFAULT_PER_HOST = 1;
+    public static final long DEFAULT_DELAY_MILLIS = 1000;
+
+    int concurrency = DEFAULT_CONCURRENCY;
+    int perHost = DEFAULT_PER_HOST;
+    long delayMillis = DEFAULT_DELAY_MILLIS;
+
+    final IndexMetrics metrics;
+    final Indexer fetcher;
+    final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    Semaphore global = new Semaphore(DEFAULT_CONCURRENCY);
+    final ConcurrentHashMap<String, Semaphore> hosts = new ConcurrentHashMap<>();
+    final ConcurrentHashMap<String, CompletableFuture<List<SitemapEntry>>> sitemaps = new ConcurrentHashMap<>();
+    final ConcurrentHashMap<String, SharedPage> pages = new ConcurrentHashMap<>();
+    final ConcurrentHashMap<String, CompletableFuture<Sitemap>> conditionalSitemaps = new ConcurrentHashMap<>();
+
+
+    /** A page fetched at most once, and the number of consumers still expecting it. */
+    static class SharedPage {
+        final AtomicInteger consumers = new AtomicInteger();
+        final CompletableFuture<Indexer.Page> page = new CompletableFuture<>();
+        final AtomicInteger started = new AtomicInteger();
+    }
+
+
+    public CrawlEngine(IndexMetrics metrics) {
+        this.metrics = metrics;
+        this.fetcher = new Indexer();
+        this.fetcher.setMetrics(metrics);
+    }
+
+
+    /** Sets the maximum number of fetches in flight over all hosts; call before the crawl starts. */
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+        this.global = new Semaphore(concurrency);
+    }
+
+
+    /** Sets the maximum number of fetches in flight per host; call before the crawl starts. */
+    public void setPerHost(int perHost) {
+        this.perHost = perHost;
+    }
+
+
+    public void setDelayMillis(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+
+    /** Returns the entries of a sitemap, parsing it on the first call only.
+     *
+     * <p>If that parse throws, the other callers for the same sitemap throw as well.</p>
+     */
+    public List<SitemapEntry> sitemap(String sitemapUrl) {
+        CompletableFuture<List<SitemapEntry>> future = new CompletableFuture<>();
+        CompletableFuture<List<SitemapEntry>> existing = this.sitemaps.putIfAbsent(sitemapUrl, future);
+        if (existing != null) {
+            logger.fine("Sitemap shared with another configuration: " + sitemapUrl);
+            return existing.join();
+        }
+        try {
+            List<SitemapEntry> entries = withPermits(sitemapUrl, () -> {
+                Sitemap sitemap = new Sitemap();
+                sitemap.setMetrics(this.metrics);
+                sitemap.parse(sitemapUrl);
+                return new ArrayList<>(sitemap.getSitemapEntries());
+            });
+            future.complete(entries);
+            return entries;
+        } catch (RuntimeException e) {
+            // Not an empty list: to sau:indexClean that would mean every page of the site is gone.
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+
+    /** Fetches a sitemap and parses it only if it changed, see {@link Sitemap#parseIfChanged}.
+     *
+     * <p>Configurations sharing a sitemap and its stored state share one fetch.</p>
+     */
+    public Sitemap sitemapIfChanged(String sitemapUrl, SitemapState.Entry previous) {
+        String key = previous == null ? sitemapUrl
+            : sitemapUrl + " " + previous.getDigest() + " " + previous.getEtag() + " " + previous.getLastModified();
+        CompletableFuture<Sitemap> future = new CompletableFuture<>();
+        CompletableFuture<Sitemap> existing = this.conditionalSitemaps.putIfAbsent(key, future);
+        if (existing != null) {
+            logger.fine("Sitemap shared with another configuration: " + sitemapUrl);
+            return existing.join();
+        }
+        Sitemap sitemap = new Sitemap();
+        sitemap.setMetrics(this.metrics);
+        try {
+            withPermits(sitemapUrl, () -> sitemap.parseIfChanged(sitemapUrl, previous));
+        } finally {
+            if (sitemap.change == null) {
+                sitemap.change = Sitemap.Change.FAILED;
+            }
+            future.complete(sitemap);
+        }
+        return sitemap;
+    }
+
+
+    /** Announces that a consumer will {@link #fetch(String)} or {@link #release(String)} a page. */
+    public void expect(String url) {
+        this.pages.computeIfAbsent(url, k -> new SharedPage()).consumers.incrementAndGet();
+    }
+
+
+    /** Gives up an announced page without fetching it (e.g. because it is unchanged in the index). */
+    public void release(String url) {
+        SharedPage shared = this.pages.get(url);
+        if (shared != null && shared.consumers.decrementAndGet() <= 0) {
+            this.pages.remove(url, shared);
+        }
+    }
+
+
+    /** Fetches a page, or waits for another consumer's fetch of the same URL.
+     *
+     * @return The page, or null if the fetch failed.
+     */
+    public Indexer.Page fetch(String url) {
+        SharedPage shared = this.pages.computeIfAbsent(url, k -> new SharedPage());
+        if (shared.started.getAndIncrement() == 0) {
+            try {
+                shared.page.complete(withPermits(url, () -> this.fetcher.fetchPage(url)));
+            } catch (RuntimeException e) {
+                shared.page.complete(null);
+                throw e;
+            }
+        } else {
+            logger.fine("Page shared with another configuration: " + url);
+        }
+        Indexer.Page page = shared.page.join();
+        if (shared.consumers.decrementAndGet() <= 0) {
+            this.pages.remove(url, shared);
+        }
+        return page;
+    }
+
+
+    /** Starts a task on a virtual thread. */
+    public <T> Future<T> submit(Callable<T> task) {
+        return this.executor.submit(task);
+    }
+
+
+    /** Runs the tasks concurrently and waits for all of them; failures are logged, not thrown. */
+    public void runAll(Collection<? extends Callable<?>> tasks) {
+        List<Future<?>> futures = new ArrayList<>();
+        for (Callable<?> task : tasks) {
+            futures.add(submit(task));
+        }
+        awaitAll(futures);
+    }
+
+
+    /** Waits for the given tasks; failures are logged, not thrown. */
+    public static void awaitAll(Collection<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                logger.log(Level.SEVERE, "Task failed: " + e.getCause(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.log(Level.WARNING, "Interrupted", e);
+                return;
+            }
+        }
+    }
+
+
+    /** Runs a fetch while holding a global and a per-host permit. */
+    <T> T withPermits(String url, java.util.function.Supplier<T> fetch) {
+        Semaphore host = this.hosts.computeIfAbsent(hostOf(url), k -> new Semaphore(this.perHost));
+        try {
+            host.acquire();
+            try {
+                this.global.acquire();
+                try {
+                    return fetch.get();
+                } finally {
+                    this.global.release();
+                }
+            } finally {
+                // Politeness: the host slot stays taken for the delay, but other hosts can use the global slot.
+                try {
+                    if (this.delayMillis > 0) {
+                        Thread.sleep(this.delayMillis);
+                    }
+                } finally {
+                    host.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a fetch slot: " + url, e);
+        }
+    }
+
+
+    /** Returns {@code host:port} of a URL, the unit of the per-host limit. */
+    static String hostOf(String url) {
+        try {
+            URI uri = URI.create(url);
+            return uri.getHost() + ":" + uri.getPort();
+        } catch (IllegalArgumentException e) {
+            return url;
+        }
+    }
+
+
+    /** Waits for the running tasks and stops the executor. */
+    @Override
+    public void close() {
+        this.executor.close();
+    }
+
+}
@@ -0,0 +1,292 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+
+/** Counters, timers and gauges of one crawl/index run.
+ *
+ * <p>
+ * {@link Sitemap}, {@link Indexer} and the index commands record into the same instance;
+ * at the end of the run the command writes a report with {@link #writeReport(Path)},
+ * as JSON or, for files ending in {@code .prom}, in the Prometheus text format
+ * (e.g. for the node_exporter textfile collector).
+ * </p>
+ *
+ * <p>All methods are thread-safe.</p>
+ */
+public class IndexMetrics {
+
+    /** Counter names. */
+    public static final String FETCHED = "fetched";
+    public static final String SKIPPED_UNCHANGED = "skipped_unchanged";
+    public static final String SKIPPED_SITEMAP = "skipped_sitemap";
+    public static final String SKIPPED_DUPLICATE = "skipped_duplicate";
+    public static final String INDEXED = "indexed";
+    public static final String DELETED = "deleted";
+    public static final String FAILED = "failed";
+
+    /** Timer names. */
+    public static final String SITEMAP_FETCH = "sitemap_fetch";
+    public static final String PAGE_FETCH = "page_fetch";
+    public static final String EXTRACT = "extract";
+    public static final String SERIALIZE = "serialize";
+    public static final String INDEX_ROUND_TRIP = "index_round_trip";
+
+    /** Gauge names. */
+    public static final String QUEUE_DEPTH = "queue_depth";
+    public static final String IN_FLIGHT = "in_flight";
+
+    public static final Path DEFAULT_REPORT = Paths.get(System.getProperty("user.home"), ".sau3", "index-report.json");
+
+
+    /** Count, total and maximum of the durations of a stage. */
+    public static class Timer {
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        public void record(long nanos) {
+            this.count.increment();
+            this.totalNanos.add(nanos);
+            this.maxNanos.accumulate(nanos);
+        }
+
+        public long getCount() {
+            return this.count.sum();
+        }
+
+        public long getTotalNanos() {
+            return this.totalNanos.sum();
+        }
+
+        public long getMaxNanos() {
+            return this.maxNanos.get();
+        }
+    }
+
+
+    /** A current value and the highest value it reached during the run. */
+    public static class Gauge {
+        final AtomicLong value = new AtomicLong();
+        final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        public void set(long v) {
+            this.value.set(v);
+            this.max.accumulate(v);
+        }
+
+        public void increment() {
+            this.max.accumulate(this.value.incrementAndGet());
+        }
+
+        public void decrement() {
+            this.value.decrementAndGet();
+        }
+
+        public long get() {
+            return this.value.get();
+        }
+
+        public long getMax() {
+            return this.max.get();
+        }
+    }
+
+
+    final String command;
+    final long startMillis = System.currentTimeMillis();
+    final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    final Map<String, Gauge> gauges = new ConcurrentHashMap<>();
+    /** Site, counter name, count: the counters incremented with {@link #increment(String, String)}. */
+    final Map<String, Map<String, LongAdder>> siteCounters = new ConcurrentHashMap<>();
+
+
+    public IndexMetrics() {
+        this("");
+    }
+
+
+    /** @param command The command of the run (e.g. {@code sau:index}), reported as a label. */
+    public IndexMetrics(String command) {
+        this.command = command;
+    }
+
+
+    public void increment(String counter) {
+        this.counters.computeIfAbsent(counter, k -> new LongAdder()).increment();
+    }
+
+
+    public long count(String counter) {
+        LongAdder adder = this.counters.get(counter);
+        return adder == null ? 0 : adder.sum();
+    }
+
+
+    /** Increments a counter and also counts it for the given site (e.g. {@link Indexer#siteOf(String)}). */
+    public void increment(String counter, String site) {
+        increment(counter);
+        this.siteCounters.computeIfAbsent(site == null ? "" : site, k -> new ConcurrentHashMap<>())
+            .computeIfAbsent(counter, k -> new LongAdder()).increment();
+    }
+
+
+    public long count(String counter, String site) {
+        LongAdder adder = this.siteCounters.getOrDefault(site == null ? "" : site, Map.of()).get(counter);
+        return adder == null ? 0 : adder.sum();
+    }
+
+
+    public Timer timer(String name) {
+        return this.timers.computeIfAbsent(name, k -> new Timer());
+    }
+
+
+    /** Records the time elapsed since {@code startNanos} (a {@link System#nanoTime()} value). */
+    public void time(String timer, long startNanos) {
+        timer(timer).record(System.nanoTime() - startNanos);
+    }
+
+
+    public Gauge gauge(String name) {
+        return this.gauges.computeIfAbsent(name, k -> new Gauge());
+    }
+
+
+    /** Returns a one-line summary of the counters, for the log. */
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(this.counters).entrySet()) {
+            sb.append(sb.length() == 0 ? "" : ", ").append(e.getKey()).append('=').append(e.getValue().sum());
+        }
+        sb.append(String.format(" (%.1f s)", (System.currentTimeMillis() - this.startMillis) / 1000.0));
+        return sb.toString();
+    }
+
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> counters = new TreeMap<>();
+        this.counters.forEach((k, v) -> counters.put(k, v.sum()));
+
+        Map<String, Object> timers = new TreeMap<>();
+        this.timers.forEach((k, t) -> {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("count", t.getCount());
+            m.put("totalMs", t.getTotalNanos() / 1_000_000);
+            m.put("meanMs", t.getCount() == 0 ? 0 : t.getTotalNanos() / 1e6 / t.getCount());
+            m.put("maxMs", t.getMaxNanos() / 1e6);
+            timers.put(k, m);
+        });
+
+        Map<String, Object> gauges = new TreeMap<>();
+        this.gauges.forEach((k, g) -> gauges.put(k, Map.of("value", g.get(), "max", g.getMax())));
+
+        Map<String, Object> sites = new TreeMap<>();
+        this.siteCounters.forEach((site, c) -> {
+            Map<String, Object> m = new TreeMap<>();
+            c.forEach((k, v) -> m.put(k, v.sum()));
+            sites.put(site, m);
+        });
+
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("command", this.command);
+        map.put("start", Instant.ofEpochMilli(this.startMillis).toString());
+        map.put("durationMs", System.currentTimeMillis() - this.startMillis);
+        map.put("counters", counters);
+        map.put("timers", timers);
+        map.put("gauges", gauges);
+        if (!sites.isEmpty()) {
+            map.put("sites", sites);
+        }
+        return map;
+    }
+
+
+    /** Returns the metrics in the Prometheus text exposition format. */
+    public String toPrometheus() {
+        String labels = "{command=\"" + escape(this.command) + "\"}";
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("# TYPE sau_index_run_duration_seconds gauge\n");
+        sb.append("sau_index_run_duration_seconds").append(labels).append(' ')
+            .append((System.currentTimeMillis() - this.startMillis) / 1000.0).append('\n');
+        sb.append("# TYPE sau_index_run_timestamp_seconds gauge\n");
+        sb.append("sau_index_run_timestamp_seconds").append(labels).append(' ')
+            .append(this.startMillis / 1000).append('\n');
+
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(this.counters).entrySet()) {
+            String name = "sau_index_" + e.getKey() + "_total";
+            sb.append("# TYPE ").append(name).append(" counter\n");
+            sb.append(name).append(labels).append(' ').append(e.getValue().sum()).append('\n');
+        }
+        for (Map.Entry<String, Timer> e : new TreeMap<>(this.timers).entrySet()) {
+            String name = "sau_index_" + e.getKey() + "_seconds";
+            Timer t = e.getValue();
+            sb.append("# TYPE ").append(name).append(" summary\n");
+            sb.append(name).append("_count").append(labels).append(' ').append(t.getCount()).append('\n');
+            sb.append(name).append("_sum").append(labels).append(' ').append(t.getTotalNanos() / 1e9).append('\n');
+            sb.append("# TYPE ").append(name).append("_max gauge\n");
+            sb.append(name).append("_max").append(labels).append(' ').append(t.getMaxNanos() / 1e9).append('\n');
+        }
+        for (Map.Entry<String, Gauge> e : new TreeMap<>(this.gauges).entrySet()) {
+            String name = "sau_index_" + e.getKey();
+            sb.append("# TYPE ").append(name).append(" gauge\n");
+            sb.append(name).append(labels).append(' ').append(e.getValue().get()).append('\n');
+            sb.append("# TYPE ").append(name).append("_max gauge\n");
+            sb.append(name).append("_max").append(labels).append(' ').append(e.getValue().getMax()).append('\n');
+        }
+
+        Map<String, Map<String, Long>> bySite = new TreeMap<>();
+        this.siteCounters.forEach((site, c) -> c.forEach((k, v) ->
+            bySite.computeIfAbsent(k, x -> new TreeMap<>()).put(site, v.sum())));
+        for (Map.Entry<String, Map<String, Long>> e : bySite.entrySet()) {
+            String name = "sau_index_site_" + e.getKey() + "_total";
+            sb.append("# TYPE ").append(name).append(" counter\n");
+            for (Map.Entry<String, Long> site : e.getValue().entrySet()) {
+                sb.append(name).append("{command=\"").append(escape(this.command))
+                    .append("\",site=\"").append(escape(site.getKey())).append("\"} ")
+                    .append(site.getValue()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+
+    /** Escapes a Prometheus label value. */
+    static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+
+    /** Writes the report; files ending in {@code .prom} get the Prometheus format, others JSON. */
+    public void writeReport(Path file) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        if (file.getFileName().toString().endsWith(".prom")) {
+            // Write and rename, so that a collector never reads a partial file.
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(tmp, toPrometheus(), StandardCharsets.UTF_8);
+            Files.move(tmp, file, java.nio.file.StandardCopyOption.REPLACE_EXISTING,
+                       java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+        } else {
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file.toFile(), toMap());
+        }
+    }
+
+}
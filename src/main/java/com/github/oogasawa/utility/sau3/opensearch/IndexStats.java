@@ -0,0 +1,270 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.HttpHost;
+import org.apache.http.util.EntityUtils;
+import org.opensearch.client.Request;
+import org.opensearch.client.Response;
+import org.opensearch.client.RestClient;
+
+
+/** Collects size, freshness and health figures of an index, per site.
+ *
+ * <p>
+ * Everything comes from a handful of requests, independent of the number of documents:
+ * </p>
+ * <ul>
+ * <li>{@code _cat/indices} : document count and store size of the index.</li>
+ * <li>{@code _cat/segments} : number of segments.</li>
+ * <li>one {@code _search} with a {@code terms} aggregation on {@code site} and {@code min}/{@code max}
+ *     of {@code lastmod}.</li>
+ * <li>per site, {@code _count} requests with a {@code terms} filter of the sitemap URLs,
+ *     giving the number of indexed documents that are no longer in the sitemap.</li>
+ * </ul>
+ *
+ * <p>
+ * OpenSearch does not report storage per document, so the store size of a site is estimated
+ * from its share of the documents.
+ * </p>
+ */
+public class IndexStats implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(IndexStats.class.getName());
+
+    /** Number of URLs per {@code terms} filter, well below the default {@code index.max_terms_count} (65536). */
+    static final int TERMS_CHUNK = 10000;
+
+    final RestClient client;
+    final ObjectMapper mapper = new ObjectMapper();
+
+
+    /** Figures of one site of an index. */
+    public static class SiteStats {
+        String site;
+        long docs;
+        long estimatedStoreBytes;
+        String oldestLastmod;
+        String newestLastmod;
+        long notInSitemap = -1;
+
+        public String getSite() {
+            return site;
+        }
+
+        public long getDocs() {
+            return docs;
+        }
+
+        public long getEstimatedStoreBytes() {
+            return estimatedStoreBytes;
+        }
+
+        public String getOldestLastmod() {
+            return oldestLastmod;
+        }
+
+        public String getNewestLastmod() {
+            return newestLastmod;
+        }
+
+        /** Returns the number of documents whose URL is not in the site's sitemap, or -1 if unknown. */
+        public long getNotInSitemap() {
+            return notInSitemap;
+        }
+    }
+
+
+    /** Figures of an index. */
+    public static class Stats {
+        String index;
+        long docs;
+        long storeBytes;
+        int segments;
+        long docsWithoutSite;
+        List<SiteStats> sites = new ArrayList<>();
+
+        public String getIndex() {
+            return index;
+        }
+
+        public long getDocs() {
+            return docs;
+        }
+
+        public long getStoreBytes() {
+            return storeBytes;
+        }
+
+        public int getSegments() {
+            return segments;
+        }
+
+        /** Returns the number of documents indexed before the {@code site} field existed. */
+        public long getDocsWithoutSite() {
+            return docsWithoutSite;
+        }
+
+        public List<SiteStats> getSites() {
+            return sites;
+        }
+    }
+
+
+    public IndexStats(HttpHost host) {
+        this.client = RestClient.builder(host).build();
+    }
+
+
+    /** Collects the statistics of an index.
+     *
+     * @param indexName  The index.
+     * @param sitemaps  Sitemap URL to the URLs listed in it, for the sites whose stale documents
+     *                  should be counted (may be empty).
+     */
+    public Stats collect(String indexName, Map<String, List<String>> sitemaps) throws IOException {
+        Stats stats = new Stats();
+        stats.index = indexName;
+
+        JsonNode cat = get("/_cat/indices/" + indexName + "?format=json&bytes=b&h=docs.count,store.size");
+        for (JsonNode row : cat) {
+            stats.docs += row.path("docs.count").asLong();
+            stats.storeBytes += row.path("store.size").asLong();
+        }
+
+        JsonNode segments = get("/_cat/segments/" + indexName + "?format=json&h=segment");
+        stats.segments = segments.size();
+
+        String aggs = """
+            {
+              "size": 0,
+              "track_total_hits": true,
+              "aggs": {
+                "sites": {
+                  "terms": { "field": "site", "size": 10000 },
+                  "aggs": {
+                    "oldest": { "min": { "field": "lastmod" } },
+                    "newest": { "max": { "field": "lastmod" } }
+                  }
+                },
+                "no_site": { "missing": { "field": "site" } }
+              }
+            }
+            """;
+        JsonNode result = post("/" + indexName + "/_search", aggs);
+        stats.docsWithoutSite = result.path("aggregations").path("no_site").path("doc_count").asLong();
+
+        for (JsonNode bucket : result.path("aggregations").path("sites").path("buckets")) {
+            SiteStats site = new SiteStats();
+            site.site = bucket.path("key").asText();
+            site.docs = bucket.path("doc_count").asLong();
+            site.estimatedStoreBytes = stats.docs == 0 ? 0 : stats.storeBytes * site.docs / stats.docs;
+            site.oldestLastmod = dateOf(bucket.path("oldest"));
+            site.newestLastmod = dateOf(bucket.path("newest"));
+            stats.sites.add(site);
+        }
+
+        for (Map.Entry<String, List<String>> sitemap : sitemaps.entrySet()) {
+            String siteRoot = Indexer.siteOf(sitemap.getKey());
+            for (SiteStats site : stats.sites) {
+                if (site.site.equals(siteRoot)) {
+                    site.notInSitemap = site.docs - countInSitemap(indexName, siteRoot, sitemap.getValue());
+                }
+            }
+        }
+        return stats;
+    }
+
+
+    /** Counts the documents of a site whose URL is one of {@code urls}. */
+    long countInSitemap(String indexName, String site, List<String> urls) throws IOException {
+        long count = 0;
+        for (int from = 0; from < urls.size(); from += TERMS_CHUNK) {
+            List<String> chunk = urls.subList(from, Math.min(urls.size(), from + TERMS_CHUNK));
+            Map<String, Object> query = Map.of("query", Map.of("bool", Map.of("filter", List.of(
+                Map.of("term", Map.of("site", site)),
+                Map.of("terms", Map.of("url", chunk))))));
+            count += post("/" + indexName + "/_count", this.mapper.writeValueAsString(query)).path("count").asLong();
+        }
+        return count;
+    }
+
+
+    static String dateOf(JsonNode agg) {
+        JsonNode value = agg.path("value_as_string");
+        return value.isMissingNode() || value.isNull() ? null : value.asText();
+    }
+
+
+    JsonNode get(String path) throws IOException {
+        Response response = this.client.performRequest(new Request("GET", path));
+        return this.mapper.readTree(EntityUtils.toString(response.getEntity()));
+    }
+
+
+    JsonNode post(String path, String json) throws IOException {
+        Request request = new Request("POST", path);
+        request.setJsonEntity(json);
+        Response response = this.client.performRequest(request);
+        return this.mapper.readTree(EntityUtils.toString(response.getEntity()));
+    }
+
+
+    /** Formats a byte count as B/KB/MB/GB. */
+    public static String humanBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        String[] units = {"KB", "MB", "GB", "TB"};
+        double value = bytes;
+        int unit = -1;
+        while (value >= 1024 && unit < units.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return String.format("%.1f %s", value, units[unit]);
+    }
+
+
+    /** Returns the statistics as a JSON-friendly map. */
+    public static Map<String, Object> toMap(Stats stats) {
+        List<Object> sites = new ArrayList<>();
+        for (SiteStats site : stats.sites) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("site", site.site);
+            m.put("docs", site.docs);
+            m.put("estimatedStoreBytes", site.estimatedStoreBytes);
+            m.put("oldestLastmod", site.oldestLastmod);
+            m.put("newestLastmod", site.newestLastmod);
+            m.put("notInSitemap", site.notInSitemap);
+            sites.add(m);
+        }
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("index", stats.index);
+        map.put("docs", stats.docs);
+        map.put("storeBytes", stats.storeBytes);
+        map.put("segments", stats.segments);
+        map.put("docsWithoutSite", stats.docsWithoutSite);
+        map.put("sites", sites);
+        return map;
+    }
+
+
+    @Override
+    public void close() {
+        try {
+            this.client.close();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to close the client.", e);
+        }
+    }
+
+}
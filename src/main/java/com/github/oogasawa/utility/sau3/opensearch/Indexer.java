@@ -2,15 +2,13 @@ package com.github.oogasawa.utility.sau3.opensearch;
 
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.StringJoiner;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.http.HttpHost;
 import org.jsoup.Connection;
 import org.jsoup.Jsoup;
@@ -21,7 +19,6 @@ import org.opensearch.client.RestHighLevelClient;
 import org.opensearch.client.indices.CreateIndexRequest;
 import org.opensearch.client.indices.CreateIndexResponse;
 import org.opensearch.client.indices.GetIndexRequest;
-import org.opensearch.common.xcontent.XContentType;
 import org.opensearch.common.xcontent.json.JsonXContent;
 import org.opensearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.opensearch.action.delete.DeleteRequest;
@@ -46,15 +43,129 @@ public class Indexer {
     String title = null;
     String url = null;
     String lastmod = null;
+    String site = null;
+    List<String> headings = new ArrayList<>();
+    String summary = null;
+
+    /** The OpenSearch endpoint used unless another one is given. */
+    public static final HttpHost DEFAULT_HOST = new HttpHost("localhost", 9200, "http");
+
+    /** The OpenSearch endpoint. */
+    HttpHost host = DEFAULT_HOST;
+
+    /** Where fetch/extract/index counters and timers of the run are recorded. */
+    IndexMetrics metrics = new IndexMetrics();
+
+    /** Skips pages nearly identical to one already indexed in this run; null indexes every page. */
+    NearDuplicateDetector nearDuplicates = null;
+
+    /** The site of each page indexed as canonical by {@link #nearDuplicates}, for the counters of displaced pages. */
+    final Map<String, String> canonicalSites = new java.util.concurrent.ConcurrentHashMap<>();
+
+    /** Collects documents into {@code _bulk} requests; null sends each document on its own. */
+    BulkWriter bulk = null;
+
+    /** Maximum length of the lead paragraph part of the {@code summary} field. */
+    public static final int SUMMARY_LEAD_LENGTH = 240;
+
+    /** Maximum length of the section list part of the {@code summary} field. */
+    public static final int SUMMARY_SECTIONS_LENGTH = 160;
+
+
+    /** The fields extracted from a fetched page, independent of any index. */
+    public static class Page {
+        String url;
+        String title;
+        String text;
+        List<String> headings = new ArrayList<>();
+        String summary;
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public List<String> getHeadings() {
+            return headings;
+        }
+
+        public String getSummary() {
+            return summary;
+        }
+    }
+
+
+    public Indexer() {
+    }
+
+
+    /** Creates an indexer that writes to the given OpenSearch endpoint instead of {@code localhost:9200}. */
+    public Indexer(HttpHost host) {
+        this.host = host;
+    }
+
+
+    public IndexMetrics getMetrics() {
+        return this.metrics;
+    }
+
+
+    public void setMetrics(IndexMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+
+    public void setNearDuplicateDetector(NearDuplicateDetector nearDuplicates) {
+        this.nearDuplicates = nearDuplicates;
+    }
+
+
+    /** Collects the indexed documents into bulk requests of the given writer.
+     *
+     * <p>Documents are sent when the writer is full or closed, so close it at the end of the run.</p>
+     */
+    public void setBulkWriter(BulkWriter bulk) {
+        this.bulk = bulk;
+    }
+
+
+    /** Sets the value of the {@code site} field of the pages indexed from now on (see {@link #siteOf(String)}). */
+    public void setSite(String site) {
+        this.site = site;
+    }
+
+
+    /** Returns the site root of a sitemap URL: {@code http://host/~user/doc_X/sitemap.xml} gives {@code http://host/~user/doc_X/}. */
+    public static String siteOf(String sitemapUrl) {
+        int slash = sitemapUrl.lastIndexOf('/');
+        return slash < 0 ? sitemapUrl : sitemapUrl.substring(0, slash + 1);
+    }
+
 
-    
     public void createIndex(String indexName) {
+        createIndex(indexName, false);
+    }
 
-        String jsonMap = this.createMapping();
+
+    /** Creates the index with the mapping returned by {@link #createMapping(boolean)}.
+     *
+     * @param indexName  The name of the index.
+     * @param excludeTextFromSource  If true, the large {@code text} field is indexed but not kept in {@code _source}.
+     */
+    public void createIndex(String indexName, boolean excludeTextFromSource) {
+
+        String jsonMap = this.createMapping(excludeTextFromSource);
 
 
         RestHighLevelClient client = new RestHighLevelClient(
-                RestClient.builder(new HttpHost("localhost", 9200, "http")));
+                RestClient.builder(this.host));
 
         try {
         // CreateIndexRequestを作成
@@ -84,6 +195,22 @@ public class Indexer {
     
 
     public String createMapping() {
+        return createMapping(false);
+    }
+
+
+    /** Returns the index settings and mappings as JSON.
+     *
+     * <p>
+     * The {@code summary} field is computed at index time (see {@link #createSummary(Element)})
+     * and is only stored, not indexed; search results use it as their snippet instead of
+     * highlighting the full {@code text} field at query time.
+     * When {@code excludeTextFromSource} is true, {@code text} is also dropped from {@code _source},
+     * so that hits stay compact. (Note that such an index can not be reindexed from its own
+     * {@code _source}; rebuild it from the sitemaps instead.)
+     * </p>
+     */
+    public String createMapping(boolean excludeTextFromSource) {
 
         StringJoiner stringJoiner = new StringJoiner("\n");
 
@@ -98,6 +225,11 @@ public class Indexer {
         stringJoiner.add("    }");
         stringJoiner.add("  },");
         stringJoiner.add("  \"mappings\": {");
+        if (excludeTextFromSource) {
+            stringJoiner.add("    \"_source\": {");
+            stringJoiner.add("      \"excludes\": [\"text\"]");
+            stringJoiner.add("    },");
+        }
         stringJoiner.add("    \"properties\": {");
         stringJoiner.add("      \"text\": {");
         stringJoiner.add("        \"type\": \"text\",");
@@ -109,6 +241,19 @@ public class Indexer {
         stringJoiner.add("      },");
         stringJoiner.add("      \"url\": {");
         stringJoiner.add("        \"type\": \"keyword\"");
+        stringJoiner.add("      },");
+        stringJoiner.add("      \"site\": {");
+        stringJoiner.add("        \"type\": \"keyword\"");
+        stringJoiner.add("      },");
+        stringJoiner.add("      \"lastmod\": {");
+        stringJoiner.add("        \"type\": \"date\"");
+        stringJoiner.add("      },");
+        stringJoiner.add("      \"summary\": {");
+        stringJoiner.add("        \"type\": \"text\",");
+        stringJoiner.add("        \"index\": false");
+        stringJoiner.add("      },");
+        stringJoiner.add("      \"suggest\": {");
+        stringJoiner.add("        \"type\": \"completion\"");
         stringJoiner.add("      }");
         stringJoiner.add("    }");
         stringJoiner.add("  }");
@@ -124,7 +269,7 @@ public class Indexer {
     public void deleteIndexIfExists(String indexName)  {
 
         RestHighLevelClient client = new RestHighLevelClient(
-                RestClient.builder(new HttpHost("localhost", 9200, "http")));
+                RestClient.builder(this.host));
 
         try {
             GetIndexRequest getIndexRequest = new GetIndexRequest(indexName);
@@ -149,7 +294,19 @@ public class Indexer {
 
 
     public void fetchHtml(String url) {
+        // A failed fetch clears the fields, so that it is not indexed with the previous page's content.
+        setPage(fetchPage(url));
+    }
+
 
+    /** Fetches a page and extracts its fields.
+     *
+     * <p>Unlike {@link #fetchHtml(String)} this does not touch the fields of the indexer, so it can be
+     * called from several threads at once.</p>
+     *
+     * @return The page, or null if the fetch failed.
+     */
+    public Page fetchPage(String url) {
         try {
             Connection connection = Jsoup.connect(url).userAgent(
                     "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/124.0.0.0 Safari/537.36")
@@ -168,73 +325,251 @@ public class Indexer {
                 connection.header("Authorization", "Basic " + encodedAuth);
             }
 
-            Connection.Response response = connection.execute();
+            long start = System.nanoTime();
+            this.metrics.gauge(IndexMetrics.IN_FLIGHT).increment();
+            Connection.Response response;
+            try {
+                response = connection.execute();
+            } finally {
+                this.metrics.gauge(IndexMetrics.IN_FLIGHT).decrement();
+                this.metrics.time(IndexMetrics.PAGE_FETCH, start);
+            }
 
             int statusCode = response.statusCode();
             if (statusCode != 200) {
                 logger.log(Level.SEVERE, "Failed to fetch the document from the URL: " + url
                         + " - Status code: " + statusCode);
-                return;
-            }
-
-            Document doc = response.parse();
-
-            Element div = doc.select("div.docItemCol_VOVn").first();
-            if (div != null) {
-                this.text = div.text();
-            } else {
-                this.text = doc.body().text();
+                this.metrics.increment(IndexMetrics.FAILED);
+                return null;
             }
+            this.metrics.increment(IndexMetrics.FETCHED);
 
-            this.title = doc.title();
-            this.url = url;
+            start = System.nanoTime();
+            Page page = extractPage(response.parse(), url);
+            this.metrics.time(IndexMetrics.EXTRACT, start);
+            return page;
 
         } catch (org.jsoup.HttpStatusException e) {
             logger.log(Level.SEVERE, "HTTP error fetching URL: " + url + " - Status code: " + e.getStatusCode(),
                     e);
+            this.metrics.increment(IndexMetrics.FAILED);
         } catch (IOException e) {
             logger.log(Level.SEVERE, "IO error fetching URL: " + url, e);
+            this.metrics.increment(IndexMetrics.FAILED);
         }
+        return null;
     }
 
 
 
-    public void index(String url, String indexName) throws JsonProcessingException {
+    /** Extracts the indexed fields (text, headings, summary, title) from a parsed page into this indexer. */
+    void extract(Document doc, String url) {
+        setPage(extractPage(doc, url));
+    }
 
-        this.fetchHtml(url);
 
-        RestHighLevelClient client = new RestHighLevelClient(
-                RestClient.builder(new HttpHost("localhost", 9200, "http")));
+    /** Extracts the indexed fields (text, headings, summary, title) from a parsed page. */
+    static Page extractPage(Document doc, String url) {
+        Page page = new Page();
+        Element div = doc.select("div.docItemCol_VOVn").first();
+        Element content = div != null ? div : doc.body();
+        page.text = content.text();
+
+        for (Element heading : content.select("h1, h2, h3")) {
+            String h = heading.text().trim();
+            if (!h.isEmpty() && !page.headings.contains(h)) {
+                page.headings.add(h);
+            }
+        }
+        page.summary = createSummary(content);
+
+        page.title = doc.title();
+        page.url = url;
+        return page;
+    }
+
+
+    /** Sets the fields of the current page; null clears them. */
+    void setPage(Page page) {
+        this.text = page == null ? null : page.text;
+        this.title = page == null ? null : page.title;
+        this.url = page == null ? null : page.url;
+        this.headings = page == null ? new ArrayList<>() : page.headings;
+        this.summary = page == null ? null : page.summary;
+    }
+
+
+
+    public void index(String url, String indexName) throws IOException {
+        index(url, null, indexName);
+    }
+
+
+    /** Fetches and indexes a page.
+     *
+     * @param url  The URL of the page.
+     * @param lastmod  The {@code <lastmod>} of the page in the sitemap (may be null);
+     *                 stored so that {@link #documentExistsWithSameTimestamp} can skip unchanged pages.
+     * @param indexName  The name of the index.
+     */
+    public void index(String url, String lastmod, String indexName) throws IOException {
+
+        Page page = this.fetchPage(url);
+        setPage(page);
+        this.lastmod = lastmod;
+        if (page == null) {
+            logger.fine("Not indexed (fetch failed): " + url);
+            return;
+        }
+        index(page, lastmod, this.site, indexName);
+    }
+
+
+    /** Indexes a page fetched with {@link #fetchPage(String)}.
+     *
+     * <p>This only reads the endpoint, the metrics and the near-duplicate detector of the indexer,
+     * so several threads can index through the same instance.</p>
+     *
+     * @param page  The page.
+     * @param lastmod  The {@code <lastmod>} of the page in the sitemap (may be null).
+     * @param site  The value of the {@code site} field (may be null).
+     * @param indexName  The name of the index.
+     */
+    public void index(Page page, String lastmod, String site, String indexName) throws IOException {
+        String url = page.url;
+        if (this.nearDuplicates != null) {
+            String canonical = this.nearDuplicates.check(url, page.text);
+            if (canonical != null) {
+                logger.fine("Not indexed (near duplicate of " + canonical + "): " + url);
+                this.metrics.increment(IndexMetrics.SKIPPED_DUPLICATE, site);
+                return;
+            }
+            this.canonicalSites.put(url, site == null ? "" : site);
+        }
 
-        Map<String, Object> jsonMap = new HashMap<>();
-        // jsonMap.put("_id", calculateMD5(url));
-        jsonMap.put("title", this.title);
-        jsonMap.put("text", this.text);
-        jsonMap.put("url", this.url);
-        jsonMap.put("lastmod", this.lastmod); // Add lastmod to indexed document
+        List<String> inputs = suggestInputs(page.title, page.headings);
+        int weight = suggestWeight(url);
+        BulkWriter.Fields fields = gen -> {
+            gen.writeStringField("title", page.title);
+            gen.writeStringField("text", page.text);
+            gen.writeStringField("url", url);
+            gen.writeStringField("lastmod", lastmod);
+            if (site != null) {
+                gen.writeStringField("site", site);
+            }
+            gen.writeObjectFieldStart("suggest");
+            gen.writeArrayFieldStart("input");
+            for (String input : inputs) {
+                gen.writeString(input);
+            }
+            gen.writeEndArray();
+            gen.writeNumberField("weight", weight);
+            gen.writeEndObject();
+            gen.writeStringField("summary", page.summary);
+        };
+
+        if (this.bulk != null) {
+            this.bulk.add(indexName, calculateMD5(url), url, fields);
+            return;
+        }
+        try (BulkWriter single = new BulkWriter(this.host, this.metrics)) {
+            single.setMaxDocs(1);
+            single.add(indexName, calculateMD5(url), url, fields);
+        }
+    }
 
 
-        ObjectMapper mapper = new ObjectMapper();
-        String jsonString = mapper.writeValueAsString(jsonMap);
 
+    /** Computes the short, stored {@code summary} of a page.
+     *
+     * <p>
+     * The summary is the first non-empty paragraph (cut at {@link #SUMMARY_LEAD_LENGTH} characters)
+     * followed by the list of h2 section headings (cut at {@link #SUMMARY_SECTIONS_LENGTH} characters).
+     * </p>
+     *
+     * @param content  The main content element of the page.
+     * @return The summary text (possibly empty, never null).
+     */
+    public static String createSummary(Element content) {
+        StringBuilder summary = new StringBuilder();
+
+        for (Element p : content.select("p")) {
+            String lead = p.text().trim();
+            if (!lead.isEmpty()) {
+                summary.append(truncate(lead, SUMMARY_LEAD_LENGTH));
+                break;
+            }
+        }
+
+        StringJoiner sections = new StringJoiner(" / ");
+        for (Element h2 : content.select("h2")) {
+            String h = h2.text().trim();
+            if (!h.isEmpty()) {
+                sections.add(h);
+            }
+        }
+        if (sections.length() > 0) {
+            if (summary.length() > 0) {
+                summary.append("\n");
+            }
+            summary.append(truncate(sections.toString(), SUMMARY_SECTIONS_LENGTH));
+        }
+
+        return summary.toString();
+    }
+
+
+    static String truncate(String s, int maxLength) {
+        if (s.length() <= maxLength) {
+            return s;
+        }
+        int cut = maxLength;
+        // Prefer to cut at a word boundary, unless that would lose too much (e.g. Japanese text without spaces).
+        int space = s.lastIndexOf(' ', maxLength);
+        if (space > maxLength * 2 / 3) {
+            cut = space;
+        }
+        return s.substring(0, cut) + "…";
+    }
+
+
+    /** Returns the inputs of the {@code suggest} field: the title and the distinct headings, at most 50. */
+    static List<String> suggestInputs(String title, List<String> headings) {
+        List<String> inputs = new ArrayList<>();
+        if (title != null && !title.isBlank()) {
+            inputs.add(title.trim());
+        }
+        for (String h : headings) {
+            if (!inputs.contains(h) && inputs.size() < 50) {
+                inputs.add(h);
+            }
+        }
+        return inputs;
+    }
+
+
+    /** Returns a completion weight that decreases with the depth of the URL path. */
+    public static int suggestWeight(String url) {
+        int depth = 0;
         try {
-            client.index(new org.opensearch.action.index.IndexRequest(indexName)
-                         .source(jsonString, XContentType.JSON)
-                         .id(calculateMD5(url)),
-                    RequestOptions.DEFAULT);
-        } catch (IOException e) {
-            logger.log(Level.SEVERE, "IOError at indexing: " + jsonString, e);
-        } finally {
-            try {
-                client.close();
-            } catch (IOException e) {
-                logger.log(Level.SEVERE, "Failed to close the client.", e);
+            String path = java.net.URI.create(url).getPath();
+            if (path != null) {
+                for (String segment : path.split("/")) {
+                    if (!segment.isEmpty()) {
+                        depth++;
+                    }
+                }
             }
+        } catch (IllegalArgumentException e) {
+            logger.log(Level.FINE, "Not a valid URI: " + url, e);
         }
+        return Math.max(1, 100 - 10 * depth);
     }
 
 
 
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
     // Method to calculate the MD5 hash
     public static String calculateMD5(String input) {
         try {
@@ -242,14 +577,16 @@ public class Indexer {
             MessageDigest md = MessageDigest.getInstance("MD5");
 
             // Convert input string to byte array and compute the hash
-            byte[] hashBytes = md.digest(input.getBytes());
-
-            // Convert the byte array to a hexadecimal string
-            StringBuilder sb = new StringBuilder();
-            for (byte b : hashBytes) {
-                sb.append(String.format("%02x", b));  // Convert byte to hexadecimal format
+            byte[] hashBytes = md.digest(input.getBytes(StandardCharsets.UTF_8));
+
+            // Convert the byte array to a hexadecimal string (a table lookup, String.format is
+            // about 20 times slower and allocates a formatter per byte)
+            char[] hex = new char[hashBytes.length * 2];
+            for (int i = 0; i < hashBytes.length; i++) {
+                hex[2 * i] = HEX[(hashBytes[i] >> 4) & 0xf];
+                hex[2 * i + 1] = HEX[hashBytes[i] & 0xf];
             }
-            return sb.toString();  // Return the hash (hexadecimal string)
+            return new String(hex);  // Return the hash (hexadecimal string)
 
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException("MD5 algorithm not found", e);
@@ -262,14 +599,14 @@ public class Indexer {
      */
     public boolean documentExistsWithSameTimestamp(String url, String lastmod, String indexName) {
         RestHighLevelClient client = new RestHighLevelClient(
-                RestClient.builder(new HttpHost("localhost", 9200, "http")));
+                RestClient.builder(this.host));
 
         try {
             String documentId = calculateMD5(url);
             GetRequest getRequest = new GetRequest(indexName, documentId);
 
             if (!client.exists(getRequest, RequestOptions.DEFAULT)) {
-                logger.info("Document does not exist in index: " + url);
+                logger.fine("Document does not exist in index: " + url);
                 return false;
             }
 
@@ -279,10 +616,11 @@ public class Indexer {
                 String existingLastmod = (String) sourceAsMap.get("lastmod");
 
                 if (lastmod != null && lastmod.equals(existingLastmod)) {
-                    logger.info("Document exists with same timestamp, skipping: " + url);
+                    logger.fine("Document exists with same timestamp, skipping: " + url);
+                    this.metrics.increment(IndexMetrics.SKIPPED_UNCHANGED);
                     return true;
                 } else {
-                    logger.info("Document exists but timestamp differs, will update: " + url + " (existing: " + existingLastmod + ", new: " + lastmod + ")");
+                    logger.fine("Document exists but timestamp differs, will update: " + url + " (existing: " + existingLastmod + ", new: " + lastmod + ")");
                     return false;
                 }
             }
@@ -306,7 +644,7 @@ public class Indexer {
     public List<String> getAllDocumentUrls(String indexName) {
         List<String> urls = new ArrayList<>();
         RestHighLevelClient client = new RestHighLevelClient(
-                RestClient.builder(new HttpHost("localhost", 9200, "http")));
+                RestClient.builder(this.host));
 
         try {
             SearchRequest searchRequest = new SearchRequest(indexName);
@@ -340,13 +678,34 @@ public class Indexer {
         return urls;
     }
 
+    /** Deletes the pages indexed in this run that a preferred near duplicate replaced as canonical later.
+     *
+     * <p>
+     * Call it at the end of the run, after the bulk writer was flushed, so that the deletions
+     * reach the index after the documents they delete. See {@link NearDuplicateDetector#takeDisplaced()}.
+     * </p>
+     */
+    public void deleteDisplacedDuplicates(String indexName) {
+        if (this.nearDuplicates == null) {
+            return;
+        }
+        for (String url : this.nearDuplicates.takeDisplaced()) {
+            String site = this.canonicalSites.remove(url);
+            logger.fine("Deleting a near duplicate of a preferred page: " + url);
+            if (deleteDocument(url, indexName)) {
+                this.metrics.increment(IndexMetrics.SKIPPED_DUPLICATE, site);
+            }
+        }
+    }
+
+
     /**
      * Delete a document from the index by URL.
      * This is used to remove documents that are no longer in the sitemap.
      */
     public boolean deleteDocument(String url, String indexName) {
         RestHighLevelClient client = new RestHighLevelClient(
-                RestClient.builder(new HttpHost("localhost", 9200, "http")));
+                RestClient.builder(this.host));
 
         try {
             String documentId = calculateMD5(url);
@@ -354,7 +713,8 @@ public class Indexer {
             DeleteResponse deleteResponse = client.delete(deleteRequest, RequestOptions.DEFAULT);
 
             if (deleteResponse.getResult() == DeleteResponse.Result.DELETED) {
-                logger.info("Deleted document: " + url);
+                logger.fine("Deleted document: " + url);
+                this.metrics.increment(IndexMetrics.DELETED);
                 return true;
             } else if (deleteResponse.getResult() == DeleteResponse.Result.NOT_FOUND) {
                 logger.warning("Document not found for deletion: " + url);
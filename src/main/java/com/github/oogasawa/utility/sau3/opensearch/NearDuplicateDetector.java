@@ -0,0 +1,281 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import com.github.oogasawa.utility.sau3.staticsearch.StaticSearchTokenizer;
+
+
+/** Finds pages whose text is nearly identical to a page already indexed in the same run.
+ *
+ * <p>
+ * Versioned Docusaurus docs ({@code /docs/1.0/...}, {@code /docs/next/...}) publish the same page
+ * several times with small differences. Each page gets a 64-bit SimHash of its word shingles;
+ * pages whose signatures differ in at most {@code maxDistance} bits are candidates, and a candidate
+ * is a near duplicate when the MinHash estimate of the Jaccard similarity of the shingle sets is
+ * at least {@link #MIN_SIMILARITY}. The SimHash finds candidates cheaply, the MinHash keeps pages
+ * that merely share a vocabulary (e.g. all pages of one site) apart.
+ * </p>
+ *
+ * <p>
+ * The canonical page of a group does not depend on the order in which pages are checked, which
+ * varies between runs when pages are indexed concurrently: a URL without a version segment
+ * ({@code /docs/intro} over {@code /docs/1.0/intro}, see {@link #preferred(String, String)}) is
+ * preferred, then the shorter URL, then the lexicographically smaller one. A page checked after
+ * a copy it is preferred over takes that copy's place; the copy, already indexed, is then returned
+ * by {@link #takeDisplaced()} so that it can be deleted at the end of the run.
+ * </p>
+ *
+ * <p>
+ * Signatures are split into {@code maxDistance + 1} bands. Two signatures within the distance
+ * agree on at least one whole band (pigeonhole principle), so a lookup only compares against
+ * the pages sharing a band instead of every page of the run.
+ * </p>
+ *
+ * <p>All methods are thread-safe.</p>
+ */
+public class NearDuplicateDetector {
+
+    /** Default maximum Hamming distance of candidates.
+     *
+     * <p>
+     * A version banner and a few changed words move the signature of a 300-word page by 2 to 9 bits,
+     * while unrelated pages differ in about 32 bits.
+     * </p>
+     */
+    public static final int DEFAULT_MAX_DISTANCE = 10;
+
+    /** Minimum estimated Jaccard similarity of the shingle sets of near duplicates. */
+    public static final double MIN_SIMILARITY = 0.8;
+
+    /** Pages with fewer words are never considered duplicates (index pages, tag lists, stubs). */
+    public static final int MIN_TOKENS = 50;
+
+    /** Number of words per shingle. */
+    static final int SHINGLE = 3;
+
+    /** Number of MinHash functions (about 0.05 standard error of the similarity estimate). */
+    static final int MINHASHES = 64;
+
+    /** A path segment naming a docs version: {@code next}, {@code current}, {@code 1.0}, {@code v2}, {@code 2.x}. */
+    static final Pattern VERSION_SEGMENT = Pattern.compile("/(?:next|current|v?\\d+(?:\\.(?:\\d+|x))*)(?=/|$)");
+
+    final int maxDistance;
+    final int bands;
+    final int bandBits;
+
+    /** One table per band: band value to the pages having it. */
+    final List<Map<Long, List<Page>>> tables = new ArrayList<>();
+
+    /** Pages returned as canonical and later replaced by a preferred near duplicate. */
+    final List<String> displaced = new ArrayList<>();
+
+
+    /** A page registered in the tables. */
+    record Page(String url, long signature, long[] sketch) {
+    }
+
+
+    public NearDuplicateDetector() {
+        this(DEFAULT_MAX_DISTANCE);
+    }
+
+
+    /** @param maxDistance Maximum number of differing signature bits (0 to 15). */
+    public NearDuplicateDetector(int maxDistance) {
+        if (maxDistance < 0 || maxDistance > 15) {
+            throw new IllegalArgumentException("maxDistance must be between 0 and 15: " + maxDistance);
+        }
+        this.maxDistance = maxDistance;
+        this.bands = maxDistance + 1;
+        this.bandBits = (64 + this.bands - 1) / this.bands;
+        for (int b = 0; b < this.bands; b++) {
+            this.tables.add(new HashMap<>());
+        }
+    }
+
+
+    /** Checks a page and registers it as canonical if it is not a near duplicate.
+     *
+     * <p>
+     * A near duplicate of a registered page that is {@link #preferred(String, String)} over it
+     * replaces it as canonical: null is returned, and the replaced page is added to
+     * {@link #takeDisplaced()}.
+     * </p>
+     *
+     * @param url  The URL of the page.
+     * @param text  The extracted text of the page.
+     * @return The URL of the canonical page this page duplicates, or null if the page should be indexed.
+     */
+    public String check(String url, String text) {
+        List<String> tokens = StaticSearchTokenizer.tokenize(text);
+        if (tokens.size() < MIN_TOKENS) {
+            return null;
+        }
+        long[] shingles = shingles(tokens);
+        long signature = simhash(shingles);
+        long[] sketch = minhash(shingles);
+
+        synchronized (this) {
+            for (int b = 0; b < this.bands; b++) {
+                List<Page> candidates = this.tables.get(b).get(band(signature, b));
+                if (candidates == null) {
+                    continue;
+                }
+                for (Page page : candidates) {
+                    if (page.url().equals(url)) {
+                        return null;
+                    }
+                    if (Long.bitCount(page.signature() ^ signature) <= this.maxDistance
+                        && similarity(page.sketch(), sketch) >= MIN_SIMILARITY) {
+                        if (!preferred(url, page.url())) {
+                            return page.url();
+                        }
+                        unregister(page);
+                        this.displaced.add(page.url());
+                        register(new Page(url, signature, sketch));
+                        return null;
+                    }
+                }
+            }
+
+            register(new Page(url, signature, sketch));
+        }
+        return null;
+    }
+
+
+    /** Returns the pages replaced as canonical since the last call, and forgets them. */
+    public synchronized List<String> takeDisplaced() {
+        List<String> urls = new ArrayList<>(this.displaced);
+        this.displaced.clear();
+        return urls;
+    }
+
+
+    /** Returns true if URL {@code a} is a better canonical page than URL {@code b}: not versioned, shorter, smaller. */
+    static boolean preferred(String a, String b) {
+        boolean versionedA = VERSION_SEGMENT.matcher(pathOf(a)).find();
+        boolean versionedB = VERSION_SEGMENT.matcher(pathOf(b)).find();
+        if (versionedA != versionedB) {
+            return !versionedA;
+        }
+        if (a.length() != b.length()) {
+            return a.length() < b.length();
+        }
+        return a.compareTo(b) < 0;
+    }
+
+
+    static String pathOf(String url) {
+        int scheme = url.indexOf("://");
+        int slash = url.indexOf('/', scheme < 0 ? 0 : scheme + 3);
+        return slash < 0 ? "" : url.substring(slash);
+    }
+
+
+    void register(Page page) {
+        for (int b = 0; b < this.bands; b++) {
+            this.tables.get(b).computeIfAbsent(band(page.signature(), b), k -> new ArrayList<>()).add(page);
+        }
+    }
+
+
+    void unregister(Page page) {
+        for (int b = 0; b < this.bands; b++) {
+            List<Page> pages = this.tables.get(b).get(band(page.signature(), b));
+            if (pages != null) {
+                pages.remove(page);
+            }
+        }
+    }
+
+
+    long band(long signature, int b) {
+        int shift = b * this.bandBits;
+        int width = Math.min(this.bandBits, 64 - shift);
+        long mask = width == 64 ? -1L : (1L << width) - 1;
+        return (signature >>> shift) & mask;
+    }
+
+
+    /** Returns the 64-bit hashes of the word shingles of a token list. */
+    static long[] shingles(List<String> tokens) {
+        long[] hashes = new long[Math.max(0, tokens.size() - SHINGLE + 1)];
+        for (int i = 0; i < hashes.length; i++) {
+            long h = 0xcbf29ce484222325L;
+            for (int k = 0; k < SHINGLE; k++) {
+                h = fnv1a(h, tokens.get(i + k));
+                h = (h ^ ' ') * 0x100000001b3L;
+            }
+            hashes[i] = mix(h);
+        }
+        return hashes;
+    }
+
+
+    /** Computes the SimHash of shingle hashes: each bit is the majority vote of that bit over all shingles. */
+    static long simhash(long[] shingles) {
+        int[] weights = new int[64];
+        for (long h : shingles) {
+            for (int bit = 0; bit < 64; bit++) {
+                weights[bit] += ((h >>> bit) & 1) == 1 ? 1 : -1;
+            }
+        }
+        long signature = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) {
+                signature |= 1L << bit;
+            }
+        }
+        return signature;
+    }
+
+
+    /** Computes the MinHash sketch of shingle hashes, with one re-hash per function. */
+    static long[] minhash(long[] shingles) {
+        long[] sketch = new long[MINHASHES];
+        Arrays.fill(sketch, Long.MAX_VALUE);
+        for (long h : shingles) {
+            for (int i = 0; i < MINHASHES; i++) {
+                long v = mix(h + 0x9e3779b97f4a7c15L * (i + 1));
+                if (v < sketch[i]) {
+                    sketch[i] = v;
+                }
+            }
+        }
+        return sketch;
+    }
+
+
+    /** Estimates the Jaccard similarity of two shingle sets from their sketches. */
+    static double similarity(long[] a, long[] b) {
+        int same = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] == b[i]) {
+                same++;
+            }
+        }
+        return (double) same / a.length;
+    }
+
+
+    static long fnv1a(long h, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+
+    /** Finalizer of SplitMix64, spreading FNV's weak low bits over all 64 bits. */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+}
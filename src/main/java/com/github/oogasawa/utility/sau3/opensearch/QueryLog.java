@@ -0,0 +1,149 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/** A rolling log of the queries received by {@link SearchServer}.
+ *
+ * <p>
+ * Each line is {@code epochMillis TAB query TAB site}. When the file grows beyond
+ * {@code maxBytes} it is renamed to {@code <file>.1} (replacing the previous one),
+ * so the log always holds a recent sample of real traffic of bounded size.
+ * The sample is replayed by {@link QueryWarmer} after a reindex.
+ * </p>
+ */
+public class QueryLog {
+
+    private static final Logger logger = Logger.getLogger(QueryLog.class.getName());
+
+    public static final Path DEFAULT_PATH = Paths.get(System.getProperty("user.home"), ".sau3", "search-queries.log");
+
+    final Path path;
+    final long maxBytes;
+    BufferedWriter writer = null;
+    long written = 0;
+
+
+    public QueryLog(Path path, long maxBytes) {
+        this.path = path;
+        this.maxBytes = maxBytes;
+    }
+
+
+    /** Appends a query to the log. Failures are logged and otherwise ignored. */
+    public synchronized void record(SearchQuery query) {
+        try {
+            if (this.writer == null) {
+                open();
+            }
+            String line = System.currentTimeMillis() + "\t" + clean(query.getQuery()) + "\t"
+                + (query.getSite() == null ? "" : clean(query.getSite())) + "\n";
+            this.writer.write(line);
+            this.writer.flush();
+            this.written += line.getBytes(StandardCharsets.UTF_8).length;
+            if (this.written > this.maxBytes) {
+                roll();
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Can not write the query log: " + this.path, e);
+        }
+    }
+
+
+    public synchronized void close() {
+        if (this.writer != null) {
+            try {
+                this.writer.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Can not close the query log: " + this.path, e);
+            }
+            this.writer = null;
+        }
+    }
+
+
+    void open() throws IOException {
+        if (this.path.getParent() != null) {
+            Files.createDirectories(this.path.getParent());
+        }
+        this.written = Files.exists(this.path) ? Files.size(this.path) : 0;
+        this.writer = Files.newBufferedWriter(this.path, StandardCharsets.UTF_8,
+                                              StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+
+    void roll() throws IOException {
+        close();
+        Files.move(this.path, rolledPath(this.path), StandardCopyOption.REPLACE_EXISTING);
+        open();
+    }
+
+
+    static Path rolledPath(Path path) {
+        return path.resolveSibling(path.getFileName() + ".1");
+    }
+
+
+    static String clean(String s) {
+        return s.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+
+    /** Returns the {@code n} most frequent queries of a log (and its rolled predecessor).
+     *
+     * @param path  The query log written by {@link #record(SearchQuery)}.
+     * @param n  The number of queries to return.
+     * @return Queries ordered by descending frequency, then by cache key.
+     */
+    public static List<SearchQuery> topQueries(Path path, int n) throws IOException {
+        Map<String, Integer> counts = new HashMap<>();
+        Map<String, SearchQuery> queries = new HashMap<>();
+
+        for (Path p : List.of(rolledPath(path), path)) {
+            if (!Files.exists(p)) {
+                continue;
+            }
+            try (BufferedReader reader = Files.newBufferedReader(p, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t", -1);
+                    if (fields.length < 2 || fields[1].isBlank()) {
+                        continue;
+                    }
+                    String site = fields.length > 2 ? fields[2] : null;
+                    SearchQuery query = new SearchQuery(fields[1], site, 1);
+                    String key = query.cacheKey();
+                    counts.merge(key, 1, Integer::sum);
+                    queries.putIfAbsent(key, query);
+                }
+            }
+        }
+
+        List<String> keys = new ArrayList<>(counts.keySet());
+        // Equally frequent queries are ordered by cache key, so that the result does not depend on hashing.
+        keys.sort(Comparator.comparing((String key) -> counts.get(key)).reversed()
+                  .thenComparing(Comparator.naturalOrder()));
+
+        List<SearchQuery> result = new ArrayList<>();
+        for (String key : keys.subList(0, Math.min(n, keys.size()))) {
+            result.add(queries.get(key));
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,104 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/** Warms the caches of a freshly built index by replaying captured queries.
+ *
+ * <p>
+ * After a reindex or force-merge the first user queries hit cold filesystem and query caches.
+ * This class replays the most frequent queries of a {@link QueryLog} against the new index,
+ * in parallel, and measures the latency of each pass, so that the alias can be switched
+ * once the index answers at its warm speed.
+ * </p>
+ */
+public class QueryWarmer {
+
+    private static final Logger logger = Logger.getLogger(QueryWarmer.class.getName());
+
+    final SearchService service;
+    final int concurrency;
+
+    final AtomicInteger errors = new AtomicInteger();
+
+
+    public QueryWarmer(SearchService service, int concurrency) {
+        this.service = service;
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+
+    /** Runs all queries once and returns their latencies in nanoseconds, sorted ascending.
+     *
+     * <p>Failed queries are counted in {@link #getErrors()} and excluded from the latencies.</p>
+     */
+    public long[] replay(List<SearchQuery> queries) {
+        Semaphore permits = new Semaphore(this.concurrency);
+        List<Future<Long>> futures = new ArrayList<>();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (SearchQuery query : queries) {
+                futures.add(executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        long start = System.nanoTime();
+                        this.service.find(query);
+                        return System.nanoTime() - start;
+                    } catch (IOException e) {
+                        this.errors.incrementAndGet();
+                        logger.log(Level.FINE, "Warm-up query failed: " + query.getQuery(), e);
+                        return -1L;
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+        }
+
+        List<Long> latencies = new ArrayList<>();
+        for (Future<Long> future : futures) {
+            try {
+                long latency = future.get();
+                if (latency >= 0) {
+                    latencies.add(latency);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                this.errors.incrementAndGet();
+            }
+        }
+
+        long[] result = latencies.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(result);
+        return result;
+    }
+
+
+    public int getErrors() {
+        return this.errors.get();
+    }
+
+
+    /** Returns the {@code q}-quantile (0 &lt; q &lt;= 1) of sorted values, or 0 if there are none. */
+    public static long percentile(long[] sorted, double q) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(q * sorted.length) - 1;
+        return sorted[Math.min(sorted.length - 1, Math.max(0, index))];
+    }
+
+}
@@ -0,0 +1,280 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+
+/** Load generator that measures the query latency of a {@link SearchService}.
+ *
+ * <p>
+ * Two modes are supported:
+ * </p>
+ * <ul>
+ * <li>Closed loop ({@code rate <= 0}): {@code concurrency} virtual threads send queries back to back.
+ *     This measures the maximum throughput.</li>
+ * <li>Open loop ({@code rate > 0}): queries are started at a fixed rate (per second), with at most
+ *     {@code concurrency} in flight. The latency is measured from the time a query <em>should</em>
+ *     have been sent, so that a stalled server is not hidden by the generator waiting for it
+ *     (coordinated omission).</li>
+ * </ul>
+ *
+ * <p>
+ * Latencies are recorded in microseconds into an HdrHistogram.
+ * </p>
+ */
+public class SearchBenchmark {
+
+    private static final Logger logger = Logger.getLogger(SearchBenchmark.class.getName());
+
+    final SearchService service;
+    int concurrency = 8;
+    double rate = 0;
+    int requests = 0;
+    int warmupRequests = 0;
+
+
+    /** The outcome of a benchmark run. */
+    public static class Result {
+        Histogram histogram;
+        long requests;
+        long errors;
+        long elapsedNanos;
+        int concurrency;
+        double rate;
+
+        public Histogram getHistogram() {
+            return histogram;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /** Returns the number of successful queries per second. */
+        public double getThroughput() {
+            return this.elapsedNanos == 0 ? 0 : (this.requests - this.errors) * 1e9 / this.elapsedNanos;
+        }
+
+        /** Returns the latency of a percentile (0-100) in milliseconds. */
+        public double percentileMillis(double percentile) {
+            return this.histogram.getValueAtPercentile(percentile) / 1000.0;
+        }
+
+        public Map<String, Object> toMap(List<String> indexNames) {
+            Map<String, Object> latency = new LinkedHashMap<>();
+            latency.put("p50", percentileMillis(50));
+            latency.put("p90", percentileMillis(90));
+            latency.put("p99", percentileMillis(99));
+            latency.put("p999", percentileMillis(99.9));
+            latency.put("max", this.histogram.getMaxValue() / 1000.0);
+            latency.put("mean", this.histogram.getMean() / 1000.0);
+
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("timestamp", Instant.now().toString());
+            map.put("indices", indexNames);
+            map.put("mode", this.rate > 0 ? "open" : "closed");
+            map.put("concurrency", this.concurrency);
+            map.put("rate", this.rate);
+            map.put("requests", this.requests);
+            map.put("errors", this.errors);
+            map.put("elapsedMs", this.elapsedNanos / 1_000_000);
+            map.put("throughput", getThroughput());
+            map.put("latencyMs", latency);
+            // The full histogram, so that runs can be merged or re-analysed later.
+            map.put("histogram", encode(this.histogram));
+            return map;
+        }
+
+        public void writeJson(Path file, List<String> indexNames) throws IOException {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file.toFile(), toMap(indexNames));
+        }
+    }
+
+
+    public SearchBenchmark(SearchService service) {
+        this.service = service;
+    }
+
+
+    public void setConcurrency(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    /** Sets the target rate in queries per second; 0 (default) sends as fast as possible. */
+    public void setRate(double rate) {
+        this.rate = rate;
+    }
+
+    /** Sets the number of measured queries; 0 (default) sends every query once. */
+    public void setRequests(int requests) {
+        this.requests = requests;
+    }
+
+    /** Sets the number of queries sent before the measurement starts. */
+    public void setWarmupRequests(int warmupRequests) {
+        this.warmupRequests = warmupRequests;
+    }
+
+
+    /** Runs the benchmark. Queries are used round-robin. */
+    public Result run(List<SearchQuery> queries) {
+        if (this.warmupRequests > 0) {
+            execute(queries, this.warmupRequests, new ConcurrentHistogram(3), new AtomicLong());
+        }
+
+        int count = this.requests > 0 ? this.requests : queries.size();
+        Result result = new Result();
+        result.histogram = new ConcurrentHistogram(3);
+        result.concurrency = this.concurrency;
+        result.rate = this.rate;
+        result.requests = count;
+
+        AtomicLong errors = new AtomicLong();
+        long start = System.nanoTime();
+        execute(queries, count, result.histogram, errors);
+        result.elapsedNanos = System.nanoTime() - start;
+        result.errors = errors.get();
+        return result;
+    }
+
+
+    void execute(List<SearchQuery> queries, int count, Histogram histogram, AtomicLong errors) {
+        if (this.rate > 0) {
+            executeOpenLoop(queries, count, histogram, errors);
+        } else {
+            executeClosedLoop(queries, count, histogram, errors);
+        }
+    }
+
+
+    void executeClosedLoop(List<SearchQuery> queries, int count, Histogram histogram, AtomicLong errors) {
+        AtomicInteger next = new AtomicInteger();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int w = 0; w < this.concurrency; w++) {
+                executor.submit(() -> {
+                    int i;
+                    while ((i = next.getAndIncrement()) < count) {
+                        long sent = System.nanoTime();
+                        query(queries.get(i % queries.size()), sent, histogram, errors);
+                    }
+                });
+            }
+        }
+    }
+
+
+    void executeOpenLoop(List<SearchQuery> queries, int count, Histogram histogram, AtomicLong errors) {
+        Semaphore inFlight = new Semaphore(this.concurrency);
+        long interval = (long) (1e9 / this.rate);
+        long start = System.nanoTime();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < count; i++) {
+                long intended = start + i * interval;
+                long wait;
+                while ((wait = intended - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                try {
+                    inFlight.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                SearchQuery query = queries.get(i % queries.size());
+                executor.submit(() -> {
+                    try {
+                        query(query, intended, histogram, errors);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        }
+    }
+
+
+    void query(SearchQuery query, long sent, Histogram histogram, AtomicLong errors) {
+        try {
+            this.service.find(query);
+            histogram.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sent));
+        } catch (IOException | RuntimeException e) {
+            errors.incrementAndGet();
+            logger.log(Level.FINE, "Benchmark query failed: " + query.getQuery(), e);
+        }
+    }
+
+
+    /** Reads queries from a file.
+     *
+     * <p>
+     * Lines are either plain queries or lines of a {@link QueryLog}
+     * ({@code epochMillis TAB query TAB site}). Blank lines and lines starting with {@code #} are ignored.
+     * </p>
+     */
+    public static List<SearchQuery> readQueries(Path file) throws IOException {
+        List<SearchQuery> queries = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\t", -1);
+                if (fields.length == 1) {
+                    queries.add(new SearchQuery(fields[0], null, 1));
+                } else if (!fields[1].isBlank()) {
+                    String site = fields.length > 2 && !fields[2].isEmpty() ? fields[2] : null;
+                    queries.add(new SearchQuery(fields[1], site, 1));
+                }
+            }
+        }
+        return queries;
+    }
+
+
+    /** Encodes a histogram as base64 of its compressed form ({@code Histogram.decodeFromCompressedByteBuffer}). */
+    static String encode(Histogram histogram) {
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+        byte[] bytes = new byte[length];
+        buffer.flip();
+        buffer.get(bytes);
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+
+}
@@ -0,0 +1,194 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/** A small LRU/TTL cache for rendered search results.
+ *
+ * <p>
+ * Entries are evicted in least-recently-used order once {@code maxEntries} is exceeded,
+ * and are treated as absent once they are older than {@code ttlMillis}.
+ * Identical concurrent lookups that miss the cache are coalesced (single-flight):
+ * only the first caller runs the loader, the others wait for its result.
+ * </p>
+ *
+ * <p>
+ * {@link #invalidateAll()} drops every entry and bumps an internal generation counter,
+ * so that a load which started before the invalidation does not put a stale result back.
+ * </p>
+ */
+public class SearchCache {
+
+    final int maxEntries;
+    final long ttlMillis;
+
+    /** Access-ordered map, guarded by {@code this}. */
+    final LinkedHashMap<String, Entry> entries;
+
+    final ConcurrentHashMap<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    long generation = 0;
+
+    final AtomicLong hits = new AtomicLong();
+    final AtomicLong misses = new AtomicLong();
+    final AtomicLong coalesced = new AtomicLong();
+
+
+    static class Entry {
+        final String value;
+        final long storedAt;
+
+        Entry(String value, long storedAt) {
+            this.value = value;
+            this.storedAt = storedAt;
+        }
+    }
+
+
+    public SearchCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > SearchCache.this.maxEntries;
+            }
+        };
+    }
+
+
+    /** Returns the cached value for {@code key}, or runs {@code loader} to compute it.
+     *
+     * @param key  A normalized cache key (see {@link SearchQuery#cacheKey()}).
+     * @param loader  Computes the value on a cache miss.
+     * @return The cached or freshly loaded value.
+     * @throws IOException if the loader fails (for this caller or for the caller it was coalesced with).
+     */
+    public String get(String key, Callable<String> loader) throws IOException {
+        String cached = lookup(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            return await(running);
+        }
+
+        try {
+            // Another caller may have stored the value between our lookup and putIfAbsent.
+            cached = lookup(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                mine.complete(cached);
+                return cached;
+            }
+
+            misses.incrementAndGet();
+            long startGeneration = currentGeneration();
+            String value = loader.call();
+            store(key, value, startGeneration);
+            mine.complete(value);
+            return value;
+
+        } catch (Exception e) {
+            mine.completeExceptionally(e);
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            }
+            throw new IOException(e);
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+
+    /** Drops all entries. Loads that are running now will not be stored. */
+    public synchronized void invalidateAll() {
+        this.entries.clear();
+        this.generation++;
+    }
+
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+
+    synchronized String lookup(String key) {
+        Entry entry = this.entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.storedAt > this.ttlMillis) {
+            this.entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+
+    synchronized void store(String key, String value, long startGeneration) {
+        if (startGeneration != this.generation) {
+            return;
+        }
+        this.entries.put(key, new Entry(value, System.currentTimeMillis()));
+    }
+
+
+    synchronized long currentGeneration() {
+        return this.generation;
+    }
+
+
+    /** Removes entries whose TTL has passed. */
+    public synchronized void expire() {
+        long now = System.currentTimeMillis();
+        Iterator<Entry> iter = this.entries.values().iterator();
+        while (iter.hasNext()) {
+            if (now - iter.next().storedAt > this.ttlMillis) {
+                iter.remove();
+            }
+        }
+    }
+
+
+    static String await(CompletableFuture<String> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a coalesced search", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+}
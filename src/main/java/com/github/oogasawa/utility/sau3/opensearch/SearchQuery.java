@@ -0,0 +1,105 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+
+/** A full-text query against the Docusaurus indices.
+ *
+ * <p>
+ * The query string is normalized (NFKC, lower case, collapsed white space)
+ * so that trivially different spellings of the same query share one cache entry.
+ * The page is kept between 1 and {@link #maxPage()}, so that the requested hits stay within
+ * the default {@code index.max_result_window} of OpenSearch.
+ * </p>
+ */
+public class SearchQuery {
+
+    public static final int DEFAULT_PAGE_SIZE = 10;
+
+    /** The default {@code index.max_result_window}: OpenSearch returns no hits beyond {@code from + size} of this. */
+    public static final int MAX_RESULT_WINDOW = 10000;
+
+    String query = "";
+    String site = null;
+    int page = 1;
+    int pageSize = DEFAULT_PAGE_SIZE;
+
+
+    public SearchQuery() { }
+
+    public SearchQuery(String query, String site, int page) {
+        this.query = normalize(query);
+        setSite(site);
+        setPage(page);
+    }
+
+
+    /** Normalizes a raw query string. */
+    public static String normalize(String raw) {
+        if (raw == null) {
+            return "";
+        }
+        String s = Normalizer.normalize(raw, Normalizer.Form.NFKC);
+        return s.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+
+    /** Returns the key under which results of this query are cached. */
+    public String cacheKey() {
+        return this.query + "\u0000" + (this.site == null ? "" : this.site) + "\u0000" + this.page
+            + "\u0000" + this.pageSize;
+    }
+
+
+    /** Returns the last page whose hits are within {@link #MAX_RESULT_WINDOW}. */
+    public int maxPage() {
+        return Math.max(1, MAX_RESULT_WINDOW / this.pageSize);
+    }
+
+
+    /** Returns the zero-based offset of the first hit of the requested page. */
+    public int from() {
+        return (this.page - 1) * this.pageSize;
+    }
+
+
+    // --------------------
+    // Getter and Setter
+    // --------------------
+
+    public String getQuery() {
+        return query;
+    }
+
+    public void setQuery(String query) {
+        this.query = normalize(query);
+    }
+
+    public String getSite() {
+        return site;
+    }
+
+    /** Sets the URL prefix to search in; a blank site means all sites. */
+    public void setSite(String site) {
+        this.site = (site == null || site.isBlank()) ? null : site.trim();
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public void setPage(int page) {
+        this.page = Math.min(maxPage(), Math.max(1, page));
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = Math.min(MAX_RESULT_WINDOW, Math.max(1, pageSize));
+        setPage(this.page);
+    }
+
+}
@@ -0,0 +1,308 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+
+/** An embedded HTTP search endpoint for the Docusaurus sites.
+ *
+ * <p>
+ * The {@code docusaurus.config.js} of our sites link to {@code http://<server>:8080/search}
+ * (see {@link com.github.oogasawa.utility.sau3.configjs.DocusaurusConfigUpdator}).
+ * This server answers that URL with the JDK {@link HttpServer}, one virtual thread per request.
+ * </p>
+ *
+ * <ul>
+ * <li>{@code GET /search?q=...&site=...&page=...} returns an HTML result page.</li>
+ * <li>{@code GET /search?q=...&format=json} (or {@code Accept: application/json}) returns JSON.</li>
+ * <li>{@code GET /search/suggest?q=PREFIX} returns title/heading completions as JSON.</li>
+ * <li>{@code GET /search/stats} returns cache statistics.</li>
+ * </ul>
+ *
+ * <p>
+ * Results are cached in a {@link SearchCache}; identical concurrent queries are coalesced.
+ * The cache is dropped whenever {@link SearchService#indexGeneration()} changes,
+ * i.e. after a refresh has made new data of an indexer run visible.
+ * </p>
+ */
+public class SearchServer {
+
+    private static final Logger logger = Logger.getLogger(SearchServer.class.getName());
+
+    final SearchService service;
+    final SearchCache cache;
+    final ObjectMapper mapper = new ObjectMapper();
+
+    QueryLog queryLog = null;
+
+    HttpServer server = null;
+    ExecutorService requestExecutor = null;
+    ScheduledExecutorService invalidator = null;
+    volatile String lastGeneration = null;
+
+
+    public SearchServer(SearchService service, SearchCache cache) {
+        this.service = service;
+        this.cache = cache;
+    }
+
+
+    /** Records every non-empty query in the given log (for cache warm-up after reindexing). */
+    public void setQueryLog(QueryLog queryLog) {
+        this.queryLog = queryLog;
+    }
+
+
+    /** Starts the server.
+     *
+     * @param port  The port to listen on (e.g. 8080).
+     * @param invalidateIntervalSec  How often the index generation is polled for cache invalidation.
+     */
+    public void start(int port, int invalidateIntervalSec) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.requestExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        this.server.setExecutor(this.requestExecutor);
+        this.server.createContext("/search", this::handleSearch);
+        this.server.createContext("/search/suggest", this::handleSuggest);
+        this.server.createContext("/search/stats", this::handleStats);
+
+        this.lastGeneration = this.service.indexGeneration();
+        this.invalidator = Executors.newSingleThreadScheduledExecutor();
+        this.invalidator.scheduleWithFixedDelay(this::checkGeneration,
+                                                invalidateIntervalSec, invalidateIntervalSec, TimeUnit.SECONDS);
+
+        this.server.start();
+        logger.info("Search server listening on port " + port + ", indices: " + this.service.getIndexNames());
+    }
+
+
+    public void stop() {
+        if (this.server != null) {
+            this.server.stop(1);
+        }
+        if (this.invalidator != null) {
+            this.invalidator.shutdownNow();
+        }
+        if (this.requestExecutor != null) {
+            this.requestExecutor.shutdown();
+        }
+        if (this.queryLog != null) {
+            this.queryLog.close();
+        }
+        this.service.close();
+    }
+
+
+    void checkGeneration() {
+        String generation = this.service.indexGeneration();
+        if (generation != null && !Objects.equals(generation, this.lastGeneration)) {
+            logger.info("Index generation changed (" + this.lastGeneration + " -> " + generation
+                        + "), invalidating the search cache.");
+            this.lastGeneration = generation;
+            this.cache.invalidateAll();
+        } else {
+            this.cache.expire();
+        }
+    }
+
+
+    void handleSearch(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, "text/plain; charset=UTF-8", "Method Not Allowed");
+                return;
+            }
+
+            Map<String, String> params = parseQueryString(exchange.getRequestURI());
+            String q = params.getOrDefault("q", "");
+            int page;
+            try {
+                page = parsePage(params.get("page"));
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, "text/plain; charset=UTF-8", e.getMessage());
+                return;
+            }
+            SearchQuery query = new SearchQuery(q, params.get("site"), page);
+            boolean json = "json".equals(params.get("format"))
+                || String.valueOf(exchange.getRequestHeaders().getFirst("Accept")).contains("application/json");
+
+            String result = null;
+            if (!query.getQuery().isEmpty()) {
+                if (this.queryLog != null && query.getPage() == 1) {
+                    this.queryLog.record(query);
+                }
+                result = this.cache.get(query.cacheKey(), () -> this.service.search(query));
+            }
+
+            if (json) {
+                send(exchange, 200, "application/json; charset=UTF-8",
+                     result != null ? result : "{\"query\":\"\",\"total\":0,\"hits\":[]}");
+            } else {
+                send(exchange, 200, "text/html; charset=UTF-8", renderHtml(query, result));
+            }
+
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Search failed: " + exchange.getRequestURI(), e);
+            send(exchange, 502, "text/plain; charset=UTF-8", "Search backend error");
+        } finally {
+            exchange.close();
+        }
+    }
+
+
+    void handleSuggest(HttpExchange exchange) throws IOException {
+        try {
+            Map<String, String> params = parseQueryString(exchange.getRequestURI());
+            String prefix = SearchQuery.normalize(params.get("q"));
+            int size = Math.min(20, Math.max(1, parseInt(params.get("size"), 8)));
+            if (prefix.isEmpty()) {
+                send(exchange, 200, "application/json; charset=UTF-8", "{\"prefix\":\"\",\"suggestions\":[]}");
+                return;
+            }
+            String result = this.cache.get("suggest\u0000" + prefix + "\u0000" + size,
+                                           () -> this.service.suggest(prefix, size));
+            send(exchange, 200, "application/json; charset=UTF-8", result);
+
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Suggest failed: " + exchange.getRequestURI(), e);
+            send(exchange, 502, "text/plain; charset=UTF-8", "Search backend error");
+        } finally {
+            exchange.close();
+        }
+    }
+
+
+    void handleStats(HttpExchange exchange) throws IOException {
+        try {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("entries", this.cache.size());
+            stats.put("hits", this.cache.getHits());
+            stats.put("misses", this.cache.getMisses());
+            stats.put("coalesced", this.cache.getCoalesced());
+            stats.put("generation", this.lastGeneration);
+            send(exchange, 200, "application/json; charset=UTF-8", this.mapper.writeValueAsString(stats));
+        } finally {
+            exchange.close();
+        }
+    }
+
+
+    String renderHtml(SearchQuery query, String resultJson) throws IOException {
+        StringBuilder html = new StringBuilder();
+        html.append("<!DOCTYPE html>\n<html><head><meta charset=\"UTF-8\"><title>Search</title></head><body>\n");
+        html.append("<form method=\"get\" action=\"/search\">");
+        html.append("<input type=\"text\" name=\"q\" size=\"60\" value=\"").append(escape(query.getQuery())).append("\">");
+        if (query.getSite() != null) {
+            html.append("<input type=\"hidden\" name=\"site\" value=\"").append(escape(query.getSite())).append("\">");
+        }
+        html.append("<input type=\"submit\" value=\"Search\"></form>\n");
+
+        if (resultJson != null) {
+            JsonNode result = this.mapper.readTree(resultJson);
+            long total = result.path("total").asLong();
+            html.append("<p>").append(total).append(" hits</p>\n<ol start=\"").append(query.from() + 1).append("\">\n");
+            for (JsonNode hit : result.path("hits")) {
+                html.append("<li><a href=\"").append(escape(hit.path("url").asText())).append("\">")
+                    .append(escape(hit.path("title").asText())).append("</a><br>")
+                    // The snippet is already HTML-encoded by SearchService.
+                    .append(hit.path("snippet").asText()).append("</li>\n");
+            }
+            html.append("</ol>\n");
+            if ((long) query.getPage() * query.getPageSize() < total) {
+                html.append("<a href=\"/search?q=").append(URLEncoder.encode(query.getQuery(), StandardCharsets.UTF_8));
+                if (query.getSite() != null) {
+                    html.append("&amp;site=").append(URLEncoder.encode(query.getSite(), StandardCharsets.UTF_8));
+                }
+                html.append("&amp;page=").append(query.getPage() + 1).append("\">Next</a>\n");
+            }
+        }
+        html.append("</body></html>\n");
+        return html.toString();
+    }
+
+
+    static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+
+    static Map<String, String> parseQueryString(URI uri) {
+        Map<String, String> params = new HashMap<>();
+        String raw = uri.getRawQuery();
+        if (raw == null) {
+            return params;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+
+    /** Parses the {@code page} parameter; pages beyond {@link SearchQuery#maxPage()} are clamped by the query.
+     *
+     * @throws IllegalArgumentException if the page is not a number of at least 1
+     */
+    static int parsePage(String page) {
+        if (page == null || page.isEmpty()) {
+            return 1;
+        }
+        int n;
+        try {
+            n = Integer.parseInt(page.trim());
+        } catch (NumberFormatException e) {
+            // Out of the int range counts as a (clamped) large page, anything else as an error.
+            if (page.trim().matches("\\+?[0-9]+")) {
+                return Integer.MAX_VALUE;
+            }
+            throw new IllegalArgumentException("Invalid page: " + page);
+        }
+        if (n < 1) {
+            throw new IllegalArgumentException("Invalid page: " + page);
+        }
+        return n;
+    }
+
+
+    static int parseInt(String value, int defaultValue) {
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+
+    static String escape(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+}
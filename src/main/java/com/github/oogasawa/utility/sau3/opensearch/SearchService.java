@@ -0,0 +1,362 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.HttpHost;
+import org.apache.http.util.EntityUtils;
+import org.opensearch.action.search.MultiSearchRequest;
+import org.opensearch.action.search.MultiSearchResponse;
+import org.opensearch.action.search.SearchRequest;
+import org.opensearch.action.search.SearchResponse;
+import org.opensearch.client.Request;
+import org.opensearch.client.RequestOptions;
+import org.opensearch.client.Response;
+import org.opensearch.client.RestClient;
+import org.opensearch.client.RestHighLevelClient;
+import org.opensearch.common.text.Text;
+import org.opensearch.index.query.BoolQueryBuilder;
+import org.opensearch.index.query.QueryBuilders;
+import org.opensearch.search.SearchHit;
+import org.opensearch.search.builder.SearchSourceBuilder;
+import org.opensearch.search.fetch.subphase.highlight.HighlightBuilder;
+import org.opensearch.search.fetch.subphase.highlight.HighlightField;
+import org.opensearch.search.suggest.SuggestBuilder;
+import org.opensearch.search.suggest.SuggestBuilders;
+import org.opensearch.search.suggest.completion.CompletionSuggestion;
+import org.opensearch.search.suggest.completion.CompletionSuggestionBuilder;
+
+
+/** Runs full-text queries against the Docusaurus indices and renders the hits as JSON.
+ *
+ * <p>
+ * A query is fanned out over all configured indices (e.g. {@code docusaurus_ja} and
+ * {@code docusaurus_en}) in a single {@code _msearch} round trip, and the hits are merged
+ * by score with an optional per-index boost.
+ * </p>
+ *
+ * <p>
+ * A single {@link RestHighLevelClient} is kept open for the lifetime of this object,
+ * so that its connection pool is shared by all requests (unlike {@link Indexer},
+ * which opens a client per call).
+ * </p>
+ */
+public class SearchService implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(SearchService.class.getName());
+
+    final RestHighLevelClient client;
+    final List<String> indexNames;
+    final Map<String, Double> boosts = new HashMap<>();
+    boolean highlight = false;
+    final ObjectMapper mapper = new ObjectMapper();
+
+
+    public SearchService(HttpHost host, List<String> indexNames) {
+        this.client = new RestHighLevelClient(RestClient.builder(host));
+        this.indexNames = new ArrayList<>(indexNames);
+    }
+
+
+    public List<String> getIndexNames() {
+        return this.indexNames;
+    }
+
+
+    /** Enables query-time highlighting of the {@code text} field.
+     *
+     * <p>
+     * Highlighting long pages is the slowest part of a search, so by default the snippet
+     * is the {@code summary} computed by the indexer.
+     * </p>
+     */
+    public void setHighlight(boolean highlight) {
+        this.highlight = highlight;
+    }
+
+
+    /** Sets a score multiplier for hits from the given index (e.g. to prefer one language). */
+    public void setBoost(String indexName, double boost) {
+        this.boosts.put(indexName, boost);
+    }
+
+
+    public double getBoost(String indexName) {
+        return this.boosts.getOrDefault(indexName, 1.0);
+    }
+
+
+    /** Parses boosts given as {@code index=factor} pairs, e.g. {@code docusaurus_ja=1.2,docusaurus_en=1.0}. */
+    public void setBoosts(String spec) {
+        if (spec == null || spec.isBlank()) {
+            return;
+        }
+        for (String pair : spec.split(",")) {
+            String[] kv = pair.trim().split("=");
+            if (kv.length != 2) {
+                throw new IllegalArgumentException("Boost must be given as index=factor: " + pair);
+            }
+            try {
+                setBoost(kv[0].trim(), Double.parseDouble(kv[1].trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Boost factor is not a number: " + pair, e);
+            }
+        }
+    }
+
+
+    /** Executes the query and returns the result page as a JSON string.
+     *
+     * <pre>{@code
+     * {"query": "...", "site": "...", "page": 1, "total": 42,
+     *  "hits": [{"title": "...", "url": "...", "snippet": "...", "index": "...", "score": 1.0}, ...]}
+     * }</pre>
+     */
+    public String search(SearchQuery query) throws IOException {
+        Result result = find(query);
+
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("query", query.getQuery());
+        json.put("site", query.getSite());
+        json.put("page", query.getPage());
+        json.put("total", result.total);
+        json.put("hits", result.hits);
+
+        return this.mapper.writeValueAsString(json);
+    }
+
+
+    /** Executes the query over all indices in one {@code _msearch} round trip.
+     *
+     * <p>
+     * Each index is asked for its best {@code page * pageSize} hits; the hits are then
+     * merged by score multiplied by the index boost, and the requested page is cut out
+     * of the merged list.
+     * </p>
+     */
+    public Result find(SearchQuery query) throws IOException {
+
+        BoolQueryBuilder bool = QueryBuilders.boolQuery()
+            .must(QueryBuilders.multiMatchQuery(query.getQuery(), "title^2", "text"));
+        if (query.getSite() != null) {
+            bool.filter(QueryBuilders.prefixQuery("url", query.getSite()));
+        }
+
+        int depth = query.from() + query.getPageSize();
+        MultiSearchRequest msearch = new MultiSearchRequest();
+        for (String indexName : this.indexNames) {
+            SearchSourceBuilder source = new SearchSourceBuilder()
+                .query(bool)
+                .from(0)
+                .size(depth)
+                .fetchSource(new String[]{"title", "url", "summary"}, null);
+            if (this.highlight) {
+                source.highlighter(new HighlightBuilder().encoder("html").field("text", 150, 1));
+            }
+            msearch.add(new SearchRequest(indexName).source(source));
+        }
+
+        MultiSearchResponse response = this.client.msearch(msearch, RequestOptions.DEFAULT);
+
+        List<IndexHits> perIndex = new ArrayList<>();
+        MultiSearchResponse.Item[] items = response.getResponses();
+        for (int i = 0; i < items.length; i++) {
+            String indexName = this.indexNames.get(i);
+            if (items[i].isFailure()) {
+                logger.log(Level.WARNING, "Search failed on index: " + indexName, items[i].getFailure());
+                perIndex.add(null);
+                continue;
+            }
+            SearchResponse searchResponse = items[i].getResponse();
+            long total = searchResponse.getHits().getTotalHits() != null
+                ? searchResponse.getHits().getTotalHits().value : 0;
+            List<Map<String, Object>> hits = new ArrayList<>();
+            for (SearchHit hit : searchResponse.getHits().getHits()) {
+                Map<String, Object> sourceAsMap = hit.getSourceAsMap();
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("title", sourceAsMap.get("title"));
+                item.put("url", sourceAsMap.get("url"));
+                item.put("snippet", snippet(hit, sourceAsMap));
+                item.put("index", indexName);
+                item.put("score", (double) hit.getScore());
+                hits.add(item);
+            }
+            perIndex.add(new IndexHits(indexName, total, hits));
+        }
+
+        return merge(perIndex, this.boosts, query.from(), query.getPageSize());
+    }
+
+
+    /** The hits one index returned for a query, with their unboosted {@code score}. */
+    record IndexHits(String indexName, long total, List<Map<String, Object>> hits) {}
+
+
+    /** Merges the per-index hits into one result page.
+     *
+     * <p>
+     * Each hit's {@code score} is multiplied by the boost of its index (1.0 if none),
+     * the hits are sorted by that score, and the page starting at {@code from} is cut
+     * out of the merged list. The total is the sum over all indices. A {@code null}
+     * entry marks an index whose search failed and is skipped.
+     * </p>
+     */
+    static Result merge(List<IndexHits> perIndex, Map<String, Double> boosts, int from, int pageSize) {
+        Result result = new Result();
+        List<Map<String, Object>> merged = new ArrayList<>();
+        for (IndexHits indexHits : perIndex) {
+            if (indexHits == null) {
+                continue;
+            }
+            result.total += indexHits.total();
+            double boost = boosts.getOrDefault(indexHits.indexName(), 1.0);
+            for (Map<String, Object> hit : indexHits.hits()) {
+                Map<String, Object> item = new LinkedHashMap<>(hit);
+                item.put("score", (Double) hit.get("score") * boost);
+                merged.add(item);
+            }
+        }
+
+        merged.sort(Comparator.comparingDouble((Map<String, Object> m) -> (Double) m.get("score")).reversed());
+        int start = Math.min(from, merged.size());
+        int end = Math.min(start + pageSize, merged.size());
+        result.hits = new ArrayList<>(merged.subList(start, end));
+
+        return result;
+    }
+
+
+    /** One page of merged hits and the total hit count over all indices. */
+    public static class Result {
+        long total = 0;
+        List<Map<String, Object>> hits = new ArrayList<>();
+
+        public long getTotal() {
+            return total;
+        }
+
+        public List<Map<String, Object>> getHits() {
+            return hits;
+        }
+    }
+
+
+    /** Answers a search-as-you-type prefix query from the {@code suggest} completion field.
+     *
+     * <p>
+     * This is a single completion-suggester request, which is served from an in-memory FST
+     * and is much cheaper than a full-text {@code match} on {@code title}/{@code text}.
+     * </p>
+     *
+     * <pre>{@code
+     * {"prefix": "...", "suggestions": [{"text": "...", "title": "...", "url": "...", "index": "..."}, ...]}
+     * }</pre>
+     */
+    public String suggest(String prefix, int size) throws IOException {
+        CompletionSuggestionBuilder completion = SuggestBuilders.completionSuggestion("suggest")
+            .prefix(prefix)
+            .skipDuplicates(true)
+            .size(size);
+        SearchSourceBuilder source = new SearchSourceBuilder()
+            .size(0)
+            .fetchSource(new String[]{"title", "url"}, null)
+            .suggest(new SuggestBuilder().addSuggestion("pages", completion));
+
+        SearchRequest request = new SearchRequest(this.indexNames.toArray(new String[0])).source(source);
+        SearchResponse response = this.client.search(request, RequestOptions.DEFAULT);
+
+        List<Map<String, Object>> suggestions = new ArrayList<>();
+        if (response.getSuggest() != null) {
+            CompletionSuggestion suggestion = response.getSuggest().getSuggestion("pages");
+            for (CompletionSuggestion.Entry entry : suggestion.getEntries()) {
+                for (CompletionSuggestion.Entry.Option option : entry.getOptions()) {
+                    Map<String, Object> item = new LinkedHashMap<>();
+                    item.put("text", option.getText().string());
+                    if (option.getHit() != null) {
+                        Map<String, Object> sourceAsMap = option.getHit().getSourceAsMap();
+                        item.put("title", sourceAsMap.get("title"));
+                        item.put("url", sourceAsMap.get("url"));
+                        item.put("index", option.getHit().getIndex());
+                    }
+                    suggestions.add(item);
+                }
+            }
+        }
+
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("prefix", prefix);
+        json.put("suggestions", suggestions);
+        return this.mapper.writeValueAsString(json);
+    }
+
+
+    /** Returns an HTML-safe snippet of a hit.
+     *
+     * <p>
+     * The precomputed {@code summary} field is used when present; the {@code text} highlight is
+     * only used when highlighting is enabled (or for documents indexed before summaries existed).
+     * </p>
+     */
+    static String snippet(SearchHit hit, Map<String, Object> sourceAsMap) {
+        HighlightField field = hit.getHighlightFields().get("text");
+        if (field != null && field.fragments() != null) {
+            StringBuilder sb = new StringBuilder();
+            for (Text fragment : field.fragments()) {
+                sb.append(fragment.string());
+            }
+            return sb.toString();
+        }
+        Object summary = sourceAsMap.get("summary");
+        if (summary == null) {
+            return "";
+        }
+        return summary.toString().replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+            .replace("\"", "&quot;").replace("\n", "<br>");
+    }
+
+
+    /** Returns a value that changes whenever new data becomes visible to searches of the indices.
+     *
+     * <p>
+     * The value is the number of refreshes reported by {@code _stats/refresh}, counted over all
+     * shard copies since a search can go to any of them. Counting refreshes rather than indexing
+     * operations matters: a query cached between an update and the refresh that makes it visible
+     * would otherwise keep the old results until it expires. As the statistics are read from the
+     * cluster, a cache is invalidated even when the indexer runs in another process.
+     * </p>
+     *
+     * @return The generation string, or {@code null} if the statistics could not be read.
+     */
+    public String indexGeneration() {
+        String path = "/" + String.join(",", this.indexNames) + "/_stats/refresh";
+        try {
+            Response response = this.client.getLowLevelClient().performRequest(new Request("GET", path));
+            JsonNode total = this.mapper.readTree(EntityUtils.toString(response.getEntity()))
+                .path("_all").path("total");
+            return String.valueOf(total.path("refresh").path("total").asLong());
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Can not read index statistics: " + path, e);
+            return null;
+        }
+    }
+
+
+    @Override
+    public void close() {
+        try {
+            this.client.close();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to close the client.", e);
+        }
+    }
+
+}
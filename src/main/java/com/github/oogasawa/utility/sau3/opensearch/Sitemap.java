@@ -5,6 +5,7 @@ import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.events.XMLEvent;
 import javax.xml.stream.events.StartElement;
 import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -14,10 +15,13 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Deque;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -31,6 +35,26 @@ public class Sitemap {
     
     Deque<SitemapEntry> sitemapEntries = new ArrayDeque<>();
 
+    /** Where the sitemap fetch time is recorded. */
+    IndexMetrics metrics = new IndexMetrics();
+
+    /** The result of {@link #parseIfChanged}. */
+    public enum Change {
+        /** The server answered 304 to the stored validators. */
+        NOT_MODIFIED,
+        /** The body has the stored digest. */
+        UNCHANGED,
+        /** The body is new or differs from the stored one; the entries are parsed. */
+        CHANGED,
+        /** The sitemap could not be fetched. */
+        FAILED
+    }
+
+    Change change = null;
+
+    /** Digest and validators of the fetched sitemap, set by {@link #parseIfChanged}. */
+    SitemapState.Entry state = null;
+
 
     
     public Deque<SitemapEntry> getSitemapEntries() {
@@ -38,6 +62,21 @@ public class Sitemap {
     }
 
 
+    public Change getChange() {
+        return this.change;
+    }
+
+
+    public SitemapState.Entry getState() {
+        return this.state;
+    }
+
+
+    public void setMetrics(IndexMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+
 
     
 
@@ -46,6 +85,7 @@ public class Sitemap {
      * @param urlStrOfSitemapXml  URL of sitemap.xml
      */
     public void parse(String urlStrOfSitemapXml) {
+        long start = System.nanoTime();
         try {
 
             URL sitemapUrl = new URI(urlStrOfSitemapXml).toURL();
@@ -59,11 +99,86 @@ public class Sitemap {
             logger.log(Level.SEVERE, "Unable to access sitemap.xml", e);
         } catch (IOException e) {
             logger.log(Level.SEVERE, "General IOException", e);
+        } finally {
+            this.metrics.time(IndexMetrics.SITEMAP_FETCH, start);
         }
 
 
     }
 
+    /** Fetches {@code sitemap.xml} and parses it only if it changed since a previous run.
+     *
+     * <p>
+     * The stored {@code ETag} and {@code Last-Modified} are sent as {@code If-None-Match} and
+     * {@code If-Modified-Since}; if the server still sends a body, its SHA-256 digest is compared
+     * with the stored one. The new digest and validators are available from {@link #getState()}
+     * (for {@link Change#NOT_MODIFIED} and {@link Change#UNCHANGED} they are the previous ones).
+     * </p>
+     *
+     * @param urlStrOfSitemapXml  URL of sitemap.xml
+     * @param previous  The state stored after the last successful run, or null to parse in any case.
+     * @return What changed.
+     */
+    public Change parseIfChanged(String urlStrOfSitemapXml, SitemapState.Entry previous) {
+        long start = System.nanoTime();
+        try {
+            URL sitemapUrl = new URI(urlStrOfSitemapXml).toURL();
+            HttpURLConnection connection = openConnectionWithAuth(sitemapUrl);
+            if (previous != null && previous.getEtag() != null) {
+                connection.setRequestProperty("If-None-Match", previous.getEtag());
+            }
+            if (previous != null && previous.getLastModified() != null) {
+                connection.setRequestProperty("If-Modified-Since", previous.getLastModified());
+            }
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                connection.disconnect();
+                this.state = previous;
+                this.change = Change.NOT_MODIFIED;
+                return this.change;
+            }
+
+            byte[] body;
+            try (InputStream in = connection.getInputStream()) {
+                body = in.readAllBytes();
+            }
+            SitemapState.Entry current = new SitemapState.Entry();
+            current.setDigest(sha256(body));
+            current.setEtag(connection.getHeaderField("ETag"));
+            current.setLastModified(connection.getHeaderField("Last-Modified"));
+
+            if (previous != null && current.getDigest().equals(previous.getDigest())) {
+                this.state = current;
+                this.change = Change.UNCHANGED;
+                return this.change;
+            }
+            parse(new ByteArrayInputStream(body));
+            this.state = current;
+            this.change = Change.CHANGED;
+        } catch (FileNotFoundException
+                 | URISyntaxException
+                 | MalformedURLException e) {
+            logger.log(Level.SEVERE, "Unable to access sitemap.xml", e);
+            this.change = Change.FAILED;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "General IOException", e);
+            this.change = Change.FAILED;
+        } finally {
+            this.metrics.time(IndexMetrics.SITEMAP_FETCH, start);
+        }
+        return this.change;
+    }
+
+
+    /** Returns the hex SHA-256 digest of a byte array. */
+    static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 algorithm not found", e);
+        }
+    }
+
+
     /**
      * Opens an InputStream with BASIC authentication support
      *
@@ -72,6 +187,12 @@ public class Sitemap {
      * @throws IOException if connection fails
      */
     private InputStream openStreamWithAuth(URL url) throws IOException {
+        return openConnectionWithAuth(url).getInputStream();
+    }
+
+
+    /** Opens a connection with BASIC authentication support; the request is sent on first use. */
+    private HttpURLConnection openConnectionWithAuth(URL url) throws IOException {
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
 
         // Add BASIC authentication for 133.39.114.45
@@ -83,7 +204,7 @@ public class Sitemap {
             connection.setRequestProperty("Authorization", "Basic " + encodedAuth);
         }
 
-        return connection.getInputStream();
+        return connection;
     }
 
 
@@ -108,7 +229,7 @@ public class Sitemap {
                     logger.fine("startElement of parse(inputStream in): " + startElement.getName().getLocalPart());
                     if (startElement.getName().getLocalPart().equals("url")) {
                                                 SitemapEntry entry = parseUrl(eventReader);
-                        logger.info(String.format("%s, %s", entry.getUrl(), entry.getLastmod()));
+                        logger.fine(String.format("%s, %s", entry.getUrl(), entry.getLastmod()));
                         this.sitemapEntries.push(entry);
                     }
                 }
@@ -0,0 +1,125 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+
+/** The sitemaps as they were at the end of the last successful update of each index.
+ *
+ * <p>
+ * For every index and sitemap URL the file keeps the SHA-256 digest of the sitemap body and the
+ * HTTP validators ({@code ETag}, {@code Last-Modified}) of the response. The next run sends the
+ * validators with the sitemap request and compares the digest of the body, so an unchanged site
+ * costs one conditional request (often a 304 without body) and no parsing or page checks.
+ * </p>
+ *
+ * <p>
+ * The file is JSON, e.g. {@code ~/.sau3/sitemap-state.json}:
+ * </p>
+ * <pre>{@code
+ * {
+ *   "docs_ja http://localhost/~user/doc_X/sitemap.xml" : {
+ *     "digest" : "3f0c...", "etag" : "\"5f1-62a\"", "lastModified" : "Tue, 01 Oct 2024 00:00:00 GMT",
+ *     "updated" : "2024-10-02T03:00:12Z"
+ *   }
+ * }
+ * }</pre>
+ *
+ * <p>All methods are thread-safe.</p>
+ */
+public class SitemapState {
+
+    public static final Path DEFAULT_PATH = Paths.get(System.getProperty("user.home"), ".sau3", "sitemap-state.json");
+
+
+    /** What is known about one sitemap after a successful run. */
+    public static class Entry {
+        String digest;
+        String etag;
+        String lastModified;
+        String updated;
+
+        public String getDigest() {
+            return digest;
+        }
+
+        public void setDigest(String digest) {
+            this.digest = digest;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public void setEtag(String etag) {
+            this.etag = etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public void setLastModified(String lastModified) {
+            this.lastModified = lastModified;
+        }
+
+        public String getUpdated() {
+            return updated;
+        }
+
+        public void setUpdated(String updated) {
+            this.updated = updated;
+        }
+    }
+
+
+    final Map<String, Entry> entries = new TreeMap<>();
+
+
+    /** Reads a state file; a missing file gives an empty state. */
+    public static SitemapState load(Path file) throws IOException {
+        SitemapState state = new SitemapState();
+        if (Files.exists(file)) {
+            state.entries.putAll(new ObjectMapper().readValue(file.toFile(), new TypeReference<Map<String, Entry>>() {}));
+        }
+        return state;
+    }
+
+
+    /** Writes the state to a file, replacing it atomically. */
+    public synchronized void save(Path file) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(tmp.toFile(), this.entries);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+    /** Returns the stored state of a sitemap of an index, or null if there is none. */
+    public synchronized Entry get(String indexName, String sitemapUrl) {
+        return this.entries.get(key(indexName, sitemapUrl));
+    }
+
+
+    /** Stores the state of a sitemap of an index. */
+    public synchronized void put(String indexName, String sitemapUrl, Entry entry) {
+        entry.setUpdated(java.time.Instant.now().toString());
+        this.entries.put(key(indexName, sitemapUrl), entry);
+    }
+
+
+    static String key(String indexName, String sitemapUrl) {
+        return indexName + " " + sitemapUrl;
+    }
+
+}
@@ -138,7 +138,7 @@ public class DocuScriptProcessor {
         return maxLength == 0 ? 100 : (100 * (maxLength - distance)) / maxLength;
     }
 
-    private static int levenshteinDistance(String a, String b) {
+    static int levenshteinDistance(String a, String b) {
         int[][] dp = new int[a.length() + 1][b.length() + 1];
 
         for (int i = 0; i <= a.length(); i++) {
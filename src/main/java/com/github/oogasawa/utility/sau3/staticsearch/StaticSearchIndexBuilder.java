@@ -0,0 +1,222 @@
+package com.github.oogasawa.utility.sau3.staticsearch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.oogasawa.utility.sau3.opensearch.Indexer;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+
+/** Generates a prebuilt, client-side search index into a Docusaurus build directory.
+ *
+ * <p>
+ * Every HTML page of {@code build/} is tokenized with {@link StaticSearchTokenizer}
+ * (bigrams for Japanese) and an inverted index is written to {@code build/search-index/}:
+ * </p>
+ *
+ * <ul>
+ * <li>{@code manifest.json} : document count and the list of shards.</li>
+ * <li>{@code docs.json.gz} : {@code [[path, title, summary], ...]}, indexed by document id.</li>
+ * <li>{@code t-<shard>.json.gz} : {@code {"term": [docId, tf, docId, tf, ...], ...}} for the terms of one shard
+ *     (see {@link StaticSearchTokenizer#shardOf(String)}).</li>
+ * <li>{@code search.js} : a small client that loads the shards of the query terms lazily.</li>
+ * </ul>
+ *
+ * <p>
+ * A site that ships this index can be searched in the browser without any request to OpenSearch.
+ * </p>
+ */
+public class StaticSearchIndexBuilder {
+
+    private static final Logger logger = Logger.getLogger(StaticSearchIndexBuilder.class.getName());
+
+    public static final String INDEX_DIR = "search-index";
+
+    final Path buildDir;
+    final ObjectMapper mapper = new ObjectMapper();
+
+
+    /** A page of the site and its term frequencies. */
+    static class Page {
+        String path;
+        String title;
+        String summary;
+        Map<String, Integer> termFreqs = new HashMap<>();
+    }
+
+
+    public StaticSearchIndexBuilder(Path buildDir) {
+        this.buildDir = buildDir;
+    }
+
+
+    /** Builds the index. Any previous {@code search-index/} directory is replaced.
+     *
+     * @return The number of indexed pages.
+     */
+    public int build() throws IOException {
+        long start = System.currentTimeMillis();
+        Path indexDir = this.buildDir.resolve(INDEX_DIR);
+
+        List<Path> htmlFiles;
+        try (Stream<Path> walk = Files.walk(this.buildDir)) {
+            htmlFiles = walk.filter(p -> p.toString().endsWith(".html"))
+                .filter(p -> !p.startsWith(indexDir))
+                .filter(p -> !p.getFileName().toString().equals("404.html"))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+
+        List<Page> pages = parseAll(htmlFiles);
+
+        // term -> postings (docId, tf, docId, tf, ...), grouped by shard.
+        Map<String, Map<String, List<Integer>>> shards = new TreeMap<>();
+        List<List<String>> docs = new ArrayList<>();
+        for (int docId = 0; docId < pages.size(); docId++) {
+            Page page = pages.get(docId);
+            docs.add(List.of(page.path, page.title, page.summary));
+            for (Map.Entry<String, Integer> tf : page.termFreqs.entrySet()) {
+                List<Integer> postings = shards
+                    .computeIfAbsent(StaticSearchTokenizer.shardOf(tf.getKey()), k -> new TreeMap<>())
+                    .computeIfAbsent(tf.getKey(), k -> new ArrayList<>());
+                postings.add(docId);
+                postings.add(tf.getValue());
+            }
+        }
+
+        deleteRecursively(indexDir);
+        Files.createDirectories(indexDir);
+
+        writeGzipJson(indexDir.resolve("docs.json.gz"), docs);
+        try {
+            shards.entrySet().parallelStream().forEach(shard -> {
+                try {
+                    writeGzipJson(indexDir.resolve("t-" + shard.getKey() + ".json.gz"), shard.getValue());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        Map<String, Object> manifest = new LinkedHashMap<>();
+        manifest.put("version", 1);
+        manifest.put("docCount", pages.size());
+        manifest.put("shards", new ArrayList<>(shards.keySet()));
+        this.mapper.writeValue(indexDir.resolve("manifest.json").toFile(), manifest);
+
+        try (InputStream js = StaticSearchIndexBuilder.class.getResourceAsStream("/staticsearch/search.js")) {
+            if (js != null) {
+                Files.copy(js, indexDir.resolve("search.js"), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        logger.info(String.format("Static search index: %d pages, %d shards, %d ms",
+                                  pages.size(), shards.size(), System.currentTimeMillis() - start));
+        return pages.size();
+    }
+
+
+    List<Page> parseAll(List<Path> htmlFiles) throws IOException {
+        List<Future<Page>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Path file : htmlFiles) {
+                futures.add(executor.submit(() -> parse(file)));
+            }
+        }
+
+        List<Page> pages = new ArrayList<>();
+        for (Future<Page> future : futures) {
+            try {
+                Page page = future.get();
+                if (page != null) {
+                    pages.add(page);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while parsing HTML files", e);
+            } catch (ExecutionException e) {
+                logger.log(Level.WARNING, "Can not parse an HTML file", e.getCause());
+            }
+        }
+        return pages;
+    }
+
+
+    Page parse(Path file) throws IOException {
+        Document doc = Jsoup.parse(file.toFile(), StandardCharsets.UTF_8.name());
+        if (doc.selectFirst("meta[http-equiv=refresh]") != null) {
+            return null; // client-side redirect page
+        }
+
+        Element content = doc.selectFirst("article");
+        if (content == null) {
+            content = doc.selectFirst("main");
+        }
+        if (content == null) {
+            content = doc.body().clone();
+            content.select("nav, footer").remove();
+        }
+
+        Page page = new Page();
+        String relative = this.buildDir.relativize(file).toString().replace('\\', '/');
+        page.path = relative.equals("index.html") || relative.endsWith("/index.html")
+            ? relative.substring(0, relative.length() - "index.html".length())
+            : relative;
+        page.title = doc.title();
+        page.summary = Indexer.createSummary(content);
+
+        // Title terms count three times, so that pages about a term rank above pages mentioning it.
+        for (String term : StaticSearchTokenizer.tokenize(page.title)) {
+            page.termFreqs.merge(term, 3, Integer::sum);
+        }
+        for (String term : StaticSearchTokenizer.tokenize(content.text())) {
+            page.termFreqs.merge(term, 1, Integer::sum);
+        }
+        return page;
+    }
+
+
+    void writeGzipJson(Path file, Object value) throws IOException {
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file), 64 * 1024)) {
+            out.write(this.mapper.writeValueAsBytes(value));
+        }
+    }
+
+
+    static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path p : walk.sorted(java.util.Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(p);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.github.oogasawa.utility.sau3.staticsearch;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+
+/** Splits text into the terms of the static search index.
+ *
+ * <p>
+ * The text is NFKC-normalized and lower-cased. Runs of letters and digits are terms,
+ * except that runs of Japanese/Chinese characters (which are not separated by spaces)
+ * are split into overlapping bigrams, e.g. {@code 検索方法} becomes {@code 検索, 索方, 方法}.
+ * A single CJK character standing alone is kept as a one-character term.
+ * </p>
+ *
+ * <p>
+ * The browser-side client ({@code search-index/search.js}) applies exactly the same rules
+ * to the query, so both must be changed together.
+ * </p>
+ */
+public class StaticSearchTokenizer {
+
+    /** Terms longer than this are dropped (mostly hashes and base64 noise). */
+    public static final int MAX_TERM_LENGTH = 40;
+
+
+    public static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        String s = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+
+        int i = 0;
+        int n = s.length();
+        while (i < n) {
+            int c = s.codePointAt(i);
+            if (isCjk(c)) {
+                int start = i;
+                while (i < n && isCjk(s.codePointAt(i))) {
+                    i += Character.charCount(s.codePointAt(i));
+                }
+                addBigrams(s.substring(start, i), terms);
+            } else if (Character.isLetterOrDigit(c)) {
+                int start = i;
+                while (i < n && Character.isLetterOrDigit(s.codePointAt(i)) && !isCjk(s.codePointAt(i))) {
+                    i += Character.charCount(s.codePointAt(i));
+                }
+                String term = s.substring(start, i);
+                if (term.length() <= MAX_TERM_LENGTH) {
+                    terms.add(term);
+                }
+            } else {
+                i += Character.charCount(c);
+            }
+        }
+        return terms;
+    }
+
+
+    static void addBigrams(String run, List<String> terms) {
+        int[] cps = run.codePoints().toArray();
+        if (cps.length == 1) {
+            terms.add(run);
+            return;
+        }
+        for (int k = 0; k + 1 < cps.length; k++) {
+            terms.add(new String(cps, k, 2));
+        }
+    }
+
+
+    /** Returns true for Hiragana, Katakana and CJK ideographs. */
+    public static boolean isCjk(int c) {
+        return (c >= 0x3040 && c <= 0x30FF)      // Hiragana, Katakana
+            || (c >= 0x3400 && c <= 0x4DBF)      // CJK Extension A
+            || (c >= 0x4E00 && c <= 0x9FFF)      // CJK Unified Ideographs
+            || (c >= 0xF900 && c <= 0xFAFF);     // CJK Compatibility Ideographs
+    }
+
+
+    /** Returns the name of the shard that holds a term.
+     *
+     * <p>
+     * ASCII terms are sharded by their first two characters ({@code "ja"} for {@code "java"}),
+     * other terms by their first code point divided by 16 ({@code "u6a1"} for {@code "検索"}),
+     * so the client only downloads the shards of the terms in the query.
+     * </p>
+     */
+    public static String shardOf(String term) {
+        int c = term.codePointAt(0);
+        if (c < 0x80) {
+            return term.length() >= 2 && term.charAt(1) < 0x80 ? term.substring(0, 2) : term.substring(0, 1) + "_";
+        }
+        return "u" + Integer.toHexString(c >> 4);
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Client for the static search index generated by sau:deploy --staticSearch.
+ *
+ * The index lives next to this file (<baseUrl>search-index/). Only the manifest is
+ * loaded up front; docs.json.gz and the term shards are fetched on first use.
+ * Tokenization must stay in sync with StaticSearchTokenizer.java.
+ *
+ * Usage:
+ *   <script src="/~user/doc_Infra001/search-index/search.js"></script>
+ *   SauStaticSearch.search("検索 方法").then(hits => ...);
+ *   SauStaticSearch.attach(inputElement, resultListElement);
+ */
+(function () {
+  "use strict";
+
+  var MAX_TERM_LENGTH = 40;
+  var script = document.currentScript;
+  var indexUrl = new URL(".", script ? script.src : location.href);
+  var siteUrl = new URL("..", indexUrl);
+
+  var manifest = null;
+  var cache = {};
+
+  function isCjk(c) {
+    return (c >= 0x3040 && c <= 0x30ff) ||
+      (c >= 0x3400 && c <= 0x4dbf) ||
+      (c >= 0x4e00 && c <= 0x9fff) ||
+      (c >= 0xf900 && c <= 0xfaff);
+  }
+
+  var letterOrDigit = /[\p{L}\p{Nd}]/u;
+
+  function tokenize(text) {
+    var cps = Array.from(text.normalize("NFKC").toLowerCase());
+    var terms = [];
+    var i = 0;
+    while (i < cps.length) {
+      var c = cps[i].codePointAt(0);
+      var start = i;
+      if (isCjk(c)) {
+        while (i < cps.length && isCjk(cps[i].codePointAt(0))) i++;
+        if (i - start === 1) {
+          terms.push(cps[start]);
+        } else {
+          for (var k = start; k + 1 < i; k++) terms.push(cps[k] + cps[k + 1]);
+        }
+      } else if (letterOrDigit.test(cps[i])) {
+        while (i < cps.length && letterOrDigit.test(cps[i]) && !isCjk(cps[i].codePointAt(0))) i++;
+        var term = cps.slice(start, i).join("");
+        if (term.length <= MAX_TERM_LENGTH) terms.push(term);
+      } else {
+        i++;
+      }
+    }
+    return terms;
+  }
+
+  function shardOf(term) {
+    var c = term.codePointAt(0);
+    if (c < 0x80) {
+      return term.length >= 2 && term.charCodeAt(1) < 0x80 ? term.substring(0, 2) : term.substring(0, 1) + "_";
+    }
+    return "u" + (c >> 4).toString(16);
+  }
+
+  // The files are gzipped on disk. Servers that send them with Content-Encoding: gzip
+  // are already decoded by the browser, so look at the magic bytes before inflating.
+  function fetchJson(name) {
+    if (!cache[name]) {
+      cache[name] = fetch(new URL(name, indexUrl)).then(function (res) {
+        if (!res.ok) throw new Error(name + ": HTTP " + res.status);
+        return res.arrayBuffer();
+      }).then(function (buf) {
+        var bytes = new Uint8Array(buf);
+        if (bytes.length > 1 && bytes[0] === 0x1f && bytes[1] === 0x8b) {
+          var stream = new Blob([buf]).stream().pipeThrough(new DecompressionStream("gzip"));
+          return new Response(stream).json();
+        }
+        return JSON.parse(new TextDecoder().decode(bytes));
+      });
+    }
+    return cache[name];
+  }
+
+  function loadManifest() {
+    if (!manifest) {
+      manifest = fetchJson("manifest.json").then(function (m) {
+        m.shardSet = new Set(m.shards);
+        return m;
+      });
+    }
+    return manifest;
+  }
+
+  function postings(m, term) {
+    var shard = shardOf(term);
+    if (!m.shardSet.has(shard)) return Promise.resolve([]);
+    return fetchJson("t-" + shard + ".json.gz").then(function (terms) {
+      return terms[term] || [];
+    });
+  }
+
+  /* Returns pages containing every term of the query, ranked by tf-idf. */
+  function search(query, limit) {
+    limit = limit || 20;
+    var terms = Array.from(new Set(tokenize(query)));
+    if (terms.length === 0) return Promise.resolve([]);
+
+    return loadManifest().then(function (m) {
+      return Promise.all(terms.map(function (t) { return postings(m, t); })).then(function (lists) {
+        var scores = null;
+        lists.forEach(function (list) {
+          var idf = Math.log(1 + m.docCount / Math.max(1, list.length / 2));
+          var next = new Map();
+          for (var i = 0; i < list.length; i += 2) {
+            var doc = list[i];
+            if (scores === null || scores.has(doc)) {
+              next.set(doc, (scores === null ? 0 : scores.get(doc)) + list[i + 1] * idf);
+            }
+          }
+          scores = next;
+        });
+        var ranked = Array.from(scores.entries()).sort(function (a, b) { return b[1] - a[1]; }).slice(0, limit);
+        if (ranked.length === 0) return [];
+        return fetchJson("docs.json.gz").then(function (docs) {
+          return ranked.map(function (e) {
+            var d = docs[e[0]];
+            return { url: new URL(d[0], siteUrl).href, title: d[1], summary: d[2], score: e[1] };
+          });
+        });
+      });
+    });
+  }
+
+  /* Renders results of the text typed into `input` as <li> elements of `list`. */
+  function attach(input, list) {
+    var seq = 0;
+    input.addEventListener("input", function () {
+      var mine = ++seq;
+      search(input.value).then(function (hits) {
+        if (mine !== seq) return;
+        list.textContent = "";
+        hits.forEach(function (h) {
+          var li = document.createElement("li");
+          var a = document.createElement("a");
+          a.href = h.url;
+          a.textContent = h.title;
+          var p = document.createElement("p");
+          p.textContent = h.summary;
+          li.appendChild(a);
+          li.appendChild(p);
+          list.appendChild(li);
+        });
+      });
+    });
+  }
+
+  window.SauStaticSearch = { search: search, attach: attach, tokenize: tokenize };
+})();
@@ -9,6 +9,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 import java.util.stream.Stream;
 
@@ -280,4 +281,22 @@ public class SauBatchDeployTest {
 
         logger.info("Deployment directory structure verified");
     }
+
+
+    /**
+     * Test that the SSH user of --destServer does not end up in the site addresses.
+     */
+    @Test
+    @Order(7)
+    @DisplayName("Test target addresses without the SSH user")
+    public void testTargetWithoutUser() {
+        Map<String, String> target = DocusaurusProcessor.targetOf("doc_CPP001", null, "web-admin@192.168.12.2",
+                                                                  null, null, null);
+        assertEquals("http://192.168.12.2/", target.get("url"));
+        assertEquals("192.168.12.2", target.get("searchServer"));
+        assertEquals("/~" + System.getProperty("user.name") + "/doc_CPP001/", target.get("baseUrl"));
+
+        assertEquals("https://docs.example.org", DocusaurusProcessor.withoutUser("https://me@docs.example.org"));
+        assertEquals("192.168.12.2", DocusaurusProcessor.withoutUser("192.168.12.2"));
+    }
 }
@@ -0,0 +1,95 @@
+package com.github.oogasawa.utility.sau3.deploy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
+
+
+@DisplayName("BaseUrl relocation test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class BaseUrlRelocatorTest {
+
+
+    /** A build made with the placeholder addresses, as Docusaurus writes them. */
+    static Path writeBuild(Path dir) throws Exception {
+        Path build = dir.resolve("build");
+        Files.createDirectories(build.resolve("assets/js"));
+        Files.createDirectories(build.resolve("assets/css"));
+        Files.createDirectories(build.resolve("img"));
+        Files.writeString(build.resolve("index.html"),
+                          "<link rel=\"canonical\" href=\"https://sau-relocate.invalid/__sau_base__/\">"
+                          + "<script src=\"/__sau_base__/assets/js/main.1f2e.js\"></script>"
+                          + "<a href=\"http://sau-search.invalid:8080/search\">Search</a>");
+        Files.writeString(build.resolve("assets/js/runtime~main.9a0b.js"),
+                          "r.p=\"/__sau_base__/\";const basename=\"/__sau_base__\";");
+        Files.writeString(build.resolve("assets/css/styles.3c4d.css"), ".hero{background:url(/__sau_base__/img/hero.png)}");
+        Files.writeString(build.resolve("sitemap.xml"),
+                          "<url><loc>https://sau-relocate.invalid/__sau_base__/docs/intro</loc></url>");
+        Files.writeString(build.resolve("img/hero.png"), "\u0089PNG /__sau_base__/", StandardCharsets.ISO_8859_1);
+        Files.writeString(build.resolve(DeployManifest.FILE_NAME), "{}");
+        return build;
+    }
+
+
+    @Test
+    @Order(1)
+    @DisplayName("All addresses of a placeholder build are rewritten for the target")
+    public void testRelocate(@TempDir Path dir) throws Exception {
+        Path build = writeBuild(dir);
+        Path target = dir.resolve("relocated");
+        BaseUrlRelocator.Stats stats = new BaseUrlRelocator("http://192.168.12.1/", "/~web/doc_X/", "192.168.12.1")
+            .relocate(build, target);
+
+        assertEquals("<link rel=\"canonical\" href=\"http://192.168.12.1/~web/doc_X/\">"
+                     + "<script src=\"/~web/doc_X/assets/js/main.1f2e.js\"></script>"
+                     + "<a href=\"http://192.168.12.1:8080/search\">Search</a>",
+                     Files.readString(target.resolve("index.html")));
+        assertEquals("r.p=\"/~web/doc_X/\";const basename=\"/~web/doc_X\";",
+                     Files.readString(target.resolve("assets/js/runtime~main.9a0b.js")));
+        assertEquals(".hero{background:url(/~web/doc_X/img/hero.png)}",
+                     Files.readString(target.resolve("assets/css/styles.3c4d.css")));
+        assertEquals("<url><loc>http://192.168.12.1/~web/doc_X/docs/intro</loc></url>",
+                     Files.readString(target.resolve("sitemap.xml")));
+
+        // Binary files are linked unchanged; the manifest of the build is not copied.
+        assertTrue(Files.isSameFile(build.resolve("img/hero.png"), target.resolve("img/hero.png")));
+        assertFalse(Files.exists(target.resolve(DeployManifest.FILE_NAME)));
+        assertEquals(5, stats.getFiles());
+        assertEquals(4, stats.getRewritten());
+        assertEquals(9, stats.getReplacements());
+
+        // The build itself is left as it was.
+        assertTrue(Files.readString(build.resolve("index.html")).contains("/__sau_base__/assets"));
+    }
+
+
+    @Test
+    @Order(2)
+    @DisplayName("A site at the root of its server gets baseUrl /")
+    public void testRoot(@TempDir Path dir) throws Exception {
+        Path build = writeBuild(dir);
+        Path target = dir.resolve("relocated");
+        new BaseUrlRelocator("https://sc.ddbj.nig.ac.jp", "/", null).relocate(build, target);
+
+        assertEquals("<link rel=\"canonical\" href=\"https://sc.ddbj.nig.ac.jp/\">"
+                     + "<script src=\"/assets/js/main.1f2e.js\"></script>"
+                     + "<a href=\"http://sau-search.invalid:8080/search\">Search</a>",
+                     Files.readString(target.resolve("index.html")));
+        assertEquals("r.p=\"/\";const basename=\"\";", Files.readString(target.resolve("assets/js/runtime~main.9a0b.js")));
+        assertEquals("<url><loc>https://sc.ddbj.nig.ac.jp/docs/intro</loc></url>", Files.readString(target.resolve("sitemap.xml")));
+    }
+
+}
@@ -0,0 +1,175 @@
+package com.github.oogasawa.utility.sau3.deploy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
+
+
+@DisplayName("Build admission test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class BuildAdmissionTest {
+
+    static final long GB = 1024L * 1024 * 1024;
+
+
+    /** Runs builds of the given size on separate threads and returns the largest number running at once. */
+    static int maxConcurrent(BuildAdmission admission, int builds, long bytes) throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger max = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < builds; i++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                try {
+                    admission.acquire(bytes);
+                    try {
+                        max.accumulateAndGet(running.incrementAndGet(), Math::max);
+                        Thread.sleep(100);
+                        running.decrementAndGet();
+                    } finally {
+                        admission.release(bytes);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        return max.get();
+    }
+
+
+    @Test
+    @Order(1)
+    @DisplayName("Builds are admitted while their estimates fit in the available memory")
+    public void testMemoryBound() throws Exception {
+        // 10 GB available, 1 GB reserve: two 4 GB builds fit, a third does not.
+        BuildAdmission admission = new BuildAdmission(8, () -> 10 * GB);
+        assertEquals(2, maxConcurrent(admission, 5, 4 * GB));
+        assertEquals(0, admission.getRunning());
+
+        // A build larger than the budget still runs, alone.
+        assertEquals(1, maxConcurrent(new BuildAdmission(8, () -> 10 * GB), 2, 12 * GB));
+    }
+
+
+    @Test
+    @Order(2)
+    @DisplayName("Without memory information only the CPU cap applies")
+    public void testCpuCap() throws Exception {
+        assertEquals(3, maxConcurrent(new BuildAdmission(3, () -> -1), 6, 4 * GB));
+        assertEquals(1, maxConcurrent(new BuildAdmission(1, () -> 100 * GB), 3, GB));
+    }
+
+
+    @Test
+    @Order(3)
+    @DisplayName("MemAvailable is read from a meminfo file")
+    public void testMemInfo(@TempDir Path dir) throws Exception {
+        Path meminfo = dir.resolve("meminfo");
+        Files.writeString(meminfo, """
+            MemTotal:       32768000 kB
+            MemFree:         1024000 kB
+            MemAvailable:   20480000 kB
+            Buffers:          102400 kB
+            """);
+        assertEquals(20480000L * 1024, BuildAdmission.memAvailable(meminfo));
+        assertEquals(-1, BuildAdmission.memAvailable(dir.resolve("missing")));
+        assertEquals((3072L + 512) * 1024 * 1024, BuildAdmission.estimate(3072));
+    }
+
+
+    @Test
+    @Order(4)
+    @DisplayName("Lines written for a project are prefixed with its name")
+    public void testPrefixedOutput() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(new ProjectConsole.Prefixing(new PrintStream(bytes, true, StandardCharsets.UTF_8)),
+                                          true, StandardCharsets.UTF_8);
+        out.println("before");
+        Thread t = Thread.ofPlatform().start(() -> {
+            ProjectConsole.setProject("doc_A");
+            out.print("Building ");
+            out.println("doc_A");
+            out.print("日本語\nsecond\n");
+            ProjectConsole.setProject(null);
+        });
+        t.join();
+
+        assertEquals("before\n[doc_A] Building doc_A\n[doc_A] 日本語\n[doc_A] second\n",
+                     bytes.toString(StandardCharsets.UTF_8));
+    }
+
+
+    @Test
+    @Order(5)
+    @DisplayName("An unfinished line is printed when the project ends, and uninstall restores the console")
+    public void testInstall() throws Exception {
+        PrintStream saved = System.out;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream capture = new PrintStream(bytes, true, StandardCharsets.UTF_8);
+        System.setOut(capture);
+        try {
+            ProjectConsole.install();
+            Thread t = Thread.ofPlatform().start(() -> {
+                ProjectConsole.setProject("doc_A");
+                System.out.print("yarn: done");
+                ProjectConsole.setProject(null);
+                System.out.print("unprefixed");
+            });
+            t.join();
+            ProjectConsole.uninstall();
+            assertSame(capture, System.out);
+        } finally {
+            ProjectConsole.uninstall();
+            System.setOut(saved);
+        }
+
+        assertEquals("[doc_A] yarn: done\nunprefixed", bytes.toString(StandardCharsets.UTF_8));
+    }
+
+
+    @Test
+    @Order(6)
+    @DisplayName("Every line of a log record written for a project is prefixed with its name")
+    public void testPrefixedLog() throws Exception {
+        Formatter formatter = new ProjectConsole.PrefixingFormatter(new Formatter() {
+                @Override
+                public String format(LogRecord record) {
+                    return "INFO\n" + record.getMessage() + System.lineSeparator();
+                }
+            });
+        LogRecord record = new LogRecord(Level.INFO, "Relocated build");
+        assertEquals("INFO\nRelocated build" + System.lineSeparator(), formatter.format(record));
+
+        ProjectConsole.setProject("doc_A");
+        try {
+            assertEquals("[doc_A] INFO" + System.lineSeparator() + "[doc_A] Relocated build" + System.lineSeparator(),
+                         formatter.format(record));
+        } finally {
+            ProjectConsole.setProject(null);
+        }
+    }
+
+}
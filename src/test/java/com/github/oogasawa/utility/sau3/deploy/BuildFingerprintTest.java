@@ -0,0 +1,122 @@
+package com.github.oogasawa.utility.sau3.deploy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
+
+
+@DisplayName("Build fingerprint test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class BuildFingerprintTest {
+
+    static final Map<String, String> TARGET = Map.of("baseUrl", "/~web/doc_X/");
+
+
+    static void git(Path dir, String... args) throws Exception {
+        String[] command = new String[args.length + 5];
+        System.arraycopy(new String[] {"git", "-c", "user.name=sau", "-c", "user.email=sau@example.com"}, 0, command, 0, 5);
+        System.arraycopy(args, 0, command, 5, args.length);
+        Process p = new ProcessBuilder(command).directory(dir.toFile()).redirectErrorStream(true).start();
+        p.getInputStream().readAllBytes();
+        assertEquals(0, p.waitFor());
+    }
+
+
+    /** A repository with a project in a subdirectory, as a site inside a larger repository. */
+    static Path writeProject(Path repo) throws Exception {
+        Path project = repo.resolve("doc_X");
+        Files.createDirectories(project.resolve("docs"));
+        Files.writeString(project.resolve("package.json"), "{\"name\": \"doc_X\"}");
+        Files.writeString(project.resolve("yarn.lock"), "# yarn lockfile v1\n");
+        Files.writeString(project.resolve("docusaurus.config.js"), "module.exports = {baseUrl: '/'};\n");
+        Files.writeString(project.resolve("docs/intro.md"), "# Intro\n");
+        git(repo, "init", "-q");
+        git(repo, "add", ".");
+        git(repo, "commit", "-q", "-m", "init");
+        return project;
+    }
+
+
+    @Test
+    @Order(1)
+    @DisplayName("The fingerprint changes with the sources and the target, not with build output")
+    public void testInputs(@TempDir Path dir) throws Exception {
+        Path project = writeProject(dir);
+        String clean = BuildFingerprint.of(project, TARGET).getHash();
+        assertEquals(clean, BuildFingerprint.of(project, TARGET).getHash());
+        assertNotEquals(clean, BuildFingerprint.of(project, Map.of("baseUrl", "/")).getHash());
+
+        // Build output and the deploy state are not inputs.
+        Files.createDirectories(project.resolve("build"));
+        Files.writeString(project.resolve("build/index.html"), "<html></html>");
+        Files.writeString(project.resolve(DeployState.FILE_NAME), "{}");
+        assertEquals(clean, BuildFingerprint.of(project, TARGET).getHash());
+
+        // The rewritten config is an uncommitted change; its content counts.
+        Files.writeString(project.resolve("docusaurus.config.js"), "module.exports = {baseUrl: '/~web/doc_X/'};\n");
+        String configured = BuildFingerprint.of(project, TARGET).getHash();
+        assertNotEquals(clean, configured);
+        Files.writeString(project.resolve("docs/new.md"), "# New\n");
+        String untracked = BuildFingerprint.of(project, TARGET).getHash();
+        assertNotEquals(configured, untracked);
+        Files.writeString(project.resolve("docs/new.md"), "# New, edited\n");
+        assertNotEquals(untracked, BuildFingerprint.of(project, TARGET).getHash());
+
+        // A commit of the same content changes HEAD.
+        git(dir, "add", "doc_X/docs/new.md");
+        git(dir, "commit", "-q", "-m", "new");
+        assertNotEquals(untracked, BuildFingerprint.of(project, TARGET).getHash());
+
+        // Outside a work tree there is no fingerprint.
+        Path plain = Files.createTempDirectory("sau-plain");
+        try {
+            assertNull(BuildFingerprint.of(plain, TARGET));
+        } finally {
+            Releases.delete(plain);
+        }
+    }
+
+
+    @Test
+    @Order(2)
+    @DisplayName("The deploy state keeps fingerprint, release and manifest per target")
+    public void testState(@TempDir Path dir) throws Exception {
+        Path build = Files.createDirectories(dir.resolve("build"));
+        Files.writeString(build.resolve("index.html"), "<html>home</html>");
+        DeployManifest manifest = DeployManifest.of(build);
+
+        assertTrue(DeployState.read(dir).getTargets().isEmpty());
+        DeployState state = new DeployState();
+        state.put("web@host:~/public_html/doc_X", "f1", "20241002-030012-481", manifest);
+        state.put("/home/web/public_html/doc_X", "f2", "20241001-221540-007", manifest);
+        state.write(dir);
+
+        DeployState read = DeployState.read(dir);
+        DeployState.Target target = read.get("web@host:~/public_html/doc_X");
+        assertNotNull(target);
+        assertEquals("f1", target.getFingerprint());
+        assertEquals("20241002-030012-481", target.getRelease());
+        assertEquals(manifest.getFiles(), target.getManifest());
+        assertEquals("f2", read.get("/home/web/public_html/doc_X").getFingerprint());
+
+        // A damaged file is ignored: the next deploy builds.
+        Files.writeString(dir.resolve(DeployState.FILE_NAME), "{not json");
+        assertTrue(DeployState.read(dir).getTargets().isEmpty());
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.github.oogasawa.utility.sau3.deploy;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
+
+
+@DisplayName("Install marker test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class InstallMarkerTest {
+
+
+    @Test
+    @Order(1)
+    @DisplayName("An install is needed until recorded, and again when package.json or yarn.lock change")
+    public void testMarker(@TempDir Path project) throws Exception {
+        Files.writeString(project.resolve("package.json"), "{\"dependencies\": {\"@docusaurus/core\": \"3.5.2\"}}");
+        Files.writeString(project.resolve("yarn.lock"), "# yarn lockfile v1\n");
+
+        // No node_modules, then node_modules from a manual install
+        assertFalse(InstallMarker.isSatisfied(project));
+        InstallMarker.write(project);
+        assertFalse(InstallMarker.isSatisfied(project));
+        Files.createDirectories(project.resolve("node_modules"));
+        assertFalse(InstallMarker.isSatisfied(project));
+
+        InstallMarker.write(project);
+        assertTrue(InstallMarker.isSatisfied(project));
+
+        Files.writeString(project.resolve("yarn.lock"), "# yarn lockfile v1\n\n\"@docusaurus/core@3.5.2\":\n");
+        assertFalse(InstallMarker.isSatisfied(project));
+        InstallMarker.write(project);
+        assertTrue(InstallMarker.isSatisfied(project));
+
+        Files.writeString(project.resolve("package.json"), "{\"dependencies\": {\"@docusaurus/core\": \"3.6.0\"}}");
+        assertFalse(InstallMarker.isSatisfied(project));
+    }
+
+}
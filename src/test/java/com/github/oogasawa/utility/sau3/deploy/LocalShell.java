@@ -0,0 +1,46 @@
+package com.github.oogasawa.utility.sau3.deploy;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/** A {@link RemoteShell} that runs the commands with the local {@code sh}, with {@code HOME} set to a test directory.
+ *
+ * <p>Every command is recorded, so that tests can count round trips to the "server".</p>
+ */
+public class LocalShell implements RemoteShell {
+
+    final Path home;
+    final List<String> commands = Collections.synchronizedList(new ArrayList<>());
+
+
+    public LocalShell(Path home) {
+        this.home = home;
+    }
+
+
+    @Override
+    public Process start(String command) throws IOException {
+        this.commands.add(command);
+        ProcessBuilder builder = new ProcessBuilder("sh", "-c", command);
+        builder.environment().put("HOME", this.home.toString());
+        builder.directory(this.home.toFile());
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        return builder.start();
+    }
+
+
+    public List<String> getCommands() {
+        return this.commands;
+    }
+
+
+    @Override
+    public String toString() {
+        return "local:" + this.home;
+    }
+
+}
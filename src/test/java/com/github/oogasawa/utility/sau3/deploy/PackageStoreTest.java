@@ -0,0 +1,102 @@
+package com.github.oogasawa.utility.sau3.deploy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
+
+
+@DisplayName("Package store test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class PackageStoreTest {
+
+
+    /** A node_modules as yarn leaves it, with a build cache as Docusaurus leaves it. */
+    static Path writeModules(Path project, String version) throws Exception {
+        Path modules = project.resolve("node_modules");
+        Files.createDirectories(modules.resolve("@docusaurus/core/bin"));
+        Files.createDirectories(modules.resolve(".bin"));
+        Files.createDirectories(modules.resolve(".cache/webpack"));
+        Files.writeString(modules.resolve("@docusaurus/core/package.json"), "{\"version\": \"" + version + "\"}");
+        Path bin = modules.resolve("@docusaurus/core/bin/docusaurus.mjs");
+        Files.writeString(bin, "#!/usr/bin/env node\n");
+        Files.setPosixFilePermissions(bin, PosixFilePermissions.fromString("rwxr-xr-x"));
+        Files.writeString(modules.resolve("@docusaurus/core/index.js"), "module.exports = {};\n");
+        Files.createFile(modules.resolve("@docusaurus/core/.npmignore"));
+        Files.createSymbolicLink(modules.resolve(".bin/docusaurus"), Path.of("../@docusaurus/core/bin/docusaurus.mjs"));
+        Files.writeString(modules.resolve(".cache/webpack/0.pack"), "cache");
+        return modules;
+    }
+
+
+    @Test
+    @Order(1)
+    @DisplayName("An imported tree is linked into another project without installing")
+    public void testImportAndMaterialize(@TempDir Path dir) throws Exception {
+        PackageStore store = new PackageStore(dir.resolve("store"));
+        Path a = writeModules(dir.resolve("doc_A"), "3.5.2");
+        assertFalse(store.has("h1"));
+
+        PackageStore.Stats imported = store.importModules("h1", a);
+        assertTrue(store.has("h1"));
+        assertTrue(PackageStore.isLinked(a));
+        assertEquals(4, imported.getFiles());
+        assertEquals(3, imported.getLinked());
+        assertTrue(Files.isSameFile(a.resolve("@docusaurus/core/index.js"),
+                                    store.fileOf(DeployManifest.sha256(a.resolve("@docusaurus/core/index.js")))));
+        assertEquals("r--r--r--", PosixFilePermissions.toString(Files.getPosixFilePermissions(a.resolve("@docusaurus/core/index.js"))));
+
+        Path b = dir.resolve("doc_B/node_modules");
+        Files.createDirectories(b.getParent());
+        PackageStore.Stats linked = store.materialize("h1", b);
+        assertEquals(4, linked.getFiles());
+        assertEquals(3, linked.getLinked());
+        assertTrue(Files.isSameFile(a.resolve("@docusaurus/core/index.js"), b.resolve("@docusaurus/core/index.js")));
+        assertTrue(Files.isExecutable(b.resolve("@docusaurus/core/bin/docusaurus.mjs")));
+        assertTrue(Files.exists(b.resolve("@docusaurus/core/.npmignore")));
+        assertEquals(Path.of("../@docusaurus/core/bin/docusaurus.mjs"), Files.readSymbolicLink(b.resolve(".bin/docusaurus")));
+        assertEquals("#!/usr/bin/env node\n", Files.readString(b.resolve(".bin/docusaurus")));
+        assertFalse(Files.exists(b.resolve(".cache")));
+        assertTrue(PackageStore.isLinked(b));
+
+        // A different install shares the files it has in common.
+        Path c = writeModules(dir.resolve("doc_C"), "3.6.0");
+        store.importModules("h2", c);
+        assertTrue(Files.isSameFile(a.resolve("@docusaurus/core/index.js"), c.resolve("@docusaurus/core/index.js")));
+        assertFalse(Files.isSameFile(a.resolve("@docusaurus/core/package.json"), c.resolve("@docusaurus/core/package.json")));
+
+        // Deleting a linked tree leaves the store intact.
+        PackageStore.delete(b);
+        assertFalse(Files.exists(b));
+        assertEquals("module.exports = {};\n", Files.readString(a.resolve("@docusaurus/core/index.js")));
+    }
+
+
+    @Test
+    @Order(2)
+    @DisplayName("A tree whose files are missing from the store is reported")
+    public void testMissingFile(@TempDir Path dir) throws Exception {
+        PackageStore store = new PackageStore(dir.resolve("store"));
+        Path a = writeModules(dir.resolve("doc_A"), "3.5.2");
+        store.importModules("h1", a);
+        Path stored = store.fileOf(DeployManifest.sha256(a.resolve("@docusaurus/core/index.js")));
+        Files.delete(stored);
+
+        assertThrows(IOException.class, () -> store.materialize("h1", dir.resolve("node_modules")));
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.github.oogasawa.utility.sau3.deploy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
+
+
+@DisplayName("Versioned release directories test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class ReleasesTest {
+
+
+    @Test
+    @Order(1)
+    @DisplayName("Expired releases are the oldest ones, never the live one")
+    public void testExpired() throws Exception {
+        List<String> names = List.of("a", "b", "c", "d", "e");
+        assertEquals(List.of("a", "b"), Releases.expired(names, "e", 3));
+        assertEquals(List.of("b", "c"), Releases.expired(names, "a", 3));
+        assertEquals(List.of(), Releases.expired(names, "e", 5));
+        assertEquals(List.of("a", "b", "c", "d"), Releases.expired(names, "e", 0));
+
+        assertEquals("c", Releases.rollbackTarget(names, "d", null));
+        assertEquals("a", Releases.rollbackTarget(names, "d", "a"));
+        assertThrows(IOException.class, () -> Releases.rollbackTarget(names, "a", null));
+        assertThrows(IOException.class, () -> Releases.rollbackTarget(names, "d", "x"));
+
+        assertTrue(Releases.newName(List.of("99999999-999999-999")).startsWith("99999999-999999-999-"));
+    }
+
+
+    @Test
+    @Order(2)
+    @DisplayName("A local deploy switches a link to a new release and keeps the older ones")
+    public void testLocalDeploy(@TempDir Path dir) throws Exception {
+        Path build = dir.resolve("project/build");
+        Path site = dir.resolve("public_html/project");
+        Files.createDirectories(site);
+        Files.writeString(site.resolve("stale.html"), "from a deploy before releases");
+        RemoteSyncTest.writeBuild(build);
+
+        Releases releases = new Releases(site);
+        String first = releases.deploy(build, 2);
+        assertTrue(Files.isSymbolicLink(site));
+        assertEquals(first, releases.current());
+        assertFalse(Files.exists(site.resolve("stale.html")));
+        assertEquals("<html>intro</html>", Files.readString(site.resolve("docs/intro/index.html")));
+
+        Files.writeString(build.resolve("index.html"), "<html>home 2</html>");
+        String second = releases.deploy(build, 2);
+        Files.writeString(build.resolve("index.html"), "<html>home 3</html>");
+        String third = releases.deploy(build, 2);
+        assertEquals(List.of(second, third), releases.list());
+        assertEquals("<html>home 3</html>", Files.readString(site.resolve("index.html")));
+
+        assertEquals(second, releases.rollback(null));
+        assertEquals("<html>home 2</html>", Files.readString(site.resolve("index.html")));
+        assertEquals(third, releases.rollback(third));
+        assertEquals("<html>home 3</html>", Files.readString(site.resolve("index.html")));
+        assertFalse(Files.exists(dir.resolve("public_html/.project.link")));
+    }
+
+
+    @Test
+    @Order(3)
+    @DisplayName("A remote release is seeded from the live one without touching its files")
+    public void testRemoteDeploy(@TempDir Path dir) throws Exception {
+        Path build = dir.resolve("project/build");
+        Path home = dir.resolve("home");
+        Files.createDirectories(home.resolve("public_html/project"));
+        Files.writeString(home.resolve("public_html/project/stale.html"), "from a deploy before releases");
+        RemoteSyncTest.writeBuild(build);
+
+        LocalShell shell = new LocalShell(home);
+        RemoteReleases remote = new RemoteReleases(shell);
+        Path site = home.resolve("public_html/project");
+
+        RemoteSync.Result first = remote.deploy(build, "~/public_html/project", 2);
+        assertTrue(first.isFull());
+        assertTrue(Files.isSymbolicLink(site));
+        assertFalse(Files.exists(site.resolve("stale.html")));
+        String firstRelease = remote.state("~/public_html/project").getCurrent();
+        Path firstIndex = home.resolve("public_html/.releases/project/" + firstRelease + "/index.html");
+
+        Files.writeString(build.resolve("index.html"), "<html>home 2</html>");
+        RemoteSync.Result second = remote.deploy(build, "~/public_html/project", 2);
+        assertFalse(second.isFull());
+        assertEquals(1, second.getTransferred());
+        assertEquals("<html>home 2</html>", Files.readString(site.resolve("index.html")));
+        assertEquals("<html>home</html>", Files.readString(firstIndex));
+
+        RemoteReleases.State state = remote.state("~/public_html/project");
+        assertEquals(2, state.getReleases().size());
+        assertNotEquals(firstRelease, state.getCurrent());
+
+        Files.writeString(build.resolve("index.html"), "<html>home 3</html>");
+        remote.deploy(build, "~/public_html/project", 2);
+        assertFalse(Files.exists(firstIndex));
+        assertEquals(2, remote.state("~/public_html/project").getReleases().size());
+
+        shell.getCommands().clear();
+        assertEquals(state.getCurrent(), remote.rollback("~/public_html/project", null));
+        assertEquals(2, shell.getCommands().size());
+        assertEquals("<html>home 2</html>", Files.readString(site.resolve("index.html")));
+    }
+
+}
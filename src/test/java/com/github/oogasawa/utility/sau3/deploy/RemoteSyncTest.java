@@ -0,0 +1,188 @@
+package com.github.oogasawa.utility.sau3.deploy;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
+
+
+@DisplayName("Manifest-based remote sync test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class RemoteSyncTest {
+
+
+    /** Writes a small Docusaurus-like build directory. */
+    static void writeBuild(Path build) throws Exception {
+        Files.createDirectories(build.resolve("assets/js"));
+        Files.createDirectories(build.resolve("docs/intro"));
+        Files.writeString(build.resolve("index.html"), "<html>home</html>");
+        Files.writeString(build.resolve("assets/js/main.1f2e.js"), "console.log(1);");
+        Files.writeString(build.resolve("assets/js/runtime.9a0b.js"), "console.log(2);");
+        Files.writeString(build.resolve("docs/intro/index.html"), "<html>intro</html>");
+    }
+
+
+    @Test
+    @Order(1)
+    @DisplayName("The diff lists added, changed and removed files")
+    public void testDiff(@TempDir Path dir) throws Exception {
+        Path build = dir.resolve("build");
+        writeBuild(build);
+        DeployManifest before = DeployManifest.of(build);
+        assertEquals(4, before.getFiles().size());
+
+        Files.writeString(build.resolve("index.html"), "<html>home 2</html>");
+        Files.delete(build.resolve("assets/js/main.1f2e.js"));
+        Files.writeString(build.resolve("assets/js/main.3c4d.js"), "console.log(3);");
+        DeployManifest after = DeployManifest.of(build);
+
+        DeployManifest.Diff diff = after.diff(before);
+        assertEquals(List.of("assets/js/main.3c4d.js"), diff.getAdded());
+        assertEquals(List.of("index.html"), diff.getChanged());
+        assertEquals(List.of("assets/js/main.1f2e.js"), diff.getRemoved());
+        assertEquals(2, diff.getUnchanged());
+        assertTrue(after.diff(after).isEmpty());
+    }
+
+
+    @Test
+    @Order(2)
+    @DisplayName("A rebuild transfers only the changed files and deletes the removed ones")
+    public void testIncrementalSync(@TempDir Path dir) throws Exception {
+        Path build = dir.resolve("project/build");
+        Path home = dir.resolve("home");
+        Files.createDirectories(home.resolve("public_html/project"));
+        Files.writeString(home.resolve("public_html/project/stale.html"), "from an old deploy");
+        writeBuild(build);
+
+        LocalShell shell = new LocalShell(home);
+        RemoteSync sync = new RemoteSync(shell);
+        Path remote = home.resolve("public_html/project");
+
+        // No manifest yet: the old files are cleared and everything is sent.
+        RemoteSync.Result first = sync.sync(build, "~/public_html/project");
+        assertTrue(first.isFull());
+        assertEquals(4, first.getTransferred());
+        assertFalse(Files.exists(remote.resolve("stale.html")));
+        assertEquals("<html>intro</html>", Files.readString(remote.resolve("docs/intro/index.html")));
+        assertEquals("rw-r--r--", PosixFilePermissions.toString(Files.getPosixFilePermissions(remote.resolve("index.html"))));
+
+        // Nothing changed: one round trip to read the manifest.
+        shell.getCommands().clear();
+        RemoteSync.Result second = sync.sync(build, "~/public_html/project");
+        assertEquals(0, second.getTransferred());
+        assertEquals(4, second.getUnchanged());
+        assertEquals(1, shell.getCommands().size());
+
+        // One changed page, one bundle renamed, one directory gone.
+        Files.writeString(build.resolve("index.html"), "<html>home 2</html>");
+        Files.move(build.resolve("assets/js/main.1f2e.js"), build.resolve("assets/js/main.3c4d.js"));
+        Files.delete(build.resolve("docs/intro/index.html"));
+        Files.delete(build.resolve("docs/intro"));
+        shell.getCommands().clear();
+        RemoteSync.Result third = sync.sync(build, "~/public_html/project");
+        assertEquals(2, third.getTransferred());
+        assertEquals(2, third.getRemoved());
+        assertEquals(3, shell.getCommands().size());
+
+        assertEquals("<html>home 2</html>", Files.readString(remote.resolve("index.html")));
+        assertTrue(Files.exists(remote.resolve("assets/js/main.3c4d.js")));
+        assertFalse(Files.exists(remote.resolve("assets/js/main.1f2e.js")));
+        assertFalse(Files.exists(remote.resolve("docs")));
+        assertEquals(DeployManifest.of(build).getFiles(), DeployManifest.of(remote).getFiles());
+    }
+
+
+    @Test
+    @Order(3)
+    @DisplayName("Blocks compressed in parallel form one ordinary gzip stream")
+    public void testParallelGzip() throws Exception {
+        Random random = new Random(43L);
+        for (int size : new int[] {0, 1, 1000, ParallelGzipOutputStream.BLOCK_SIZE, 3 * ParallelGzipOutputStream.BLOCK_SIZE + 17}) {
+            byte[] data = new byte[size];
+            for (int i = 0; i < size; i++) {
+                // Text-like data, so that the preset dictionaries matter.
+                data[i] = (byte) (i % 3000 < 1500 ? 'a' + random.nextInt(4) : "<div class=\"x\">".charAt(i % 15));
+            }
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(compressed, 6, 4)) {
+                gzip.write(data, 0, size / 2);
+                gzip.write(data, size / 2, size - size / 2);
+            }
+            try (GZIPInputStream in = new GZIPInputStream(
+                     new ByteArrayInputStream(compressed.toByteArray()))) {
+                assertArrayEquals(data, in.readAllBytes());
+            }
+        }
+    }
+
+
+    @Test
+    @Order(4)
+    @DisplayName("The archive carries web permissions in its headers")
+    public void testArchiveModes(@TempDir Path dir) throws Exception {
+        Path build = dir.resolve("build");
+        writeBuild(build);
+        Path script = build.resolve("assets/js/tool.sh");
+        Files.writeString(script, "#!/bin/sh\n");
+        Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwx------"));
+        Files.setPosixFilePermissions(build.resolve("index.html"), PosixFilePermissions.fromString("rw-------"));
+
+        Path home = dir.resolve("home");
+        Files.createDirectories(home);
+        new RemoteSync(new LocalShell(home)).transfer(build, List.of("index.html", "assets/js/tool.sh"),
+                                                      "mkdir -p out && " + RemoteSync.extractCommand("out"));
+        Path out = home.resolve("out");
+        assertEquals("rw-r--r--", PosixFilePermissions.toString(Files.getPosixFilePermissions(out.resolve("index.html"))));
+        assertEquals("rwxr-xr-x", PosixFilePermissions.toString(Files.getPosixFilePermissions(out.resolve("assets/js/tool.sh"))));
+        assertEquals("rwxr-xr-x", PosixFilePermissions.toString(Files.getPosixFilePermissions(out.resolve("assets"))));
+        assertEquals("<html>home</html>", Files.readString(out.resolve("index.html")));
+    }
+
+
+    @Test
+    @Order(5)
+    @DisplayName("The modes of the headers survive a restrictive umask of the remote user")
+    public void testUmask(@TempDir Path dir) throws Exception {
+        Path build = dir.resolve("build");
+        writeBuild(build);
+        Path home = dir.resolve("home");
+        Files.createDirectories(home);
+        LocalShell local = new LocalShell(home);
+        RemoteShell shell = command -> local.start("umask 077; " + command);
+
+        new RemoteSync(shell).sync(build, "~/public_html/project");
+        Path remote = home.resolve("public_html/project");
+        assertEquals("rw-r--r--", PosixFilePermissions.toString(Files.getPosixFilePermissions(remote.resolve("index.html"))));
+        assertEquals("rw-r--r--", PosixFilePermissions.toString(Files.getPosixFilePermissions(remote.resolve("docs/intro/index.html"))));
+        assertEquals("rwxr-xr-x", PosixFilePermissions.toString(Files.getPosixFilePermissions(remote.resolve("docs/intro"))));
+    }
+
+
+    @Test
+    @Order(6)
+    public void testQuote() {
+        assertEquals("~/'public_html/doc_X'", RemoteShell.quote("~/public_html/doc_X"));
+        assertEquals("'/var/www/it'\\''s'", RemoteShell.quote("/var/www/it's"));
+        assertEquals("\"$HOME\"/'public_html'", RemoteShell.quote("$HOME/public_html"));
+    }
+
+}
@@ -0,0 +1,122 @@
+package com.github.oogasawa.utility.sau3.deploy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sshd.common.session.Session;
+import org.apache.sshd.common.session.SessionListener;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.auth.pubkey.AcceptAllPublickeyAuthenticator;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.shell.ProcessShellFactory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestMethodOrder;
+
+
+@DisplayName("Shared SSH connection test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class SshSessionsTest {
+
+    Path dir;
+
+    SshServer sshd;
+    final AtomicInteger connections = new AtomicInteger();
+    Path key;
+
+
+    @BeforeAll
+    public void setUp() throws Exception {
+        this.dir = Files.createTempDirectory("sau-ssh-test");
+        this.key = this.dir.resolve("id_ecdsa");
+        Process keygen = new ProcessBuilder("ssh-keygen", "-q", "-t", "ecdsa", "-b", "256", "-N", "", "-f", this.key.toString())
+            .redirectErrorStream(true).start();
+        assertEquals(0, keygen.waitFor());
+
+        this.sshd = SshServer.setUpDefaultServer();
+        this.sshd.setHost("127.0.0.1");
+        this.sshd.setPort(0);
+        this.sshd.setKeyPairProvider(new SimpleGeneratorHostKeyProvider(this.dir.resolve("hostkey.ser")));
+        this.sshd.setPublickeyAuthenticator(AcceptAllPublickeyAuthenticator.INSTANCE);
+        // Commands are interpreted by sh, as by a login shell on a real server.
+        this.sshd.setCommandFactory((channel, command) ->
+                new ProcessShellFactory(command, "sh", "-c", command).createShell(channel));
+        this.sshd.addSessionListener(new SessionListener() {
+            @Override
+            public void sessionCreated(Session session) {
+                connections.incrementAndGet();
+            }
+        });
+        this.sshd.start();
+    }
+
+
+    @AfterAll
+    public void tearDown() throws Exception {
+        this.sshd.stop();
+        Releases.delete(this.dir);
+    }
+
+
+    SshShell shell(SshSessions sessions) throws Exception {
+        SshShell shell = sessions.get("ssh://" + System.getProperty("user.name") + "@127.0.0.1:" + this.sshd.getPort());
+        shell.options.addAll(List.of("-i", this.key.toString(), "-o", "IdentitiesOnly=yes",
+                                     "-o", "UserKnownHostsFile=/dev/null", "-o", "LogLevel=ERROR"));
+        return shell;
+    }
+
+
+    @Test
+    @Order(1)
+    @DisplayName("All commands and transfers of several deploys share one connection")
+    public void testOneConnection() throws Exception {
+        Path build = this.dir.resolve("build");
+        RemoteSyncTest.writeBuild(build);
+        Path site = this.dir.resolve("www/project");
+
+        this.connections.set(0);
+        Path socket;
+        try (SshSessions sessions = new SshSessions()) {
+            SshShell shell = shell(sessions);
+            assertTrue(shell.open());
+            socket = shell.controlPath;
+            assertTrue(Files.exists(socket));
+            assertTrue(sessions.get(shell.server) == shell);
+            assertTrue(shell.open());
+
+            RemoteReleases releases = new RemoteReleases(shell);
+            releases.deploy(build, site.toString(), 2);
+            Files.writeString(build.resolve("index.html"), "<html>home 2</html>");
+            releases.deploy(build, site.toString(), 2);
+            releases.rollback(site.toString(), null);
+        }
+
+        assertEquals("<html>home</html>", Files.readString(site.resolve("index.html")));
+        assertEquals(1, this.connections.get());
+        assertFalse(Files.exists(socket));
+    }
+
+
+    @Test
+    @Order(2)
+    @DisplayName("An unreachable server is reported by open()")
+    public void testUnreachable() throws Exception {
+        try (SshSessions sessions = new SshSessions()) {
+            SshShell shell = sessions.get("ssh://nobody@127.0.0.1:1");
+            assertFalse(shell.open());
+        }
+    }
+
+}
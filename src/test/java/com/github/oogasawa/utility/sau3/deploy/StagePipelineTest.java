@@ -0,0 +1,142 @@
+package com.github.oogasawa.utility.sau3.deploy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestMethodOrder;
+
+
+@DisplayName("Stage pipeline test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class StagePipelineTest {
+
+
+    @Test
+    @Order(1)
+    @DisplayName("Stages overlap: the batch takes about the slowest stage, not the sum")
+    public void testOverlap() throws Exception {
+        AtomicInteger building = new AtomicInteger();
+        AtomicInteger overlapped = new AtomicInteger();
+        StagePipeline<Integer> pipeline = new StagePipeline<Integer>()
+            .stage("fetch", 1, i -> {
+                    if (building.get() > 0) {
+                        overlapped.incrementAndGet();
+                    }
+                    Thread.sleep(100);
+                    return true;
+                })
+            .stage("build", 1, i -> {
+                    building.incrementAndGet();
+                    Thread.sleep(100);
+                    building.decrementAndGet();
+                    return true;
+                });
+
+        long start = System.nanoTime();
+        pipeline.run(List.of(1, 2, 3, 4, 5));
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        // Sequentially 5 x 200 ms; pipelined about 6 x 100 ms.
+        assertTrue(millis < 900, "took " + millis + " ms");
+        assertTrue(overlapped.get() > 0);
+        for (StagePipeline.Stage<Integer> stage : pipeline.getStages()) {
+            assertEquals(5, stage.getProcessed());
+            assertEquals(0, stage.getFailed());
+        }
+    }
+
+
+    @Test
+    @Order(2)
+    @DisplayName("An item that fails or throws leaves the pipeline at that stage")
+    public void testFailure() throws Exception {
+        List<Integer> shipped = Collections.synchronizedList(new ArrayList<>());
+        StagePipeline<Integer> pipeline = new StagePipeline<Integer>()
+            .stage("fetch", 2, i -> i != 2)
+            .stage("build", 2, i -> {
+                    if (i == 3) {
+                        throw new IllegalStateException("build of " + i);
+                    }
+                    return true;
+                })
+            .stage("ship", 1, i -> shipped.add(i));
+
+        pipeline.run(List.of(1, 2, 3, 4));
+
+        Collections.sort(shipped);
+        assertEquals(List.of(1, 4), shipped);
+        List<StagePipeline.Stage<Integer>> stages = pipeline.getStages();
+        assertEquals(4, stages.get(0).getProcessed());
+        assertEquals(1, stages.get(0).getFailed());
+        assertEquals(3, stages.get(1).getProcessed());
+        assertEquals(1, stages.get(1).getFailed());
+        assertEquals(2, stages.get(2).getProcessed());
+    }
+
+
+    @Test
+    @Order(3)
+    @DisplayName("The queue of a slow stage shows in its counters")
+    public void testMetrics() throws Exception {
+        List<String> labels = Collections.synchronizedList(new ArrayList<>());
+        StagePipeline<Integer> pipeline = new StagePipeline<Integer>()
+            .stage("fetch", 4, i -> true)
+            .stage("build", 1, i -> {
+                    Thread.sleep(50);
+                    return true;
+                })
+            .around(i -> labels.add("before " + i), i -> labels.add("after " + i));
+
+        pipeline.run(List.of(1, 2, 3, 4, 5, 6));
+
+        StagePipeline.Stage<Integer> build = pipeline.getStages().get(1);
+        assertTrue(build.getMaxQueued() >= 3, "max queued " + build.getMaxQueued());
+        assertTrue(build.getWaitMillis() >= 200, "waited " + build.getWaitMillis() + " ms");
+        assertTrue(build.getBusyMillis() >= 300, "busy " + build.getBusyMillis() + " ms");
+        assertEquals(24, labels.size());
+
+        String report = pipeline.report();
+        assertTrue(report.startsWith("stage"));
+        assertTrue(report.contains("build"));
+    }
+
+
+    @Test
+    @Order(4)
+    @DisplayName("An Error in a step or an exception before it does not stop the pipeline")
+    public void testError() throws Exception {
+        List<Integer> shipped = Collections.synchronizedList(new ArrayList<>());
+        StagePipeline<Integer> pipeline = new StagePipeline<Integer>()
+            .stage("build", 1, i -> {
+                    if (i == 2) {
+                        throw new AssertionError("build of " + i);
+                    }
+                    return true;
+                })
+            .stage("ship", 1, i -> shipped.add(i))
+            .around(i -> {
+                    if (i == 3) {
+                        throw new IllegalStateException("label of " + i);
+                    }
+                }, i -> {});
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> pipeline.run(List.of(1, 2, 3, 4)));
+
+        assertEquals(List.of(1, 4), shipped);
+        assertEquals(2, pipeline.getStages().get(0).getFailed());
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestMethodOrder;
+
+
+@DisplayName("Bulk document serialization test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class BulkWriterTest {
+
+
+    @Test
+    @Order(1)
+    @DisplayName("Pages indexed through a shared writer go out in a few bulk requests")
+    public void testBatches() throws Exception {
+        SyntheticSite synthetic = new SyntheticSite(40, 6, 21L);
+        try (SiteServer site = new SiteServer(synthetic).start();
+             FakeOpenSearch opensearch = new FakeOpenSearch().start()) {
+
+            IndexMetrics metrics = new IndexMetrics();
+            Sitemap sitemap = new Sitemap();
+            sitemap.parse(site.getSitemapUrl());
+            try (BulkWriter bulk = new BulkWriter(opensearch.getHost(), metrics)) {
+                bulk.setMaxDocs(16);
+                Indexer indexer = new Indexer(opensearch.getHost());
+                indexer.setMetrics(metrics);
+                indexer.setBulkWriter(bulk);
+                indexer.setSite(Indexer.siteOf(site.getSitemapUrl()));
+                for (SitemapEntry entry : sitemap.getSitemapEntries()) {
+                    indexer.index(entry.getUrl(), entry.getLastmod(), "bulk");
+                }
+                assertEquals(32, opensearch.documents("bulk").size());
+            }
+
+            assertEquals(3, opensearch.count("_bulk"));
+            assertEquals(40, opensearch.documents("bulk").size());
+            assertEquals(40, metrics.count(IndexMetrics.INDEXED));
+            assertEquals(3, metrics.timer(IndexMetrics.INDEX_ROUND_TRIP).getCount());
+            assertEquals(40, metrics.timer(IndexMetrics.SERIALIZE).getCount());
+        }
+    }
+
+
+    @Test
+    @Order(2)
+    @DisplayName("The document written by the generator has the fields of the old map")
+    @SuppressWarnings("unchecked")
+    public void testDocumentFields() throws Exception {
+        try (FakeOpenSearch opensearch = new FakeOpenSearch().start()) {
+            Indexer.Page page = new Indexer.Page();
+            page.url = "http://localhost/~user/doc_Java001/docs/intro";
+            page.title = "Intro \"quoted\"";
+            page.text = "Line 1\nLine 2 日本語";
+            page.headings = List.of("Intro \"quoted\"", "Install");
+            page.summary = "Summary";
+
+            Indexer indexer = new Indexer(opensearch.getHost());
+            indexer.index(page, null, "http://localhost/~user/doc_Java001/", "fields");
+
+            Map<String, Object> doc = opensearch.documents("fields").get(Indexer.calculateMD5(page.url));
+            assertEquals(page.title, doc.get("title"));
+            assertEquals(page.text, doc.get("text"));
+            assertEquals(page.url, doc.get("url"));
+            assertTrue(doc.containsKey("lastmod"));
+            assertNull(doc.get("lastmod"));
+            assertEquals("http://localhost/~user/doc_Java001/", doc.get("site"));
+            assertEquals("Summary", doc.get("summary"));
+            assertEquals(Map.of("input", List.of("Intro \"quoted\"", "Install"), "weight", Indexer.suggestWeight(page.url)),
+                         doc.get("suggest"));
+        }
+    }
+
+
+    @Test
+    @Order(3)
+    @DisplayName("A document that fails to serialize leaves no partial line in the buffer")
+    public void testPartialDocumentIsDropped() throws Exception {
+        try (FakeOpenSearch opensearch = new FakeOpenSearch().start()) {
+            IndexMetrics metrics = new IndexMetrics();
+            try (BulkWriter bulk = new BulkWriter(opensearch.getHost(), metrics)) {
+                bulk.add("partial", "1", "http://host/1", gen -> gen.writeStringField("url", "http://host/1"));
+                assertThrows(IllegalStateException.class,
+                             () -> bulk.add("partial", "2", "http://host/2", gen -> {
+                                     gen.writeStringField("url", "http://host/2");
+                                     throw new IllegalStateException("broken page");
+                                 }));
+                bulk.add("partial", "3", "http://host/3", gen -> gen.writeStringField("url", "http://host/3"));
+            }
+
+            assertEquals(1, opensearch.count("_bulk"));
+            assertEquals(2, opensearch.documents("partial").size());
+            assertEquals(2, metrics.count(IndexMetrics.INDEXED));
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestMethodOrder;
+
+
+@DisplayName("Shared crawl engine test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class CrawlEngineTest {
+
+    private static final Logger logger = Logger.getLogger(CrawlEngineTest.class.getName());
+
+
+    /** Indexes the sitemap of {@code site} into each index the way the multi-config commands do. */
+    void crawl(CrawlEngine engine, SiteServer site, FakeOpenSearch opensearch, IndexMetrics metrics,
+               String... indexNames) {
+        List<Callable<Void>> jobs = new ArrayList<>();
+        for (String indexName : indexNames) {
+            Indexer indexer = new Indexer(opensearch.getHost());
+            indexer.setMetrics(metrics);
+            String siteRoot = Indexer.siteOf(site.getSitemapUrl());
+            for (SitemapEntry entry : engine.sitemap(site.getSitemapUrl())) {
+                engine.expect(entry.getUrl());
+                jobs.add(() -> {
+                    Indexer.Page page = engine.fetch(entry.getUrl());
+                    assertNotNull(page);
+                    indexer.index(page, entry.getLastmod(), siteRoot, indexName);
+                    return null;
+                });
+            }
+        }
+        engine.runAll(jobs);
+    }
+
+
+    @Test
+    @Order(1)
+    @DisplayName("A sitemap and its pages shared by two configurations are fetched once")
+    public void testSharedFetches() throws Exception {
+        SyntheticSite synthetic = new SyntheticSite(12, 3, 11L);
+        try (SiteServer site = new SiteServer(synthetic).latency(5).start();
+             FakeOpenSearch opensearch = new FakeOpenSearch().start()) {
+
+            IndexMetrics metrics = new IndexMetrics();
+            try (CrawlEngine engine = new CrawlEngine(metrics)) {
+                engine.setPerHost(4);
+                engine.setDelayMillis(0);
+                crawl(engine, site, opensearch, metrics, "docs_en", "docs_ja");
+                assertTrue(engine.pages.isEmpty());
+            }
+
+            assertEquals(12 + 1, site.getRequests());
+            assertEquals(12, metrics.count(IndexMetrics.FETCHED));
+            assertEquals(12, opensearch.documents("docs_en").size());
+            assertEquals(12, opensearch.documents("docs_ja").size());
+        }
+    }
+
+
+    @Test
+    @Order(2)
+    @DisplayName("The per-host limit caps concurrent fetches below the global limit")
+    public void testPerHostLimit() throws Exception {
+        SyntheticSite synthetic = new SyntheticSite(16, 2, 12L);
+        for (int perHost : new int[] {1, 3}) {
+            try (SiteServer site = new SiteServer(synthetic).latency(20).start();
+                 FakeOpenSearch opensearch = new FakeOpenSearch().start()) {
+
+                IndexMetrics metrics = new IndexMetrics();
+                long start = System.nanoTime();
+                try (CrawlEngine engine = new CrawlEngine(metrics)) {
+                    engine.setConcurrency(8);
+                    engine.setPerHost(perHost);
+                    engine.setDelayMillis(0);
+                    crawl(engine, site, opensearch, metrics, "docs");
+                }
+                long concurrent = site.getMaxConcurrent();
+                assertTrue(concurrent <= perHost, "concurrent requests " + concurrent + " > " + perHost);
+                assertEquals(16, opensearch.documents("docs").size());
+                logger.info(String.format(
+                    "perHost=%d: %.2f s, max concurrent requests %d", perHost, (System.nanoTime() - start) / 1e9, concurrent));
+            }
+        }
+    }
+
+
+    @Test
+    @Order(3)
+    @DisplayName("Released pages are not kept for consumers that never come")
+    public void testRelease() throws Exception {
+        SyntheticSite synthetic = new SyntheticSite(2, 2, 13L);
+        try (SiteServer site = new SiteServer(synthetic).start();
+             CrawlEngine engine = new CrawlEngine(new IndexMetrics())) {
+            engine.setDelayMillis(0);
+            String url = site.getBaseUrl() + "/docs/section-0/page-0";
+
+            engine.expect(url);
+            engine.expect(url);
+            engine.release(url);
+            assertNotNull(engine.fetch(url));
+            assertTrue(engine.pages.isEmpty());
+
+            // Not announced: fetched and forgotten.
+            assertNotNull(engine.fetch(url));
+            assertTrue(engine.pages.isEmpty());
+            assertEquals(2, site.getRequests());
+        }
+    }
+
+
+    @Test
+    @Order(4)
+    @DisplayName("A failed sitemap fetch fails the configurations sharing it instead of giving them no entries")
+    public void testFailedSitemap() throws Exception {
+        try (CrawlEngine engine = new CrawlEngine(new IndexMetrics())) {
+            String url = "http://127.0.0.1:9/sitemap.xml";
+            // An interrupt while waiting for the fetch slot makes the first fetch throw.
+            Thread.currentThread().interrupt();
+            assertThrows(IllegalStateException.class, () -> engine.sitemap(url));
+            assertTrue(Thread.interrupted());
+
+            assertThrows(CompletionException.class, () -> engine.sitemap(url));
+        }
+    }
+
+
+    @Test
+    @Order(5)
+    @DisplayName("An interrupt during the politeness delay still gives the host slot back")
+    public void testInterruptedDelay() throws Exception {
+        try (CrawlEngine engine = new CrawlEngine(new IndexMetrics())) {
+            engine.setPerHost(1);
+            engine.setDelayMillis(60_000);
+            String url = "http://127.0.0.1:9/docs/a";
+            CountDownLatch fetched = new CountDownLatch(1);
+            Thread t = Thread.ofPlatform().start(() -> {
+                    try {
+                        engine.withPermits(url, () -> {
+                                fetched.countDown();
+                                return null;
+                            });
+                    } catch (IllegalStateException e) {
+                        // Interrupted in the delay.
+                    }
+                });
+            fetched.await();
+            t.interrupt();
+            t.join(10_000);
+
+            assertFalse(t.isAlive());
+            assertEquals(1, engine.hosts.get(CrawlEngine.hostOf(url)).availablePermits());
+        }
+    }
+
+
+    @Test
+    @Order(6)
+    public void testHostOf() {
+        assertEquals("sc.ddbj.nig.ac.jp:-1", CrawlEngine.hostOf("https://sc.ddbj.nig.ac.jp/guides/a"));
+        assertEquals("127.0.0.1:8080", CrawlEngine.hostOf("http://127.0.0.1:8080/~user/doc/sitemap.xml"));
+    }
+
+}
@@ -0,0 +1,122 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestMethodOrder;
+
+
+/**
+ * Runs the crawler and indexer end to end against a {@link SyntheticSite} served by
+ * {@link SiteServer} and a {@link FakeOpenSearch}, without network access.
+ *
+ * <p>
+ * Each run logs pages/sec and the number of site and OpenSearch requests per page,
+ * the numbers to compare when the crawl engine changes.
+ * </p>
+ */
+@DisplayName("Offline crawler harness")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class CrawlerHarnessTest {
+
+    private static final Logger logger = Logger.getLogger(CrawlerHarnessTest.class.getName());
+
+    static final String INDEX = "harness";
+
+    /** Metrics of the last {@link #crawl} run. */
+    IndexMetrics metrics;
+
+
+    /** Crawls the sitemap of {@code site} the same way sau:index does, minus the politeness delay. */
+    int crawl(SiteServer site, FakeOpenSearch opensearch, String label) throws Exception {
+        long start = System.nanoTime();
+        this.metrics = new IndexMetrics(label);
+        Indexer indexer = new Indexer(opensearch.getHost());
+        indexer.setMetrics(this.metrics);
+        Sitemap sitemap = new Sitemap();
+        sitemap.setMetrics(this.metrics);
+        sitemap.parse(site.getSitemapUrl());
+        int pages = 0;
+        for (SitemapEntry entry : sitemap.getSitemapEntries()) {
+            indexer.index(entry.getUrl(), INDEX);
+            pages++;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        logger.info(String.format("[%s] %d pages in %.2f s: %.1f pages/s, %.2f site requests/page, %.2f OpenSearch requests/page",
+                                  label, pages, seconds, pages / seconds,
+                                  (double) site.getRequests() / pages,
+                                  (double) opensearch.getRequests().size() / pages));
+        return pages;
+    }
+
+
+    @Test
+    @Order(1)
+    public void testFullCrawl() throws Exception {
+        SyntheticSite synthetic = new SyntheticSite(40, 12, 1L);
+        try (SiteServer site = new SiteServer(synthetic).latency(2).start();
+             FakeOpenSearch opensearch = new FakeOpenSearch().start()) {
+
+            assertEquals(40, crawl(site, opensearch, "full"));
+            assertEquals(40, opensearch.documents(INDEX).size());
+            assertEquals(40, opensearch.count("_bulk"));
+            assertEquals(40, metrics.count(IndexMetrics.INDEXED));
+            assertEquals(40, metrics.timer(IndexMetrics.PAGE_FETCH).getCount());
+            assertEquals(1, metrics.timer(IndexMetrics.SITEMAP_FETCH).getCount());
+
+            String url = site.getBaseUrl() + "/docs/section-3/page-3";
+            var doc = opensearch.documents(INDEX).get(Indexer.calculateMD5(url));
+            assertEquals(url, doc.get("url"));
+            assertTrue(((String) doc.get("title")).startsWith("Page 3 "));
+        }
+    }
+
+
+    @Test
+    @Order(2)
+    public void testFailedPagesAreNotIndexed() throws Exception {
+        SyntheticSite synthetic = new SyntheticSite(20, 4, 2L);
+        try (SiteServer site = new SiteServer(synthetic).errorEvery(5).start();
+             FakeOpenSearch opensearch = new FakeOpenSearch().start()) {
+
+            crawl(site, opensearch, "errors");
+            assertEquals(4, site.getErrors());
+            assertEquals(16, opensearch.documents(INDEX).size());
+            assertEquals(4, metrics.count(IndexMetrics.FAILED));
+            assertEquals(16, metrics.count(IndexMetrics.FETCHED));
+        }
+    }
+
+
+    @Test
+    @Order(3)
+    public void testEtagRevalidation() throws Exception {
+        SyntheticSite synthetic = new SyntheticSite(1, 2, 3L);
+        try (SiteServer site = new SiteServer(synthetic).etags(true).start()) {
+            HttpClient client = HttpClient.newHttpClient();
+            URI uri = URI.create(site.getBaseUrl() + "/docs/section-0/page-0");
+
+            HttpResponse<Void> first = client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.discarding());
+            String etag = first.headers().firstValue("ETag").orElseThrow();
+
+            HttpResponse<Void> second = client.send(HttpRequest.newBuilder(uri).header("If-None-Match", etag).build(),
+                                                    HttpResponse.BodyHandlers.discarding());
+            assertEquals(200, first.statusCode());
+            assertEquals(304, second.statusCode());
+            assertEquals(1, site.getNotModified());
+        }
+    }
+
+}
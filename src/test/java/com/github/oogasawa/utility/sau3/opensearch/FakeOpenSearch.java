@@ -0,0 +1,386 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+
+
+/**
+ * A stand-in for the OpenSearch REST API, good enough for the indexer and its benchmarks.
+ *
+ * <p>
+ * Supports index creation/deletion, single document {@code _doc} get/put/delete,
+ * {@code _bulk}, {@code _mget}, a match-all {@code _search} with the aggregations used by
+ * {@link IndexStats}, {@code _count} with {@code term}/{@code terms} filters, and
+ * {@code _cat/indices} and {@code _cat/segments}. Documents are kept in memory
+ * and every request is recorded, so that tests can count round trips per indexed page.
+ * </p>
+ */
+public class FakeOpenSearch implements AutoCloseable {
+
+    /** A recorded request. */
+    public static class Request {
+        final String method;
+        final String path;
+        final String body;
+
+        Request(String method, String path, String body) {
+            this.method = method;
+            this.path = path;
+            this.body = body;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getBody() {
+            return body;
+        }
+    }
+
+
+    final ObjectMapper mapper = new ObjectMapper();
+    final Map<String, Map<String, Map<String, Object>>> indices = new ConcurrentHashMap<>();
+    final List<Request> requests = Collections.synchronizedList(new ArrayList<>());
+    HttpServer server;
+
+
+    public FakeOpenSearch start() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        this.server.createContext("/", this::handle);
+        this.server.start();
+        return this;
+    }
+
+
+    public HttpHost getHost() {
+        return new HttpHost("127.0.0.1", this.server.getAddress().getPort(), "http");
+    }
+
+
+    public List<Request> getRequests() {
+        synchronized (this.requests) {
+            return new ArrayList<>(this.requests);
+        }
+    }
+
+
+    /** Counts the recorded requests whose path ends with (or contains, for {@code _doc}) the given endpoint. */
+    public long count(String endpoint) {
+        return getRequests().stream()
+            .filter(r -> r.path.endsWith("/" + endpoint) || r.path.contains("/" + endpoint + "/"))
+            .count();
+    }
+
+
+    /** Returns the stored documents of an index by id. */
+    public Map<String, Map<String, Object>> documents(String index) {
+        return this.indices.getOrDefault(index, Map.of());
+    }
+
+
+    public void clearRequests() {
+        this.requests.clear();
+    }
+
+
+    @Override
+    public void close() {
+        if (this.server != null) {
+            this.server.stop(0);
+        }
+    }
+
+
+    void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        this.requests.add(new Request(method, path, body));
+
+        String[] parts = path.substring(1).split("/");
+        try {
+            if (path.equals("/")) {
+                send(exchange, 200, Map.of("name", "fake", "cluster_name", "fake",
+                                           "version", Map.of("number", "2.8.0", "distribution", "opensearch")));
+            } else if (parts[0].equals("_cat") && parts.length == 3) {
+                cat(exchange, parts[1], parts[2]);
+            } else if (parts.length == 2 && parts[1].equals("_count")) {
+                count(exchange, parts[0], body);
+            } else if (parts[parts.length - 1].equals("_bulk")) {
+                bulk(exchange, parts.length > 1 ? parts[0] : null, body);
+            } else if (parts[parts.length - 1].equals("_mget")) {
+                mget(exchange, parts.length > 1 ? parts[0] : null, body);
+            } else if (parts.length >= 2 && parts[1].equals("_search")) {
+                search(exchange, parts[0], body);
+            } else if (parts.length == 3 && parts[1].equals("_doc")) {
+                doc(exchange, method, parts[0], parts[2], body);
+            } else if (parts.length == 1) {
+                index(exchange, method, parts[0]);
+            } else {
+                send(exchange, 400, Map.of("error", "unsupported: " + method + " " + path));
+            }
+        } catch (RuntimeException e) {
+            send(exchange, 500, Map.of("error", String.valueOf(e)));
+        }
+    }
+
+
+    void index(HttpExchange exchange, String method, String index) throws IOException {
+        switch (method) {
+        case "PUT" -> {
+            this.indices.putIfAbsent(index, new ConcurrentHashMap<>());
+            send(exchange, 200, Map.of("acknowledged", true, "shards_acknowledged", true, "index", index));
+        }
+        case "DELETE" -> {
+            this.indices.remove(index);
+            send(exchange, 200, Map.of("acknowledged", true));
+        }
+        default -> send(exchange, this.indices.containsKey(index) ? 200 : 404, Map.of());
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    void doc(HttpExchange exchange, String method, String index, String id, String body) throws IOException {
+        Map<String, Map<String, Object>> docs = this.indices.computeIfAbsent(index, k -> new ConcurrentHashMap<>());
+        switch (method) {
+        case "PUT", "POST" -> {
+            boolean created = docs.put(id, this.mapper.readValue(body, Map.class)) == null;
+            send(exchange, created ? 201 : 200, writeResult(index, id, created ? "created" : "updated"));
+        }
+        case "DELETE" -> {
+            boolean deleted = docs.remove(id) != null;
+            send(exchange, deleted ? 200 : 404, writeResult(index, id, deleted ? "deleted" : "not_found"));
+        }
+        default -> {
+            Map<String, Object> source = docs.get(id);
+            send(exchange, source != null ? 200 : 404, getResult(index, id, source));
+        }
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    void bulk(HttpExchange exchange, String defaultIndex, String body) throws IOException {
+        List<Object> items = new ArrayList<>();
+        String[] lines = body.split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i].isBlank()) {
+                continue;
+            }
+            Map<String, Object> action = this.mapper.readValue(lines[i], Map.class);
+            String op = action.keySet().iterator().next();
+            Map<String, Object> meta = (Map<String, Object>) action.get(op);
+            String index = (String) meta.getOrDefault("_index", defaultIndex);
+            String id = (String) meta.get("_id");
+            Map<String, Map<String, Object>> docs = this.indices.computeIfAbsent(index, k -> new ConcurrentHashMap<>());
+
+            Map<String, Object> result;
+            if (op.equals("delete")) {
+                boolean deleted = docs.remove(id) != null;
+                result = writeResult(index, id, deleted ? "deleted" : "not_found");
+                result.put("status", deleted ? 200 : 404);
+            } else {
+                Map<String, Object> source = this.mapper.readValue(lines[++i], Map.class);
+                if (op.equals("update")) {
+                    source = (Map<String, Object>) source.get("doc");
+                }
+                boolean created = docs.put(id, source) == null;
+                result = writeResult(index, id, created ? "created" : "updated");
+                result.put("status", created ? 201 : 200);
+            }
+            items.add(Map.of(op, result));
+        }
+        send(exchange, 200, Map.of("took", 1, "errors", false, "items", items));
+    }
+
+
+    @SuppressWarnings("unchecked")
+    void mget(HttpExchange exchange, String defaultIndex, String body) throws IOException {
+        Map<String, Object> request = this.mapper.readValue(body, Map.class);
+        List<Object> docs = new ArrayList<>();
+        if (request.containsKey("ids")) {
+            for (Object id : (List<Object>) request.get("ids")) {
+                docs.add(getResult(defaultIndex, (String) id, documents(defaultIndex).get(id)));
+            }
+        } else {
+            for (Map<String, Object> d : (List<Map<String, Object>>) request.get("docs")) {
+                String index = (String) d.getOrDefault("_index", defaultIndex);
+                String id = (String) d.get("_id");
+                docs.add(getResult(index, id, documents(index).get(id)));
+            }
+        }
+        send(exchange, 200, Map.of("docs", docs));
+    }
+
+
+    @SuppressWarnings("unchecked")
+    void search(HttpExchange exchange, String index, String request) throws IOException {
+        List<Object> hits = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Object>> e : documents(index).entrySet()) {
+            hits.add(Map.of("_index", index, "_id", e.getKey(), "_score", 1.0, "_source", e.getValue()));
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("took", 1);
+        body.put("timed_out", false);
+        body.put("_shards", Map.of("total", 1, "successful", 1, "skipped", 0, "failed", 0));
+        body.put("hits", Map.of("total", Map.of("value", hits.size(), "relation", "eq"),
+                                "max_score", 1.0, "hits", hits));
+        if (!request.isBlank()) {
+            Map<String, Object> aggs = (Map<String, Object>) this.mapper.readValue(request, Map.class).get("aggs");
+            if (aggs != null) {
+                body.put("aggregations", aggregations(documents(index).values(), aggs));
+            }
+        }
+        send(exchange, 200, body);
+    }
+
+
+    /** Evaluates {@code terms}, {@code missing}, {@code min} and {@code max} aggregations on keyword/date strings. */
+    @SuppressWarnings("unchecked")
+    Map<String, Object> aggregations(java.util.Collection<Map<String, Object>> docs, Map<String, Object> aggs) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> agg : aggs.entrySet()) {
+            Map<String, Object> def = (Map<String, Object>) agg.getValue();
+            Map<String, Object> sub = (Map<String, Object>) def.get("aggs");
+            if (def.containsKey("terms")) {
+                String field = (String) ((Map<String, Object>) def.get("terms")).get("field");
+                Map<String, List<Map<String, Object>>> groups = new java.util.TreeMap<>();
+                for (Map<String, Object> doc : docs) {
+                    if (doc.get(field) != null) {
+                        groups.computeIfAbsent(String.valueOf(doc.get(field)), k -> new ArrayList<>()).add(doc);
+                    }
+                }
+                List<Object> buckets = new ArrayList<>();
+                for (Map.Entry<String, List<Map<String, Object>>> g : groups.entrySet()) {
+                    Map<String, Object> bucket = new LinkedHashMap<>();
+                    bucket.put("key", g.getKey());
+                    bucket.put("doc_count", g.getValue().size());
+                    if (sub != null) {
+                        bucket.putAll(aggregations(g.getValue(), sub));
+                    }
+                    buckets.add(bucket);
+                }
+                result.put(agg.getKey(), Map.of("buckets", buckets));
+            } else if (def.containsKey("missing")) {
+                String field = (String) ((Map<String, Object>) def.get("missing")).get("field");
+                result.put(agg.getKey(), Map.of("doc_count", docs.stream().filter(d -> d.get(field) == null).count()));
+            } else {
+                boolean min = def.containsKey("min");
+                String field = (String) ((Map<String, Object>) def.get(min ? "min" : "max")).get("field");
+                String value = docs.stream().map(d -> (String) d.get(field)).filter(v -> v != null)
+                    .reduce((a, b) -> (a.compareTo(b) < 0) == min ? a : b).orElse(null);
+                Map<String, Object> m = new LinkedHashMap<>();
+                m.put("value", value == null ? null : 0);
+                if (value != null) {
+                    m.put("value_as_string", value);
+                }
+                result.put(agg.getKey(), m);
+            }
+        }
+        return result;
+    }
+
+
+    /** Counts the documents matching all {@code term}/{@code terms} clauses of a {@code bool.filter}. */
+    @SuppressWarnings("unchecked")
+    void count(HttpExchange exchange, String index, String request) throws IOException {
+        Map<String, Object> query = (Map<String, Object>) this.mapper.readValue(request, Map.class).get("query");
+        List<Map<String, Object>> filters = (List<Map<String, Object>>) ((Map<String, Object>) query.get("bool")).get("filter");
+        long count = documents(index).values().stream().filter(doc -> {
+            for (Map<String, Object> filter : filters) {
+                boolean terms = filter.containsKey("terms");
+                Map<String, Object> clause = (Map<String, Object>) filter.get(terms ? "terms" : "term");
+                Map.Entry<String, Object> e = clause.entrySet().iterator().next();
+                Object value = doc.get(e.getKey());
+                if (terms ? !((List<Object>) e.getValue()).contains(value) : !e.getValue().equals(value)) {
+                    return false;
+                }
+            }
+            return true;
+        }).count();
+        send(exchange, 200, Map.of("count", count));
+    }
+
+
+    /** {@code _cat/indices} and {@code _cat/segments} in JSON, with one segment per 10 documents. */
+    void cat(HttpExchange exchange, String api, String index) throws IOException {
+        Map<String, Map<String, Object>> docs = documents(index);
+        List<Object> rows = new ArrayList<>();
+        if (api.equals("indices")) {
+            long bytes = 0;
+            for (Map<String, Object> doc : docs.values()) {
+                bytes += this.mapper.writeValueAsBytes(doc).length;
+            }
+            rows.add(Map.of("docs.count", String.valueOf(docs.size()), "store.size", String.valueOf(bytes)));
+        } else {
+            for (int i = 0; i < (docs.size() + 9) / 10; i++) {
+                rows.add(Map.of("segment", "_" + i));
+            }
+        }
+        send(exchange, 200, rows);
+    }
+
+
+    static Map<String, Object> writeResult(String index, String id, String result) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("_index", index);
+        map.put("_id", id);
+        map.put("_version", 1);
+        map.put("result", result);
+        map.put("_shards", Map.of("total", 1, "successful", 1, "failed", 0));
+        map.put("_seq_no", 0);
+        map.put("_primary_term", 1);
+        return map;
+    }
+
+
+    static Map<String, Object> getResult(String index, String id, Map<String, Object> source) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("_index", index);
+        map.put("_id", id);
+        map.put("found", source != null);
+        if (source != null) {
+            map.put("_version", 1);
+            map.put("_seq_no", 0);
+            map.put("_primary_term", 1);
+            map.put("_source", source);
+        }
+        return map;
+    }
+
+
+    void send(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = this.mapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+}
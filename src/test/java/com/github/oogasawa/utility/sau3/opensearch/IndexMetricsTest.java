@@ -0,0 +1,93 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
+
+
+@DisplayName("Index run metrics test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class IndexMetricsTest {
+
+    @TempDir
+    Path tempDir;
+
+
+    IndexMetrics sample() {
+        IndexMetrics metrics = new IndexMetrics("sau:index");
+        metrics.increment(IndexMetrics.INDEXED);
+        metrics.increment(IndexMetrics.INDEXED);
+        metrics.increment(IndexMetrics.FAILED);
+        metrics.timer(IndexMetrics.PAGE_FETCH).record(2_000_000);
+        metrics.timer(IndexMetrics.PAGE_FETCH).record(6_000_000);
+        metrics.gauge(IndexMetrics.IN_FLIGHT).increment();
+        metrics.gauge(IndexMetrics.IN_FLIGHT).increment();
+        metrics.gauge(IndexMetrics.IN_FLIGHT).decrement();
+        return metrics;
+    }
+
+
+    @Test
+    @Order(1)
+    @SuppressWarnings("unchecked")
+    public void testJsonReport() throws Exception {
+        Path report = tempDir.resolve("report.json");
+        sample().writeReport(report);
+
+        Map<String, Object> json = new ObjectMapper().readValue(report.toFile(), Map.class);
+        assertEquals(2, ((Map<String, Object>) json.get("counters")).get("indexed"));
+        Map<String, Object> fetch = (Map<String, Object>) ((Map<String, Object>) json.get("timers")).get("page_fetch");
+        assertEquals(2, fetch.get("count"));
+        assertEquals(4.0, fetch.get("meanMs"));
+        assertEquals(6.0, fetch.get("maxMs"));
+        assertEquals(Map.of("value", 1, "max", 2), ((Map<String, Object>) json.get("gauges")).get("in_flight"));
+    }
+
+
+    @Test
+    @Order(2)
+    public void testPrometheusReport() throws Exception {
+        Path report = tempDir.resolve("sau_index.prom");
+        sample().writeReport(report);
+
+        String text = Files.readString(report);
+        assertTrue(text.contains("# TYPE sau_index_indexed_total counter\nsau_index_indexed_total{command=\"sau:index\"} 2\n"));
+        assertTrue(text.contains("sau_index_page_fetch_seconds_count{command=\"sau:index\"} 2\n"));
+        assertTrue(text.contains("sau_index_page_fetch_seconds_sum{command=\"sau:index\"} 0.008\n"));
+        assertTrue(text.contains("sau_index_in_flight_max{command=\"sau:index\"} 2\n"));
+    }
+
+
+    @Test
+    @Order(3)
+    @SuppressWarnings("unchecked")
+    public void testPerSiteCounters() throws Exception {
+        IndexMetrics metrics = new IndexMetrics("sau:index");
+        metrics.increment(IndexMetrics.SKIPPED_DUPLICATE, "http://host/doc_a/");
+        metrics.increment(IndexMetrics.SKIPPED_DUPLICATE, "http://host/doc_a/");
+        metrics.increment(IndexMetrics.SKIPPED_DUPLICATE, "http://host/doc_b/");
+
+        assertEquals(3, metrics.count(IndexMetrics.SKIPPED_DUPLICATE));
+        assertEquals(2, metrics.count(IndexMetrics.SKIPPED_DUPLICATE, "http://host/doc_a/"));
+
+        Map<String, Object> sites = (Map<String, Object>) metrics.toMap().get("sites");
+        assertEquals(Map.of("skipped_duplicate", 1L), sites.get("http://host/doc_b/"));
+
+        String text = metrics.toPrometheus();
+        assertTrue(text.contains("sau_index_site_skipped_duplicate_total{command=\"sau:index\",site=\"http://host/doc_a/\"} 2\n"));
+    }
+
+}
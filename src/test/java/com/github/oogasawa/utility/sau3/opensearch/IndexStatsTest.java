@@ -0,0 +1,104 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestMethodOrder;
+
+
+@DisplayName("IndexStats")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class IndexStatsTest {
+
+    static final String INDEX = "stats";
+
+
+    @Test
+    @Order(1)
+    @DisplayName("Per-site counts, lastmod range and documents no longer in the sitemap")
+    public void testCollect() throws Exception {
+        SyntheticSite synthetic = new SyntheticSite(25, 3, 4L);
+        try (SiteServer site = new SiteServer(synthetic).start();
+             FakeOpenSearch opensearch = new FakeOpenSearch().start()) {
+
+            Indexer indexer = new Indexer(opensearch.getHost());
+            Sitemap sitemap = new Sitemap();
+            sitemap.parse(site.getSitemapUrl());
+            indexer.setSite(Indexer.siteOf(site.getSitemapUrl()));
+            List<String> urls = new ArrayList<>();
+            for (SitemapEntry entry : sitemap.getSitemapEntries()) {
+                indexer.index(entry.getUrl(), entry.getLastmod(), INDEX);
+                urls.add(entry.getUrl());
+            }
+            String oldest = sitemap.getSitemapEntries().stream().map(SitemapEntry::getLastmod).min(String::compareTo).get();
+            String newest = sitemap.getSitemapEntries().stream().map(SitemapEntry::getLastmod).max(String::compareTo).get();
+
+            // Three pages have since been removed from the site.
+            List<String> current = urls.subList(3, urls.size());
+
+            try (IndexStats indexStats = new IndexStats(opensearch.getHost())) {
+                IndexStats.Stats stats = indexStats.collect(INDEX, Map.of(site.getSitemapUrl(), current));
+
+                assertEquals(25, stats.getDocs());
+                assertEquals(3, stats.getSegments());
+                assertTrue(stats.getStoreBytes() > 0);
+                assertEquals(0, stats.getDocsWithoutSite());
+                assertEquals(1, stats.getSites().size());
+
+                IndexStats.SiteStats s = stats.getSites().get(0);
+                assertEquals(site.getBaseUrl() + "/", s.getSite());
+                assertEquals(25, s.getDocs());
+                assertEquals(stats.getStoreBytes(), s.getEstimatedStoreBytes());
+                assertEquals(oldest, s.getOldestLastmod());
+                assertEquals(newest, s.getNewestLastmod());
+                assertEquals(3, s.getNotInSitemap());
+            }
+        }
+    }
+
+
+    @Test
+    @Order(2)
+    @DisplayName("Documents without a site field are counted separately")
+    public void testDocsWithoutSite() throws Exception {
+        SyntheticSite synthetic = new SyntheticSite(4, 2, 5L);
+        try (SiteServer site = new SiteServer(synthetic).start();
+             FakeOpenSearch opensearch = new FakeOpenSearch().start()) {
+
+            Indexer indexer = new Indexer(opensearch.getHost());
+            Sitemap sitemap = new Sitemap();
+            sitemap.parse(site.getSitemapUrl());
+            for (SitemapEntry entry : sitemap.getSitemapEntries()) {
+                indexer.index(entry.getUrl(), INDEX);
+            }
+
+            try (IndexStats indexStats = new IndexStats(opensearch.getHost())) {
+                IndexStats.Stats stats = indexStats.collect(INDEX, Map.of());
+                assertEquals(4, stats.getDocsWithoutSite());
+                assertTrue(stats.getSites().isEmpty());
+            }
+        }
+    }
+
+
+    @Test
+    @Order(3)
+    public void testHumanBytes() {
+        assertEquals("512 B", IndexStats.humanBytes(512));
+        assertEquals("1.5 KB", IndexStats.humanBytes(1536));
+        assertEquals("2.0 GB", IndexStats.humanBytes(2L * 1024 * 1024 * 1024));
+        assertNull(IndexStats.dateOf(new com.fasterxml.jackson.databind.ObjectMapper().createObjectNode()));
+    }
+
+}
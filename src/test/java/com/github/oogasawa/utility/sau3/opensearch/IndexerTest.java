@@ -0,0 +1,66 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestMethodOrder;
+
+
+@DisplayName("Indexer field extraction test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class IndexerTest {
+
+
+    @Test
+    @Order(1)
+    public void testSummaryFromLeadAndSections() {
+        Document doc = Jsoup.parse("<body><h1>Guide</h1><p> </p><p>First paragraph.</p><p>Second.</p>"
+                                   + "<h2>Install</h2><p>x</p><h2>Usage</h2></body>");
+
+        assertEquals("First paragraph.\nInstall / Usage", Indexer.createSummary(doc.body()));
+    }
+
+
+    @Test
+    @Order(2)
+    public void testSummaryIsTruncated() {
+        String longText = "word ".repeat(200);
+        Document doc = Jsoup.parse("<body><p>" + longText + "</p></body>");
+
+        String summary = Indexer.createSummary(doc.body());
+        assertTrue(summary.length() <= Indexer.SUMMARY_LEAD_LENGTH + 1);
+        assertTrue(summary.endsWith("…"));
+    }
+
+
+    @Test
+    @Order(3)
+    public void testSuggestInputsAndWeight() {
+        assertEquals(List.of("Title", "Install"), Indexer.suggestInputs("Title", List.of("Title", "Install")));
+        assertEquals(100 - 10 * 4, Indexer.suggestWeight("http://localhost/~user/doc_Java001/docs/intro"));
+        assertTrue(Indexer.suggestWeight("https://sc.ddbj.nig.ac.jp/") > Indexer.suggestWeight("https://sc.ddbj.nig.ac.jp/a/b"));
+    }
+
+
+
+    @Test
+    @Order(4)
+    public void testDocumentIdIsHexMD5() {
+        // Ids of documents already in the indices must not change.
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", Indexer.calculateMD5(""));
+        assertEquals("9e107d9d372bb6826bd81d3542a419d6",
+                     Indexer.calculateMD5("The quick brown fox jumps over the lazy dog"));
+        assertEquals(32, Indexer.calculateMD5("https://sc.ddbj.nig.ac.jp/ja/guides/データ").length());
+    }
+
+}
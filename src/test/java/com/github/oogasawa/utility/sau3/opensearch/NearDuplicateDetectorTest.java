@@ -0,0 +1,190 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import com.github.oogasawa.utility.sau3.staticsearch.StaticSearchTokenizer;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestMethodOrder;
+
+
+@DisplayName("Near-duplicate detection test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class NearDuplicateDetectorTest {
+
+    /** Returns {@code words} words drawn from a skewed vocabulary, like the prose of one documentation site. */
+    static String prose(int words, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            sb.append("w").append(Integer.toString((int) Math.abs(random.nextGaussian() * 300), 36)).append(' ');
+        }
+        return sb.toString();
+    }
+
+
+    @Test
+    @Order(1)
+    @DisplayName("Versioned copies of a page are reported as duplicates of the unversioned one, in any order")
+    public void testVersionedCopies() {
+        String body = prose(400, 1L);
+        String[][] copies = {
+            {"http://host/docs/next/intro", "This is unreleased documentation for version next. " + body},
+            {"http://host/docs/1.0/intro", "This is documentation for version 1.0. " + body},
+            {"http://host/docs/intro", "This is documentation for version 2.0. " + body.replaceFirst("w1 ", "w2 ")},
+        };
+
+        for (int[] order : new int[][] {{0, 1, 2}, {2, 1, 0}, {1, 2, 0}}) {
+            NearDuplicateDetector detector = new NearDuplicateDetector();
+            java.util.Set<String> indexed = new java.util.HashSet<>();
+            for (int i : order) {
+                String canonical = detector.check(copies[i][0], copies[i][1]);
+                if (canonical == null) {
+                    indexed.add(copies[i][0]);
+                } else {
+                    assertEquals("http://host/docs/intro", canonical);
+                }
+            }
+            indexed.removeAll(detector.takeDisplaced());
+            assertEquals(java.util.Set.of("http://host/docs/intro"), indexed);
+            assertTrue(detector.takeDisplaced().isEmpty());
+        }
+    }
+
+
+    @Test
+    @Order(2)
+    public void testPreferred() {
+        assertTrue(NearDuplicateDetector.preferred("http://host/docs/intro", "http://host/docs/1.0/intro"));
+        assertTrue(NearDuplicateDetector.preferred("http://host/docs/intro", "http://host/docs/next/intro"));
+        assertTrue(NearDuplicateDetector.preferred("http://host/docs/a/b", "http://host/docs/2.x/a"));
+        assertTrue(NearDuplicateDetector.preferred("http://host/docs/a/b", "http://host/docs/v2/a"));
+        assertTrue(NearDuplicateDetector.preferred("http://host/docs/1.0/intro", "http://host/docs/next/intro"));
+        assertTrue(NearDuplicateDetector.preferred("http://host/docs/a", "http://host/docs/b"));
+        assertFalse(NearDuplicateDetector.preferred("http://host/docs/10-setup", "http://host/docs/setup"));
+    }
+
+
+    @Test
+    @Order(3)
+    @DisplayName("Different pages of the same site are not duplicates")
+    public void testDistinctPages() {
+        NearDuplicateDetector detector = new NearDuplicateDetector();
+        for (int i = 0; i < 200; i++) {
+            assertNull(detector.check("http://host/docs/page-" + i, prose(300, 100L + i)));
+        }
+    }
+
+
+    @Test
+    @Order(4)
+    @DisplayName("Short pages and the same URL seen again are never duplicates")
+    public void testShortPagesAndSameUrl() {
+        NearDuplicateDetector detector = new NearDuplicateDetector();
+        String stub = prose(NearDuplicateDetector.MIN_TOKENS - 1, 7L);
+        assertNull(detector.check("http://host/docs/tags/a", stub));
+        assertNull(detector.check("http://host/docs/tags/b", stub));
+
+        String page = prose(200, 8L);
+        assertNull(detector.check("http://host/docs/a", page));
+        assertNull(detector.check("http://host/docs/a", page));
+        assertEquals("http://host/docs/a", detector.check("http://host/docs/b", page));
+    }
+
+
+    @Test
+    @Order(5)
+    @DisplayName("The Hamming distance of versioned copies is far below that of unrelated pages")
+    public void testSignatureDistance() {
+        String body = prose(400, 2L);
+        long a = NearDuplicateDetector.simhash(NearDuplicateDetector.shingles(StaticSearchTokenizer.tokenize("version 1.0 " + body)));
+        long b = NearDuplicateDetector.simhash(NearDuplicateDetector.shingles(StaticSearchTokenizer.tokenize("version 2.0 " + body)));
+        long c = NearDuplicateDetector.simhash(NearDuplicateDetector.shingles(StaticSearchTokenizer.tokenize(prose(400, 3L))));
+        assertTrue(Long.bitCount(a ^ b) <= NearDuplicateDetector.DEFAULT_MAX_DISTANCE);
+        assertTrue(Long.bitCount(a ^ c) > 2 * NearDuplicateDetector.DEFAULT_MAX_DISTANCE);
+    }
+
+
+    @Test
+    @Order(6)
+    @DisplayName("Pages sharing a small vocabulary are kept apart by their shingle similarity")
+    public void testSharedVocabulary() {
+        NearDuplicateDetector detector = new NearDuplicateDetector(15);
+        Random random = new Random(10L);
+        for (int i = 0; i < 50; i++) {
+            assertNull(detector.check("http://host/docs/page-" + i,
+                                      SyntheticSite.sentence(random, 800)));
+        }
+    }
+
+
+    @Test
+    @Order(7)
+    @DisplayName("Duplicates are skipped by the indexer and counted per site")
+    public void testIndexerSkipsDuplicates() throws Exception {
+        SyntheticSite synthetic = new SyntheticSite(6, 20, 9L);
+        try (SiteServer site = new SiteServer(synthetic).start();
+             FakeOpenSearch opensearch = new FakeOpenSearch().start()) {
+
+            IndexMetrics metrics = new IndexMetrics();
+            Indexer indexer = new Indexer(opensearch.getHost());
+            indexer.setMetrics(metrics);
+            indexer.setNearDuplicateDetector(new NearDuplicateDetector());
+            indexer.setSite(Indexer.siteOf(site.getSitemapUrl()));
+
+            Sitemap sitemap = new Sitemap();
+            sitemap.parse(site.getSitemapUrl());
+            for (SitemapEntry entry : sitemap.getSitemapEntries()) {
+                indexer.index(entry.getUrl(), "dedup");
+                // The server ignores the query string, so this is the same page under another URL.
+                indexer.index(entry.getUrl() + "?version=next", "dedup");
+            }
+
+            assertEquals(6, opensearch.documents("dedup").size());
+            assertEquals(6, metrics.count(IndexMetrics.SKIPPED_DUPLICATE));
+            assertEquals(6, metrics.count(IndexMetrics.SKIPPED_DUPLICATE, Indexer.siteOf(site.getSitemapUrl())));
+        }
+    }
+
+
+    @Test
+    @Order(8)
+    @DisplayName("A copy indexed before the preferred one is deleted at the end of the run")
+    public void testIndexerDeletesDisplaced() throws Exception {
+        SyntheticSite synthetic = new SyntheticSite(6, 20, 9L);
+        try (SiteServer site = new SiteServer(synthetic).start();
+             FakeOpenSearch opensearch = new FakeOpenSearch().start()) {
+
+            IndexMetrics metrics = new IndexMetrics();
+            Indexer indexer = new Indexer(opensearch.getHost());
+            indexer.setMetrics(metrics);
+            indexer.setNearDuplicateDetector(new NearDuplicateDetector());
+            indexer.setSite(Indexer.siteOf(site.getSitemapUrl()));
+
+            Sitemap sitemap = new Sitemap();
+            sitemap.parse(site.getSitemapUrl());
+            for (SitemapEntry entry : sitemap.getSitemapEntries()) {
+                indexer.index(entry.getUrl() + "?version=next", "dedup");
+                indexer.index(entry.getUrl(), "dedup");
+            }
+            assertEquals(12, opensearch.documents("dedup").size());
+
+            indexer.deleteDisplacedDuplicates("dedup");
+            assertEquals(6, opensearch.documents("dedup").size());
+            for (java.util.Map<String, Object> doc : opensearch.documents("dedup").values()) {
+                assertFalse(doc.get("url").toString().contains("?"));
+            }
+            assertEquals(6, metrics.count(IndexMetrics.SKIPPED_DUPLICATE, Indexer.siteOf(site.getSitemapUrl())));
+        }
+    }
+
+}
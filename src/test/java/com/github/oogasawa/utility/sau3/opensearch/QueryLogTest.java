@@ -0,0 +1,104 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
+
+
+@DisplayName("Query log test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class QueryLogTest {
+
+
+    static List<String> queries(List<SearchQuery> top) {
+        List<String> result = new ArrayList<>();
+        for (SearchQuery query : top) {
+            result.add(query.getQuery());
+        }
+        return result;
+    }
+
+
+    @Test
+    @Order(1)
+    public void testRoll(@TempDir Path dir) throws IOException {
+        Path path = dir.resolve("search-queries.log");
+        // Each line is "<13 digit millis>\tfoo\t\n" (19 bytes), so the second record exceeds 30 bytes.
+        QueryLog log = new QueryLog(path, 30);
+        log.record(new SearchQuery("foo", null, 1));
+        assertTrue(Files.notExists(QueryLog.rolledPath(path)));
+
+        log.record(new SearchQuery("bar", null, 1));
+        assertTrue(Files.exists(QueryLog.rolledPath(path)));
+        assertEquals(2, Files.readAllLines(QueryLog.rolledPath(path)).size());
+        assertEquals(0, Files.size(path));
+
+        log.record(new SearchQuery("foo", null, 1));
+        log.close();
+        assertEquals(1, Files.readAllLines(path).size());
+
+        // "foo" is counted in both the rolled and the current file.
+        assertEquals(List.of("foo", "bar"), queries(QueryLog.topQueries(path, 10)));
+        assertEquals(List.of("foo"), queries(QueryLog.topQueries(path, 1)));
+    }
+
+
+    @Test
+    @Order(2)
+    public void testEmptySite(@TempDir Path dir) throws IOException {
+        Path path = dir.resolve("search-queries.log");
+        Files.writeString(path, "1760000000000\tfoo\t\n1760000000001\tbar\t/docs/\n", StandardCharsets.UTF_8);
+
+        List<SearchQuery> top = QueryLog.topQueries(path, 10);
+        assertEquals(2, top.size());
+        for (SearchQuery query : top) {
+            if (query.getQuery().equals("foo")) {
+                assertNull(query.getSite());
+            } else {
+                assertEquals("/docs/", query.getSite());
+            }
+        }
+    }
+
+
+    @Test
+    @Order(3)
+    public void testTiesAreOrderedByKey(@TempDir Path dir) throws IOException {
+        Path path = dir.resolve("search-queries.log");
+        QueryLog log = new QueryLog(path, 1 << 20);
+        for (String q : List.of("delta", "bravo", "charlie", "alpha", "charlie")) {
+            log.record(new SearchQuery(q, null, 1));
+        }
+        log.close();
+
+        assertEquals(List.of("charlie", "alpha", "bravo", "delta"), queries(QueryLog.topQueries(path, 10)));
+    }
+
+
+    @Test
+    @Order(4)
+    public void testPercentile() {
+        assertEquals(0, QueryWarmer.percentile(new long[0], 0.5));
+        assertEquals(0, QueryWarmer.percentile(new long[0], 0.99));
+        assertEquals(7, QueryWarmer.percentile(new long[]{7}, 0.5));
+        assertEquals(7, QueryWarmer.percentile(new long[]{7}, 0.99));
+        assertEquals(7, QueryWarmer.percentile(new long[]{7}, 1.0));
+    }
+
+}
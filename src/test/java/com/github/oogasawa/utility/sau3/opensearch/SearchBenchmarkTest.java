@@ -0,0 +1,112 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.HttpHost;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
+
+
+@DisplayName("Search benchmark test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class SearchBenchmarkTest {
+
+    @TempDir
+    Path tempDir;
+
+
+    /** Answers after 2 ms; every fifth query fails. */
+    static class StubService extends SearchService {
+        final AtomicInteger calls = new AtomicInteger();
+
+        StubService() {
+            super(HttpHost.create("http://localhost:1"), List.of("stub"));
+        }
+
+        @Override
+        public Result find(SearchQuery query) throws IOException {
+            if (calls.incrementAndGet() % 5 == 0) {
+                throw new IOException("stub failure");
+            }
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new Result();
+        }
+    }
+
+
+    @Test
+    @Order(1)
+    public void testReadQueries() throws IOException {
+        Path file = tempDir.resolve("queries.txt");
+        Files.writeString(file, "# comment\nslurm job\n\n1700000000000\tgpu\thttp://localhost/doc/\n");
+
+        List<SearchQuery> queries = SearchBenchmark.readQueries(file);
+        assertEquals(2, queries.size());
+        assertNull(queries.get(0).getSite());
+        assertEquals("gpu", queries.get(1).getQuery());
+        assertEquals("http://localhost/doc/", queries.get(1).getSite());
+    }
+
+
+    @Test
+    @Order(2)
+    @SuppressWarnings("unchecked")
+    public void testClosedLoop() throws IOException {
+        try (StubService service = new StubService()) {
+            SearchBenchmark bench = new SearchBenchmark(service);
+            bench.setConcurrency(4);
+            bench.setRequests(50);
+            bench.setWarmupRequests(10);
+
+            SearchBenchmark.Result result = bench.run(List.of(new SearchQuery("a", null, 1)));
+            assertEquals(60, service.calls.get());
+            assertEquals(50, result.getRequests());
+            assertEquals(10, result.getErrors());
+            assertEquals(40, result.getHistogram().getTotalCount());
+            assertTrue(result.percentileMillis(50) >= 2.0);
+
+            Path out = tempDir.resolve("result.json");
+            result.writeJson(out, List.of("stub"));
+            Map<String, Object> json = new ObjectMapper().readValue(out.toFile(), Map.class);
+            assertEquals("closed", json.get("mode"));
+            assertTrue(((Map<String, Object>) json.get("latencyMs")).containsKey("p99"));
+        }
+    }
+
+
+    @Test
+    @Order(3)
+    public void testOpenLoopKeepsRate() throws IOException {
+        try (StubService service = new StubService()) {
+            SearchBenchmark bench = new SearchBenchmark(service);
+            bench.setRate(200);
+            bench.setRequests(40);
+
+            SearchBenchmark.Result result = bench.run(List.of(new SearchQuery("a", null, 1)));
+            // 40 queries at 200/s take at least 195 ms.
+            assertTrue(result.getElapsedNanos() >= 190_000_000L);
+            assertEquals(40, service.calls.get());
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestMethodOrder;
+
+
+@DisplayName("Search result cache test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class SearchCacheTest {
+
+
+    @Test
+    @Order(1)
+    public void testLruEviction() throws IOException {
+        SearchCache cache = new SearchCache(2, 60_000);
+        cache.get("a", () -> "A");
+        cache.get("b", () -> "B");
+        cache.get("a", () -> "A");   // "a" becomes the most recently used entry.
+        cache.get("c", () -> "C");   // evicts "b".
+
+        assertEquals(2, cache.size());
+        assertEquals("A", cache.lookup("a"));
+        assertNull(cache.lookup("b"));
+        assertEquals(1, cache.getHits());
+    }
+
+
+    @Test
+    @Order(2)
+    public void testTtlExpiry() throws Exception {
+        SearchCache cache = new SearchCache(10, 50);
+        AtomicInteger loads = new AtomicInteger();
+        cache.get("q", () -> "v" + loads.incrementAndGet());
+        Thread.sleep(100);
+        assertEquals("v2", cache.get("q", () -> "v" + loads.incrementAndGet()));
+    }
+
+
+    @Test
+    @Order(3)
+    public void testInvalidateDropsRunningLoad() throws IOException {
+        SearchCache cache = new SearchCache(10, 60_000);
+        cache.get("q", () -> {
+            cache.invalidateAll();   // new data was committed while the query was running.
+            return "stale";
+        });
+        assertNull(cache.lookup("q"));
+    }
+
+
+    @Test
+    @Order(4)
+    public void testConcurrentQueriesAreCoalesced() throws Exception {
+        SearchCache cache = new SearchCache(10, 60_000);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        List<Future<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(() -> cache.get("q", () -> {
+                loads.incrementAndGet();
+                release.await();
+                return "result";
+            })));
+        }
+        while (cache.getMisses() + cache.getCoalesced() < 8) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        for (Future<String> f : futures) {
+            assertEquals("result", f.get());
+        }
+        executor.shutdown();
+
+        assertEquals(1, loads.get());
+        assertEquals(7, cache.getCoalesced());
+    }
+
+
+    @Test
+    @Order(5)
+    public void testPageBounds() {
+        SearchQuery query = new SearchQuery("q", null, Integer.MAX_VALUE);
+        assertEquals(SearchQuery.MAX_RESULT_WINDOW / SearchQuery.DEFAULT_PAGE_SIZE, query.getPage());
+        assertTrue(query.from() + query.getPageSize() <= SearchQuery.MAX_RESULT_WINDOW);
+        query.setPageSize(30);
+        assertTrue(query.from() + query.getPageSize() <= SearchQuery.MAX_RESULT_WINDOW);
+
+        assertEquals(1, SearchServer.parsePage(null));
+        assertEquals(3, SearchServer.parsePage("3"));
+        assertEquals(Integer.MAX_VALUE, SearchServer.parsePage("99999999999999"));
+        assertThrows(IllegalArgumentException.class, () -> SearchServer.parsePage("0"));
+        assertThrows(IllegalArgumentException.class, () -> SearchServer.parsePage("-2"));
+        assertThrows(IllegalArgumentException.class, () -> SearchServer.parsePage("x"));
+    }
+
+
+    @Test
+    @Order(6)
+    public void testSiteNormalization() {
+        SearchQuery query = new SearchQuery("q", " /docs/ ", 1);
+        assertEquals("/docs/", query.getSite());
+
+        query.setSite("  ");
+        assertNull(query.getSite());
+        assertEquals(new SearchQuery("q", null, 1).cacheKey(), query.cacheKey());
+
+        query.setSite(" /blog/");
+        assertEquals("/blog/", query.getSite());
+        query.setSite(null);
+        assertNull(query.getSite());
+    }
+
+}
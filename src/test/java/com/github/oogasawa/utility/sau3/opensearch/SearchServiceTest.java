@@ -0,0 +1,109 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.HttpHost;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestMethodOrder;
+
+
+@DisplayName("Search service merge test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class SearchServiceTest {
+
+
+    static Map<String, Object> hit(String url, double score) {
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("url", url);
+        item.put("score", score);
+        return item;
+    }
+
+
+    static List<String> urls(SearchService.Result result) {
+        List<String> urls = new ArrayList<>();
+        for (Map<String, Object> item : result.getHits()) {
+            urls.add((String) item.get("url"));
+        }
+        return urls;
+    }
+
+
+    static List<SearchService.IndexHits> twoIndices() {
+        return Arrays.asList(
+            new SearchService.IndexHits("docusaurus_ja", 30, List.of(hit("ja/1", 3.0), hit("ja/2", 1.0))),
+            new SearchService.IndexHits("docusaurus_en", 12, List.of(hit("en/1", 2.5), hit("en/2", 0.5))));
+    }
+
+
+    @Test
+    @Order(1)
+    public void testOrderingAcrossIndices() {
+        SearchService.Result result = SearchService.merge(twoIndices(), Map.of(), 0, 10);
+
+        assertEquals(List.of("ja/1", "en/1", "ja/2", "en/2"), urls(result));
+        assertEquals(42, result.getTotal());
+    }
+
+
+    @Test
+    @Order(2)
+    public void testBoost() {
+        SearchService.Result result = SearchService.merge(twoIndices(), Map.of("docusaurus_en", 1.5), 0, 10);
+
+        assertEquals(List.of("en/1", "ja/1", "ja/2", "en/2"), urls(result));
+        assertEquals(3.75, (Double) result.getHits().get(0).get("score"), 1e-9);
+        assertEquals(3.0, (Double) result.getHits().get(1).get("score"), 1e-9);
+    }
+
+
+    @Test
+    @Order(3)
+    public void testFailedIndexIsSkipped() {
+        List<SearchService.IndexHits> perIndex = twoIndices();
+        perIndex.set(0, null);   // the search on docusaurus_ja failed.
+
+        SearchService.Result result = SearchService.merge(perIndex, Map.of(), 0, 10);
+
+        assertEquals(List.of("en/1", "en/2"), urls(result));
+        assertEquals(12, result.getTotal());
+    }
+
+
+    @Test
+    @Order(4)
+    public void testPages() {
+        assertEquals(List.of("ja/2", "en/2"), urls(SearchService.merge(twoIndices(), Map.of(), 2, 2)));
+
+        SearchService.Result beyond = SearchService.merge(twoIndices(), Map.of(), 10, 2);
+        assertTrue(beyond.getHits().isEmpty());
+        assertEquals(42, beyond.getTotal());
+    }
+
+
+    @Test
+    @Order(5)
+    public void testInvalidBoosts() throws Exception {
+        try (SearchService service = new SearchService(new HttpHost("localhost", 9200), List.of("docusaurus_ja"))) {
+            service.setBoosts("docusaurus_ja=1.2");
+            assertEquals(1.2, service.getBoost("docusaurus_ja"), 1e-9);
+
+            assertThrows(IllegalArgumentException.class, () -> service.setBoosts("a=x"));
+            assertThrows(IllegalArgumentException.class, () -> service.setBoosts("a"));
+        }
+    }
+
+}
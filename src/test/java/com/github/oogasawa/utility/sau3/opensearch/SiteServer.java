@@ -0,0 +1,190 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * Serves a {@link SyntheticSite} over HTTP on a local port.
+ *
+ * <p>
+ * The server can add a fixed latency to every response, fail every N-th page request
+ * with {@code 503}, and send {@code ETag}s (answering {@code If-None-Match} with {@code 304}),
+ * so that crawler behavior can be measured under slow, flaky or cache-friendly servers.
+ * </p>
+ */
+public class SiteServer implements AutoCloseable {
+
+    final SyntheticSite site;
+    HttpServer server;
+
+    int latencyMillis = 0;
+    int errorEvery = 0;
+    boolean etags = false;
+
+    final AtomicInteger requests = new AtomicInteger();
+    final AtomicInteger pageRequests = new AtomicInteger();
+    final AtomicInteger errors = new AtomicInteger();
+    final AtomicInteger notModified = new AtomicInteger();
+    final AtomicInteger active = new AtomicInteger();
+    final java.util.concurrent.atomic.LongAccumulator maxActive = new java.util.concurrent.atomic.LongAccumulator(Math::max, 0);
+
+
+    public SiteServer(SyntheticSite site) {
+        this.site = site;
+    }
+
+
+    /** Adds a delay to every response. */
+    public SiteServer latency(int millis) {
+        this.latencyMillis = millis;
+        return this;
+    }
+
+    /** Answers every {@code n}-th page request with {@code 503}; 0 disables errors. */
+    public SiteServer errorEvery(int n) {
+        this.errorEvery = n;
+        return this;
+    }
+
+    /** Sends ETags and honors {@code If-None-Match}, for pages and the sitemap. */
+    public SiteServer etags(boolean etags) {
+        this.etags = etags;
+        return this;
+    }
+
+
+    public SiteServer start() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        this.server.createContext("/", this::handle);
+        this.server.start();
+        return this;
+    }
+
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort();
+    }
+
+    public String getSitemapUrl() {
+        return getBaseUrl() + "/sitemap.xml";
+    }
+
+    public int getRequests() {
+        return this.requests.get();
+    }
+
+    public int getPageRequests() {
+        return this.pageRequests.get();
+    }
+
+    public int getErrors() {
+        return this.errors.get();
+    }
+
+    public int getNotModified() {
+        return this.notModified.get();
+    }
+
+    /** Returns the highest number of requests the server was handling at the same time. */
+    public long getMaxConcurrent() {
+        return this.maxActive.get();
+    }
+
+
+    @Override
+    public void close() {
+        if (this.server != null) {
+            this.server.stop(0);
+        }
+    }
+
+
+    void handle(HttpExchange exchange) throws IOException {
+        this.maxActive.accumulate(this.active.incrementAndGet());
+        try {
+            respond(exchange);
+        } finally {
+            this.active.decrementAndGet();
+        }
+    }
+
+
+    void respond(HttpExchange exchange) throws IOException {
+        this.requests.incrementAndGet();
+        if (this.latencyMillis > 0) {
+            try {
+                Thread.sleep(this.latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        String path = exchange.getRequestURI().getPath();
+        if (path.equals("/sitemap.xml")) {
+            byte[] body = this.site.sitemap(getBaseUrl()).getBytes(StandardCharsets.UTF_8);
+            String etag = etagOf(body);
+            if (etag != null && etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                this.notModified.incrementAndGet();
+                send(exchange, 304, null, etag, null);
+                return;
+            }
+            send(exchange, 200, "application/xml", etag, body);
+            return;
+        }
+
+        byte[] page = this.site.getPages().get(path);
+        if (page == null) {
+            send(exchange, 404, "text/plain", null, "not found".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+
+        int n = this.pageRequests.incrementAndGet();
+        if (this.errorEvery > 0 && n % this.errorEvery == 0) {
+            this.errors.incrementAndGet();
+            send(exchange, 503, "text/plain", null, "unavailable".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+
+        String etag = etagOf(page);
+        if (etag != null && etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            this.notModified.incrementAndGet();
+            send(exchange, 304, null, etag, null);
+            return;
+        }
+        send(exchange, 200, "text/html; charset=utf-8", etag, page);
+    }
+
+
+    String etagOf(byte[] body) {
+        return this.etags ? "\"" + Integer.toHexString(java.util.Arrays.hashCode(body)) + "\"" : null;
+    }
+
+
+    static void send(HttpExchange exchange, int status, String contentType, String etag, byte[] body)
+        throws IOException {
+        if (contentType != null) {
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+        }
+        if (etag != null) {
+            exchange.getResponseHeaders().set("ETag", etag);
+        }
+        if (body == null || "HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+}
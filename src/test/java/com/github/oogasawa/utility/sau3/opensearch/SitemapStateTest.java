@@ -0,0 +1,111 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
+
+
+@DisplayName("Sitemap change detection test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class SitemapStateTest {
+
+
+    @Test
+    @Order(1)
+    @DisplayName("A sitemap is parsed only when its body changed")
+    public void testDigest() throws Exception {
+        SyntheticSite synthetic = new SyntheticSite(10, 1, 31L);
+        try (SiteServer site = new SiteServer(synthetic).start()) {
+            Sitemap first = new Sitemap();
+            assertEquals(Sitemap.Change.CHANGED, first.parseIfChanged(site.getSitemapUrl(), null));
+            assertEquals(10, first.getSitemapEntries().size());
+            assertNull(first.getState().getEtag());
+
+            Sitemap second = new Sitemap();
+            assertEquals(Sitemap.Change.UNCHANGED, second.parseIfChanged(site.getSitemapUrl(), first.getState()));
+            assertTrue(second.getSitemapEntries().isEmpty());
+
+            synthetic.lastmods.put(synthetic.lastmods.keySet().iterator().next(), "2099-01-01");
+            Sitemap third = new Sitemap();
+            assertEquals(Sitemap.Change.CHANGED, third.parseIfChanged(site.getSitemapUrl(), first.getState()));
+            assertEquals(10, third.getSitemapEntries().size());
+        }
+    }
+
+
+    @Test
+    @Order(2)
+    @DisplayName("The stored ETag turns an unchanged sitemap into a 304")
+    public void testValidators() throws Exception {
+        SyntheticSite synthetic = new SyntheticSite(10, 1, 32L);
+        try (SiteServer site = new SiteServer(synthetic).etags(true).start()) {
+            Sitemap first = new Sitemap();
+            first.parseIfChanged(site.getSitemapUrl(), null);
+            assertNotNull(first.getState().getEtag());
+
+            Sitemap second = new Sitemap();
+            assertEquals(Sitemap.Change.NOT_MODIFIED, second.parseIfChanged(site.getSitemapUrl(), first.getState()));
+            assertEquals(1, site.getNotModified());
+            assertEquals(first.getState().getDigest(), second.getState().getDigest());
+        }
+    }
+
+
+    @Test
+    @Order(3)
+    @DisplayName("The state survives a save and load, per index and sitemap")
+    public void testSaveAndLoad(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("state/sitemap-state.json");
+        assertNull(SitemapState.load(file).get("docs", "http://host/sitemap.xml"));
+
+        SitemapState state = new SitemapState();
+        SitemapState.Entry entry = new SitemapState.Entry();
+        entry.setDigest("abc");
+        entry.setEtag("\"1\"");
+        state.put("docs", "http://host/sitemap.xml", entry);
+        state.save(file);
+        assertTrue(Files.exists(file));
+
+        SitemapState loaded = SitemapState.load(file);
+        assertEquals("abc", loaded.get("docs", "http://host/sitemap.xml").getDigest());
+        assertEquals("\"1\"", loaded.get("docs", "http://host/sitemap.xml").getEtag());
+        assertNotNull(loaded.get("docs", "http://host/sitemap.xml").getUpdated());
+        assertNull(loaded.get("docs_en", "http://host/sitemap.xml"));
+    }
+
+
+    @Test
+    @Order(4)
+    @DisplayName("Configurations with the same stored state share one conditional fetch")
+    public void testSharedConditionalFetch() throws Exception {
+        SyntheticSite synthetic = new SyntheticSite(5, 1, 33L);
+        try (SiteServer site = new SiteServer(synthetic).etags(true).start();
+             CrawlEngine engine = new CrawlEngine(new IndexMetrics())) {
+            engine.setDelayMillis(0);
+            Sitemap first = new Sitemap();
+            first.parseIfChanged(site.getSitemapUrl(), null);
+
+            Sitemap a = engine.sitemapIfChanged(site.getSitemapUrl(), first.getState());
+            Sitemap b = engine.sitemapIfChanged(site.getSitemapUrl(), first.getState());
+            Sitemap c = engine.sitemapIfChanged(site.getSitemapUrl(), null);
+            assertEquals(Sitemap.Change.NOT_MODIFIED, a.getChange());
+            assertTrue(a == b);
+            assertEquals(Sitemap.Change.CHANGED, c.getChange());
+            assertEquals(3, site.getRequests());
+        }
+    }
+
+}
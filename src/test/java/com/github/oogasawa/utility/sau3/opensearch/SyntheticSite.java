@@ -0,0 +1,107 @@
+package com.github.oogasawa.utility.sau3.opensearch;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+
+/**
+ * Generates a Docusaurus-like site in memory for crawler benchmarks.
+ *
+ * <p>
+ * Pages are spread over a few sections ({@code /docs/section-K/page-N}) and use the same
+ * markup the indexer looks for: a {@code div.docItemCol_VOVn} content column with h1-h3
+ * headings and paragraphs mixing English and Japanese text. The content is reproducible
+ * for a given seed, so runs are comparable.
+ * </p>
+ */
+public class SyntheticSite {
+
+    static final String[] WORDS = {
+        "slurm", "job", "node", "gpu", "queue", "partition", "module", "singularity", "apptainer",
+        "storage", "lustre", "quota", "ssh", "key", "login", "gateway", "container", "image",
+        "ジョブ", "投入", "計算", "ノード", "利用", "方法", "設定", "ファイル", "共有", "領域",
+    };
+
+    final Map<String, byte[]> pages = new LinkedHashMap<>();
+    final Map<String, String> lastmods = new LinkedHashMap<>();
+
+
+    /** Generates {@code pageCount} pages of roughly {@code paragraphs} paragraphs each. */
+    public SyntheticSite(int pageCount, int paragraphs, long seed) {
+        Random random = new Random(seed);
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i < pageCount; i++) {
+            String path = "/docs/section-" + (i % 8) + "/page-" + i;
+            this.pages.put(path, page(i, paragraphs, random).getBytes(StandardCharsets.UTF_8));
+            this.lastmods.put(path, today.minusDays(random.nextInt(30)).toString());
+        }
+    }
+
+
+    public Map<String, byte[]> getPages() {
+        return this.pages;
+    }
+
+
+    public int size() {
+        return this.pages.size();
+    }
+
+
+    /** Returns the {@code sitemap.xml} of the site, with absolute URLs under {@code baseUrl}. */
+    public String sitemap(String baseUrl) {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append("<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n");
+        for (Map.Entry<String, String> e : this.lastmods.entrySet()) {
+            xml.append("<url><loc>").append(baseUrl).append(e.getKey()).append("</loc>")
+                .append("<lastmod>").append(e.getValue()).append("</lastmod>")
+                .append("<changefreq>weekly</changefreq><priority>0.5</priority></url>\n");
+        }
+        xml.append("</urlset>\n");
+        return xml.toString();
+    }
+
+
+    static String page(int n, int paragraphs, Random random) {
+        StringBuilder html = new StringBuilder();
+        html.append("<!doctype html><html lang=\"ja\"><head><meta charset=\"utf-8\">");
+        html.append("<title>Page ").append(n).append(" | Synthetic Docs</title>");
+        html.append("<link rel=\"stylesheet\" href=\"/assets/css/styles.css\"></head><body>");
+        html.append("<nav class=\"navbar\"><a href=\"/\">Home</a><a href=\"/docs/intro\">Docs</a></nav>");
+        html.append("<div class=\"main-wrapper\"><div class=\"docItemCol_VOVn\"><article>");
+        html.append("<h1>").append(sentence(random, 4)).append("</h1>");
+        for (int p = 0; p < paragraphs; p++) {
+            if (p % 3 == 1) {
+                html.append("<h2>").append(sentence(random, 3)).append("</h2>");
+            } else if (p % 5 == 4) {
+                html.append("<h3>").append(sentence(random, 3)).append("</h3>");
+            }
+            html.append("<p>").append(sentence(random, 40 + random.nextInt(40))).append("</p>");
+            if (p % 4 == 2) {
+                html.append("<pre><code>sbatch -p ").append(WORDS[random.nextInt(WORDS.length)])
+                    .append(" job-").append(n).append(".sh</code></pre>");
+            }
+        }
+        html.append("</article></div></div>");
+        html.append("<footer class=\"footer\">Copyright Synthetic Docs</footer>");
+        html.append("<script src=\"/assets/js/main.js\"></script></body></html>");
+        return html.toString();
+    }
+
+
+    static String sentence(Random random, int words) {
+        StringBuilder s = new StringBuilder();
+        for (int w = 0; w < words; w++) {
+            if (w > 0) {
+                s.append(' ');
+            }
+            s.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return s.toString();
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.github.oogasawa.utility.sau3.staticsearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
+
+
+@DisplayName("Static search index test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class StaticSearchIndexBuilderTest {
+
+    @TempDir
+    Path buildDir;
+
+
+    @Test
+    @Order(1)
+    public void testTokenizeMixedText() {
+        assertEquals(List.of("java", "21", "の", "検索", "索方", "方法"),
+                     StaticSearchTokenizer.tokenize("Java 21 の 検索方法"));
+        // NFKC folds full-width letters.
+        assertEquals(List.of("abc"), StaticSearchTokenizer.tokenize("ＡＢＣ"));
+    }
+
+
+    @Test
+    @Order(2)
+    public void testShardOf() {
+        assertEquals("ja", StaticSearchTokenizer.shardOf("java"));
+        assertEquals("x_", StaticSearchTokenizer.shardOf("x"));
+        assertEquals("u" + Integer.toHexString('検' >> 4), StaticSearchTokenizer.shardOf("検索"));
+    }
+
+
+    @Test
+    @Order(3)
+    @SuppressWarnings("unchecked")
+    public void testBuild() throws Exception {
+        Files.createDirectories(buildDir.resolve("docs/intro"));
+        Files.writeString(buildDir.resolve("docs/intro/index.html"),
+                          "<html><head><title>Intro</title></head><body><nav>menu</nav>"
+                          + "<article><p>Java の検索方法</p></article></body></html>");
+        Files.writeString(buildDir.resolve("404.html"), "<html><body><p>Java not found</p></body></html>");
+
+        assertEquals(1, new StaticSearchIndexBuilder(buildDir).build());
+
+        Path indexDir = buildDir.resolve(StaticSearchIndexBuilder.INDEX_DIR);
+        ObjectMapper mapper = new ObjectMapper();
+        Map<String, Object> manifest = mapper.readValue(indexDir.resolve("manifest.json").toFile(), Map.class);
+        assertEquals(1, manifest.get("docCount"));
+        assertFalse(((List<String>) manifest.get("shards")).contains("me")); // <nav> is not indexed
+
+        Map<String, List<Integer>> shard = mapper.readValue(gunzip(indexDir.resolve("t-ja.json.gz")), Map.class);
+        assertEquals(List.of(0, 1), shard.get("java"));
+
+        List<List<String>> docs = mapper.readValue(gunzip(indexDir.resolve("docs.json.gz")), List.class);
+        assertEquals("docs/intro/", docs.get(0).get(0));
+        assertEquals("Intro", docs.get(0).get(1));
+        assertTrue(Files.exists(indexDir.resolve("search.js")));
+    }
+
+
+    @Test
+    @Order(4)
+    @DisplayName("Only a file named index.html is linked as its directory")
+    public void testPagePaths(@TempDir Path dir) throws Exception {
+        Files.createDirectories(dir.resolve("docs/intro"));
+        String html = "<html><head><title>T</title></head><body><article><p>text</p></article></body></html>";
+        for (String name : List.of("index.html", "docs/intro/index.html", "docs/api-index.html", "docs/genindex.html")) {
+            Files.writeString(dir.resolve(name), html);
+        }
+
+        StaticSearchIndexBuilder builder = new StaticSearchIndexBuilder(dir);
+        assertEquals("", builder.parse(dir.resolve("index.html")).path);
+        assertEquals("docs/intro/", builder.parse(dir.resolve("docs/intro/index.html")).path);
+        assertEquals("docs/api-index.html", builder.parse(dir.resolve("docs/api-index.html")).path);
+        assertEquals("docs/genindex.html", builder.parse(dir.resolve("docs/genindex.html")).path);
+    }
+
+
+    static String gunzip(Path file) throws Exception {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+}